@@ -2,6 +2,7 @@ package com.dropbox.core.examples.upload_file;
 
 import com.dropbox.core.DbxAuthInfo;
 import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxMappedFile;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.DbxWebAuth;
 import com.dropbox.core.NetworkIOException;
@@ -102,14 +103,13 @@ public class Main {
                 System.out.printf("Retrying chunked upload (%d / %d attempts)\n", i + 1, CHUNKED_UPLOAD_MAX_ATTEMPTS);
             }
 
-            try (InputStream in = new FileInputStream(localFile)) {
-                // if this is a retry, make sure seek to the correct offset
-                in.skip(uploaded);
-
+            // map the file instead of streaming it, so that a retry can start right at the offset
+            // the server expects without skipping through the file
+            try (DbxMappedFile file = DbxMappedFile.open(localFile)) {
                 // (1) Start
                 if (sessionId == null) {
                     sessionId = dbxClient.files().uploadSessionStart()
-                        .uploadAndFinish(in, CHUNKED_UPLOAD_CHUNK_SIZE)
+                        .uploadAndFinish(file.slice(uploaded, (int) CHUNKED_UPLOAD_CHUNK_SIZE))
                         .getSessionId();
                     uploaded += CHUNKED_UPLOAD_CHUNK_SIZE;
                     printProgress(uploaded, size);
@@ -120,7 +120,7 @@ public class Main {
                 // (2) Append
                 while ((size - uploaded) > CHUNKED_UPLOAD_CHUNK_SIZE) {
                     dbxClient.files().uploadSessionAppendV2(cursor)
-                        .uploadAndFinish(in, CHUNKED_UPLOAD_CHUNK_SIZE);
+                        .uploadAndFinish(file.slice(uploaded, (int) CHUNKED_UPLOAD_CHUNK_SIZE));
                     uploaded += CHUNKED_UPLOAD_CHUNK_SIZE;
                     printProgress(uploaded, size);
                     cursor = new UploadSessionCursor(sessionId, uploaded);
@@ -133,7 +133,7 @@ public class Main {
                     .withClientModified(new Date(localFile.lastModified()))
                     .build();
                 FileMetadata metadata = dbxClient.files().uploadSessionFinish(cursor, commitInfo)
-                    .uploadAndFinish(in, remaining);
+                    .uploadAndFinish(file.slice(uploaded, (int) remaining));
 
                 System.out.println(metadata.toStringMultiline());
                 return;
@@ -1896,6 +1896,19 @@ class JavaApi(object):
         assert isinstance(route, ApiRoute), repr(route)
         return route.attrs.get('host', 'api')
 
+    def is_hedgeable(self, route):
+        """
+        Whether requests to this route may be sent twice, so that they can be hedged to cut tail
+        latency. Only read-only RPC routes qualify. Routes may declare it with a 'hedgeable'
+        attribute, otherwise the SDK's list of idempotent routes is used.
+        """
+        assert isinstance(route, ApiRoute), repr(route)
+        if self.request_style(route) != 'rpc':
+            return False
+        if 'hedgeable' in route.attrs:
+            return bool(route.attrs['hedgeable'])
+        return self.url_path(route) in _HEDGEABLE_ROUTES
+
     def has_builder(self, stone_elem):
         assert isinstance(stone_elem, (ApiRoute, DataType)), repr(stone_elem)
         if isinstance(stone_elem, DataType):
@@ -2921,10 +2934,13 @@ class JavaCodeGenerationInstance(object):
 
         # return value is optional
         before = ('return ' if j.has_result(route) else '') + 'this.client.rpcStyle'
+        # idempotent routes pass whether they can be hedged, others use the shorter overload
+        other_args = ('true',) if j.is_hedgeable(route) else ()
         self.generate_route_simple_call(
             route,
             arg_var,
             before,
+            *other_args
         )
 
     def generate_route_download_call(self, route, arg_var, headers_var):
@@ -4257,6 +4273,31 @@ class JavaCodeGenerationInstance(object):
                 w.out('return false;')
 
 
+# Read-only RPC routes that are safe to send twice. Requests to these routes may be hedged when the
+# client is configured with a DbxHedgingPolicy.
+_HEDGEABLE_ROUTES = frozenset([
+    '2/files/get_metadata',
+    '2/files/list_folder',
+    '2/files/list_folder/continue',
+    '2/files/list_folder/get_latest_cursor',
+    '2/files/list_revisions',
+    '2/files/search',
+    '2/files/get_temporary_link',
+    '2/sharing/get_file_metadata',
+    '2/sharing/get_folder_metadata',
+    '2/sharing/list_folders',
+    '2/sharing/list_folders/continue',
+    '2/sharing/list_mountable_folders',
+    '2/sharing/list_mountable_folders/continue',
+    '2/sharing/list_received_files',
+    '2/sharing/list_received_files/continue',
+    '2/users/get_account',
+    '2/users/get_account_batch',
+    '2/users/get_current_account',
+    '2/users/get_space_usage',
+])
+
+
 # TODO: Add all Java reserved words.
 _RESERVED_KEYWORDS = {
     'Enum',
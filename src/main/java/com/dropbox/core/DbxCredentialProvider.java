@@ -0,0 +1,68 @@
+package com.dropbox.core;
+
+/**
+ * Supplies the OAuth 2 access token a client authenticates its requests with.
+ *
+ * <p> Clients ask the provider for a token before every request, so a provider can renew its token
+ * before it expires. When the server rejects a token anyway, the client calls {@link #refresh} and,
+ * if the provider renewed the token, sends the request once more with the new token.
+ *
+ * <p> Implementations must be thread safe. See {@link DbxRefreshingCredentialProvider} for a
+ * provider that renews its access token with an OAuth 2 refresh token.
+ */
+public abstract class DbxCredentialProvider {
+    /**
+     * Returns the access token to authenticate the next request with.
+     *
+     * @return OAuth 2 access token, never {@code null}
+     *
+     * @throws DbxException if no valid access token can be obtained
+     */
+    public abstract String getAccessToken() throws DbxException;
+
+    /**
+     * Renews the access token after the server rejected it.
+     *
+     * <p> A request that was sent with an access token that was renewed since should simply be sent
+     * again, so implementations return {@code true} without renewing the token again if {@code
+     * rejectedAccessToken} is no longer the current token.
+     *
+     * @param rejectedAccessToken access token the server rejected, never {@code null}
+     *
+     * @return {@code true} if {@link #getAccessToken} now returns a different token, {@code false}
+     * if the token can't be renewed
+     *
+     * @throws DbxException if renewing the access token failed
+     */
+    public abstract boolean refresh(String rejectedAccessToken) throws DbxException;
+
+    /**
+     * Returns a provider for an access token that is never renewed.
+     *
+     * @param accessToken OAuth 2 access token, never {@code null}
+     *
+     * @return provider always returning {@code accessToken}
+     */
+    public static DbxCredentialProvider forAccessToken(String accessToken) {
+        if (accessToken == null) throw new NullPointerException("accessToken");
+        return new FixedCredentialProvider(accessToken);
+    }
+
+    private static final class FixedCredentialProvider extends DbxCredentialProvider {
+        private final String accessToken;
+
+        private FixedCredentialProvider(String accessToken) {
+            this.accessToken = accessToken;
+        }
+
+        @Override
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        @Override
+        public boolean refresh(String rejectedAccessToken) {
+            return false;
+        }
+    }
+}
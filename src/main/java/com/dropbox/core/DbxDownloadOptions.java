@@ -0,0 +1,151 @@
+package com.dropbox.core;
+
+/**
+ * Options for {@link DbxDownloader#download(java.io.File, DbxDownloadOptions)}.
+ *
+ * <pre><code>
+ *    DbxDownloadOptions options = DbxDownloadOptions.newBuilder()
+ *        .withDurability(DbxDownloadOptions.Durability.SYNC_PERIODICALLY)
+ *        .build();
+ *    FileMetadata metadata = client.files().download(path).download(new File("photo.jpg"), options);
+ * </code></pre>
+ */
+public final class DbxDownloadOptions {
+    /**
+     * Options used by {@link DbxDownloader#download(java.io.File)}: no explicit sync, expected
+     * size taken from the download's metadata.
+     */
+    public static final DbxDownloadOptions DEFAULT = newBuilder().build();
+
+    /**
+     * How much of a downloaded file is forced to storage before the download returns.
+     */
+    public enum Durability {
+        /**
+         * Leave flushing the file to the operating system. The download is fastest, but a crash
+         * shortly after it returns may leave an empty or partially written file.
+         */
+        NONE,
+        /**
+         * Force the file's contents and metadata to storage once, after the last byte is written
+         * and before the file is renamed into place.
+         */
+        SYNC_AT_END,
+        /**
+         * Like {@link #SYNC_AT_END}, and also force the contents written so far to storage every
+         * {@link Builder#withSyncInterval sync interval} bytes, so that large downloads don't
+         * leave gigabytes of dirty pages for the final sync.
+         */
+        SYNC_PERIODICALLY,
+    }
+
+    private final Durability durability;
+    private final long syncInterval;
+    private final long expectedSize;
+
+    private DbxDownloadOptions(Durability durability, long syncInterval, long expectedSize) {
+        this.durability = durability;
+        this.syncInterval = syncInterval;
+        this.expectedSize = expectedSize;
+    }
+
+    /**
+     * Returns how much of the file is forced to storage.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Returns the number of bytes written between syncs for {@link Durability#SYNC_PERIODICALLY}.
+     */
+    public long getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Returns the size the file is allocated with before its contents are written, or {@code -1}
+     * to use the size of the downloaded file's metadata.
+     */
+    public long getExpectedSize() {
+        return expectedSize;
+    }
+
+    /**
+     * Returns a new builder with the default options.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for {@link DbxDownloadOptions}.
+     */
+    public static final class Builder {
+        private Durability durability;
+        private long syncInterval;
+        private long expectedSize;
+
+        private Builder() {
+            this.durability = Durability.NONE;
+            this.syncInterval = 64L << 20; // 64 MiB
+            this.expectedSize = -1;
+        }
+
+        /**
+         * Set how much of the file is forced to storage before the download returns.
+         *
+         * <p> Defaults to {@link Durability#NONE}.
+         *
+         * @param durability durability of downloaded files, must not be {@code null}
+         *
+         * @return this builder
+         */
+        public Builder withDurability(Durability durability) {
+            if (durability == null) throw new NullPointerException("durability");
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Set the number of bytes written between syncs for {@link
+         * Durability#SYNC_PERIODICALLY}.
+         *
+         * <p> Defaults to 64 MiB.
+         *
+         * @param syncInterval bytes between syncs, must be positive
+         *
+         * @return this builder
+         */
+        public Builder withSyncInterval(long syncInterval) {
+            if (syncInterval <= 0) throw new IllegalArgumentException("syncInterval must be positive");
+            this.syncInterval = syncInterval;
+            return this;
+        }
+
+        /**
+         * Set the size the file is allocated with before its contents are written.
+         *
+         * <p> Defaults to the size in the download's {@link
+         * com.dropbox.core.v2.files.FileMetadata}, if it has one. Set this for downloads whose
+         * body is shorter than the file, such as range requests, or whose result has no size.
+         *
+         * @param expectedSize expected number of bytes in the body, or {@code -1} to use the
+         * size of the downloaded file's metadata
+         *
+         * @return this builder
+         */
+        public Builder withExpectedSize(long expectedSize) {
+            if (expectedSize < -1) throw new IllegalArgumentException("expectedSize must be -1 or a size");
+            this.expectedSize = expectedSize;
+            return this;
+        }
+
+        /**
+         * Returns the options built.
+         */
+        public DbxDownloadOptions build() {
+            return new DbxDownloadOptions(durability, syncInterval, expectedSize);
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.dropbox.core;
 
+import com.dropbox.core.util.BufferPool;
 import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.v2.files.FileMetadata;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Class for handling download requests.
@@ -120,6 +126,139 @@ public class DbxDownloader<R> implements Closeable {
         return result;
     }
 
+    /**
+     * Downloads the response body to {@code target} with the {@link DbxDownloadOptions#DEFAULT
+     * default options} and returns the server response.
+     *
+     * @see #download(File, DbxDownloadOptions)
+     */
+    public R download(File target) throws DbxException, IOException {
+        return download(target, DbxDownloadOptions.DEFAULT);
+    }
+
+    /**
+     * Downloads the response body to {@code target} and returns the server response.
+     *
+     * <p> The body is written to a temporary file next to {@code target}, which is renamed to
+     * {@code target} once the whole body has been written, replacing any existing file. If the
+     * download fails, the temporary file is deleted and {@code target} is left untouched.
+     *
+     * <p> The temporary file is first extended to the expected size of the body, from {@code
+     * options} or from the {@link FileMetadata} result, so that it doesn't have to be grown as it
+     * is written. The body is then written through a {@link FileChannel} in writes of up to 1 MiB,
+     * and forced to storage as requested by {@link DbxDownloadOptions#getDurability}.
+     *
+     * <p> On platforms where renaming can't replace an existing file, {@code target} is deleted
+     * just before the rename, so a crash at that moment may leave neither file.
+     *
+     * <p> Like {@link #download(OutputStream)}, this method closes this downloader.
+     *
+     * @param target file to write the response body to
+     * @param options how to write the file, must not be {@code null}
+     *
+     * @return Response from server
+     *
+     * @throws DbxException if an error occurs reading the response or response body
+     * @throws IOException if an error occurs writing the file
+     * @throws IllegalStateException if this downloader has already been closed (see {@link #close})
+     */
+    public R download(File target, DbxDownloadOptions options) throws DbxException, IOException {
+        if (target == null) throw new NullPointerException("target");
+        if (options == null) throw new NullPointerException("options");
+
+        InputStream in = getInputStream();
+        File temp = null;
+        try {
+            File directory = target.getAbsoluteFile().getParentFile();
+            temp = File.createTempFile("." + target.getName() + ".", ".download", directory);
+
+            RandomAccessFile file = new RandomAccessFile(temp, "rw");
+            try {
+                writeBody(in, file, expectedSize(options), options);
+            } finally {
+                file.close();
+            }
+
+            if (!temp.renameTo(target)) {
+                // renaming doesn't replace existing files on every platform
+                if (!target.delete() || !temp.renameTo(target)) {
+                    throw new IOException("Unable to rename " + temp + " to " + target);
+                }
+            }
+            temp = null;
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+            close();
+        }
+
+        return result;
+    }
+
+    private long expectedSize(DbxDownloadOptions options) {
+        if (options.getExpectedSize() >= 0) {
+            return options.getExpectedSize();
+        }
+        if (result instanceof FileMetadata) {
+            return ((FileMetadata) result).getSize();
+        }
+        return -1;
+    }
+
+    private static void writeBody(InputStream in, RandomAccessFile file, long expectedSize, DbxDownloadOptions options)
+        throws NetworkIOException, IOException {
+        if (expectedSize > 0) {
+            file.setLength(expectedSize);
+        }
+
+        FileChannel channel = file.getChannel();
+        BufferPool pool = BufferPool.getDefault();
+        byte[] chunk = pool.acquire(IOUtil.DEFAULT_COPY_BUFFER_SIZE);
+        ByteBuffer buffer = pool.acquireDirect(BufferPool.MAX_SIZE);
+        long written = 0;
+        long unsynced = 0;
+        try {
+            while (true) {
+                int count;
+                try {
+                    count = in.read(chunk, 0, Math.min(chunk.length, buffer.capacity()));
+                } catch (IOException ex) {
+                    throw new NetworkIOException(ex);
+                }
+                if (count == -1 || buffer.remaining() < count) {
+                    // collect network reads into large writes, to save system calls
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        int n = channel.write(buffer, written);
+                        written += n;
+                        unsynced += n;
+                    }
+                    buffer.clear();
+
+                    if (options.getDurability() == DbxDownloadOptions.Durability.SYNC_PERIODICALLY
+                        && unsynced >= options.getSyncInterval()) {
+                        channel.force(false);
+                        unsynced = 0;
+                    }
+                }
+                if (count == -1) break;
+                buffer.put(chunk, 0, count);
+            }
+        } finally {
+            pool.release(chunk);
+            pool.release(buffer);
+        }
+
+        if (written != expectedSize) {
+            // the body wasn't as long as expected, don't leave zeros at the end of the file
+            file.setLength(written);
+        }
+        if (options.getDurability() != DbxDownloadOptions.Durability.NONE) {
+            channel.force(true);
+        }
+    }
+
     /**
      * Closes this downloader and releases its underlying resources.
      *
@@ -0,0 +1,569 @@
+package com.dropbox.core;
+
+import com.dropbox.core.http.HttpRequestor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Policy for hedging requests to idempotent routes: if a request hasn't been answered after a
+ * delay, the same request is sent a second time, the first answer is used and the other request is
+ * aborted. This cuts the tail latency caused by a single slow server or connection.
+ *
+ * <p> Hedging is opt-in. It only applies to routes the SDK marks as safe to send twice, such as
+ * {@code files/get_metadata} and {@code files/list_folder}, and only once a policy is set on the
+ * {@link DbxRequestConfig}:
+ *
+ * <pre><code>
+ *    DbxHedgingPolicy hedging = DbxHedgingPolicy.newBuilder(Executors.newScheduledThreadPool(4))
+ *        .withPercentile(0.95)
+ *        .withBudget(0.05)
+ *        .build();
+ *    DbxRequestConfig config = DbxRequestConfig.newBuilder("MyApp/1.0")
+ *        .withHedgingPolicy(hedging)
+ *        .build();
+ * </code></pre>
+ *
+ * <p> The hedge delay is learned from the latencies of the requests sent with the policy: it is
+ * the configured percentile of the time the first attempts of the most recent requests took to be
+ * answered, but at least the minimum delay. Requests answered by their hedge are left out, since
+ * the latency of their aborted first attempt is unknown. Until enough requests have been
+ * answered, the initial delay is used.
+ *
+ * <p> Hedges are limited by a budget, so that slow servers don't double the load on them: every
+ * request earns a fraction of a hedge, and a hedge is only sent if a whole one has been earned.
+ * With a budget of {@code 0.05}, at most about one request in 20 is hedged, after a burst of at
+ * most {@value #MAX_BUDGET_BURST} hedges.
+ *
+ * <p> Both attempts of a request are sent from the policy's executor, and each occupies one of its
+ * threads until it is answered or aborted, so the calling thread can return as soon as either
+ * attempt is answered. Size the executor for the number of requests sent concurrently, plus
+ * hedges. Share one policy between clients to share its latency history and budget. This class is
+ * thread safe. The executor is not shut down by this class.
+ */
+public final class DbxHedgingPolicy {
+    /**
+     * Maximum number of hedges that can be saved up by a policy's budget.
+     */
+    public static final int MAX_BUDGET_BURST = 10;
+
+    private static final int WINDOW_SIZE = 1024;
+    private static final int UPDATE_INTERVAL = 64;
+
+    private final ScheduledExecutorService executor;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double budget;
+
+    private final ReentrantLock statsLock;
+    private final long [] latencies;
+    private int latencyCount;
+    private int nextLatency;
+    private int sinceUpdate;
+    private volatile long delayNanos;
+
+    private final ReentrantLock budgetLock;
+    private double tokens;
+
+    private DbxHedgingPolicy(ScheduledExecutorService executor, double percentile, long minDelayNanos, long initialDelayNanos, double budget) {
+        this.executor = executor;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+        this.budget = budget;
+
+        this.statsLock = new ReentrantLock();
+        this.latencies = new long[WINDOW_SIZE];
+        this.latencyCount = 0;
+        this.nextLatency = 0;
+        this.sinceUpdate = 0;
+        this.delayNanos = Math.max(minDelayNanos, initialDelayNanos);
+
+        this.budgetLock = new ReentrantLock();
+        this.tokens = 0;
+    }
+
+    /**
+     * Returns a new builder for a policy sending hedges from {@code executor}.
+     *
+     * @param executor executor to send hedges from, never {@code null}
+     */
+    public static Builder newBuilder(ScheduledExecutorService executor) {
+        if (executor == null) throw new NullPointerException("executor");
+        return new Builder(executor);
+    }
+
+    /**
+     * Returns the executor hedges are sent from.
+     */
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns the delay after which a request that hasn't been answered is currently hedged.
+     */
+    public long getHedgeDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(delayNanos);
+    }
+
+    /**
+     * Sends {@code request}, and sends it again if it hasn't been answered after the {@link
+     * #getHedgeDelayMillis hedge delay} and the budget allows it. Returns the result of, or throws
+     * the error of, whichever attempt is answered first, and aborts the other one.
+     *
+     * <p> An attempt is answered when it returns, throws a route error ({@link
+     * DbxWrappedException}) or throws a {@link DbxException}, except for {@link
+     * NetworkIOException}s: if an attempt fails with one, the other attempt is waited for.
+     *
+     * <p> Both attempts are sent from the executor, the calling thread only waits for the first
+     * answer. If the executor is too busy to start the first attempt within the hedge delay, or
+     * is shut down, the first attempt is sent on the calling thread instead.
+     *
+     * @param request request to send, must be idempotent
+     *
+     * @return result of the first attempt answered
+     */
+    public <T> T execute(Request<T> request) throws DbxWrappedException, DbxException {
+        if (request == null) throw new NullPointerException("request");
+
+        earnBudget();
+
+        final Call<T> call = new Call<T>(this, request);
+        long delay = delayNanos;
+        ScheduledFuture<?> timer = null;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (call.claimPrimary()) {
+                        call.run(call.primary);
+                    }
+                }
+            });
+            timer = executor.schedule(call, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            // executor is shut down, send the request without hedging
+        }
+
+        // if the executor is too busy to start the first attempt in time, send it ourselves
+        if ((timer == null || !call.awaitPrimaryStarted(delay)) && call.claimPrimary()) {
+            call.run(call.primary);
+        }
+
+        try {
+            return call.await();
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+    }
+
+    private void earnBudget() {
+        budgetLock.lock();
+        try {
+            tokens = Math.min(MAX_BUDGET_BURST, tokens + budget);
+        } finally {
+            budgetLock.unlock();
+        }
+    }
+
+    private boolean spendBudget() {
+        budgetLock.lock();
+        try {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        } finally {
+            budgetLock.unlock();
+        }
+    }
+
+    // package-private for testing
+    void recordLatency(long nanos) {
+        statsLock.lock();
+        try {
+            latencies[nextLatency] = nanos;
+            nextLatency = (nextLatency + 1) % latencies.length;
+            latencyCount = Math.min(latencyCount + 1, latencies.length);
+
+            if (++sinceUpdate < UPDATE_INTERVAL) {
+                return;
+            }
+            sinceUpdate = 0;
+
+            long [] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+        } finally {
+            statsLock.unlock();
+        }
+    }
+
+    /**
+     * An idempotent request that may be sent more than once.
+     */
+    public interface Request<T> {
+        /**
+         * Sends the request once.
+         *
+         * @param attempt attempt the request is sent for, to be passed to {@link
+         * DbxRequestUtil#startPostRaw(DbxRequestConfig, String, String, String, byte[], java.util.List,
+         * Attempt)} so that the request can be aborted
+         */
+        T execute(Attempt attempt) throws DbxWrappedException, DbxException;
+    }
+
+    /**
+     * One of the attempts of a hedged {@link Request}.
+     */
+    public static final class Attempt {
+        private final boolean hedge;
+        private final ReentrantLock lock;
+
+        private /*@Nullable*/ HttpRequestor.Uploader uploader;
+        private /*@Nullable*/ HttpRequestor.Response response;
+        private boolean aborted;
+
+        private Attempt(boolean hedge) {
+            this.hedge = hedge;
+            this.lock = new ReentrantLock();
+            this.uploader = null;
+            this.response = null;
+            this.aborted = false;
+        }
+
+        /**
+         * Returns whether this attempt is the hedge, rather than the first attempt.
+         */
+        public boolean isHedge() {
+            return hedge;
+        }
+
+        void setUploader(HttpRequestor.Uploader uploader) {
+            lock.lock();
+            try {
+                this.uploader = uploader;
+                if (aborted) {
+                    abortQuietly(uploader);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void setResponse(HttpRequestor.Response response) {
+            lock.lock();
+            try {
+                this.response = response;
+                if (aborted) {
+                    closeQuietly(response);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void abort() {
+            lock.lock();
+            try {
+                aborted = true;
+                if (uploader != null) {
+                    abortQuietly(uploader);
+                }
+                if (response != null) {
+                    // past finish(), the uploader has no connection left to abort
+                    closeQuietly(response);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static void abortQuietly(HttpRequestor.Uploader uploader) {
+            try {
+                uploader.abort();
+            } catch (RuntimeException ex) {
+                // the attempt finished or was closed concurrently, nothing left to abort
+            }
+        }
+
+        private static void closeQuietly(HttpRequestor.Response response) {
+            if (response.getBody() == null) {
+                return;
+            }
+            try {
+                response.getBody().close();
+            } catch (IOException ex) {
+                // the attempt fails reading the body either way
+            } catch (RuntimeException ex) {
+                // same
+            }
+        }
+    }
+
+    private static final class Call<T> implements Runnable {
+        private final DbxHedgingPolicy policy;
+        private final Request<T> request;
+        private final Attempt primary;
+        private final Attempt hedge;
+
+        private final ReentrantLock lock;
+        private final Condition done;
+        private final long startNanos;
+
+        private boolean started;
+        private int running;
+        private boolean primaryFinished;
+        private boolean answered;
+        private /*@Nullable*/ T result;
+        private /*@Nullable*/ Throwable error;
+
+        public Call(DbxHedgingPolicy policy, Request<T> request) {
+            this.policy = policy;
+            this.request = request;
+            this.primary = new Attempt(false);
+            this.hedge = new Attempt(true);
+
+            this.lock = new ReentrantLock();
+            this.done = lock.newCondition();
+            this.startNanos = System.nanoTime();
+
+            this.started = false;
+            this.running = 1;
+            this.primaryFinished = false;
+            this.answered = false;
+            this.result = null;
+            this.error = null;
+        }
+
+        @Override
+        public void run() {
+            // runs on the executor once the hedge delay has passed
+            lock.lock();
+            try {
+                if (answered || primaryFinished || !policy.spendBudget()) {
+                    return;
+                }
+                running++;
+            } finally {
+                lock.unlock();
+            }
+            run(hedge);
+        }
+
+        /**
+         * Returns whether the caller is the one to send the first attempt.
+         */
+        public boolean claimPrimary() {
+            lock.lock();
+            try {
+                if (started) {
+                    return false;
+                }
+                started = true;
+                done.signalAll();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean awaitPrimaryStarted(long nanos) {
+            lock.lock();
+            try {
+                while (!started && nanos > 0) {
+                    nanos = done.awaitNanos(nanos);
+                }
+                return started;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return started;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void run(Attempt attempt) {
+            try {
+                finish(attempt, request.execute(attempt), null);
+            } catch (Throwable ex) {
+                finish(attempt, null, ex);
+            }
+        }
+
+        private void finish(Attempt attempt, /*@Nullable*/ T result, /*@Nullable*/ Throwable error) {
+            lock.lock();
+            try {
+                running--;
+                if (attempt == primary) {
+                    primaryFinished = true;
+                }
+                if (!answered) {
+                    if (isAnswer(error)) {
+                        answered = true;
+                        if (attempt == primary) {
+                            // the latency of a first attempt aborted for its hedge is unknown
+                            policy.recordLatency(System.nanoTime() - startNanos);
+                        }
+                        this.result = result;
+                        this.error = error;
+                        (attempt == primary ? hedge : primary).abort();
+                    } else if (this.error == null) {
+                        this.error = error;
+                    }
+                }
+                if (answered || running == 0) {
+                    done.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static boolean isAnswer(/*@Nullable*/ Throwable error) {
+            if (error == null || error instanceof DbxWrappedException) {
+                // route errors are answers of the server, like results
+                return true;
+            }
+            return error instanceof DbxException && !(error instanceof NetworkIOException);
+        }
+
+        public T await() throws DbxWrappedException, DbxException {
+            lock.lock();
+            try {
+                while (!answered && running > 0) {
+                    done.awaitUninterruptibly();
+                }
+                if (error == null) {
+                    return result;
+                }
+                if (error instanceof DbxWrappedException) {
+                    throw (DbxWrappedException) error;
+                }
+                if (error instanceof DbxException) {
+                    throw (DbxException) error;
+                }
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                throw (Error) error;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Builder for {@link DbxHedgingPolicy}.
+     */
+    public static final class Builder {
+        private final ScheduledExecutorService executor;
+
+        private double percentile;
+        private long minDelayNanos;
+        private long initialDelayNanos;
+        private double budget;
+
+        private Builder(ScheduledExecutorService executor) {
+            this.executor = executor;
+
+            this.percentile = 0.95;
+            this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(20);
+            this.initialDelayNanos = TimeUnit.SECONDS.toNanos(1);
+            this.budget = 0.05;
+        }
+
+        /**
+         * Set the percentile of recent request latencies after which requests are hedged.
+         *
+         * <p> Defaults to {@code 0.95}.
+         *
+         * @param percentile percentile, between {@code 0} and {@code 1} exclusive
+         *
+         * @return this builder
+         */
+        public Builder withPercentile(double percentile) {
+            if (!(percentile > 0 && percentile < 1)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Set the shortest delay after which requests are hedged, however fast recent requests
+         * were answered.
+         *
+         * <p> Defaults to 20 milliseconds.
+         *
+         * @param minDelay minimum hedge delay, must not be negative
+         * @param unit unit of {@code minDelay}, never {@code null}
+         *
+         * @return this builder
+         */
+        public Builder withMinDelay(long minDelay, TimeUnit unit) {
+            if (minDelay < 0) throw new IllegalArgumentException("minDelay must not be negative");
+            if (unit == null) throw new NullPointerException("unit");
+            this.minDelayNanos = unit.toNanos(minDelay);
+            return this;
+        }
+
+        /**
+         * Set the delay after which requests are hedged until enough latencies have been recorded
+         * to compute the percentile.
+         *
+         * <p> Defaults to 1 second.
+         *
+         * @param initialDelay initial hedge delay, must not be negative
+         * @param unit unit of {@code initialDelay}, never {@code null}
+         *
+         * @return this builder
+         */
+        public Builder withInitialDelay(long initialDelay, TimeUnit unit) {
+            if (initialDelay < 0) throw new IllegalArgumentException("initialDelay must not be negative");
+            if (unit == null) throw new NullPointerException("unit");
+            this.initialDelayNanos = unit.toNanos(initialDelay);
+            return this;
+        }
+
+        /**
+         * Set the fraction of a hedge earned by every request, which bounds the fraction of
+         * requests that are hedged.
+         *
+         * <p> Defaults to {@code 0.05}.
+         *
+         * @param budget hedges earned per request, between {@code 0} and {@code 1}
+         *
+         * @return this builder
+         */
+        public Builder withBudget(double budget) {
+            if (!(budget >= 0 && budget <= 1)) {
+                throw new IllegalArgumentException("budget must be between 0 and 1");
+            }
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * Builds an instance of {@link DbxHedgingPolicy} with this builder's configured parameters
+         * or defaults.
+         *
+         * @return new {@code DbxHedgingPolicy} instance.
+         */
+        public DbxHedgingPolicy build() {
+            return new DbxHedgingPolicy(executor, percentile, minDelayNanos, initialDelayNanos, budget);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dropbox.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A local file mapped into memory, for uploading it in slices.
+ *
+ * <p> Chunked upload sessions upload a file as a sequence of {@code [offset, offset + length)}
+ * ranges. {@link #slice} returns any such range as a read-only {@link ByteBuffer} backed by the
+ * mapping, which {@link DbxUploader#uploadAndFinish(ByteBuffer)} uploads without reading the file
+ * through a stream. Retrying from another offset, for example after an {@code incorrect_offset}
+ * error, only takes another slice instead of reopening the file and skipping to the offset:
+ *
+ * <pre><code>
+ *    DbxMappedFile file = DbxMappedFile.open(new File("video.mp4"));
+ *    try {
+ *        long offset = 0;
+ *        while (offset &lt; file.size()) {
+ *            int length = (int) Math.min(CHUNK_SIZE, file.size() - offset);
+ *            UploadSessionCursor cursor = new UploadSessionCursor(sessionId, offset);
+ *            try {
+ *                client.files().uploadSessionAppendV2(cursor)
+ *                    .uploadAndFinish(file.slice(offset, length));
+ *                offset += length;
+ *            } catch (UploadSessionLookupErrorException ex) {
+ *                if (!ex.errorValue.isIncorrectOffset()) throw ex;
+ *                offset = ex.errorValue.getIncorrectOffsetValue().getCorrectOffset();
+ *            }
+ *        }
+ *    } finally {
+ *        file.close();
+ *    }
+ * </code></pre>
+ *
+ * <p> The file is mapped lazily in segments of at most 1 GiB, so files larger than a single
+ * {@link MappedByteBuffer} can address are supported. The size of the file is read when it is
+ * opened; the file must not be modified or truncated while it is mapped. Java offers no way to
+ * unmap a file explicitly: {@link #close} closes the file, but its mappings are only released
+ * once the slices taken from them have been garbage collected.
+ *
+ * <p> This class is thread safe. Slices are independent buffers, and may be used from different
+ * threads.
+ */
+public final class DbxMappedFile implements Closeable {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final FileInputStream in;
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer [] segments;
+
+    private boolean closed;
+
+    private DbxMappedFile(FileInputStream in, long size) {
+        this.in = in;
+        this.channel = in.getChannel();
+        this.size = size;
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        this.closed = false;
+    }
+
+    /**
+     * Opens {@code file} for mapping.
+     *
+     * @param file file to upload, must not be {@code null}
+     *
+     * @return mapped file, which must be {@link #close closed} once no more slices are needed
+     *
+     * @throws IOException if the file can't be opened
+     */
+    public static DbxMappedFile open(File file) throws IOException {
+        if (file == null) throw new NullPointerException("file");
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new DbxMappedFile(in, in.getChannel().size());
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the size of the file, in bytes, when it was opened.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only buffer with the {@code length} bytes of the file starting at {@code
+     * offset}. The buffer's position is {@code 0} and its limit is {@code length}.
+     *
+     * @param offset offset of the first byte of the slice in the file
+     * @param length number of bytes in the slice
+     *
+     * @return buffer backed by the mapped file
+     *
+     * @throws IllegalArgumentException if the range isn't within the file
+     * @throws IllegalStateException if this file has been closed
+     * @throws IOException if the file can't be mapped
+     */
+    public synchronized ByteBuffer slice(long offset, int length) throws IOException {
+        if (offset < 0) throw new IllegalArgumentException("offset must not be negative");
+        if (length < 0) throw new IllegalArgumentException("length must not be negative");
+        if (offset + length > size) {
+            throw new IllegalArgumentException("Range [" + offset + ", " + (offset + length) + ") is past the end of the file (" + size + " bytes)");
+        }
+        if (closed) {
+            throw new IllegalStateException("File is closed.");
+        }
+
+        int index = (int) (offset >>> SEGMENT_SHIFT);
+        long start = (long) index << SEGMENT_SHIFT;
+        if (length == 0 || offset + length > start + SEGMENT_SIZE) {
+            // rare for upload chunks, map the range on its own rather than joining two segments
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer();
+        }
+
+        if (segments[index] == null) {
+            segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        ByteBuffer slice = segments[index].asReadOnlyBuffer();
+        slice.position((int) (offset - start));
+        slice.limit((int) (offset - start) + length);
+        return slice.slice();
+    }
+
+    /**
+     * Closes the file. Slices taken before remain valid.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            Arrays.fill(segments, null);
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.dropbox.core;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.json.JsonReadException;
+import com.dropbox.core.json.JsonReader;
+import com.dropbox.core.v2.DbxRawClientV2;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Provides short-lived access tokens, renewing them with an OAuth 2 refresh token.
+ *
+ * <p> The access token is renewed ahead of time, once it expires within the refresh margin, and
+ * whenever the server rejects it. Renewal is single-flight: however many threads need a new token
+ * at the same time, only one of them requests it from the {@code oauth2/token} endpoint, and the
+ * others wait for its result. While a token that is about to expire is being renewed ahead of
+ * time, other threads keep using it instead of waiting. If renewing it ahead of time fails, the
+ * token keeps being used until it expires, and renewing it ahead of time is only tried again
+ * after a pause (see {@link #getLastRefreshFailure}).
+ *
+ * <pre><code>
+ *    DbxCredentialProvider credentials = new DbxRefreshingCredentialProvider(
+ *        requestConfig, appInfo, refreshToken
+ *    );
+ *    DbxClientV2 client = new DbxClientV2(requestConfig, credentials);
+ * </code></pre>
+ *
+ * <p> This class is thread safe.
+ */
+public class DbxRefreshingCredentialProvider extends DbxCredentialProvider {
+    /**
+     * Default time before expiry at which access tokens are renewed.
+     */
+    public static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long EARLY_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final DbxRequestConfig requestConfig;
+    private final DbxAppInfo appInfo;
+    private final String refreshToken;
+    private final long refreshMarginMillis;
+
+    private final ReentrantLock lock;
+    private final Condition renewed;
+    private /*@Nullable*/ String accessToken;
+    private long expiresAtMillis;
+    // no renewal ahead of time before this, after one failed
+    private long nextAttemptAtMillis;
+    private boolean renewing;
+    // incremented by every renewal attempt, successful or not
+    private long attempts;
+    private /*@Nullable*/ DbxException lastFailure;
+    private long refreshCount;
+
+    /**
+     * Creates a provider that requests its first access token when it is first asked for one.
+     *
+     * @param requestConfig configuration for requests to the {@code oauth2/token} endpoint, never
+     *     {@code null}
+     * @param appInfo key and secret of the app the refresh token was issued to, never {@code null}
+     * @param refreshToken OAuth 2 refresh token, never {@code null}
+     */
+    public DbxRefreshingCredentialProvider(DbxRequestConfig requestConfig, DbxAppInfo appInfo, String refreshToken) {
+        this(requestConfig, appInfo, refreshToken, null, 0, DEFAULT_REFRESH_MARGIN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a provider that starts out with an access token obtained earlier.
+     *
+     * @param requestConfig configuration for requests to the {@code oauth2/token} endpoint, never
+     *     {@code null}
+     * @param appInfo key and secret of the app the refresh token was issued to, never {@code null}
+     * @param refreshToken OAuth 2 refresh token, never {@code null}
+     * @param accessToken current access token, or {@code null} to request one when first needed
+     * @param expiresAtMillis time the current access token expires, in milliseconds since the epoch
+     * @param refreshMargin time before expiry at which access tokens are renewed, must not be
+     *     negative
+     * @param unit unit of {@code refreshMargin}, never {@code null}
+     */
+    public DbxRefreshingCredentialProvider(DbxRequestConfig requestConfig, DbxAppInfo appInfo, String refreshToken,
+                                           /*@Nullable*/ String accessToken, long expiresAtMillis,
+                                           long refreshMargin, TimeUnit unit) {
+        if (requestConfig == null) throw new NullPointerException("requestConfig");
+        if (appInfo == null) throw new NullPointerException("appInfo");
+        if (refreshToken == null) throw new NullPointerException("refreshToken");
+        if (unit == null) throw new NullPointerException("unit");
+        if (refreshMargin < 0) throw new IllegalArgumentException("refreshMargin must not be negative");
+
+        this.requestConfig = requestConfig;
+        this.appInfo = appInfo;
+        this.refreshToken = refreshToken;
+        this.refreshMarginMillis = unit.toMillis(refreshMargin);
+
+        this.lock = new ReentrantLock();
+        this.renewed = lock.newCondition();
+        this.accessToken = accessToken;
+        this.expiresAtMillis = accessToken == null ? 0 : expiresAtMillis;
+        this.nextAttemptAtMillis = 0;
+        this.renewing = false;
+        this.attempts = 0;
+        this.lastFailure = null;
+        this.refreshCount = 0;
+    }
+
+    @Override
+    public String getAccessToken() throws DbxException {
+        return obtain(null);
+    }
+
+    @Override
+    public boolean refresh(String rejectedAccessToken) throws DbxException {
+        if (rejectedAccessToken == null) throw new NullPointerException("rejectedAccessToken");
+        return !obtain(rejectedAccessToken).equals(rejectedAccessToken);
+    }
+
+    /**
+     * Returns the number of access tokens this provider obtained from the server.
+     *
+     * @return number of successful renewals
+     */
+    public long getRefreshCount() {
+        lock.lock();
+        try {
+            return refreshCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns why the last attempt to renew the access token failed.
+     *
+     * @return failure of the last renewal attempt, or {@code null} if it succeeded or no renewal
+     *     was attempted yet
+     */
+    public /*@Nullable*/ DbxException getLastRefreshFailure() {
+        lock.lock();
+        try {
+            return lastFailure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests a new access token. Called by at most one thread at a time.
+     *
+     * @return new access token and the time it expires
+     *
+     * @throws DbxException if the server refused to issue a new access token
+     */
+    protected AccessToken requestAccessToken() throws DbxException {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("grant_type", "refresh_token");
+        params.put("refresh_token", refreshToken);
+        params.put("locale", requestConfig.getUserLocale());
+
+        List<HttpRequestor.Header> headers = new ArrayList<HttpRequestor.Header>();
+        DbxRequestUtil.addBasicAuthHeader(headers, appInfo.getKey(), appInfo.getSecret());
+
+        final long requestedAtMillis = System.currentTimeMillis();
+        return DbxRequestUtil.doPostNoAuth(
+            requestConfig,
+            DbxRawClientV2.USER_AGENT_ID,
+            appInfo.getHost().getApi(),
+            "oauth2/token",
+            DbxRequestUtil.toParamsArray(params),
+            headers,
+            new DbxRequestUtil.ResponseHandler<AccessToken>() {
+                @Override
+                public AccessToken handle(HttpRequestor.Response response) throws DbxException {
+                    if (response.getStatusCode() != 200) {
+                        throw DbxRequestUtil.unexpectedStatus(response);
+                    }
+                    TokenResponse token = DbxRequestUtil.readJsonFromResponse(TokenResponse.Reader, response);
+                    long expiresAtMillis = token.expiresInSeconds == null
+                        ? Long.MAX_VALUE
+                        : requestedAtMillis + TimeUnit.SECONDS.toMillis(token.expiresInSeconds);
+                    return new AccessToken(token.accessToken, expiresAtMillis);
+                }
+            }
+        );
+    }
+
+    /**
+     * Returns a valid access token other than {@code rejected}, renewing the current one if needed.
+     * Only one thread renews the token at a time, the others wait for its result.
+     */
+    private String obtain(/*@Nullable*/ String rejected) throws DbxException {
+        // renewing a token that is still usable, ahead of time
+        boolean early;
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                boolean usable = accessToken != null && !accessToken.equals(rejected) && now < expiresAtMillis;
+                if (usable && (renewing || now < expiresAtMillis - refreshMarginMillis || now < nextAttemptAtMillis)) {
+                    // fresh enough, another thread is already renewing it ahead of time, or renewing
+                    // it ahead of time failed recently
+                    return accessToken;
+                }
+                if (!renewing) {
+                    early = usable;
+                    break;
+                }
+                long attempt = attempts;
+                while (renewing) {
+                    renewed.awaitUninterruptibly();
+                }
+                if (attempts == attempt + 1 && lastFailure != null) {
+                    // the renewal we waited for failed, don't pile up more attempts behind it
+                    throw lastFailure;
+                }
+            }
+            renewing = true;
+        } finally {
+            lock.unlock();
+        }
+
+        AccessToken token = null;
+        DbxException failure = null;
+        try {
+            token = requestAccessToken();
+            return token.getValue();
+        } catch (DbxException ex) {
+            failure = ex;
+            if (!early) {
+                throw ex;
+            }
+        } finally {
+            lock.lock();
+            try {
+                if (token != null) {
+                    accessToken = token.getValue();
+                    expiresAtMillis = token.getExpiresAtMillis();
+                    ++refreshCount;
+                }
+                ++attempts;
+                lastFailure = token == null && failure == null
+                    ? new DbxException("Renewing access token failed")
+                    : failure;
+                if (token == null && early) {
+                    nextAttemptAtMillis = System.currentTimeMillis() + EARLY_RETRY_MILLIS;
+                }
+                renewing = false;
+                renewed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // renewing ahead of time failed, the current token is good until it expires
+        lock.lock();
+        try {
+            if (accessToken != null && System.currentTimeMillis() < expiresAtMillis) {
+                return accessToken;
+            }
+        } finally {
+            lock.unlock();
+        }
+        throw failure;
+    }
+
+    /**
+     * An access token and the time it expires.
+     */
+    public static final class AccessToken {
+        private final String value;
+        private final long expiresAtMillis;
+
+        /**
+         * @param value OAuth 2 access token, never {@code null}
+         * @param expiresAtMillis time the token expires, in milliseconds since the epoch, or {@link
+         *     Long#MAX_VALUE} if it does not expire
+         */
+        public AccessToken(String value, long expiresAtMillis) {
+            if (value == null) throw new NullPointerException("value");
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        /**
+         * @return OAuth 2 access token
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return time the token expires, in milliseconds since the epoch
+         */
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+    }
+
+    private static final class TokenResponse {
+        private final String accessToken;
+        private final /*@Nullable*/ Long expiresInSeconds;
+
+        private TokenResponse(String accessToken, /*@Nullable*/ Long expiresInSeconds) {
+            this.accessToken = accessToken;
+            this.expiresInSeconds = expiresInSeconds;
+        }
+
+        static final JsonReader<TokenResponse> Reader = new JsonReader<TokenResponse>() {
+            @Override
+            public TokenResponse read(JsonParser parser) throws IOException, JsonReadException {
+                JsonLocation top = JsonReader.expectObjectStart(parser);
+
+                String accessToken = null;
+                String tokenType = null;
+                Long expiresIn = null;
+
+                while (parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    JsonReader.nextToken(parser);
+
+                    try {
+                        if (fieldName.equals("token_type")) {
+                            tokenType = DbxAuthFinish.BearerTokenTypeReader.readField(parser, fieldName, tokenType);
+                        }
+                        else if (fieldName.equals("access_token")) {
+                            accessToken = DbxAuthFinish.AccessTokenReader.readField(parser, fieldName, accessToken);
+                        }
+                        else if (fieldName.equals("expires_in")) {
+                            expiresIn = JsonReader.UInt64Reader.readField(parser, fieldName, expiresIn);
+                        }
+                        else {
+                            // Unknown field.  Skip over it.
+                            JsonReader.skipValue(parser);
+                        }
+                    }
+                    catch (JsonReadException ex) {
+                        throw ex.addFieldContext(fieldName);
+                    }
+                }
+
+                JsonReader.expectObjectEnd(parser);
+
+                if (tokenType == null) throw new JsonReadException("missing field \"token_type\"", top);
+                if (accessToken == null) throw new JsonReadException("missing field \"access_token\"", top);
+
+                return new TokenResponse(accessToken, expiresIn);
+            }
+        };
+    }
+}
@@ -16,8 +16,10 @@ public class DbxRequestConfig {
     private final /*@Nullable*/String userLocale;
     private final HttpRequestor httpRequestor;
     private final int maxRetries;
+    private final /*@Nullable*/ DbxHedgingPolicy hedgingPolicy;
 
-    private DbxRequestConfig(String clientIdentifier, /*@Nullable*/ String userLocale, HttpRequestor httpRequestor, int maxRetries) {
+    private DbxRequestConfig(String clientIdentifier, /*@Nullable*/ String userLocale, HttpRequestor httpRequestor, int maxRetries,
+                             /*@Nullable*/ DbxHedgingPolicy hedgingPolicy) {
         if (clientIdentifier == null) throw new NullPointerException("clientIdentifier");
         if (httpRequestor == null) throw new NullPointerException("httpRequestor");
         if (maxRetries < 0) throw new IllegalArgumentException("maxRetries");
@@ -26,6 +28,7 @@ public class DbxRequestConfig {
         this.userLocale = toLanguageTag(userLocale);
         this.httpRequestor = httpRequestor;
         this.maxRetries = maxRetries;
+        this.hedgingPolicy = hedgingPolicy;
     }
 
     /**
@@ -66,7 +69,7 @@ public class DbxRequestConfig {
      */
     @Deprecated
     public DbxRequestConfig(String clientIdentifier, /*@Nullable*/ String userLocale, HttpRequestor httpRequestor) {
-        this(clientIdentifier, userLocale, httpRequestor, 0);
+        this(clientIdentifier, userLocale, httpRequestor, 0, null);
     }
 
     /**
@@ -164,6 +167,18 @@ public class DbxRequestConfig {
         return maxRetries;
     }
 
+    /**
+     * Returns the policy for hedging requests to idempotent routes, or {@code null} if requests
+     * are never hedged.
+     *
+     * <p> Defaults to {@code null}.
+     *
+     * @return hedging policy, or {@code null} if hedging is disabled
+     */
+    public /*@Nullable*/ DbxHedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
     /**
      * Returns a builder for building a copy of this configuration. Useful for modifying an existing
      * configuration.
@@ -171,7 +186,7 @@ public class DbxRequestConfig {
      * @return builder configured to build a copy of this instance
      */
     public Builder copy() {
-        return new Builder(clientIdentifier, userLocale, httpRequestor, maxRetries);
+        return new Builder(clientIdentifier, userLocale, httpRequestor, maxRetries, hedgingPolicy);
     }
 
 
@@ -243,15 +258,18 @@ public class DbxRequestConfig {
         private /*@Nullable*/ String userLocale;
         private HttpRequestor httpRequestor;
         private int maxRetries;
+        private /*@Nullable*/ DbxHedgingPolicy hedgingPolicy;
 
         private Builder(String clientIdentifier,
                         /*@Nullable*/ String userLocale,
                         HttpRequestor httpRequestor,
-                        int maxRetries) {
+                        int maxRetries,
+                        /*@Nullable*/ DbxHedgingPolicy hedgingPolicy) {
             this.clientIdentifier = clientIdentifier;
             this.userLocale = userLocale;
             this.httpRequestor = httpRequestor;
             this.maxRetries = maxRetries;
+            this.hedgingPolicy = hedgingPolicy;
         }
 
         private Builder(String clientIdentifier) {
@@ -260,6 +278,7 @@ public class DbxRequestConfig {
             this.userLocale = null;
             this.httpRequestor = StandardHttpRequestor.INSTANCE;
             this.maxRetries = 0;
+            this.hedgingPolicy = null;
         }
 
         /**
@@ -383,6 +402,22 @@ public class DbxRequestConfig {
             return this;
         }
 
+        /**
+         * Set the policy for hedging requests to idempotent routes, such as {@code
+         * files/get_metadata}: requests that aren't answered within the policy's delay are sent a
+         * second time. See {@link DbxHedgingPolicy}.
+         *
+         * <p> By default, requests are never hedged.
+         *
+         * @param hedgingPolicy hedging policy, or {@code null} to disable hedging
+         *
+         * @return this builder
+         */
+        public Builder withHedgingPolicy(/*@Nullable*/ DbxHedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
         /**
          * Builds an instance of {@link DbxRequestConfig} with this builder's configured parameters
          * or defaults.
@@ -390,7 +425,7 @@ public class DbxRequestConfig {
          * @return new {@code DbxRequestConfig} instance.
          */
         public DbxRequestConfig build() {
-            return new DbxRequestConfig(clientIdentifier, userLocale, httpRequestor, maxRetries);
+            return new DbxRequestConfig(clientIdentifier, userLocale, httpRequestor, maxRetries, hedgingPolicy);
         }
     }
 }
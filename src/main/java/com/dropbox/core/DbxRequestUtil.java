@@ -227,6 +227,22 @@ public final class DbxRequestUtil {
                                                       byte[] body,
                                                       /*@Nullable*/List<HttpRequestor.Header> headers)
         throws NetworkIOException {
+        return startPostRaw(requestConfig, sdkUserAgentIdentifier, host, path, body, headers, null);
+    }
+
+    /**
+     * Like {@link #startPostRaw(DbxRequestConfig, String, String, String, byte[], List)}, for one
+     * attempt of a hedged request. The request is aborted if the attempt is abandoned because the
+     * other attempt was answered first.
+     */
+    public static HttpRequestor.Response startPostRaw(DbxRequestConfig requestConfig,
+                                                      String sdkUserAgentIdentifier,
+                                                      String host,
+                                                      String path,
+                                                      byte[] body,
+                                                      /*@Nullable*/List<HttpRequestor.Header> headers,
+                                                      /*@Nullable*/DbxHedgingPolicy.Attempt attempt)
+        throws NetworkIOException {
         String uri = buildUri(host, path);
 
         headers = copyHeaders(headers);
@@ -235,12 +251,20 @@ public final class DbxRequestUtil {
 
         try {
             HttpRequestor.Uploader uploader = requestConfig.getHttpRequestor().startPost(uri, headers);
+            if (attempt != null) {
+                attempt.setUploader(uploader);
+            }
+            HttpRequestor.Response response;
             try {
                 uploader.upload(body);
-                return uploader.finish();
+                response = uploader.finish();
             } finally {
                 uploader.close();
             }
+            if (attempt != null) {
+                attempt.setResponse(response);
+            }
+            return response;
         } catch (IOException ex) {
             throw new NetworkIOException(ex);
         }
@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 
@@ -147,6 +148,38 @@ public abstract class DbxUploader<R, E, X extends DbxApiException> implements Cl
         return uploadAndFinish(IOUtil.limit(in, limit));
     }
 
+    /**
+     * Uploads the remaining bytes of the given {@link ByteBuffer} and returns the response.
+     *
+     * <p> Use this method with {@link DbxMappedFile#slice} to upload ranges of a local file
+     * without reading it through a stream. The position of {@code body} is left unchanged, so the
+     * same buffer can be uploaded again if the request fails.
+     *
+     * This method manages closing this uploader's resources, so no further calls to {@link #close}
+     * are necessary.
+     *
+     * @param body {@code ByteBuffer} containing data to upload
+     *
+     * @return Response from server
+     *
+     * @throws X if the server sent an error response for the request
+     * @throws DbxException if an error occurs uploading the data or reading the response
+     * @throws IllegalStateException if this uploader has already been closed (see {@link #close}) or finished (see {@link #finish})
+     */
+    public R uploadAndFinish(ByteBuffer body) throws X, DbxException {
+        try {
+            try {
+                httpUploader.upload(body);
+            } catch (IOException ex) {
+                throw new NetworkIOException(ex);
+            }
+
+            return finish();
+        } finally {
+            close();
+        }
+    }
+
     /**
      * Closes this upload request and releases its underlying resources.
      *
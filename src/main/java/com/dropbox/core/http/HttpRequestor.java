@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +41,54 @@ public abstract class HttpRequestor
     public abstract Uploader startPost(String url, Iterable<Header> headers) throws IOException;
     public abstract Uploader startPut(String url, Iterable<Header> headers) throws IOException;
 
+    /**
+     * Returns whether this requestor can issue requests through {@link #postAsync} without
+     * holding a thread while waiting for the response.
+     *
+     * @return {@code true} if {@link #postAsync} is supported, {@code false} otherwise
+     */
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    /**
+     * Issues a POST request without blocking the calling thread. Exactly one method of {@code
+     * callback} is called once the response is available or the request failed, usually from a
+     * thread owned by the underlying HTTP client. The callback must close the response body.
+     *
+     * <p> Only supported if {@link #isAsyncSupported} returns {@code true}.
+     *
+     * @param url request URL
+     * @param headers request headers
+     * @param body request body
+     * @param callback receives the response or the failure
+     *
+     * @throws UnsupportedOperationException if this requestor does not support asynchronous
+     *     requests
+     */
+    public void postAsync(String url, Iterable<Header> headers, byte[] body, ResponseCallback callback) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support asynchronous requests");
+    }
+
+    /**
+     * Receives the outcome of a request issued with {@link #postAsync}.
+     */
+    public static abstract class ResponseCallback {
+        /**
+         * Called when the response headers were received.
+         *
+         * @param response HTTP response, its body must be closed
+         */
+        public abstract void onResponse(Response response);
+
+        /**
+         * Called when the request could not be completed.
+         *
+         * @param ex cause of the failure
+         */
+        public abstract void onFailure(IOException ex);
+    }
+
     /**
      * A simple structure holding an HTTP header, which is key/value pair.
      * Used with {@link HttpRequestor}.
@@ -79,12 +128,15 @@ public abstract class HttpRequestor
         public abstract Response finish() throws IOException;
 
         public void upload(File file) throws IOException {
+            FileInputStream in = new FileInputStream(file);
             try {
-                upload(new FileInputStream(file));
+                upload(in);
             } catch (IOUtil.ReadException ex) {
                 throw ex.getCause();
             } catch (IOUtil.WriteException ex) {
                 throw ex.getCause();
+            } finally {
+                in.close();
             }
         }
 
@@ -101,6 +153,25 @@ public abstract class HttpRequestor
             }
         }
 
+        /**
+         * Uploads the remaining bytes of {@code body}, such as a {@link
+         * com.dropbox.core.DbxMappedFile#slice slice} of a memory-mapped file.
+         *
+         * <p> The position of {@code body} is left unchanged, so the same buffer can be uploaded
+         * again. Subclasses whose HTTP client can send a buffer as the request body directly should
+         * override this method.
+         */
+        public void upload(ByteBuffer body) throws IOException {
+            OutputStream out = getBody();
+            try {
+                IOUtil.copyBufferToStream(body.duplicate(), out);
+            } catch (IOUtil.WriteException ex) {
+                throw ex.getCause();
+            } finally {
+                out.close();
+            }
+        }
+
         public void upload(byte [] body) throws IOException {
             OutputStream out = getBody();
             try {
@@ -13,13 +13,18 @@ import java.io.File;
 import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import okio.BufferedSink;
 
+import com.dropbox.core.util.IOUtil;
+
 /*>>> import checkers.nullness.quals.Nullable; */
 
 /**
@@ -144,6 +149,34 @@ public class OkHttp3Requestor extends HttpRequestor {
         return startUpload(url, headers, "PUT");
     }
 
+    @Override
+    public boolean isAsyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void postAsync(String url, Iterable<Header> headers, byte[] body, final ResponseCallback callback) {
+        Request.Builder builder = new Request.Builder()
+            .url(url)
+            .post(RequestBody.create(null, body));
+        toOkHttpHeaders(headers, builder);
+        configureRequest(builder);
+        // enqueue the call, the dispatcher only uses a thread while the response is read
+        client.newCall(builder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException ex) {
+                callback.onFailure(ex);
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                response = interceptResponse(response);
+                Map<String, List<String>> responseHeaders = fromOkHttpHeaders(response.headers());
+                callback.onResponse(new Response(response.code(), response.body().byteStream(), responseHeaders));
+            }
+        });
+    }
+
     private BufferedUploader startUpload(String url, Iterable<Header> headers, String method) {
         Request.Builder builder = new Request.Builder()
             .url(url);
@@ -239,6 +272,11 @@ public class OkHttp3Requestor extends HttpRequestor {
             setBody(RequestBody.create(null, body));
         }
 
+        @Override
+        public void upload(ByteBuffer body) {
+            setBody(new ByteBufferRequestBody(body.duplicate()));
+        }
+
         @Override
         public void close() {
             if (body != null && (body instanceof Closeable)) {
@@ -287,40 +325,97 @@ public class OkHttp3Requestor extends HttpRequestor {
         }
     }
 
+    /**
+     * Callback for asynchronously issued requests. Callers block in {@link #getResponse} until the
+     * OkHttp dispatcher delivers the result. Waiting is done on a {@link Condition} rather than an
+     * object monitor so blocked callers do not hold a monitor while the request is in flight.
+     */
     public static final class AsyncCallback implements Callback {
+        private final ReentrantLock lock;
+        private final Condition done;
+
         private IOException error;
         private okhttp3.Response response;
 
         private AsyncCallback() {
+            this.lock = new ReentrantLock();
+            this.done = lock.newCondition();
+
             this.error = null;
             this.response = null;
         }
 
-        public synchronized okhttp3.Response getResponse() throws IOException {
-            while (error == null && response == null) {
-                try {
-                    wait();
-                } catch (InterruptedException ex) {
-                    Thread.currentThread().interrupt();
-                    throw new InterruptedIOException();
+        public okhttp3.Response getResponse() throws IOException {
+            lock.lock();
+            try {
+                while (error == null && response == null) {
+                    try {
+                        done.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (error != null) {
+                    throw error;
                 }
+                return response;
+            } finally {
+                lock.unlock();
             }
-            if (error != null) {
-                throw error;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException ex) {
+            lock.lock();
+            try {
+                this.error = ex;
+                done.signalAll();
+            } finally {
+                lock.unlock();
             }
-            return response;
         }
 
         @Override
-        public synchronized void onFailure(Call call, IOException ex) {
-            this.error = ex;
-            notifyAll();
+        public void onResponse(Call call, okhttp3.Response response) throws IOException {
+            lock.lock();
+            try {
+                this.response = response;
+                done.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Request body of a fixed size, such as a slice of a memory-mapped file. OkHttp may write the
+     * body again when it retries the request, so each write starts from the original position.
+     */
+    private static final class ByteBufferRequestBody extends RequestBody {
+        private final ByteBuffer body;
+
+        public ByteBufferRequestBody(ByteBuffer body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return null;
         }
 
         @Override
-        public synchronized void onResponse(Call call, okhttp3.Response response) throws IOException {
-            this.response = response;
-            notifyAll();
+        public long contentLength() {
+            return body.remaining();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            try {
+                IOUtil.copyBufferToStream(body.duplicate(), sink.outputStream());
+            } catch (IOUtil.WriteException ex) {
+                throw ex.getCause();
+            }
         }
     }
 
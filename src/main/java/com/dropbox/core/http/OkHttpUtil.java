@@ -1,13 +1,15 @@
 package com.dropbox.core.http;
 
 import java.io.Closeable;
-import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import okio.BufferedSink;
 import okio.Okio;
@@ -42,41 +44,193 @@ final class OkHttpUtil {
         }
     }
 
+    /**
+     * In-memory pipe connecting the caller writing an upload body to the OkHttp dispatcher thread
+     * sending it.
+     *
+     * <p> Unlike {@link java.io.PipedInputStream}, this pipe blocks using {@link ReentrantLock}
+     * conditions instead of object monitors and does not poll while waiting. Blocked readers and
+     * writers are woken up as soon as the other end makes progress or closes the pipe.
+     */
     public static final class PipedStream implements Closeable {
         private static final int BUFFER_SIZE = 5 << 20; // 5MiB, the max size for JSON requests on server
 
-        private final PipedInputStream in;
-        private final PipedOutputStream out;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+
+        private final byte [] buffer;
+        private final PipeInputStream in;
+        private final PipeOutputStream out;
+
+        private int readPos;
+        private int count;
+        private boolean writerClosed;
+        private boolean readerClosed;
 
         public PipedStream() {
-            this.in = new PipedInputStream(BUFFER_SIZE);
-            try {
-                this.out = new PipedOutputStream(in);
-            } catch (IOException ex) {
-                throw new IllegalStateException("Unable to create piped stream for async upload request.");
-            }
+            this(BUFFER_SIZE);
+        }
+
+        PipedStream(int bufferSize) {
+            if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive");
+            this.buffer = new byte[bufferSize];
+            this.in = new PipeInputStream();
+            this.out = new PipeOutputStream();
+
+            this.readPos = 0;
+            this.count = 0;
+            this.writerClosed = false;
+            this.readerClosed = false;
         }
 
         public OutputStream getOutputStream() {
             return out;
         }
 
+        InputStream getInputStream() {
+            return in;
+        }
+
         @Override
         public void close() {
+            out.close();
+            in.close();
+        }
+
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.writeAll(Okio.source(in));
+        }
+
+        private static void await(Condition condition) throws InterruptedIOException {
             try {
-                out.close();
-            } catch (IOException ex) {
-                // ignore
+                condition.await();
+            } catch (InterruptedException ex) {
+                // preserve interrupt
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
             }
-            try {
-                in.close();
-            } catch (IOException ex) {
-                //ignore
+        }
+
+        private final class PipeInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte [] b = new byte[1];
+                int read = read(b, 0, 1);
+                return read == -1 ? -1 : (b[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte [] b, int off, int len) throws IOException {
+                if (off < 0 || len < 0 || len > b.length - off) {
+                    throw new IndexOutOfBoundsException();
+                }
+
+                lock.lock();
+                try {
+                    while (count == 0 && !writerClosed && !readerClosed) {
+                        await(notEmpty);
+                    }
+                    if (readerClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (count == 0) {
+                        // writer closed and everything has been drained
+                        return -1;
+                    }
+
+                    int total = Math.min(len, count);
+                    int first = Math.min(total, buffer.length - readPos);
+                    System.arraycopy(buffer, readPos, b, off, first);
+                    System.arraycopy(buffer, 0, b, off + first, total - first);
+
+                    readPos = (readPos + total) % buffer.length;
+                    count -= total;
+                    notFull.signalAll();
+                    return total;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public int available() {
+                lock.lock();
+                try {
+                    return count;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.lock();
+                try {
+                    readerClosed = true;
+                    notFull.signalAll();
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
             }
         }
 
-        public void writeTo(BufferedSink sink) throws IOException {
-            sink.writeAll(Okio.source(in));
+        private final class PipeOutputStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte [] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte [] b, int off, int len) throws IOException {
+                if (off < 0 || len < 0 || len > b.length - off) {
+                    throw new IndexOutOfBoundsException();
+                }
+
+                while (len > 0) {
+                    lock.lock();
+                    try {
+                        while (count == buffer.length && !writerClosed && !readerClosed) {
+                            await(notFull);
+                        }
+                        if (writerClosed) {
+                            throw new IOException("Pipe closed");
+                        }
+                        if (readerClosed) {
+                            throw new IOException("Read end dead");
+                        }
+
+                        int writePos = (readPos + count) % buffer.length;
+                        int total = Math.min(len, buffer.length - count);
+                        int first = Math.min(total, buffer.length - writePos);
+                        System.arraycopy(b, off, buffer, writePos, first);
+                        System.arraycopy(b, off + first, buffer, 0, total - first);
+
+                        count += total;
+                        off += total;
+                        len -= total;
+                        notEmpty.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.lock();
+                try {
+                    writerClosed = true;
+                    notEmpty.signalAll();
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
         }
     }
 }
@@ -0,0 +1,78 @@
+package com.dropbox.core.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * The {@link JsonFactory} shared by all of the SDK's JSON reading and writing: {@link
+ * JsonReader}, {@link JsonWriter}, the {@link com.dropbox.core.stone.StoneSerializer serializers}
+ * of the generated API v2 classes and {@link com.dropbox.core.v2.DbxRawClientV2}.
+ *
+ * <p>
+ * Sharing one factory lets every parser share its field name symbol table, so the field names
+ * of API responses are canonicalized and interned once instead of allocated again for every
+ * response, and lets parsers recycle their buffers through Jackson's per-thread buffer
+ * recycler.
+ * </p>
+ *
+ * <p>
+ * Applications that want to tune Jackson further can start from {@link #newFactory}, change
+ * its settings, and install it with {@link #setFactory} before making requests:
+ * </p>
+ *
+ * <pre>
+ * JsonFactory factory = DbxJson.newFactory();
+ * factory.disable(JsonFactory.Feature.INTERN_FIELD_NAMES);
+ * DbxJson.setFactory(factory);
+ * </pre>
+ */
+public final class DbxJson
+{
+    private static volatile JsonFactory factory = newFactory();
+
+    private DbxJson() {}
+
+    /**
+     * Returns the factory currently used by the SDK.
+     */
+    public static JsonFactory getFactory()
+    {
+        return factory;
+    }
+
+    /**
+     * Replaces the factory used by the SDK.  Requests already in progress keep using the
+     * previous factory.
+     *
+     * <p>
+     * The SDK closes the parsers and generators it creates to hand their buffers back to the
+     * recycler, but never closes the streams it passes to them, whatever the factory's {@link
+     * JsonParser.Feature#AUTO_CLOSE_SOURCE} and {@link JsonGenerator.Feature#AUTO_CLOSE_TARGET}
+     * settings.
+     * </p>
+     *
+     * @param factory factory to use, must not be {@code null}
+     */
+    public static void setFactory(JsonFactory factory)
+    {
+        if (factory == null) throw new NullPointerException("factory");
+        DbxJson.factory = factory;
+    }
+
+    /**
+     * Returns a new factory with the settings the SDK uses by default: canonicalized and
+     * interned field names, thread-local buffer recycling, and parsers and generators that
+     * don't close the streams they were created for.
+     */
+    public static JsonFactory newFactory()
+    {
+        JsonFactory factory = new JsonFactory();
+        factory.enable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
+        factory.enable(JsonFactory.Feature.INTERN_FIELD_NAMES);
+        factory.enable(JsonFactory.Feature.USE_THREAD_LOCAL_FOR_BUFFER_RECYCLING);
+        factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return factory;
+    }
+}
@@ -4,7 +4,6 @@ import com.dropbox.core.util.IOUtil;
 import static com.dropbox.core.util.LangUtil.mkAssert;
 
 import com.dropbox.core.util.StringUtil;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonLocation;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
@@ -14,6 +13,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import java.util.HashMap;
 
@@ -448,14 +448,18 @@ public abstract class JsonReader<T>
         }
     }
 
-    static final JsonFactory jsonFactory = new JsonFactory();
-
     public T readFully(InputStream utf8Body)
         throws IOException, JsonReadException
     {
         try {
-            JsonParser parser = jsonFactory.createParser(utf8Body);
-            return readFully(parser);
+            JsonParser parser = DbxJson.getFactory().createParser(utf8Body);
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            try {
+                return readFully(parser);
+            }
+            finally {
+                parser.close();
+            }
         }
         catch (JsonParseException ex) {
             throw JsonReadException.fromJackson(ex);
@@ -466,7 +470,7 @@ public abstract class JsonReader<T>
         throws JsonReadException
     {
         try {
-            JsonParser parser = jsonFactory.createParser(body);
+            JsonParser parser = DbxJson.getFactory().createParser(body);
             try {
                 return readFully(parser);
             }
@@ -484,9 +488,19 @@ public abstract class JsonReader<T>
 
     public T readFully(byte[] utf8Body)
         throws JsonReadException
+    {
+        return readFully(utf8Body, 0, utf8Body.length);
+    }
+
+    /**
+     * Reads the UTF-8 encoded JSON in {@code utf8Body[offset, offset + length)}, without
+     * copying it.
+     */
+    public T readFully(byte[] utf8Body, int offset, int length)
+        throws JsonReadException
     {
         try {
-            JsonParser parser = jsonFactory.createParser(utf8Body);
+            JsonParser parser = DbxJson.getFactory().createParser(utf8Body, offset, length);
             try {
                 return readFully(parser);
             }
@@ -502,6 +516,21 @@ public abstract class JsonReader<T>
         }
     }
 
+    /**
+     * Reads the UTF-8 encoded JSON in the remaining bytes of {@code utf8Body}, without changing
+     * its position.  Heap buffers are read in place, direct buffers are copied first.
+     */
+    public T readFully(ByteBuffer utf8Body)
+        throws JsonReadException
+    {
+        if (utf8Body.hasArray()) {
+            return readFully(utf8Body.array(), utf8Body.arrayOffset() + utf8Body.position(), utf8Body.remaining());
+        }
+        byte[] copy = new byte[utf8Body.remaining()];
+        utf8Body.duplicate().get(copy);
+        return readFully(copy);
+    }
+
     public T readFromFile(String filePath)
         throws FileLoadException
     {
@@ -43,7 +43,7 @@ public abstract class JsonWriter<T>
     {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            JsonGenerator g = JsonReader.jsonFactory.createGenerator(out);
+            JsonGenerator g = DbxJson.getFactory().createGenerator(out);
             if (indent) {
                 g = g.useDefaultPrettyPrinter();
             }
@@ -51,7 +51,7 @@ public abstract class JsonWriter<T>
                 write(value, g);
             }
             finally {
-                g.flush();
+                g.close();
             }
             return new String(out.toByteArray(), "UTF-8");
 
@@ -70,7 +70,8 @@ public abstract class JsonWriter<T>
     public final void writeToStream(T value, OutputStream out, boolean indent)
         throws IOException
     {
-        JsonGenerator g = JsonReader.jsonFactory.createGenerator(out);
+        JsonGenerator g = DbxJson.getFactory().createGenerator(out);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
         if (indent) {
             g = g.useDefaultPrettyPrinter();
         }
@@ -78,7 +79,7 @@ public abstract class JsonWriter<T>
             write(value, g);
         }
         finally {
-            g.flush();
+            g.close();
         }
     }
 
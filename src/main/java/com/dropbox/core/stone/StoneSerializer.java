@@ -4,8 +4,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
+import com.dropbox.core.json.DbxJson;
+
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
@@ -36,7 +39,8 @@ public abstract class StoneSerializer<T> {
     }
 
     public void serialize(T value, OutputStream out, boolean pretty) throws IOException {
-        JsonGenerator g = Util.JSON.createGenerator(out);
+        JsonGenerator g = DbxJson.getFactory().createGenerator(out);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
         if (pretty) {
             g.useDefaultPrettyPrinter();
         }
@@ -44,15 +48,15 @@ public abstract class StoneSerializer<T> {
             serialize(value, g);
         } catch (JsonGenerationException ex) {
             throw new IllegalStateException("Impossible JSON generation exception", ex);
+        } finally {
+            // flushes, and returns the generator's buffers to the recycler
+            g.close();
         }
-        g.flush();
     }
 
     public T deserialize(String json) throws JsonParseException {
         try {
-            JsonParser p = Util.JSON.createParser(json);
-            p.nextToken();
-            return deserialize(p);
+            return deserializeFully(DbxJson.getFactory().createParser(json));
         } catch (JsonParseException ex) {
             throw ex;
         } catch (IOException ex) {
@@ -61,9 +65,51 @@ public abstract class StoneSerializer<T> {
     }
 
     public T deserialize(InputStream json) throws IOException, JsonParseException {
-        JsonParser p = Util.JSON.createParser(json);
-        p.nextToken();
-        return deserialize(p);
+        JsonParser p = DbxJson.getFactory().createParser(json);
+        p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return deserializeFully(p);
+    }
+
+    public T deserialize(byte[] json) throws JsonParseException {
+        return deserialize(json, 0, json.length);
+    }
+
+    /**
+     * Deserializes the UTF-8 encoded JSON in {@code json[offset, offset + length)}.  Parsing
+     * from bytes already in memory avoids the extra copy and the blocking reads of {@link
+     * #deserialize(InputStream)}.
+     */
+    public T deserialize(byte[] json, int offset, int length) throws JsonParseException {
+        try {
+            return deserializeFully(DbxJson.getFactory().createParser(json, offset, length));
+        } catch (JsonParseException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Impossible I/O exception", ex);
+        }
+    }
+
+    /**
+     * Deserializes the UTF-8 encoded JSON in the remaining bytes of {@code json}, without
+     * changing its position.  Heap buffers are parsed in place, direct buffers are copied first.
+     */
+    public T deserialize(ByteBuffer json) throws JsonParseException {
+        if (json.hasArray()) {
+            return deserialize(json.array(), json.arrayOffset() + json.position(), json.remaining());
+        }
+        byte[] copy = new byte[json.remaining()];
+        json.duplicate().get(copy);
+        return deserialize(copy);
+    }
+
+    private T deserializeFully(JsonParser p) throws IOException, JsonParseException {
+        try {
+            p.nextToken();
+            return deserialize(p);
+        } finally {
+            // returns the parser's buffers to the recycler
+            p.close();
+        }
     }
 
     public abstract void serialize(T value, JsonGenerator g) throws IOException, JsonGenerationException;
@@ -7,11 +7,7 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
-import com.fasterxml.jackson.core.JsonFactory;
-
 final class Util {
-    public static final JsonFactory JSON = new JsonFactory();
-
     private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
     private static final String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
     private static final String DATE_FORMAT = "yyyy-MM-dd";
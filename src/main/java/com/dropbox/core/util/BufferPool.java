@@ -0,0 +1,166 @@
+package com.dropbox.core.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Pool of copy buffers, so that concurrent uploads and downloads reuse a few large buffers instead
+ * of allocating a new one for every transfer.
+ *
+ * <p> Buffers come in four size classes, {@link #MIN_SIZE 16 KiB}, 64 KiB, 256 KiB and {@link
+ * #MAX_SIZE 1 MiB}, and requests are rounded up to the nearest class. Larger requests are
+ * allocated without pooling. Each class keeps at most a fixed number of bytes of idle buffers;
+ * buffers released beyond that are left to the garbage collector.
+ *
+ * <p> A buffer must not be used after it has been released, and must be released at most once.
+ *
+ * <p> This class is thread safe.
+ */
+public final class BufferPool {
+    public static final int MIN_SIZE = 16 << 10; // 16 KiB
+    public static final int MAX_SIZE = 1 << 20; // 1 MiB
+
+    private static final int CLASS_SHIFT = 2; // each class is 4 times larger than the previous one
+    private static final BufferPool DEFAULT = new BufferPool(4 << 20);
+
+    private final SizeClass[] classes;
+
+    /**
+     * Creates a pool that keeps at most {@code maxIdleBytesPerClass} bytes of idle heap buffers,
+     * and as many of idle direct buffers, in each size class.
+     *
+     * @param maxIdleBytesPerClass maximum number of idle bytes kept per size class and buffer
+     * kind, must not be negative
+     */
+    public BufferPool(int maxIdleBytesPerClass) {
+        if (maxIdleBytesPerClass < 0) {
+            throw new IllegalArgumentException("maxIdleBytesPerClass must not be negative");
+        }
+
+        int count = 0;
+        for (int size = MIN_SIZE; size <= MAX_SIZE; size <<= CLASS_SHIFT) {
+            count++;
+        }
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            int size = MIN_SIZE << (i * CLASS_SHIFT);
+            this.classes[i] = new SizeClass(size, maxIdleBytesPerClass / size);
+        }
+    }
+
+    /**
+     * Returns the pool shared by the SDK, which keeps up to 4 MiB of idle buffers per size class.
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the size of the buffers returned for requests of {@code minSize} bytes: the smallest
+     * size class that fits it, or {@code minSize} itself if it's larger than {@link #MAX_SIZE}.
+     */
+    public static int roundUp(int minSize) {
+        if (minSize < 0) throw new IllegalArgumentException("minSize must not be negative");
+        if (minSize > MAX_SIZE) {
+            return minSize;
+        }
+        int size = MIN_SIZE;
+        while (size < minSize) {
+            size <<= CLASS_SHIFT;
+        }
+        return size;
+    }
+
+    /**
+     * Returns a heap buffer of {@link #roundUp roundUp(minSize)} bytes. Its contents are
+     * undefined.
+     */
+    public byte[] acquire(int minSize) {
+        SizeClass sizeClass = sizeClass(roundUp(minSize));
+        if (sizeClass == null) {
+            return new byte[minSize];
+        }
+        byte[] buffer = sizeClass.arrays.poll();
+        if (buffer == null) {
+            return new byte[sizeClass.size];
+        }
+        sizeClass.idleArrays.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire} to the pool.
+     */
+    public void release(byte[] buffer) {
+        SizeClass sizeClass = sizeClass(buffer.length);
+        if (sizeClass != null && reserve(sizeClass.idleArrays, sizeClass.maxIdle)) {
+            sizeClass.arrays.offer(buffer);
+        }
+    }
+
+    /**
+     * Returns a cleared direct buffer with a capacity of {@link #roundUp roundUp(minSize)} bytes.
+     * Direct buffers let channels read and write without copying through a temporary buffer.
+     */
+    public ByteBuffer acquireDirect(int minSize) {
+        SizeClass sizeClass = sizeClass(roundUp(minSize));
+        if (sizeClass == null) {
+            return ByteBuffer.allocateDirect(minSize);
+        }
+        ByteBuffer buffer = sizeClass.directs.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(sizeClass.size);
+        }
+        sizeClass.idleDirects.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquireDirect} to the pool.
+     */
+    public void release(ByteBuffer buffer) {
+        SizeClass sizeClass = buffer.isDirect() ? sizeClass(buffer.capacity()) : null;
+        if (sizeClass != null && reserve(sizeClass.idleDirects, sizeClass.maxIdle)) {
+            sizeClass.directs.offer(buffer);
+        }
+    }
+
+    private /*@Nullable*/ SizeClass sizeClass(int size) {
+        for (SizeClass sizeClass : classes) {
+            if (sizeClass.size == size) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    private static boolean reserve(AtomicInteger idle, int maxIdle) {
+        while (true) {
+            int current = idle.get();
+            if (current >= maxIdle) {
+                return false;
+            }
+            if (idle.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static final class SizeClass {
+        private final int size;
+        private final int maxIdle;
+        private final ConcurrentLinkedQueue<byte[]> arrays = new ConcurrentLinkedQueue<byte[]>();
+        private final ConcurrentLinkedQueue<ByteBuffer> directs = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicInteger idleArrays = new AtomicInteger();
+        private final AtomicInteger idleDirects = new AtomicInteger();
+
+        private SizeClass(int size, int maxIdle) {
+            this.size = size;
+            this.maxIdle = maxIdle;
+        }
+    }
+}
@@ -14,6 +14,12 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.CharacterCodingException;
 
 public class IOUtil {
@@ -39,37 +45,279 @@ public class IOUtil {
         return StringUtil.utf8ToString(out.toByteArray());
     }
 
+    /**
+     * Copies all of {@code in} to {@code out} through a pooled buffer whose size adapts to the
+     * throughput of the copy.
+     *
+     * <p> The copy starts with a {@link #DEFAULT_COPY_BUFFER_SIZE 16 KiB} buffer. Every few reads
+     * that fill the whole buffer, the buffer moves up one {@link BufferPool size class} if it holds
+     * less than 2 ms of data at the throughput seen so far. Slow connections and short copies thus
+     * keep using small buffers, while fast transfers move on to buffers of up to {@link
+     * BufferPool#MAX_SIZE 1 MiB}, with fewer reads and writes per byte.
+     */
     public static void copyStreamToStream(InputStream in, OutputStream out) throws ReadException, WriteException {
-        copyStreamToStream(in, out, DEFAULT_COPY_BUFFER_SIZE);
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(DEFAULT_COPY_BUFFER_SIZE);
+        long start = System.nanoTime();
+        long copied = 0;
+        int fullReads = 0;
+        try {
+            while (true) {
+                int count = read(in, buffer, buffer.length);
+                if (count == -1) break;
+                write(out, buffer, count);
+                copied += count;
+
+                // Only grow while the source keeps filling the whole buffer, otherwise a larger
+                // buffer wouldn't reduce the number of reads.
+                if (count == buffer.length && buffer.length < BufferPool.MAX_SIZE && ++fullReads >= ADAPT_AFTER_FULL_READS) {
+                    fullReads = 0;
+                    if (targetCopyBufferSize(copied, System.nanoTime() - start) > buffer.length) {
+                        byte[] larger = pool.acquire(buffer.length + 1);
+                        pool.release(buffer);
+                        buffer = larger;
+                    }
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
     }
 
     public static void copyStreamToStream(InputStream in, OutputStream out, byte[] copyBuffer)
         throws ReadException, WriteException {
         while (true) {
-            int count;
-            try {
-                count = in.read(copyBuffer);
-            } catch (IOException ex) {
-                throw new ReadException(ex);
-            }
-
+            int count = read(in, copyBuffer, copyBuffer.length);
             if (count == -1) break;
+            write(out, copyBuffer, count);
+        }
+    }
+
+    /**
+     * Copies all of {@code in} to {@code out}, reading at most {@code copyBufferSize} bytes at a
+     * time into a pooled buffer.
+     */
+    public static void copyStreamToStream(InputStream in, OutputStream out, int copyBufferSize)
+        throws ReadException, WriteException {
+        if (copyBufferSize <= 0) throw new IllegalArgumentException("copyBufferSize must be positive");
 
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(copyBufferSize);
+        try {
+            while (true) {
+                int count = read(in, buffer, copyBufferSize);
+                if (count == -1) break;
+                write(out, buffer, count);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of {@code in} to {@code out}, advancing its position to its limit.
+     *
+     * <p> Buffers backed by an accessible array are written in a single call, without copying.
+     * Other buffers, such as direct or memory-mapped ones, are copied through a pooled buffer.
+     */
+    public static void copyBufferToStream(ByteBuffer in, OutputStream out) throws WriteException {
+        if (in.hasArray()) {
             try {
-                out.write(copyBuffer, 0, count);
+                out.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
             } catch (IOException ex) {
                 throw new WriteException(ex);
             }
+            in.position(in.limit());
+            return;
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(Math.min(in.remaining(), BufferPool.MAX_SIZE));
+        try {
+            while (in.hasRemaining()) {
+                int count = Math.min(in.remaining(), buffer.length);
+                in.get(buffer, 0, count);
+                write(out, buffer, count);
+            }
+        } finally {
+            pool.release(buffer);
         }
     }
 
-    public static void copyStreamToStream(InputStream in, OutputStream out, int copyBufferSize)
+    /**
+     * Copies all of {@code in} to {@code out}, and returns the number of bytes copied.
+     *
+     * <p> When {@code in} is a {@link FileChannel}, its contents are transferred with {@link
+     * FileChannel#transferTo}, and when {@code out} is one with {@link FileChannel#transferFrom},
+     * both of which let the operating system copy the bytes without passing them through the
+     * JVM. Other channels are copied through a pooled direct buffer. File channels are read from
+     * and written at their current position, which is advanced past the copied bytes.
+     *
+     * <p> The transfers are only used when the other channel is in blocking mode. A non-blocking
+     * channel is copied through the buffer, polling it until the source reaches its end and all
+     * bytes are written, so callers should prefer blocking channels.
+     *
+     * <p> Failures of {@code transferTo} and {@code transferFrom} can't be attributed to either
+     * side, and are reported as {@link WriteException}s.
+     */
+    public static long copyChannelToChannel(ReadableByteChannel in, WritableByteChannel out)
         throws ReadException, WriteException {
-        copyStreamToStream(in, out, new byte[copyBufferSize]);
+        if (in instanceof FileChannel && isBlocking(out)) {
+            return transferTo((FileChannel) in, out);
+        }
+        if (out instanceof FileChannel && isBlocking(in)) {
+            return transferFrom(in, (FileChannel) out);
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer buffer = pool.acquireDirect(CHANNEL_COPY_BUFFER_SIZE);
+        long copied = 0;
+        try {
+            while (read(in, buffer) != -1) {
+                buffer.flip();
+                copied += write(out, buffer);
+                buffer.clear();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return copied;
     }
 
+    // how much data a copy buffer should hold at the observed throughput
+    private static final long ADAPTIVE_TARGET_NANOS = 2000000L; // 2 ms
+    // number of full reads between adaptations, so the measured throughput isn't just noise
+    private static final int ADAPT_AFTER_FULL_READS = 8;
+    private static final int CHANNEL_COPY_BUFFER_SIZE = 256 << 10; // 256 KiB
+
+    private static long targetCopyBufferSize(long copied, long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) ((double) copied * ADAPTIVE_TARGET_NANOS / elapsedNanos);
+    }
+
+    private static boolean isBlocking(Channel channel) {
+        // a transfer to or from a channel that isn't ready returns 0, which can't be told apart
+        // from the end of a file
+        return !(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking();
+    }
+
+    private static int read(InputStream in, byte[] buffer, int length) throws ReadException {
+        try {
+            return in.read(buffer, 0, length);
+        } catch (IOException ex) {
+            throw new ReadException(ex);
+        }
+    }
+
+    private static void write(OutputStream out, byte[] buffer, int length) throws WriteException {
+        try {
+            out.write(buffer, 0, length);
+        } catch (IOException ex) {
+            throw new WriteException(ex);
+        }
+    }
+
+    private static int read(ReadableByteChannel in, ByteBuffer buffer) throws ReadException {
+        try {
+            return in.read(buffer);
+        } catch (IOException ex) {
+            throw new ReadException(ex);
+        }
+    }
+
+    private static int write(WritableByteChannel out, ByteBuffer buffer) throws WriteException {
+        int written = buffer.remaining();
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException ex) {
+            throw new WriteException(ex);
+        }
+        return written;
+    }
+
+    private static long transferTo(FileChannel in, WritableByteChannel out) throws ReadException, WriteException {
+        long position;
+        long size;
+        try {
+            position = in.position();
+            size = in.size();
+        } catch (IOException ex) {
+            throw new ReadException(ex);
+        }
+
+        long start = position;
+        try {
+            while (position < size) {
+                long count = in.transferTo(position, size - position, out);
+                if (count <= 0) {
+                    // the file shrunk while we were copying it
+                    break;
+                }
+                position += count;
+            }
+        } catch (IOException ex) {
+            throw new WriteException(ex);
+        }
+
+        try {
+            in.position(position);
+        } catch (IOException ex) {
+            throw new ReadException(ex);
+        }
+        return position - start;
+    }
+
+    private static long transferFrom(ReadableByteChannel in, FileChannel out) throws ReadException, WriteException {
+        long position;
+        try {
+            position = out.position();
+        } catch (IOException ex) {
+            throw new WriteException(ex);
+        }
+
+        long start = position;
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        try {
+            while (true) {
+                long count = out.transferFrom(in, position, TRANSFER_CHUNK_SIZE);
+                if (count > 0) {
+                    position += count;
+                    continue;
+                }
+
+                // transferFrom returns 0 both at the end of the source and when it had nothing
+                // to read yet, so check which one it was.
+                probe.clear();
+                if (read(in, probe) == -1) {
+                    break;
+                }
+                probe.flip();
+                position += out.write(probe, position);
+            }
+            out.position(position);
+        } catch (ReadException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new WriteException(ex);
+        }
+        return position - start;
+    }
+
+    // bytes requested per transferFrom call, bounded so that progress is visible in the file
+    private static final long TRANSFER_CHUNK_SIZE = 8L << 20; // 8 MiB
+
     public static byte[] slurp(InputStream in, int byteLimit) throws IOException {
-        return slurp(in, byteLimit, new byte[DEFAULT_COPY_BUFFER_SIZE]);
+        BufferPool pool = BufferPool.getDefault();
+        byte[] slurpBuffer = pool.acquire(DEFAULT_COPY_BUFFER_SIZE);
+        try {
+            return slurp(in, byteLimit, slurpBuffer);
+        } finally {
+            pool.release(slurpBuffer);
+        }
     }
 
     public static byte[] slurp(InputStream in, int byteLimit, byte[] slurpBuffer) throws IOException {
@@ -81,7 +329,18 @@ public class IOUtil {
     }
 
     public void copyFileToStream(File fin, OutputStream out) throws ReadException, WriteException {
-        copyFileToStream(fin, out, DEFAULT_COPY_BUFFER_SIZE);
+        FileInputStream in;
+        try {
+            in = new FileInputStream(fin);
+        } catch (IOException ex) {
+            throw new ReadException(ex);
+        }
+
+        try {
+            copyStreamToStream(in, out);
+        } finally {
+            closeInput(in);
+        }
     }
 
     public void copyFileToStream(File fin, OutputStream out, int copyBufferSize) throws ReadException, WriteException {
@@ -100,7 +359,21 @@ public class IOUtil {
     }
 
     public void copyStreamToFile(InputStream in, File fout) throws ReadException, WriteException {
-        copyStreamToFile(in, fout, DEFAULT_COPY_BUFFER_SIZE);
+        FileOutputStream out;
+        try {
+            out = new FileOutputStream(fout);
+        } catch (IOException ex) {
+            throw new WriteException(ex);
+        }
+
+        try {
+            copyStreamToStream(in, out);
+        } finally {
+            try { out.close(); } catch (IOException ex) {
+                //noinspection ThrowFromFinallyBlock
+                throw new WriteException(ex);
+            }
+        }
     }
 
     public void copyStreamToFile(InputStream in, File fout, int copyBufferSize) throws ReadException, WriteException {
@@ -244,7 +517,7 @@ public class IOUtil {
         }
 
         @Override
-        public synchronized void reset() throws IOException {
+        public void reset() throws IOException {
             throw new IOException("mark not supported");
         }
 
@@ -0,0 +1,220 @@
+package com.dropbox.core.util;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.Date;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Reads values written by a {@link SnapshotWriter}, in the order they were written.
+ *
+ * <p> Malformed snapshots are reported as {@link IOException}s, and truncated ones as {@link
+ * EOFException}s.
+ *
+ * <p> This class is not thread safe.
+ */
+public final class SnapshotReader {
+    private final /*@Nullable*/ DataInput in;
+    private final /*@Nullable*/ ByteBuffer buffer;
+    private final ArrayList<String> folders;
+    private final ArrayList<String> tokens;
+    private final CharsetDecoder decoder;
+    private byte[] scratch;
+
+    /**
+     * Creates a reader that reads a snapshot from {@code in}.
+     *
+     * @param in input to read from, never {@code null}
+     *
+     * @throws IOException if the input doesn't start with a snapshot header
+     */
+    public SnapshotReader(DataInput in) throws IOException {
+        this(checkNotNull(in, "in"), null);
+    }
+
+    /**
+     * Creates a reader that reads a snapshot from {@code buffer}, starting at its current
+     * position.
+     *
+     * @param buffer buffer to read from, never {@code null}
+     *
+     * @throws IOException if the buffer doesn't start with a snapshot header
+     */
+    public SnapshotReader(ByteBuffer buffer) throws IOException {
+        this(null, checkNotNull(buffer, "buffer"));
+    }
+
+    private SnapshotReader(/*@Nullable*/ DataInput in, /*@Nullable*/ ByteBuffer buffer) throws IOException {
+        this.in = in;
+        this.buffer = buffer;
+        this.folders = new ArrayList<String>();
+        this.tokens = new ArrayList<String>();
+        this.decoder = StringUtil.UTF8.newDecoder();
+        this.scratch = new byte[64];
+        this.folders.add("");
+
+        byte[] magic = new byte[SnapshotWriter.MAGIC.length];
+        readBytes(magic, magic.length);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != SnapshotWriter.MAGIC[i]) {
+                throw new IOException("not a snapshot");
+            }
+        }
+        int version = readVarInt();
+        if (version != SnapshotWriter.VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+    }
+
+    private static <T> T checkNotNull(T value, String name) {
+        if (value == null) throw new NullPointerException(name);
+        return value;
+    }
+
+    /**
+     * Reads a value written by {@link SnapshotWriter#writeVarLong}.
+     */
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable-length integer");
+    }
+
+    /**
+     * Reads a value written by {@link SnapshotWriter#writeVarInt}.
+     */
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("integer out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a value written by {@link SnapshotWriter#writeSignedVarLong}.
+     */
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public boolean readBoolean() throws IOException {
+        int b = readByte();
+        if (b > 1) {
+            throw new IOException("malformed boolean: " + b);
+        }
+        return b == 1;
+    }
+
+    public double readDouble() throws IOException {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        readBytes(scratch, length);
+        return decoder.decode(ByteBuffer.wrap(scratch, 0, length)).toString();
+    }
+
+    public /*@Nullable*/ String readNullableString() throws IOException {
+        return readBoolean() ? readString() : null;
+    }
+
+    /**
+     * Reads a value written by {@link SnapshotWriter#writeToken}.
+     */
+    public /*@Nullable*/ String readToken() throws IOException {
+        int code = readVarInt();
+        if (code == SnapshotWriter.TOKEN_NULL) {
+            return null;
+        }
+        if (code == SnapshotWriter.TOKEN_NEW) {
+            String token = readString();
+            if (tokens.size() < SnapshotWriter.MAX_TABLE_SIZE) {
+                tokens.add(token);
+            }
+            return token;
+        }
+        return lookup(tokens, code - SnapshotWriter.TOKEN_INDEX_BASE, "token");
+    }
+
+    /**
+     * Reads a value written by {@link SnapshotWriter#writePath}.
+     */
+    public /*@Nullable*/ String readPath() throws IOException {
+        int code = readVarInt();
+        if (code == SnapshotWriter.PATH_NULL) {
+            return null;
+        }
+        if (code == SnapshotWriter.PATH_RELATIVE) {
+            return readString();
+        }
+        return readFolder(code) + "/" + readString();
+    }
+
+    public Date readDate() throws IOException {
+        return new Date(readSignedVarLong());
+    }
+
+    public /*@Nullable*/ Date readNullableDate() throws IOException {
+        return readBoolean() ? readDate() : null;
+    }
+
+    private String readFolder(int code) throws IOException {
+        if (code != SnapshotWriter.FOLDER_NEW) {
+            return lookup(folders, code - SnapshotWriter.FOLDER_INDEX_BASE, "folder");
+        }
+        String folder = readFolder(readVarInt()) + "/" + readString();
+        if (folders.size() < SnapshotWriter.MAX_TABLE_SIZE) {
+            folders.add(folder);
+        }
+        return folder;
+    }
+
+    private static String lookup(ArrayList<String> table, int index, String what) throws IOException {
+        if (index < 0 || index >= table.size()) {
+            throw new IOException("unknown " + what + " " + index);
+        }
+        return table.get(index);
+    }
+
+    private int readByte() throws IOException {
+        if (in != null) {
+            return in.readUnsignedByte();
+        }
+        if (!buffer.hasRemaining()) {
+            throw new EOFException();
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private void readBytes(byte[] bytes, int length) throws IOException {
+        if (in != null) {
+            in.readFully(bytes, 0, length);
+            return;
+        }
+        if (buffer.remaining() < length) {
+            throw new EOFException();
+        }
+        buffer.get(bytes, 0, length);
+    }
+}
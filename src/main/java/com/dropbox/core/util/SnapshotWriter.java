@@ -0,0 +1,245 @@
+package com.dropbox.core.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.HashMap;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Writes values in the compact binary snapshot format read by {@link SnapshotReader}.
+ *
+ * <p> Numbers are written as variable-length integers, so small values take a single byte, and
+ * dates as milliseconds since the epoch. Paths are split into their folder and name, and every
+ * folder is written only once per snapshot: later paths in the same folder refer back to it by
+ * number. {@link #writeToken Tokens}, short strings that repeat a lot, are shared the same way.
+ *
+ * <p> Values must be read back in the order they were written, by a single {@link
+ * SnapshotReader}. The first bytes written identify the format, so a snapshot must be read from
+ * its start.
+ *
+ * <p> This class is not thread safe.
+ */
+public final class SnapshotWriter {
+    static final byte[] MAGIC = {'D', 'b', 'x', 'S'};
+    static final int VERSION = 1;
+
+    // maximum number of folders and tokens remembered, values after that are written in full
+    static final int MAX_TABLE_SIZE = 1 << 18;
+
+    // codes written for paths and folders, see writePath
+    static final int PATH_NULL = 0;
+    static final int PATH_RELATIVE = 1;
+    static final int FOLDER_NEW = 2;
+    static final int FOLDER_INDEX_BASE = 3;
+
+    // codes written for tokens, see writeToken
+    static final int TOKEN_NULL = 0;
+    static final int TOKEN_NEW = 1;
+    static final int TOKEN_INDEX_BASE = 2;
+
+    private final /*@Nullable*/ DataOutput out;
+    private final /*@Nullable*/ ByteBuffer buffer;
+    private final HashMap<String, Integer> folders;
+    private final HashMap<String, Integer> tokens;
+
+    /**
+     * Creates a writer that writes a new snapshot to {@code out}.
+     *
+     * @param out output to write to, never {@code null}
+     *
+     * @throws IOException if writing the snapshot header fails
+     */
+    public SnapshotWriter(DataOutput out) throws IOException {
+        this(checkNotNull(out, "out"), null);
+        writeHeader();
+    }
+
+    /**
+     * Creates a writer that writes a new snapshot to {@code buffer}, starting at its current
+     * position.
+     *
+     * @param buffer buffer to write to, never {@code null}
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is too small for the written values
+     */
+    public SnapshotWriter(ByteBuffer buffer) {
+        this(null, checkNotNull(buffer, "buffer"));
+        try {
+            writeHeader();
+        } catch (IOException ex) {
+            throw LangUtil.mkAssert("ByteBuffer writes don't throw IOException", ex);
+        }
+    }
+
+    private SnapshotWriter(/*@Nullable*/ DataOutput out, /*@Nullable*/ ByteBuffer buffer) {
+        this.out = out;
+        this.buffer = buffer;
+        this.folders = new HashMap<String, Integer>();
+        this.tokens = new HashMap<String, Integer>();
+        this.folders.put("", 0);
+    }
+
+    private static <T> T checkNotNull(T value, String name) {
+        if (value == null) throw new NullPointerException(name);
+        return value;
+    }
+
+    private void writeHeader() throws IOException {
+        writeBytes(MAGIC, 0, MAGIC.length);
+        writeVarInt(VERSION);
+    }
+
+    /**
+     * Writes an unsigned variable-length integer.
+     */
+    public void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * Writes a non-negative variable-length integer.
+     */
+    public void writeVarInt(int value) throws IOException {
+        if (value < 0) throw new IllegalArgumentException("value must not be negative");
+        writeVarLong(value);
+    }
+
+    /**
+     * Writes a signed variable-length integer, in as few bytes for small negative values as for
+     * small positive ones.
+     */
+    public void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Writes all 64 bits of a double.
+     */
+    public void writeDouble(double value) throws IOException {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            writeByte((int) (bits >>> shift));
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes.
+     *
+     * @param value string to write, never {@code null}
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) throw new NullPointerException("value");
+        byte[] utf8 = StringUtil.stringToUtf8(value);
+        writeVarInt(utf8.length);
+        writeBytes(utf8, 0, utf8.length);
+    }
+
+    public void writeNullableString(/*@Nullable*/ String value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Writes a string that is likely to be written again, such as an icon name or a shared folder
+     * ID. The first time a token is written it is written in full, after that as a number.
+     */
+    public void writeToken(/*@Nullable*/ String value) throws IOException {
+        if (value == null) {
+            writeVarInt(TOKEN_NULL);
+            return;
+        }
+        Integer index = tokens.get(value);
+        if (index != null) {
+            writeVarInt(TOKEN_INDEX_BASE + index);
+            return;
+        }
+        writeVarInt(TOKEN_NEW);
+        writeString(value);
+        if (tokens.size() < MAX_TABLE_SIZE) {
+            tokens.put(value, tokens.size());
+        }
+    }
+
+    /**
+     * Writes a path. Absolute paths are written as a reference to their parent folder followed
+     * by their name, so paths in the same folder share their parent. Other strings, such as IDs,
+     * are written in full.
+     */
+    public void writePath(/*@Nullable*/ String path) throws IOException {
+        if (path == null) {
+            writeVarInt(PATH_NULL);
+        } else if (!path.startsWith("/")) {
+            writeVarInt(PATH_RELATIVE);
+            writeString(path);
+        } else {
+            int slash = path.lastIndexOf('/');
+            writeFolder(path.substring(0, slash));
+            writeString(path.substring(slash + 1));
+        }
+    }
+
+    /**
+     * Writes a date as milliseconds since the epoch.
+     *
+     * @param value date to write, never {@code null}
+     */
+    public void writeDate(Date value) throws IOException {
+        if (value == null) throw new NullPointerException("value");
+        writeSignedVarLong(value.getTime());
+    }
+
+    public void writeNullableDate(/*@Nullable*/ Date value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeDate(value);
+        }
+    }
+
+    /**
+     * Writes a folder, the empty string for the root or an absolute path, as a reference to a
+     * folder written before or as its parent folder and name.
+     */
+    private void writeFolder(String folder) throws IOException {
+        Integer index = folders.get(folder);
+        if (index != null) {
+            writeVarInt(FOLDER_INDEX_BASE + index);
+            return;
+        }
+        writeVarInt(FOLDER_NEW);
+        int slash = folder.lastIndexOf('/');
+        writeFolder(folder.substring(0, slash));
+        writeString(folder.substring(slash + 1));
+        if (folders.size() < MAX_TABLE_SIZE) {
+            folders.put(folder, folders.size());
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (out != null) {
+            out.writeByte(value);
+        } else {
+            buffer.put((byte) value);
+        }
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (out != null) {
+            out.write(bytes, offset, length);
+        } else {
+            buffer.put(bytes, offset, length);
+        }
+    }
+}
@@ -3,9 +3,14 @@ package com.dropbox.core.v1;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.dropbox.core.*;
 import com.dropbox.core.http.HttpRequestor;
@@ -1240,7 +1245,35 @@ public final class DbxClientV1
         DbxPathV1.checkArg("targetPath", targetPath);
         if (writeMode == null) throw new IllegalArgumentException("'writeMode' can't be null");
 
-        return new ChunkedUploader(targetPath, writeMode, numBytes, new ChunkedUploadOutputStream(chunkSize));
+        return new ChunkedUploader(targetPath, writeMode, numBytes, new ChunkedUploadOutputStream(chunkSize, 1, null));
+    }
+
+    /**
+     * Similar to {@link #startUploadFileChunked(int, String, DbxWriteMode, long)}, except that
+     * filled chunks are uploaded in the background while you write the next chunk.
+     *
+     * <p>
+     * Chunks are still uploaded one at a time and in order, by a task run on {@code executor}.
+     * Writing to the returned {@link Uploader}'s body only blocks when all {@code chunkBuffers}
+     * chunks are filled and waiting to be uploaded, so at most {@code chunkBuffers * chunkSize}
+     * bytes are buffered at any time.  Errors uploading a chunk are thrown by the next
+     * {@code write} or by {@link Uploader#finish}.
+     * </p>
+     *
+     * @param chunkBuffers
+     *     The number of chunks to buffer, at least 2.
+     *
+     * @param executor
+     *     Runs the task uploading filled chunks.
+     */
+    public Uploader startUploadFileChunked(int chunkSize, int chunkBuffers, Executor executor, String targetPath, DbxWriteMode writeMode, long numBytes)
+    {
+        DbxPathV1.checkArg("targetPath", targetPath);
+        if (writeMode == null) throw new IllegalArgumentException("'writeMode' can't be null");
+        if (chunkBuffers < 2) throw new IllegalArgumentException("'chunkBuffers' must be at least 2; given " + chunkBuffers);
+        if (executor == null) throw new IllegalArgumentException("'executor' can't be null");
+
+        return new ChunkedUploader(targetPath, writeMode, numBytes, new ChunkedUploadOutputStream(chunkSize, chunkBuffers, executor));
     }
 
     /**
@@ -1263,6 +1296,18 @@ public final class DbxClientV1
         return finishUploadFile(uploader, writer);
     }
 
+    /**
+     * Similar to {@link #uploadFile}, except always uses the chunked upload API and uploads
+     * chunks in the background while {@code writer} writes the next one.  See
+     * {@link #startUploadFileChunked(int, int, Executor, String, DbxWriteMode, long)}.
+     */
+    public <E extends Throwable> DbxEntry.File uploadFileChunked(int chunkSize, int chunkBuffers, Executor executor, String targetPath, DbxWriteMode writeMode, long numBytes, DbxStreamWriter<E> writer)
+        throws DbxException, E
+    {
+        Uploader uploader = startUploadFileChunked(chunkSize, chunkBuffers, executor, targetPath, writeMode, numBytes);
+        return finishUploadFile(uploader, writer);
+    }
+
     private final class ChunkedUploader extends Uploader
     {
         private final String targetPath;
@@ -1294,17 +1339,18 @@ public final class DbxClientV1
         public DbxEntry.File finish()
             throws DbxException
         {
-            if (body.uploadId == null) {
+            if (!body.started) {
                 // They didn't write enough data to fill up a chunk.  Use the regular file upload
                 // call to create the file with a single call.
                 return uploadFileSingle(targetPath, writeMode, body.chunkPos,
                                         new DbxStreamWriter.ByteArrayCopier(body.chunk, 0, body.chunkPos));
             }
             else {
-                final String uploadId = body.uploadId;  // To help Checker Framework
+                // Upload whatever is left in the current chunk.
                 body.finishChunk();
+                body.awaitChunks();
+                final String uploadId = body.uploadId;  // To help Checker Framework
 
-                // Upload whatever is left in the current chunk.
                 if (numBytes != -1) {
                     // Make sure the number of bytes they sent matches what they said they'd send.
                     if (numBytes != body.uploadOffset) {
@@ -1326,20 +1372,26 @@ public final class DbxClientV1
         public void close()
         {
             // TODO: Figure out how to abort chunked uploads.
+            body.cancelChunks();
         }
     }
 
     private final class ChunkedUploadOutputStream extends OutputStream
     {
-        private final byte[] chunk;
+        private byte[] chunk;
         private int chunkPos = 0;
+        // whether any chunk was handed off for upload
+        private boolean started;
         private /*@MonotonicNonNull*/String uploadId;
         private long uploadOffset;
+        private final /*@Nullable*/ChunkPipeline pipeline;
 
-        private ChunkedUploadOutputStream(int chunkSize)
+        private ChunkedUploadOutputStream(int chunkSize, int chunkBuffers, /*@Nullable*/Executor executor)
         {
             this.chunk = new byte[chunkSize];
             this.chunkPos = 0;
+            this.started = false;
+            this.pipeline = executor == null ? null : new ChunkPipeline(chunkBuffers, executor);
         }
 
         @Override
@@ -1369,16 +1421,49 @@ public final class DbxClientV1
         {
             if (chunkPos == 0) return;
 
+            started = true;
+            if (pipeline == null) {
+                uploadChunk(chunk, chunkPos);
+            } else {
+                chunk = pipeline.send(chunk, chunkPos);
+            }
+            chunkPos = 0;
+        }
+
+        /**
+         * Waits until all finished chunks are uploaded.
+         */
+        private void awaitChunks()
+            throws DbxException
+        {
+            if (pipeline != null) {
+                pipeline.await();
+            }
+        }
+
+        /**
+         * Drops finished chunks that haven't been uploaded yet.
+         */
+        private void cancelChunks()
+        {
+            if (pipeline != null) {
+                pipeline.cancel();
+            }
+        }
+
+        private void uploadChunk(final byte[] data, final int length)
+            throws DbxException
+        {
             if (uploadId == null) {
                 // don't use requestConfig.getMaxRetries() here because (1) auto-retry doesn't apply
                 // to uploads, according to documentation, and (2) auto-retry is off by default,
                 // which would break backwards compatibility here.
                 uploadId = DbxRequestUtil.runAndRetry(3, new DbxRequestUtil.RequestMaker<String, RuntimeException>() {
                     public String run() throws DbxException {
-                        return chunkedUploadFirst(chunk, 0, chunkPos);
+                        return chunkedUploadFirst(data, 0, length);
                     }
                 });
-                uploadOffset = chunkPos;
+                uploadOffset = length;
             } else {
                 final String uploadId = this.uploadId;  // To help Checker Framework
                 int arrayOffset = 0;
@@ -1387,22 +1472,20 @@ public final class DbxClientV1
                     // don't use requestConfig.getMaxRetries() (see comment above)
                     long correctedOffset = DbxRequestUtil.runAndRetry(3, new DbxRequestUtil.RequestMaker<Long, RuntimeException>() {
                         public Long run() throws DbxException {
-                            return chunkedUploadAppend(uploadId, uploadOffset, chunk, arrayOffsetFinal, chunkPos-arrayOffsetFinal);
+                            return chunkedUploadAppend(uploadId, uploadOffset + arrayOffsetFinal, data, arrayOffsetFinal, length-arrayOffsetFinal);
                         }
                     });
-                    long expectedOffset = uploadOffset + chunkPos;
+                    long expectedOffset = uploadOffset + length;
                     if (correctedOffset == -1) {
                         // Everything went ok.
                         uploadOffset = expectedOffset;
                         break;
                     } else {
                         // Server needs us to resend partial data.
-                        int adjustAmount = (int) (correctedOffset - uploadOffset);
-                        arrayOffset += adjustAmount;
+                        arrayOffset = (int) (correctedOffset - uploadOffset);
                     }
                 }
             }
-            chunkPos = 0;
         }
 
         @Override
@@ -1432,6 +1515,172 @@ public final class DbxClientV1
             throws IOException
         {
         }
+
+        /**
+         * Uploads finished chunks in order, one at a time, on a task run by an {@link Executor},
+         * while the caller fills the next chunk.  At most {@code maxBuffers} chunk buffers are
+         * allocated, including the one being filled; they are reused once uploaded.
+         */
+        private final class ChunkPipeline implements Runnable
+        {
+            private final int maxBuffers;
+            private final Executor executor;
+
+            private final ReentrantLock lock;
+            private final Condition changed;
+            private final ArrayDeque<byte[]> filled;
+            private final ArrayDeque<Integer> filledLengths;
+            private final ArrayDeque<byte[]> free;
+            private int allocated;
+            private boolean running;
+            private /*@Nullable*/Exception failure;
+
+            private ChunkPipeline(int maxBuffers, Executor executor)
+            {
+                this.maxBuffers = maxBuffers;
+                this.executor = executor;
+
+                this.lock = new ReentrantLock();
+                this.changed = lock.newCondition();
+                this.filled = new ArrayDeque<byte[]>();
+                this.filledLengths = new ArrayDeque<Integer>();
+                this.free = new ArrayDeque<byte[]>();
+                this.allocated = 1;  // the chunk being filled
+                this.running = false;
+                this.failure = null;
+            }
+
+            /**
+             * Queues {@code data} for upload and returns the buffer to fill next, waiting for an
+             * earlier chunk to finish uploading if all buffers are in use.
+             */
+            private byte[] send(byte[] data, int length)
+                throws DbxException
+            {
+                boolean start;
+                lock.lock();
+                try {
+                    throwFailure();
+                    filled.addLast(data);
+                    filledLengths.addLast(length);
+                    start = !running;
+                    running = true;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (start) {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException ex) {
+                        // upload the chunk ourselves
+                        run();
+                    }
+                }
+
+                lock.lock();
+                try {
+                    while (free.isEmpty() && allocated == maxBuffers && failure == null) {
+                        changed.awaitUninterruptibly();
+                    }
+                    throwFailure();
+                    if (!free.isEmpty()) {
+                        return free.removeFirst();
+                    }
+                    ++allocated;
+                    return new byte[data.length];
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            private void await()
+                throws DbxException
+            {
+                lock.lock();
+                try {
+                    while (running) {
+                        changed.awaitUninterruptibly();
+                    }
+                    throwFailure();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            private void cancel()
+            {
+                lock.lock();
+                try {
+                    filled.clear();
+                    filledLengths.clear();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void run()
+            {
+                while (true) {
+                    byte[] data;
+                    int length;
+                    lock.lock();
+                    try {
+                        if (filled.isEmpty() || failure != null) {
+                            running = false;
+                            changed.signalAll();
+                            return;
+                        }
+                        data = filled.removeFirst();
+                        length = filledLengths.removeFirst();
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    Exception error = null;
+                    boolean uploaded = false;
+                    try {
+                        uploadChunk(data, length);
+                        uploaded = true;
+                    } catch (DbxException ex) {
+                        error = ex;
+                    } catch (RuntimeException ex) {
+                        error = ex;
+                    } finally {
+                        lock.lock();
+                        try {
+                            if (uploaded) {
+                                free.addLast(data);
+                            } else {
+                                // later chunks can't be appended without this one
+                                failure = error != null ? error : new DbxException("Uploading chunk failed");
+                                filled.clear();
+                                filledLengths.clear();
+                                running = false;
+                            }
+                            changed.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    if (!uploaded) {
+                        return;
+                    }
+                }
+            }
+
+            private void throwFailure()
+                throws DbxException
+            {
+                if (failure instanceof DbxException) {
+                    throw (DbxException) failure;
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+            }
+        }
     }
 
     /**
@@ -0,0 +1,208 @@
+package com.dropbox.core.v1;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.util.Collector;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Reads every page of a delta cursor and passes the entries to a single {@link Handler}.
+ *
+ * <p>
+ * Catching up with {@link DbxClientV1#getDelta} means calling it until {@link DbxDelta#hasMore
+ * hasMore} is {@code false}, applying each page and saving its cursor along the way.  This class
+ * does that loop for you: it requests {@code /1/delta} pages back to back, passes each entry to
+ * {@link Handler#entry} and calls {@link Handler#checkpoint} with the page's cursor once all of the
+ * page's entries were handled.  At most two pages are held in memory at a time, however many
+ * entries the account has.
+ * </p>
+ *
+ * <p>
+ * When given an {@link Executor}, the next page is requested in the background while the
+ * entries of the current page are being handled, so the handler and the network don't wait on
+ * each other.
+ * </p>
+ *
+ * <pre>
+ * DbxDeltaStream stream = new DbxDeltaStream(dbxClient, executor);
+ * String cursor = stream.stream(savedCursor, new DbxDeltaStream.Handler() {
+ *     public void reset() { index.clear(); }
+ *     public void entry(DbxDeltaC.Entry&lt;DbxEntry&gt; entry) { index.apply(entry); }
+ *     public void checkpoint(String cursor) { index.saveCursor(cursor); }
+ * });
+ * </pre>
+ *
+ * <p>
+ * This class is thread safe.  The executor is not shut down by this class.
+ * </p>
+ */
+public final class DbxDeltaStream
+{
+    private final DbxClientV1 client;
+    private final /*@Nullable*/Executor executor;
+
+    /**
+     * @param client
+     *     The client to request delta pages with.
+     *
+     * @param executor
+     *     Requests the next page while the current one is being handled, or {@code null} to
+     *     request each page only once the previous one was handled.
+     */
+    public DbxDeltaStream(DbxClientV1 client, /*@Nullable*/Executor executor)
+    {
+        if (client == null) throw new IllegalArgumentException("'client' can't be null");
+
+        this.client = client;
+        this.executor = executor;
+    }
+
+    /**
+     * Same as {@link #stream(String, String, boolean, Handler)} with no {@code pathPrefix} and
+     * {@code includeMediaInfo} set to {@code false}.
+     */
+    public String stream(/*@Nullable*/String cursor, Handler handler)
+        throws DbxException, InterruptedException
+    {
+        return stream(cursor, null, false, handler);
+    }
+
+    /**
+     * Passes every delta entry after {@code cursor} to {@code handler}, until there are no more
+     * entries.
+     *
+     * <p>
+     * Entries of a page that wasn't checkpointed yet may be passed to the handler again when
+     * streaming is resumed from the last checkpoint.  Applying a delta entry twice has the same
+     * effect as applying it once, so handlers normally don't need to care.
+     * </p>
+     *
+     * @param cursor
+     *     The cursor to continue from, or {@code null} to start from scratch.
+     *
+     * @param pathPrefix
+     *     A path on Dropbox to limit results to, or {@code null} for the whole Dropbox.  Must be
+     *     the same path the cursor was created with.
+     *
+     * @param handler
+     *     Called from the current thread for every entry and page boundary.
+     *
+     * @return
+     *     The cursor of the last page, to pass to the next call once there are new changes.
+     *
+     * @throws DbxException
+     *     If requesting a page failed.  Pages up to the last checkpoint were handled completely.
+     * @throws InterruptedException
+     *     If interrupted while waiting for the next page.
+     */
+    public String stream(/*@Nullable*/String cursor, /*@Nullable*/String pathPrefix, boolean includeMediaInfo,
+                         Handler handler)
+        throws DbxException, InterruptedException
+    {
+        if (pathPrefix != null) DbxPathV1.checkArg("pathPrefix", pathPrefix);
+        if (handler == null) throw new IllegalArgumentException("'handler' can't be null");
+
+        FutureTask<DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>>> next = fetch(cursor, pathPrefix, includeMediaInfo);
+        try {
+            while (true) {
+                DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>> page = await(next);
+                next = page.hasMore ? fetch(page.cursor, pathPrefix, includeMediaInfo) : null;
+
+                if (page.reset) {
+                    handler.reset();
+                }
+                for (DbxDeltaC.Entry<DbxEntry> entry : page.entries) {
+                    handler.entry(entry);
+                }
+                handler.checkpoint(page.cursor);
+
+                if (next == null) {
+                    return page.cursor;
+                }
+            }
+        }
+        finally {
+            if (next != null) {
+                // don't leave a prefetched page behind if the handler failed
+                next.cancel(true);
+            }
+        }
+    }
+
+    private FutureTask<DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>>> fetch(
+            final /*@Nullable*/String cursor, final /*@Nullable*/String pathPrefix, final boolean includeMediaInfo)
+    {
+        FutureTask<DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>>> task = new FutureTask<DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>>>(
+            new Callable<DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>>>() {
+                @Override
+                public DbxDeltaC<ArrayList<DbxDeltaC.Entry<DbxEntry>>> call() throws DbxException
+                {
+                    Collector<DbxDeltaC.Entry<DbxEntry>, ArrayList<DbxDeltaC.Entry<DbxEntry>>> collector =
+                        new Collector.ArrayListCollector<DbxDeltaC.Entry<DbxEntry>>();
+                    if (pathPrefix == null) {
+                        return client.getDeltaC(collector, cursor, includeMediaInfo);
+                    }
+                    return client.getDeltaCWithPathPrefix(collector, cursor, pathPrefix, includeMediaInfo);
+                }
+            });
+
+        if (executor == null) {
+            task.run();
+        }
+        else {
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException ex) {
+                // fetch it ourselves
+                task.run();
+            }
+        }
+        return task;
+    }
+
+    private static <T> T await(FutureTask<T> task)
+        throws DbxException, InterruptedException
+    {
+        try {
+            return task.get();
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof DbxException) throw (DbxException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new DbxException("Requesting delta page failed", cause);
+        }
+    }
+
+    /**
+     * Receives the entries read by a {@link DbxDeltaStream}.
+     */
+    public static abstract class Handler
+    {
+        /**
+         * Called before the entries of a page that requires you to reset your local state to be
+         * an empty folder, see {@link DbxDeltaC#reset}.
+         */
+        public abstract void reset();
+
+        /**
+         * Called once for every delta entry, in order.
+         */
+        public abstract void entry(DbxDeltaC.Entry<DbxEntry> entry);
+
+        /**
+         * Called after all entries of a page were passed to {@link #entry}.  Save {@code cursor}
+         * together with the applied entries to resume from here later.
+         */
+        public abstract void checkpoint(String cursor);
+    }
+}
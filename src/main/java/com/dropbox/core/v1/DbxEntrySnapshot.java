@@ -0,0 +1,212 @@
+package com.dropbox.core.v1;
+
+import com.dropbox.core.util.SnapshotReader;
+import com.dropbox.core.util.SnapshotWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Writes {@link DbxEntry} and {@link DbxEntry.WithChildren} values in the compact binary snapshot
+ * format of {@link SnapshotWriter}, and reads them back.
+ *
+ * <p>
+ * Snapshots are much smaller and faster to write and read than Java serialization of the same
+ * entries: paths in the same folder share the folder, icon names are shared, and dates are
+ * written as numbers.  Unlike Java serialization, entries with {@link DbxEntry.File#photoInfo photo}
+ * or {@link DbxEntry.File#videoInfo video} info can be written too.
+ * </p>
+ *
+ * <pre>
+ * DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+ * SnapshotWriter writer = new SnapshotWriter(out);
+ * DbxEntrySnapshot.writeWithChildren(writer, folder);
+ * out.close();
+ * </pre>
+ */
+public final class DbxEntrySnapshot
+{
+    private static final int FLAG_FILE = 1;
+    private static final int FLAG_THUMBNAIL = 1 << 1;
+    // two bits each for photo and video info: MEDIA_NONE, MEDIA_PENDING or MEDIA_PRESENT
+    private static final int SHIFT_PHOTO = 2;
+    private static final int SHIFT_VIDEO = 4;
+    private static final int MEDIA_NONE = 0;
+    private static final int MEDIA_PENDING = 1;
+    private static final int MEDIA_PRESENT = 2;
+    private static final int MEDIA_MASK = 3;
+    private static final int FLAGS_MASK = (1 << 6) - 1;
+
+    private DbxEntrySnapshot() {}
+
+    /**
+     * Writes a file or folder entry.
+     */
+    public static void write(SnapshotWriter out, DbxEntry entry)
+        throws IOException
+    {
+        if (entry.isFolder()) {
+            out.writeVarInt(entry.mightHaveThumbnail ? FLAG_THUMBNAIL : 0);
+            out.writePath(entry.path);
+            out.writeToken(entry.iconName);
+            return;
+        }
+
+        DbxEntry.File file = entry.asFile();
+        int flags = FLAG_FILE;
+        if (file.mightHaveThumbnail) flags |= FLAG_THUMBNAIL;
+        flags |= mediaState(file.photoInfo, DbxEntry.File.PhotoInfo.PENDING) << SHIFT_PHOTO;
+        flags |= mediaState(file.videoInfo, DbxEntry.File.VideoInfo.PENDING) << SHIFT_VIDEO;
+        out.writeVarInt(flags);
+        out.writePath(file.path);
+        out.writeToken(file.iconName);
+        out.writeVarLong(file.numBytes);
+        out.writeToken(file.humanSize);
+        out.writeDate(file.lastModified);
+        // usually close to lastModified, so the difference is short
+        out.writeSignedVarLong(file.clientMtime.getTime() - file.lastModified.getTime());
+        out.writeString(file.rev);
+
+        if (file.photoInfo != null && file.photoInfo != DbxEntry.File.PhotoInfo.PENDING) {
+            out.writeNullableDate(file.photoInfo.timeTaken);
+            writeLocation(out, file.photoInfo.location);
+        }
+        if (file.videoInfo != null && file.videoInfo != DbxEntry.File.VideoInfo.PENDING) {
+            out.writeNullableDate(file.videoInfo.timeTaken);
+            writeLocation(out, file.videoInfo.location);
+            out.writeBoolean(file.videoInfo.duration != null);
+            if (file.videoInfo.duration != null) {
+                out.writeVarLong(file.videoInfo.duration);
+            }
+        }
+    }
+
+    /**
+     * Reads an entry written by {@link #write}.
+     */
+    public static DbxEntry read(SnapshotReader in)
+        throws IOException
+    {
+        int flags = in.readVarInt();
+        if ((flags & ~FLAGS_MASK) != 0) throw new IOException("malformed entry flags: " + flags);
+        boolean mightHaveThumbnail = (flags & FLAG_THUMBNAIL) != 0;
+        String path = readNonNullPath(in);
+        String iconName = readNonNullToken(in);
+
+        if ((flags & FLAG_FILE) == 0) {
+            return new DbxEntry.Folder(path, iconName, mightHaveThumbnail);
+        }
+
+        long numBytes = in.readVarLong();
+        String humanSize = readNonNullToken(in);
+        Date lastModified = in.readDate();
+        Date clientMtime = new Date(lastModified.getTime() + in.readSignedVarLong());
+        String rev = in.readString();
+
+        DbxEntry.File./*@Nullable*/PhotoInfo photoInfo = null;
+        switch ((flags >> SHIFT_PHOTO) & MEDIA_MASK) {
+            case MEDIA_NONE: break;
+            case MEDIA_PENDING: photoInfo = DbxEntry.File.PhotoInfo.PENDING; break;
+            case MEDIA_PRESENT: photoInfo = new DbxEntry.File.PhotoInfo(in.readNullableDate(), readLocation(in)); break;
+            default: throw new IOException("malformed entry flags: " + flags);
+        }
+        DbxEntry.File./*@Nullable*/VideoInfo videoInfo = null;
+        switch ((flags >> SHIFT_VIDEO) & MEDIA_MASK) {
+            case MEDIA_NONE: break;
+            case MEDIA_PENDING: videoInfo = DbxEntry.File.VideoInfo.PENDING; break;
+            case MEDIA_PRESENT:
+                Date timeTaken = in.readNullableDate();
+                DbxEntry.File./*@Nullable*/Location location = readLocation(in);
+                Long duration = in.readBoolean() ? in.readVarLong() : null;
+                videoInfo = new DbxEntry.File.VideoInfo(timeTaken, location, duration);
+                break;
+            default: throw new IOException("malformed entry flags: " + flags);
+        }
+
+        return new DbxEntry.File(path, iconName, mightHaveThumbnail, numBytes, humanSize,
+                                 lastModified, clientMtime, rev, photoInfo, videoInfo);
+    }
+
+    /**
+     * Writes an entry together with its folder hash and children, if it's a folder.
+     */
+    public static void writeWithChildren(SnapshotWriter out, DbxEntry.WithChildren entry)
+        throws IOException
+    {
+        write(out, entry.entry);
+        out.writeNullableString(entry.hash);
+        if (entry.children == null) {
+            out.writeVarInt(0);
+        }
+        else {
+            out.writeVarInt(entry.children.size() + 1);
+            for (DbxEntry child : entry.children) {
+                write(out, child);
+            }
+        }
+    }
+
+    /**
+     * Reads an entry written by {@link #writeWithChildren}.
+     */
+    public static DbxEntry.WithChildren readWithChildren(SnapshotReader in)
+        throws IOException
+    {
+        DbxEntry entry = read(in);
+        String hash = in.readNullableString();
+        int count = in.readVarInt();
+        List<DbxEntry> children = null;
+        if (count > 0) {
+            children = new ArrayList<DbxEntry>(Math.min(count - 1, 25000));
+            for (int i = 0; i < count - 1; i++) {
+                children.add(read(in));
+            }
+        }
+        return new DbxEntry.WithChildren(entry, hash, children);
+    }
+
+    private static int mediaState(/*@Nullable*/Object info, Object pending)
+    {
+        if (info == null) return MEDIA_NONE;
+        return info == pending ? MEDIA_PENDING : MEDIA_PRESENT;
+    }
+
+    private static void writeLocation(SnapshotWriter out, DbxEntry.File./*@Nullable*/Location location)
+        throws IOException
+    {
+        out.writeBoolean(location != null);
+        if (location != null) {
+            out.writeDouble(location.latitude);
+            out.writeDouble(location.longitude);
+        }
+    }
+
+    private static DbxEntry.File./*@Nullable*/Location readLocation(SnapshotReader in)
+        throws IOException
+    {
+        if (!in.readBoolean()) return null;
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        return new DbxEntry.File.Location(latitude, longitude);
+    }
+
+    private static String readNonNullPath(SnapshotReader in)
+        throws IOException
+    {
+        String path = in.readPath();
+        if (path == null) throw new IOException("missing path");
+        return path;
+    }
+
+    private static String readNonNullToken(SnapshotReader in)
+        throws IOException
+    {
+        String token = in.readToken();
+        if (token == null) throw new IOException("missing token");
+        return token;
+    }
+}
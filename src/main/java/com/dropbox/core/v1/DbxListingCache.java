@@ -0,0 +1,297 @@
+package com.dropbox.core.v1;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.util.Maybe;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Remembers folder listings and re-lists folders only if they changed.
+ *
+ * <p>
+ * The first time a folder is listed, its children are fetched with
+ * {@link DbxClientV1#getMetadataWithChildren} and kept together with the folder's
+ * {@link DbxEntry.WithChildren#hash hash}.  Later listings send the stored hash with
+ * {@link DbxClientV1#getMetadataWithChildrenIfChanged}, and return the kept children if the server
+ * reports the folder hasn't changed.  That is still one request per listing, but an unchanged
+ * folder doesn't have to be downloaded and parsed again.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded both by the number of folders and by the estimated size of their
+ * children.  When either bound is exceeded, the least recently listed folders are dropped.
+ * </p>
+ *
+ * <pre>
+ * DbxListingCache listings = new DbxListingCache(dbxClient, 10000, 64 * 1024 * 1024);
+ * DbxEntry.WithChildren folder = listings.getMetadataWithChildren("/Photos");
+ * </pre>
+ *
+ * <p>
+ * This class is thread safe.  Listings returned by the cache are shared between callers, and
+ * their {@link DbxEntry.WithChildren#children children} can't be modified.
+ * </p>
+ */
+public final class DbxListingCache
+{
+    // rough size of a DbxEntry without its strings, used to estimate the size of listings
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final DbxClientV1 client;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    private final ReentrantLock lock;
+    private final LinkedHashMap<String, Listing> listings;
+    private long cachedBytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * @param client
+     *     The client to list folders with.
+     *
+     * @param maxEntries
+     *     The maximum number of folder listings to keep.
+     *
+     * @param maxBytes
+     *     The maximum estimated size, in bytes, of all kept listings together.
+     */
+    public DbxListingCache(DbxClientV1 client, int maxEntries, long maxBytes)
+    {
+        if (client == null) throw new IllegalArgumentException("'client' can't be null");
+        if (maxEntries <= 0) throw new IllegalArgumentException("'maxEntries' must be positive; given " + maxEntries);
+        if (maxBytes <= 0) throw new IllegalArgumentException("'maxBytes' must be positive; given " + maxBytes);
+
+        this.client = client;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+
+        this.lock = new ReentrantLock();
+        this.listings = new LinkedHashMap<String, Listing>(16, 0.75f, true);
+        this.cachedBytes = 0;
+
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    /**
+     * Same as {@link #getMetadataWithChildren(String, boolean)} with {@code includeMediaInfo} set
+     * to {@code false}.
+     */
+    public DbxEntry./*@Nullable*/WithChildren getMetadataWithChildren(String path)
+        throws DbxException
+    {
+        return getMetadataWithChildren(path, false);
+    }
+
+    /**
+     * Same as {@link DbxClientV1#getMetadataWithChildren(String, boolean)}, except that the
+     * children of a folder listed before are only downloaded again if the folder changed.
+     *
+     * @return
+     *     The metadata of the file or folder and, if it's a folder, of its children, or
+     *     {@code null} if there's nothing at {@code path}.  The list of children is unmodifiable.
+     */
+    public DbxEntry./*@Nullable*/WithChildren getMetadataWithChildren(String path, boolean includeMediaInfo)
+        throws DbxException
+    {
+        DbxPathV1.checkArg("path", path);
+
+        String key = key(path, includeMediaInfo);
+        Listing cached;
+        lock.lock();
+        try {
+            cached = listings.get(key);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        DbxEntry./*@Nullable*/WithChildren listing;
+        if (cached == null) {
+            listing = client.getMetadataWithChildren(path, includeMediaInfo);
+        }
+        else {
+            Maybe<DbxEntry./*@Nullable*/WithChildren> changed =
+                client.getMetadataWithChildrenIfChanged(path, includeMediaInfo, cached.folder.hash);
+            if (changed.isNothing()) {
+                hits.incrementAndGet();
+                return cached.folder;
+            }
+            listing = changed.getJust();
+        }
+        if (listing != null && listing.children != null) {
+            listing = new DbxEntry.WithChildren(
+                listing.entry, listing.hash, Collections.unmodifiableList(listing.children));
+        }
+
+        misses.incrementAndGet();
+        lock.lock();
+        try {
+            remove(key);
+            if (listing != null && listing.hash != null && listing.children != null) {
+                put(key, new Listing(listing, estimateBytes(listing.children)));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        return listing;
+    }
+
+    /**
+     * Drops the kept listing of the given folder, if any.
+     */
+    public void invalidate(String path)
+    {
+        DbxPathV1.checkArg("path", path);
+
+        lock.lock();
+        try {
+            remove(key(path, false));
+            remove(key(path, true));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all kept listings.
+     */
+    public void clear()
+    {
+        lock.lock();
+        try {
+            listings.clear();
+            cachedBytes = 0;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of folder listings kept.
+     */
+    public int size()
+    {
+        lock.lock();
+        try {
+            return listings.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the estimated size, in bytes, of all kept listings together.
+     */
+    public long getCachedBytes()
+    {
+        lock.lock();
+        try {
+            return cachedBytes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of listings served from the cache because the folder hadn't changed.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of listings that had to be downloaded, either because no listing was
+     * kept or because the folder had changed.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Returns the fraction of listings served from the cache.
+     *
+     * @return
+     *     A ratio between {@code 0.0} and {@code 1.0}, or {@code 0.0} if nothing was listed.
+     */
+    public double getHitRatio()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private void put(String key, Listing listing)
+    {
+        if (listing.bytes > maxBytes) {
+            // wouldn't fit even on its own
+            return;
+        }
+        listings.put(key, listing);
+        cachedBytes += listing.bytes;
+
+        Iterator<Map.Entry<String, Listing>> eldest = listings.entrySet().iterator();
+        while (listings.size() > maxEntries || cachedBytes > maxBytes) {
+            cachedBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    private void remove(String key)
+    {
+        Listing removed = listings.remove(key);
+        if (removed != null) {
+            cachedBytes -= removed.bytes;
+        }
+    }
+
+    private static String key(String path, boolean includeMediaInfo)
+    {
+        // Dropbox paths are case-insensitive
+        return (includeMediaInfo ? "m" : "-") + path.toLowerCase(Locale.ROOT);
+    }
+
+    private static long estimateBytes(List<DbxEntry> children)
+    {
+        long bytes = 0;
+        for (DbxEntry child : children) {
+            bytes += ENTRY_OVERHEAD_BYTES + 2 * (child.name.length() + child.path.length() + child.iconName.length());
+            if (child instanceof DbxEntry.File) {
+                DbxEntry.File file = (DbxEntry.File) child;
+                bytes += 2 * (file.rev.length() + file.humanSize.length());
+            }
+        }
+        return bytes;
+    }
+
+    private static final class Listing
+    {
+        private final DbxEntry.WithChildren folder;
+        private final long bytes;
+
+        private Listing(DbxEntry.WithChildren folder, long bytes)
+        {
+            this.folder = folder;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeleteBatchJobStatus;
+import com.dropbox.core.v2.files.RelocationBatchJobStatus;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchJobStatus;
+import com.dropbox.core.v2.sharing.DbxUserSharingRequests;
+import com.dropbox.core.v2.sharing.JobStatus;
+import com.dropbox.core.v2.sharing.RemoveMemberJobStatus;
+import com.dropbox.core.v2.sharing.ShareFolderJobStatus;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls asynchronous jobs launched by routes like {@code copy_batch}, {@code move_batch}, {@code
+ * delete_batch}, {@code upload_session/finish_batch} and the sharing routes that return an async
+ * job ID.
+ *
+ * <p> All outstanding jobs share one {@link ScheduledExecutorService}. A job only occupies a
+ * thread while its status check request is in flight, so thousands of jobs can be polled by a
+ * handful of threads. Each job backs off exponentially, starting at the initial delay and doubling
+ * after every in-progress status up to the maximum delay. {@link RetryException} backoffs returned
+ * by the server are honored.
+ *
+ * <pre><code>
+ *    DbxAsyncJobPoller poller = new DbxAsyncJobPoller(Executors.newScheduledThreadPool(2));
+ *
+ *    RelocationBatchLaunch launch = client.files().copyBatch(entries);
+ *    if (launch.isAsyncJobId()) {
+ *        Future&lt;RelocationBatchJobStatus&gt; status = poller.poll(
+ *            launch.getAsyncJobIdValue(),
+ *            DbxAsyncJobPoller.copyBatchCheck(client.files())
+ *        );
+ *        // ... do other work ...
+ *        RelocationBatchResult result = status.get().getCompleteValue();
+ *    }
+ * </code></pre>
+ *
+ * <p> This class is thread safe. The executor is not shut down by this class.
+ */
+public final class DbxAsyncJobPoller {
+    /**
+     * Default delay before the first status check of a job.
+     */
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500L;
+    /**
+     * Default upper bound on the delay between two status checks of a job.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Random RAND = new Random();
+
+    private final ScheduledExecutorService executor;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final AtomicInteger activeJobs;
+
+    /**
+     * Creates a poller with the default backoff settings.
+     *
+     * @param executor executor to issue status checks on, never {@code null}
+     */
+    public DbxAsyncJobPoller(ScheduledExecutorService executor) {
+        this(executor, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a poller with the given backoff settings.
+     *
+     * @param executor executor to issue status checks on, never {@code null}
+     * @param initialDelay delay before the first status check of a job, must be positive
+     * @param maxDelay upper bound on the delay between two status checks of a job, must not be
+     *     less than {@code initialDelay}
+     * @param unit unit of {@code initialDelay} and {@code maxDelay}
+     */
+    public DbxAsyncJobPoller(ScheduledExecutorService executor, long initialDelay, long maxDelay, TimeUnit unit) {
+        if (executor == null) throw new NullPointerException("executor");
+        if (unit == null) throw new NullPointerException("unit");
+        if (initialDelay <= 0) throw new IllegalArgumentException("initialDelay must be positive");
+        if (maxDelay < initialDelay) throw new IllegalArgumentException("maxDelay must not be less than initialDelay");
+
+        this.executor = executor;
+        this.initialDelayMillis = unit.toMillis(initialDelay);
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        this.activeJobs = new AtomicInteger(0);
+    }
+
+    /**
+     * Polls the given job until it is no longer in progress.
+     *
+     * <p> The returned future completes with the first status that is not in progress. If a
+     * status check fails, the future fails with an {@link ExecutionException} wrapping the {@link
+     * DbxException}. Cancelling the future stops polling the job.
+     *
+     * @param asyncJobId ID of the job to poll, never {@code null}
+     * @param checker checks the job status, never {@code null}
+     *
+     * @return future holding the final job status
+     */
+    public <T> Future<T> poll(String asyncJobId, JobChecker<T> checker) {
+        return poll(asyncJobId, checker, null);
+    }
+
+    /**
+     * Same as {@link #poll(String, JobChecker)}, but also notifies {@code callback} when the job
+     * completes.
+     *
+     * <p> The callback is invoked from one of the executor's threads.
+     *
+     * @param asyncJobId ID of the job to poll, never {@code null}
+     * @param checker checks the job status, never {@code null}
+     * @param callback notified when polling the job completes or fails, or {@code null}
+     *
+     * @return future holding the final job status
+     */
+    public <T> Future<T> poll(String asyncJobId, JobChecker<T> checker, /*@Nullable*/ Callback<T> callback) {
+        if (asyncJobId == null) throw new NullPointerException("asyncJobId");
+        if (checker == null) throw new NullPointerException("checker");
+
+        Job<T> job = new Job<T>(asyncJobId, checker, callback);
+        activeJobs.incrementAndGet();
+        job.schedule(initialDelayMillis);
+        return job;
+    }
+
+    /**
+     * Returns the number of jobs that are currently being polled.
+     *
+     * @return number of jobs that have not completed yet
+     */
+    public int getActiveJobCount() {
+        return activeJobs.get();
+    }
+
+    private long nextDelay(long delayMillis) {
+        long next = Math.min(2 * delayMillis, maxDelayMillis);
+        // jitter so jobs launched together don't check in lockstep
+        return next + RAND.nextInt((int) Math.max(1L, Math.min(next / 10, 1000L)));
+    }
+
+    private final class Job<T> extends SettableFuture<T> {
+        private final String asyncJobId;
+        private final JobChecker<T> checker;
+        private final Callback<T> callback;
+
+        private final AtomicBoolean released;
+        private final Runnable check;
+        private volatile long delayMillis;
+
+        private Job(String asyncJobId, JobChecker<T> checker, Callback<T> callback) {
+            this.asyncJobId = asyncJobId;
+            this.checker = checker;
+            this.callback = callback;
+            this.released = new AtomicBoolean(false);
+            this.check = new Runnable() {
+                @Override
+                public void run() {
+                    check();
+                }
+            };
+            this.delayMillis = initialDelayMillis;
+        }
+
+        // decrement the active job count before waiters are woken up so it is accurate by the
+        // time get() returns
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                activeJobs.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void set(T status) {
+            release();
+            super.set(status);
+        }
+
+        @Override
+        public void setException(Throwable t) {
+            release();
+            super.setException(t);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                release();
+            }
+            return cancelled;
+        }
+
+        private void schedule(long delay) {
+            this.delayMillis = delay;
+            try {
+                executor.schedule(check, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                setException(ex);
+            }
+        }
+
+        private void check() {
+            if (isDone()) {
+                return;
+            }
+
+            T status;
+            try {
+                status = checker.check(asyncJobId);
+            } catch (RetryException ex) {
+                schedule(Math.max(ex.getBackoffMillis(), nextDelay(delayMillis)));
+                return;
+            } catch (DbxException ex) {
+                setException(ex);
+                return;
+            } catch (RuntimeException ex) {
+                setException(ex);
+                return;
+            }
+
+            if (checker.isInProgress(status)) {
+                schedule(nextDelay(delayMillis));
+            } else {
+                set(status);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+
+            T status;
+            try {
+                status = get();
+            } catch (ExecutionException ex) {
+                callback.onError(asyncJobId, ex.getCause());
+                return;
+            } catch (InterruptedException ex) {
+                // impossible, we are done
+                Thread.currentThread().interrupt();
+                return;
+            } catch (CancellationException ex) {
+                return;
+            }
+            callback.onComplete(asyncJobId, status);
+        }
+    }
+
+    /**
+     * Future completed explicitly through {@link #set} and {@link #setException} rather than by
+     * running a task.
+     */
+    private static class SettableFuture<T> extends FutureTask<T> {
+        private static final Runnable NOTHING = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        SettableFuture() {
+            super(NOTHING, null);
+        }
+
+        @Override
+        public void run() {
+            // completed by set or setException only
+        }
+
+        @Override
+        public void set(T value) {
+            super.set(value);
+        }
+
+        @Override
+        public void setException(Throwable t) {
+            super.setException(t);
+        }
+    }
+
+    /**
+     * Checks the status of an async job.
+     *
+     * <p> Async job statuses are generated unions without a common supertype, so each {@code
+     * *_check} route needs its own checker. See the static factory methods on {@link
+     * DbxAsyncJobPoller} for the routes provided by the SDK.
+     *
+     * @param <T> job status type
+     */
+    public static abstract class JobChecker<T> {
+        /**
+         * Requests the current status of the given job.
+         *
+         * @param asyncJobId ID of the job
+         *
+         * @return current job status
+         *
+         * @throws DbxException if the status could not be retrieved
+         */
+        public abstract T check(String asyncJobId) throws DbxException;
+
+        /**
+         * Returns whether the given status means the job is still running.
+         *
+         * @param status status returned by {@link #check}
+         *
+         * @return {@code true} if the job should be polled again
+         */
+        public abstract boolean isInProgress(T status);
+    }
+
+    /**
+     * Notified when polling a job completes.
+     *
+     * @param <T> job status type
+     */
+    public static abstract class Callback<T> {
+        /**
+         * Called with the first job status that is not in progress.
+         *
+         * @param asyncJobId ID of the job
+         * @param status final job status
+         */
+        public abstract void onComplete(String asyncJobId, T status);
+
+        /**
+         * Called if the job status could not be retrieved.
+         *
+         * @param asyncJobId ID of the job
+         * @param error cause of the failure, typically a {@link DbxException}
+         */
+        public abstract void onError(String asyncJobId, Throwable error);
+    }
+
+    /**
+     * Returns a checker for jobs launched by {@code upload_session/finish_batch}.
+     *
+     * @param files files requests to issue the status checks with
+     *
+     * @return checker using {@code upload_session/finish_batch/check}
+     */
+    public static JobChecker<UploadSessionFinishBatchJobStatus> uploadSessionFinishBatchCheck(final DbxUserFilesRequests files) {
+        if (files == null) throw new NullPointerException("files");
+        return new JobChecker<UploadSessionFinishBatchJobStatus>() {
+            @Override
+            public UploadSessionFinishBatchJobStatus check(String asyncJobId) throws DbxException {
+                return files.uploadSessionFinishBatchCheck(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(UploadSessionFinishBatchJobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+
+    /**
+     * Returns a checker for jobs launched by {@code copy_batch}.
+     *
+     * @param files files requests to issue the status checks with
+     *
+     * @return checker using {@code copy_batch/check}
+     */
+    public static JobChecker<RelocationBatchJobStatus> copyBatchCheck(final DbxUserFilesRequests files) {
+        if (files == null) throw new NullPointerException("files");
+        return new JobChecker<RelocationBatchJobStatus>() {
+            @Override
+            public RelocationBatchJobStatus check(String asyncJobId) throws DbxException {
+                return files.copyBatchCheck(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(RelocationBatchJobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+
+    /**
+     * Returns a checker for jobs launched by {@code move_batch}.
+     *
+     * @param files files requests to issue the status checks with
+     *
+     * @return checker using {@code move_batch/check}
+     */
+    public static JobChecker<RelocationBatchJobStatus> moveBatchCheck(final DbxUserFilesRequests files) {
+        if (files == null) throw new NullPointerException("files");
+        return new JobChecker<RelocationBatchJobStatus>() {
+            @Override
+            public RelocationBatchJobStatus check(String asyncJobId) throws DbxException {
+                return files.moveBatchCheck(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(RelocationBatchJobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+
+    /**
+     * Returns a checker for jobs launched by {@code delete_batch}.
+     *
+     * @param files files requests to issue the status checks with
+     *
+     * @return checker using {@code delete_batch/check}
+     */
+    public static JobChecker<DeleteBatchJobStatus> deleteBatchCheck(final DbxUserFilesRequests files) {
+        if (files == null) throw new NullPointerException("files");
+        return new JobChecker<DeleteBatchJobStatus>() {
+            @Override
+            public DeleteBatchJobStatus check(String asyncJobId) throws DbxException {
+                return files.deleteBatchCheck(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(DeleteBatchJobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+
+    /**
+     * Returns a checker for sharing jobs that report a {@link JobStatus}, such as {@code
+     * unshare_folder} or {@code remove_folder_member}.
+     *
+     * @param sharing sharing requests to issue the status checks with
+     *
+     * @return checker using {@code sharing/check_job_status}
+     */
+    public static JobChecker<JobStatus> sharingJobCheck(final DbxUserSharingRequests sharing) {
+        if (sharing == null) throw new NullPointerException("sharing");
+        return new JobChecker<JobStatus>() {
+            @Override
+            public JobStatus check(String asyncJobId) throws DbxException {
+                return sharing.checkJobStatus(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(JobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+
+    /**
+     * Returns a checker for jobs launched by {@code sharing/share_folder}.
+     *
+     * @param sharing sharing requests to issue the status checks with
+     *
+     * @return checker using {@code sharing/check_share_job_status}
+     */
+    public static JobChecker<ShareFolderJobStatus> shareFolderJobCheck(final DbxUserSharingRequests sharing) {
+        if (sharing == null) throw new NullPointerException("sharing");
+        return new JobChecker<ShareFolderJobStatus>() {
+            @Override
+            public ShareFolderJobStatus check(String asyncJobId) throws DbxException {
+                return sharing.checkShareJobStatus(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(ShareFolderJobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+
+    /**
+     * Returns a checker for jobs launched by {@code sharing/remove_folder_member}.
+     *
+     * @param sharing sharing requests to issue the status checks with
+     *
+     * @return checker using {@code sharing/check_remove_member_job_status}
+     */
+    public static JobChecker<RemoveMemberJobStatus> removeMemberJobCheck(final DbxUserSharingRequests sharing) {
+        if (sharing == null) throw new NullPointerException("sharing");
+        return new JobChecker<RemoveMemberJobStatus>() {
+            @Override
+            public RemoveMemberJobStatus check(String asyncJobId) throws DbxException {
+                return sharing.checkRemoveMemberJobStatus(asyncJobId);
+            }
+
+            @Override
+            public boolean isInProgress(RemoveMemberJobStatus status) {
+                return status.isInProgress();
+            }
+        };
+    }
+}
@@ -0,0 +1,786 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.ServerException;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeleteArg;
+import com.dropbox.core.v2.files.DeleteBatchJobStatus;
+import com.dropbox.core.v2.files.DeleteBatchLaunch;
+import com.dropbox.core.v2.files.DeleteBatchResult;
+import com.dropbox.core.v2.files.DeleteBatchResultEntry;
+import com.dropbox.core.v2.files.DeleteError;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.RelocationBatchError;
+import com.dropbox.core.v2.files.RelocationBatchJobStatus;
+import com.dropbox.core.v2.files.RelocationBatchLaunch;
+import com.dropbox.core.v2.files.RelocationBatchResult;
+import com.dropbox.core.v2.files.RelocationPath;
+import com.dropbox.core.v2.files.RelocationResult;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Copies, moves or deletes any number of Dropbox paths using {@code copy_batch}, {@code move_batch}
+ * and {@code delete_batch}.
+ *
+ * <p> Entries are read from an {@link Iterator} and split into batches of at most {@link
+ * #MAX_BATCH_SIZE} entries. Up to {@code maxConcurrentBatches} batches run at once. Batches the
+ * server runs as async jobs are polled with a {@link DbxAsyncJobPoller}, so a waiting batch does not
+ * hold a thread. Only the entries of running batches are held in memory, so the iterator may
+ * produce entries lazily.
+ *
+ * <p> The outcome of every entry is reported to the {@link Listener} as soon as its batch is done.
+ * Requests that fail with a {@link RetryException}, {@link NetworkIOException} or {@link
+ * ServerException}, and entries that fail because of too many write operations in the user's
+ * namespace, are retried with backoff up to {@code maxRetries} times. A rate limited request holds
+ * back the launch of every batch of this planner until the server's backoff has passed.
+ *
+ * <p> Progress can be saved with a {@link Checkpoint}, which is advanced to the number of leading
+ * entries whose batches are done. A run that resumes from a saved position skips that many entries
+ * of the iterator, so the iterator must produce the same entries in the same order every time. After
+ * a crash, the entries of batches that were running are attempted again, and moves and deletes that
+ * already happened will then be reported as failures.
+ *
+ * <pre><code>
+ *    DbxBatchPlanner planner = new DbxBatchPlanner(client, Executors.newScheduledThreadPool(4), 4);
+ *    DbxBatchPlanner.Summary summary = planner.move(reorganization.iterator(), listener, checkpoint);
+ * </code></pre>
+ *
+ * <p> Listeners are called from the executor's threads and may be called concurrently. This class
+ * is thread safe. The executor is not shut down by this class.
+ */
+public final class DbxBatchPlanner {
+    /**
+     * Maximum number of entries the server accepts in a single {@code copy_batch}, {@code
+     * move_batch} or {@code delete_batch} request.
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+    /**
+     * Default number of times a failed request or entry is retried.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final long POLL_INTERVAL_MILLIS = 500L;
+    private static final long MAX_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long MIN_BACKOFF_MILLIS = 500L;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Random RAND = new Random();
+
+    private final DbxUserFilesRequests files;
+    private final ScheduledExecutorService executor;
+    private final int maxConcurrentBatches;
+    private final int batchSize;
+    private final int maxRetries;
+    private final DbxAsyncJobPoller poller;
+
+    private final AtomicLong resumeAtMillis;
+
+    /**
+     * Creates a planner that runs batches of {@link #MAX_BATCH_SIZE} entries and retries failures
+     * up to {@link #DEFAULT_MAX_RETRIES} times.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param executor executor used to launch and poll batches, never {@code null}
+     * @param maxConcurrentBatches maximum number of batches running at once, must be positive
+     */
+    public DbxBatchPlanner(DbxClientV2 client, ScheduledExecutorService executor, int maxConcurrentBatches) {
+        this(client, executor, maxConcurrentBatches, MAX_BATCH_SIZE, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Creates a planner.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param executor executor used to launch and poll batches, never {@code null}
+     * @param maxConcurrentBatches maximum number of batches running at once, must be positive
+     * @param batchSize maximum number of entries per batch, between 1 and {@link #MAX_BATCH_SIZE}
+     * @param maxRetries maximum number of times a failed request or entry is retried, must not be
+     *     negative
+     */
+    public DbxBatchPlanner(DbxClientV2 client, ScheduledExecutorService executor, int maxConcurrentBatches,
+                           int batchSize, int maxRetries) {
+        if (client == null) throw new NullPointerException("client");
+        if (executor == null) throw new NullPointerException("executor");
+        if (maxConcurrentBatches <= 0) throw new IllegalArgumentException("maxConcurrentBatches must be positive");
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries must not be negative");
+
+        this.files = client.files();
+        this.executor = executor;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.batchSize = batchSize;
+        this.maxRetries = maxRetries;
+        this.poller = new DbxAsyncJobPoller(
+            executor, POLL_INTERVAL_MILLIS, MAX_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS
+        );
+
+        this.resumeAtMillis = new AtomicLong(0);
+    }
+
+    /**
+     * Copies every entry with {@code copy_batch} and blocks until all of them are done.
+     *
+     * <p> The server reports a single error for a failed {@code copy_batch} job, which is passed
+     * to {@link Listener#onFailure} for every entry of the batch.
+     *
+     * @param entries paths to copy, never {@code null}
+     * @param listener notified of the outcome of every entry, never {@code null}
+     * @param checkpoint where to load and save progress, or {@code null} to always start with the
+     *     first entry
+     *
+     * @return counts of the processed entries
+     *
+     * @throws IOException if the checkpoint could not be loaded or saved
+     * @throws InterruptedException if interrupted while waiting for batches
+     */
+    public Summary copy(Iterator<RelocationPath> entries, Listener<RelocationPath, RelocationBatchError> listener,
+                        /*@Nullable*/ Checkpoint checkpoint) throws IOException, InterruptedException {
+        return new Run<RelocationPath, RelocationBatchError>(new Relocation(false), listener, checkpoint).run(entries);
+    }
+
+    /**
+     * Moves every entry with {@code move_batch} and blocks until all of them are done.
+     *
+     * <p> The server reports a single error for a failed {@code move_batch} job, which is passed
+     * to {@link Listener#onFailure} for every entry of the batch. Entries of a failed batch may
+     * still have been moved.
+     *
+     * @param entries paths to move, never {@code null}
+     * @param listener notified of the outcome of every entry, never {@code null}
+     * @param checkpoint where to load and save progress, or {@code null} to always start with the
+     *     first entry
+     *
+     * @return counts of the processed entries
+     *
+     * @throws IOException if the checkpoint could not be loaded or saved
+     * @throws InterruptedException if interrupted while waiting for batches
+     */
+    public Summary move(Iterator<RelocationPath> entries, Listener<RelocationPath, RelocationBatchError> listener,
+                        /*@Nullable*/ Checkpoint checkpoint) throws IOException, InterruptedException {
+        return new Run<RelocationPath, RelocationBatchError>(new Relocation(true), listener, checkpoint).run(entries);
+    }
+
+    /**
+     * Deletes every entry with {@code delete_batch} and blocks until all of them are done.
+     *
+     * @param entries paths to delete, never {@code null}
+     * @param listener notified of the outcome of every entry, never {@code null}
+     * @param checkpoint where to load and save progress, or {@code null} to always start with the
+     *     first entry
+     *
+     * @return counts of the processed entries
+     *
+     * @throws IOException if the checkpoint could not be loaded or saved
+     * @throws InterruptedException if interrupted while waiting for batches
+     */
+    public Summary delete(Iterator<DeleteArg> entries, Listener<DeleteArg, DeleteError> listener,
+                          /*@Nullable*/ Checkpoint checkpoint) throws IOException, InterruptedException {
+        return new Run<DeleteArg, DeleteError>(new Delete(), listener, checkpoint).run(entries);
+    }
+
+    private static boolean isRetriable(DbxException ex) {
+        return ex instanceof RetryException
+            || ex instanceof NetworkIOException
+            || ex instanceof ServerException;
+    }
+
+    private static long backoffMillis(int attempt, /*@Nullable*/ DbxException ex) {
+        if (ex instanceof RetryException && ((RetryException) ex).getBackoffMillis() > 0) {
+            return ((RetryException) ex).getBackoffMillis();
+        }
+        long backoff = Math.min(MIN_BACKOFF_MILLIS << Math.min(attempt, 16), MAX_BACKOFF_MILLIS);
+        // jitter keeps batches that failed together from retrying together
+        return backoff + RAND.nextInt((int) MIN_BACKOFF_MILLIS);
+    }
+
+    private void pauseFor(long millis) {
+        long resumeAt = System.currentTimeMillis() + Math.max(millis, 0);
+        while (true) {
+            long current = resumeAtMillis.get();
+            if (current >= resumeAt || resumeAtMillis.compareAndSet(current, resumeAt)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * State of a single {@link #copy}, {@link #move} or {@link #delete} call.
+     */
+    private final class Run<E, F> {
+        private final Operation<E, F> operation;
+        private final Listener<E, F> listener;
+        private final Checkpoint checkpoint;
+        private final Semaphore permits;
+
+        private final ReentrantLock lock;
+        // running batches, in entry order
+        private final ArrayDeque<Batch> batches;
+        private volatile boolean stopped;
+        private /*@Nullable*/ Exception failure;
+        private long completed;
+
+        private final AtomicInteger succeeded;
+        private final AtomicInteger failed;
+        private final AtomicInteger retries;
+        private final AtomicInteger launched;
+
+        private Run(Operation<E, F> operation, Listener<E, F> listener, /*@Nullable*/ Checkpoint checkpoint) {
+            if (listener == null) throw new NullPointerException("listener");
+
+            this.operation = operation;
+            this.listener = listener;
+            this.checkpoint = checkpoint;
+            this.permits = new Semaphore(maxConcurrentBatches);
+
+            this.lock = new ReentrantLock();
+            this.batches = new ArrayDeque<Batch>();
+            this.stopped = false;
+            this.failure = null;
+            this.completed = 0;
+
+            this.succeeded = new AtomicInteger(0);
+            this.failed = new AtomicInteger(0);
+            this.retries = new AtomicInteger(0);
+            this.launched = new AtomicInteger(0);
+        }
+
+        private Summary run(Iterator<E> entries) throws IOException, InterruptedException {
+            if (entries == null) throw new NullPointerException("entries");
+
+            long position = checkpoint == null ? 0 : checkpoint.load();
+            for (long i = 0; i < position && entries.hasNext(); ++i) {
+                entries.next();
+            }
+            completed = position;
+
+            try {
+                List<E> chunk = new ArrayList<E>(batchSize);
+                while (entries.hasNext() && !stopped) {
+                    chunk.add(entries.next());
+                    if (chunk.size() == batchSize) {
+                        position = submit(chunk, position);
+                        chunk = new ArrayList<E>(batchSize);
+                    }
+                }
+                if (!chunk.isEmpty() && !stopped) {
+                    submit(chunk, position);
+                }
+            } catch (InterruptedException ex) {
+                stopped = true;
+                throw ex;
+            } finally {
+                // every running batch holds a permit until it is done
+                permits.acquireUninterruptibly(maxConcurrentBatches);
+                permits.release(maxConcurrentBatches);
+            }
+
+            lock.lock();
+            try {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                } else if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure != null) {
+                    throw new IllegalStateException(failure);
+                }
+                return new Summary(succeeded.get(), failed.get(), retries.get(), launched.get(), completed);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long submit(List<E> entries, long position) throws InterruptedException {
+            permits.acquire();
+            Batch batch = new Batch(entries, position + entries.size());
+            lock.lock();
+            try {
+                batches.addLast(batch);
+            } finally {
+                lock.unlock();
+            }
+            batch.schedule(0);
+            return position + entries.size();
+        }
+
+        private void done(Batch batch) {
+            lock.lock();
+            try {
+                batch.done = true;
+
+                long position = -1;
+                while (!batches.isEmpty() && batches.peekFirst().done) {
+                    position = batches.removeFirst().end;
+                }
+                if (position < 0) {
+                    return;
+                }
+
+                completed = position;
+                // saved while holding the lock so positions are saved in order
+                if (checkpoint != null && failure == null) {
+                    checkpoint.save(position);
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            } catch (RuntimeException ex) {
+                fail(ex);
+            } finally {
+                lock.unlock();
+                permits.release();
+            }
+        }
+
+        private void fail(Exception ex) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = ex;
+                }
+                stopped = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * One batch of entries, launched again with the entries to retry until none are left.
+         */
+        private final class Batch extends Sink<F> {
+            private final long end;
+            private List<E> entries;
+            private int attempt;
+            private boolean done;
+
+            private List<E> retry;
+            private /*@Nullable*/ DbxException batchError;
+            private boolean batchRetriable;
+
+            private Batch(List<E> entries, long end) {
+                this.end = end;
+                this.entries = entries;
+                this.attempt = 0;
+                this.done = false;
+            }
+
+            private void schedule(long delayMillis) {
+                try {
+                    executor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            launch();
+                        }
+                    }, delayMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ex) {
+                    // the entries' outcome is unknown, so don't let the checkpoint pass them
+                    fail(ex);
+                    permits.release();
+                }
+            }
+
+            private void launch() {
+                long wait = resumeAtMillis.get() - System.currentTimeMillis();
+                if (wait > 0) {
+                    schedule(wait);
+                    return;
+                }
+                if (stopped) {
+                    permits.release();
+                    return;
+                }
+
+                retry = new ArrayList<E>();
+                batchError = null;
+                batchRetriable = false;
+                launched.incrementAndGet();
+
+                String asyncJobId;
+                try {
+                    asyncJobId = operation.launch(entries, this);
+                } catch (DbxException ex) {
+                    batchFailed(ex, isRetriable(ex));
+                    settled();
+                    return;
+                } catch (RuntimeException ex) {
+                    fail(ex);
+                    permits.release();
+                    return;
+                }
+
+                if (asyncJobId == null) {
+                    settled();
+                } else {
+                    operation.poll(asyncJobId, entries.size(), this);
+                }
+            }
+
+            @Override
+            protected void success(int index, Metadata metadata) {
+                succeeded.incrementAndGet();
+                try {
+                    listener.onSuccess(entries.get(index), metadata);
+                } catch (RuntimeException ex) {
+                    // don't let a misbehaving listener prevent us from reporting the other entries
+                }
+            }
+
+            @Override
+            protected void failure(int index, F error, boolean retriable) {
+                if (retriable && attempt < maxRetries) {
+                    retry.add(entries.get(index));
+                    return;
+                }
+                failed.incrementAndGet();
+                try {
+                    listener.onFailure(entries.get(index), error);
+                } catch (RuntimeException ex) {
+                    // don't let a misbehaving listener prevent us from reporting the other entries
+                }
+            }
+
+            @Override
+            protected void batchFailed(DbxException ex, boolean retriable) {
+                batchError = ex;
+                batchRetriable = retriable;
+            }
+
+            @Override
+            protected void settled() {
+                if (batchError != null) {
+                    if (batchError instanceof RateLimitException) {
+                        // hold back every batch, not just this one
+                        pauseFor(((RateLimitException) batchError).getBackoffMillis());
+                    }
+                    if (batchRetriable && attempt < maxRetries) {
+                        retry.addAll(entries);
+                    } else {
+                        for (E entry : entries) {
+                            failed.incrementAndGet();
+                            try {
+                                listener.onException(entry, batchError);
+                            } catch (RuntimeException ex) {
+                                // don't let a misbehaving listener prevent us from reporting the other entries
+                            }
+                        }
+                    }
+                }
+
+                if (retry.isEmpty()) {
+                    done(this);
+                } else {
+                    long delay = backoffMillis(attempt, batchError);
+                    entries = retry;
+                    ++attempt;
+                    retries.incrementAndGet();
+                    schedule(delay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the outcome of one launch of a batch. {@link #settled} is called last.
+     */
+    private static abstract class Sink<F> {
+        protected abstract void success(int index, Metadata metadata);
+        protected abstract void failure(int index, F error, boolean retriable);
+        protected abstract void batchFailed(DbxException ex, boolean retriable);
+        protected abstract void settled();
+    }
+
+    /**
+     * Launches batches of one route and translates their results.
+     */
+    private static abstract class Operation<E, F> {
+        /**
+         * Launches a batch and returns its async job ID, or reports the results to {@code sink}
+         * and returns {@code null} if the batch completed right away.
+         */
+        public abstract /*@Nullable*/ String launch(List<E> entries, Sink<F> sink) throws DbxException;
+
+        /**
+         * Polls the job of a batch of {@code size} entries, reports the results to {@code sink}
+         * and settles it.
+         */
+        public abstract void poll(String asyncJobId, int size, Sink<F> sink);
+    }
+
+    private final class Relocation extends Operation<RelocationPath, RelocationBatchError> {
+        private final boolean move;
+
+        private Relocation(boolean move) {
+            this.move = move;
+        }
+
+        @Override
+        public String launch(List<RelocationPath> entries, Sink<RelocationBatchError> sink) throws DbxException {
+            RelocationBatchLaunch launch = move ? files.moveBatch(entries) : files.copyBatch(entries);
+            if (launch.isComplete()) {
+                complete(launch.getCompleteValue(), entries.size(), sink);
+                return null;
+            } else if (launch.isAsyncJobId()) {
+                return launch.getAsyncJobIdValue();
+            } else {
+                throw new DbxException("Unexpected response from " + route() + ": " + launch);
+            }
+        }
+
+        @Override
+        public void poll(String asyncJobId, final int size, final Sink<RelocationBatchError> sink) {
+            DbxAsyncJobPoller.JobChecker<RelocationBatchJobStatus> checker = move
+                ? DbxAsyncJobPoller.moveBatchCheck(files)
+                : DbxAsyncJobPoller.copyBatchCheck(files);
+            poller.poll(asyncJobId, checker, new DbxAsyncJobPoller.Callback<RelocationBatchJobStatus>() {
+                @Override
+                public void onComplete(String asyncJobId, RelocationBatchJobStatus status) {
+                    if (status.isComplete()) {
+                        complete(status.getCompleteValue(), size, sink);
+                    } else if (status.isFailed()) {
+                        RelocationBatchError error = status.getFailedValue();
+                        for (int i = 0; i < size; ++i) {
+                            sink.failure(i, error, error.isTooManyWriteOperations());
+                        }
+                    } else {
+                        sink.batchFailed(new DbxException("Unexpected response from " + route() + "/check: " + status), false);
+                    }
+                    sink.settled();
+                }
+
+                @Override
+                public void onError(String asyncJobId, Throwable error) {
+                    sink.batchFailed(pollError(route(), error), false);
+                    sink.settled();
+                }
+            });
+        }
+
+        private void complete(RelocationBatchResult result, int size, Sink<RelocationBatchError> sink) {
+            List<RelocationResult> entries = result.getEntries();
+            if (entries.size() != size) {
+                sink.batchFailed(new DbxException("Expected " + size + " batch result entries, got " + entries.size()), false);
+                return;
+            }
+            for (int i = 0; i < size; ++i) {
+                sink.success(i, entries.get(i).getMetadata());
+            }
+        }
+
+        private String route() {
+            return move ? "move_batch" : "copy_batch";
+        }
+    }
+
+    private final class Delete extends Operation<DeleteArg, DeleteError> {
+        @Override
+        public String launch(List<DeleteArg> entries, Sink<DeleteError> sink) throws DbxException {
+            DeleteBatchLaunch launch = files.deleteBatch(entries);
+            if (launch.isComplete()) {
+                complete(launch.getCompleteValue(), entries.size(), sink);
+                return null;
+            } else if (launch.isAsyncJobId()) {
+                return launch.getAsyncJobIdValue();
+            } else {
+                throw new DbxException("Unexpected response from delete_batch: " + launch);
+            }
+        }
+
+        @Override
+        public void poll(String asyncJobId, final int size, final Sink<DeleteError> sink) {
+            poller.poll(asyncJobId, DbxAsyncJobPoller.deleteBatchCheck(files), new DbxAsyncJobPoller.Callback<DeleteBatchJobStatus>() {
+                @Override
+                public void onComplete(String asyncJobId, DeleteBatchJobStatus status) {
+                    if (status.isComplete()) {
+                        complete(status.getCompleteValue(), size, sink);
+                    } else if (status.isFailed()) {
+                        // a batch-wide error, with no DeleteError to report per entry
+                        sink.batchFailed(
+                            new DbxException("delete_batch job failed: " + status.getFailedValue()),
+                            status.getFailedValue().isTooManyWriteOperations()
+                        );
+                    } else {
+                        sink.batchFailed(new DbxException("Unexpected response from delete_batch/check: " + status), false);
+                    }
+                    sink.settled();
+                }
+
+                @Override
+                public void onError(String asyncJobId, Throwable error) {
+                    sink.batchFailed(pollError("delete_batch", error), false);
+                    sink.settled();
+                }
+            });
+        }
+
+        private void complete(DeleteBatchResult result, int size, Sink<DeleteError> sink) {
+            List<DeleteBatchResultEntry> entries = result.getEntries();
+            if (entries.size() != size) {
+                sink.batchFailed(new DbxException("Expected " + size + " batch result entries, got " + entries.size()), false);
+                return;
+            }
+            for (int i = 0; i < size; ++i) {
+                DeleteBatchResultEntry entry = entries.get(i);
+                if (entry.isSuccess()) {
+                    sink.success(i, entry.getSuccessValue().getMetadata());
+                } else {
+                    DeleteError error = entry.getFailureValue();
+                    sink.failure(i, error, error.isTooManyWriteOperations());
+                }
+            }
+        }
+    }
+
+    private static DbxException pollError(String route, Throwable error) {
+        if (error instanceof DbxException) {
+            return (DbxException) error;
+        }
+        return new DbxException("Failed to poll " + route + " job: " + error, error);
+    }
+
+    /**
+     * Receives the outcome of each entry. Exactly one method is called for every entry.
+     *
+     * @param <E> entry type
+     * @param <F> error type of failed entries
+     */
+    public static abstract class Listener<E, F> {
+        /**
+         * Called after the entry was copied, moved or deleted.
+         *
+         * @param entry the entry
+         * @param metadata metadata of the copy or moved entry, or of the deleted entry
+         */
+        public abstract void onSuccess(E entry, Metadata metadata);
+
+        /**
+         * Called if the server rejected the entry.
+         *
+         * @param entry the entry
+         * @param error reason the entry failed
+         */
+        public abstract void onFailure(E entry, F error);
+
+        /**
+         * Called if the entry's batch could not be launched or polled, in which case the outcome
+         * of the entry is unknown.
+         *
+         * @param entry the entry
+         * @param ex cause of the failure
+         */
+        public abstract void onException(E entry, DbxException ex);
+    }
+
+    /**
+     * Stores how many leading entries of a run are done, so an interrupted run can be resumed.
+     */
+    public static abstract class Checkpoint {
+        /**
+         * Returns the position last passed to {@link #save}, or {@code 0} to start with the first
+         * entry.
+         *
+         * @return number of leading entries to skip
+         *
+         * @throws IOException if the position could not be read
+         */
+        public abstract long load() throws IOException;
+
+        /**
+         * Durably stores the number of leading entries that are done.
+         *
+         * @param position number of leading entries that are done
+         *
+         * @throws IOException if the position could not be stored
+         */
+        public abstract void save(long position) throws IOException;
+    }
+
+    /**
+     * Outcome of a {@link DbxBatchPlanner} run.
+     */
+    public static final class Summary {
+        private final int succeeded;
+        private final int failed;
+        private final int retries;
+        private final int batches;
+        private final long position;
+
+        private Summary(int succeeded, int failed, int retries, int batches, long position) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.batches = batches;
+            this.position = position;
+        }
+
+        /**
+         * Returns the number of entries that succeeded.
+         *
+         * @return number of successful entries
+         */
+        public int getSucceededCount() {
+            return succeeded;
+        }
+
+        /**
+         * Returns the number of entries reported to {@link Listener#onFailure} or {@link
+         * Listener#onException}.
+         *
+         * @return number of failed entries
+         */
+        public int getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * Returns the number of times a batch was launched again to retry some of its entries.
+         *
+         * @return number of retries
+         */
+        public int getRetryCount() {
+            return retries;
+        }
+
+        /**
+         * Returns the number of batch requests sent, including retries.
+         *
+         * @return number of launched batches
+         */
+        public int getBatchCount() {
+            return batches;
+        }
+
+        /**
+         * Returns the number of leading entries that are done, including those skipped because
+         * of the checkpoint.
+         *
+         * @return position to resume from
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary(succeeded=" + succeeded + ", failed=" + failed + ", retries=" + retries
+                + ", batches=" + batches + ", position=" + position + ")";
+        }
+    }
+}
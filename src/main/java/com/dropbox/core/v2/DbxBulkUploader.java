@@ -0,0 +1,448 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.UploadSessionFinishArg;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchJobStatus;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchLaunch;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchResult;
+import com.dropbox.core.v2.files.UploadSessionFinishBatchResultEntry;
+import com.dropbox.core.v2.files.UploadSessionFinishError;
+import com.dropbox.core.v2.files.UploadSessionStartResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Uploads many small files concurrently and commits them together using {@code
+ * upload_session/finish_batch}.
+ *
+ * <p> Committing files one at a time with {@code upload} takes a lock on the user's namespace for
+ * every file. This class instead uploads each file's contents in its own closed upload session
+ * (see {@link DbxUserFilesRequests#uploadSessionStartBuilder}), then commits up to {@link
+ * #MAX_BATCH_SIZE} sessions per {@link DbxUserFilesRequests#uploadSessionFinishBatch} call. Batch
+ * jobs are polled in the background, so uploads keep running while earlier batches are being
+ * committed.
+ *
+ * <p> The outcome of every submitted file is reported to the {@link Callback} as soon as it is
+ * known. Callbacks are invoked from the executor's threads and may be invoked concurrently.
+ *
+ * <pre><code>
+ *    ScheduledExecutorService executor = Executors.newScheduledThreadPool(8);
+ *    DbxBulkUploader uploader = client.bulkUploader(executor, callback);
+ *    for (File file : files) {
+ *        uploader.submit(file, new CommitInfo("/backup/" + file.getName()));
+ *    }
+ *    // commit remaining files and wait for all results
+ *    uploader.finish();
+ * </code></pre>
+ *
+ * <p> This class is thread safe. The executor is not shut down by this class.
+ */
+public final class DbxBulkUploader {
+    /**
+     * Maximum number of entries the server accepts in a single {@code upload_session/finish_batch}
+     * request.
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private static final long POLL_INTERVAL_MILLIS = 500L;
+    private static final long MAX_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final DbxUserFilesRequests files;
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+    private final Callback callback;
+    private final DbxAsyncJobPoller poller;
+
+    private final ReentrantLock lock;
+    private final Condition idle;
+
+    private List<UploadSessionFinishArg> pending;
+    private int uploading;
+    private int outstanding;
+    private boolean finished;
+
+    /**
+     * Creates a bulk uploader that commits files in batches of {@link #MAX_BATCH_SIZE}.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param executor executor used to upload files and poll batch jobs, never {@code null}
+     * @param callback callback notified of the outcome of every submitted file, never {@code null}
+     */
+    public DbxBulkUploader(DbxClientV2 client, ScheduledExecutorService executor, Callback callback) {
+        this(client, executor, MAX_BATCH_SIZE, callback);
+    }
+
+    /**
+     * Creates a bulk uploader that commits files in batches of at most {@code batchSize}.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param executor executor used to upload files and poll batch jobs, never {@code null}
+     * @param batchSize maximum number of files per commit, between 1 and {@link #MAX_BATCH_SIZE}
+     * @param callback callback notified of the outcome of every submitted file, never {@code null}
+     *
+     * @throws IllegalArgumentException if {@code batchSize} is out of range
+     */
+    public DbxBulkUploader(DbxClientV2 client, ScheduledExecutorService executor, int batchSize, Callback callback) {
+        if (client == null) throw new NullPointerException("client");
+        if (executor == null) throw new NullPointerException("executor");
+        if (callback == null) throw new NullPointerException("callback");
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        }
+
+        this.files = client.files();
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.callback = callback;
+        this.poller = new DbxAsyncJobPoller(
+            executor, POLL_INTERVAL_MILLIS, MAX_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS
+        );
+
+        this.lock = new ReentrantLock();
+        this.idle = lock.newCondition();
+
+        this.pending = new ArrayList<UploadSessionFinishArg>(batchSize);
+        this.uploading = 0;
+        this.outstanding = 0;
+        this.finished = false;
+    }
+
+    /**
+     * Schedules the contents of the given local file to be uploaded and committed.
+     *
+     * @param file local file to upload, never {@code null}
+     * @param commit where and how to commit the file in Dropbox, never {@code null}
+     *
+     * @throws IllegalStateException if {@link #finish} has already been called
+     */
+    public void submit(final File file, CommitInfo commit) {
+        if (file == null) throw new NullPointerException("file");
+        submit(new Source() {
+            @Override
+            public long length() {
+                return file.length();
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        }, commit);
+    }
+
+    /**
+     * Schedules the given bytes to be uploaded and committed.
+     *
+     * @param data file contents to upload, never {@code null}
+     * @param commit where and how to commit the file in Dropbox, never {@code null}
+     *
+     * @throws IllegalStateException if {@link #finish} has already been called
+     */
+    public void submit(final byte [] data, CommitInfo commit) {
+        if (data == null) throw new NullPointerException("data");
+        submit(new Source() {
+            @Override
+            public long length() {
+                return data.length;
+            }
+
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(data);
+            }
+        }, commit);
+    }
+
+    private void submit(final Source source, final CommitInfo commit) {
+        if (commit == null) throw new NullPointerException("commit");
+
+        lock.lock();
+        try {
+            if (finished) {
+                throw new IllegalStateException("Uploader is already finished.");
+            }
+            ++uploading;
+            ++outstanding;
+        } finally {
+            lock.unlock();
+        }
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                UploadSessionFinishArg arg = null;
+                try {
+                    arg = upload(source, commit);
+                } catch (Exception ex) {
+                    notifyException(commit, ex);
+                    done(1);
+                } finally {
+                    uploaded(arg);
+                }
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RuntimeException ex) {
+            lock.lock();
+            try {
+                --uploading;
+                --outstanding;
+            } finally {
+                lock.unlock();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Commits any uploaded files that are waiting for a full batch without waiting for the batch
+     * to fill up.
+     */
+    public void flush() {
+        List<UploadSessionFinishArg> batch = takePending(true);
+        if (batch != null) {
+            commit(batch);
+        }
+    }
+
+    /**
+     * Commits all remaining files and blocks until the outcome of every submitted file has been
+     * reported to the callback. No more files may be submitted after calling this method.
+     *
+     * @throws InterruptedException if interrupted while waiting for outstanding uploads
+     */
+    public void finish() throws InterruptedException {
+        List<UploadSessionFinishArg> batch;
+        lock.lock();
+        try {
+            finished = true;
+            // if uploads are still running, the last one to complete commits the partial batch
+            batch = takePending(uploading == 0);
+        } finally {
+            lock.unlock();
+        }
+
+        if (batch != null) {
+            commit(batch);
+        }
+
+        lock.lock();
+        try {
+            while (outstanding > 0) {
+                idle.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private UploadSessionFinishArg upload(Source source, CommitInfo commit) throws DbxException, IOException {
+        long length = source.length();
+        InputStream in = source.open();
+        UploadSessionStartResult result;
+        try {
+            result = files.uploadSessionStartBuilder()
+                .withClose(true)
+                .uploadAndFinish(in, length);
+        } finally {
+            in.close();
+        }
+        UploadSessionCursor cursor = new UploadSessionCursor(result.getSessionId(), length);
+        return new UploadSessionFinishArg(cursor, commit);
+    }
+
+    private void uploaded(/*@Nullable*/ UploadSessionFinishArg arg) {
+        List<UploadSessionFinishArg> batch;
+        lock.lock();
+        try {
+            --uploading;
+            if (arg != null) {
+                pending.add(arg);
+            }
+            // once finished, the last upload commits whatever partial batch is left
+            batch = takePending(pending.size() >= batchSize || (finished && uploading == 0));
+        } finally {
+            lock.unlock();
+        }
+
+        if (batch != null) {
+            commit(batch);
+        }
+    }
+
+    private List<UploadSessionFinishArg> takePending(boolean force) {
+        lock.lock();
+        try {
+            if (pending.isEmpty() || !force) {
+                return null;
+            }
+            List<UploadSessionFinishArg> batch = pending;
+            pending = new ArrayList<UploadSessionFinishArg>(batchSize);
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(List<UploadSessionFinishArg> batch) {
+        UploadSessionFinishBatchLaunch launch;
+        try {
+            launch = files.uploadSessionFinishBatch(batch);
+        } catch (DbxException ex) {
+            failBatch(batch, ex);
+            return;
+        } catch (RuntimeException ex) {
+            // may be called from an upload task's finally block, every entry must still be reported
+            failBatch(batch, new DbxException("Failed to commit upload_session/finish_batch: " + ex, ex));
+            return;
+        }
+
+        if (launch.isComplete()) {
+            completeBatch(batch, launch.getCompleteValue());
+        } else if (launch.isAsyncJobId()) {
+            schedulePoll(batch, launch.getAsyncJobIdValue());
+        } else {
+            failBatch(batch, new DbxException("Unexpected response from upload_session/finish_batch: " + launch));
+        }
+    }
+
+    private void schedulePoll(final List<UploadSessionFinishArg> batch, String asyncJobId) {
+        try {
+            poll(batch, asyncJobId);
+        } catch (RuntimeException ex) {
+            // e.g. RejectedExecutionException once the executor is shut down
+            failBatch(batch, new DbxException("Failed to poll upload_session/finish_batch job: " + ex, ex));
+        }
+    }
+
+    private void poll(final List<UploadSessionFinishArg> batch, String asyncJobId) {
+        poller.poll(asyncJobId, DbxAsyncJobPoller.uploadSessionFinishBatchCheck(files),
+            new DbxAsyncJobPoller.Callback<UploadSessionFinishBatchJobStatus>() {
+                @Override
+                public void onComplete(String asyncJobId, UploadSessionFinishBatchJobStatus status) {
+                    if (status.isComplete()) {
+                        completeBatch(batch, status.getCompleteValue());
+                    } else {
+                        failBatch(batch, new DbxException("Unexpected response from upload_session/finish_batch/check: " + status));
+                    }
+                }
+
+                @Override
+                public void onError(String asyncJobId, Throwable error) {
+                    if (error instanceof DbxException) {
+                        failBatch(batch, (DbxException) error);
+                    } else {
+                        failBatch(batch, new DbxException("Failed to poll upload_session/finish_batch job: " + error, error));
+                    }
+                }
+            });
+    }
+
+    private void completeBatch(List<UploadSessionFinishArg> batch, UploadSessionFinishBatchResult result) {
+        List<UploadSessionFinishBatchResultEntry> entries = result.getEntries();
+        if (entries.size() != batch.size()) {
+            failBatch(batch, new DbxException(
+                "Expected " + batch.size() + " batch result entries, got " + entries.size()
+            ));
+            return;
+        }
+
+        try {
+            for (int i = 0; i < batch.size(); ++i) {
+                CommitInfo commit = batch.get(i).getCommit();
+                UploadSessionFinishBatchResultEntry entry = entries.get(i);
+                try {
+                    if (entry.isSuccess()) {
+                        callback.onSuccess(commit, entry.getSuccessValue());
+                    } else {
+                        callback.onFailure(commit, entry.getFailureValue());
+                    }
+                } catch (RuntimeException ex) {
+                    // don't let a misbehaving callback prevent us from reporting the other entries
+                }
+            }
+        } finally {
+            done(batch.size());
+        }
+    }
+
+    private void failBatch(List<UploadSessionFinishArg> batch, DbxException ex) {
+        try {
+            for (UploadSessionFinishArg arg : batch) {
+                notifyException(arg.getCommit(), ex);
+            }
+        } finally {
+            done(batch.size());
+        }
+    }
+
+    private void notifyException(CommitInfo commit, Exception ex) {
+        try {
+            callback.onException(commit, ex);
+        } catch (RuntimeException ignored) {
+            // don't let a misbehaving callback prevent us from reporting the other entries
+        }
+    }
+
+    private void done(int count) {
+        lock.lock();
+        try {
+            outstanding -= count;
+            idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static abstract class Source {
+        public abstract long length();
+        public abstract InputStream open() throws IOException;
+    }
+
+    /**
+     * Receives the outcome of each file submitted to a {@link DbxBulkUploader}. Exactly one method
+     * is called for every submitted file.
+     */
+    public static abstract class Callback {
+        /**
+         * Called after the file was committed.
+         *
+         * @param commit commit info the file was submitted with
+         * @param metadata metadata of the committed file
+         */
+        public abstract void onSuccess(CommitInfo commit, FileMetadata metadata);
+
+        /**
+         * Called if the server rejected the commit of an uploaded file.
+         *
+         * @param commit commit info the file was submitted with
+         * @param error reason the commit failed
+         */
+        public abstract void onFailure(CommitInfo commit, UploadSessionFinishError error);
+
+        /**
+         * Called if the file could not be read or uploaded, or if its batch could not be
+         * committed.
+         *
+         * @param commit commit info the file was submitted with
+         * @param ex {@link DbxException} or {@link IOException} that caused the failure
+         */
+        public abstract void onException(CommitInfo commit, Exception ex);
+    }
+}
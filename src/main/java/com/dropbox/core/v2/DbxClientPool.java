@@ -0,0 +1,522 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxHost;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Hands out Dropbox clients for many tenants that all share one {@link HttpRequestor}.
+ *
+ * <p> Clients are cheap, but the {@link HttpRequestor} of a {@link DbxRequestConfig} owns the
+ * connection pool, so services that build a new configuration (and with it a new requestor) for
+ * every request open a new connection for every request. This pool builds every client from the
+ * configuration it was created with, so all tenants share its requestor and its connections, and
+ * keeps the clients of the {@code maxClients} most recently used tenants around for reuse.
+ *
+ * <p> Tenants are identified by an ID chosen by the caller, which keeps access tokens out of
+ * metrics and logs. A tenant is either a user, with its own access token (see {@link
+ * #getClient}), or a member of a team, acting through the team's access token (see {@link
+ * #getMemberClient}). When a tenant's access token changes, the pool replaces its client. Evicted
+ * clients keep working, they are just not handed out again.
+ *
+ * <pre><code>
+ *    DbxClientPool pool = new DbxClientPool(
+ *        DbxRequestConfig.newBuilder("GalleryServer/1.0")
+ *            .withHttpRequestor(new OkHttp3Requestor(OkHttp3Requestor.defaultOkHttpClient()))
+ *            .build(),
+ *        10000
+ *    );
+ *
+ *    DbxClientV2 client = pool.getClient(account.getId(), account.getAccessToken());
+ *    client.files().listFolder("");
+ * </code></pre>
+ *
+ * <p> The pool counts the requests made by each tenant's clients (see {@link #getMetrics}). The
+ * metrics of the {@code maxClients} tenants most recently handed a client are kept.
+ *
+ * <p> This class is thread safe.
+ */
+public final class DbxClientPool {
+    private final DbxRequestConfig requestConfig;
+    private final DbxHost host;
+    private final int maxClients;
+
+    private final ReentrantLock lock;
+    private final LinkedHashMap<String, Pooled> clients;
+    private final LinkedHashMap<String, Counters> tenants;
+
+    private final AtomicLong created;
+    private final AtomicLong reused;
+
+    /**
+     * Creates a pool for clients of the default Dropbox hosts.
+     *
+     * @param requestConfig configuration shared by all clients, never {@code null}
+     * @param maxClients maximum number of clients kept for reuse, must be positive
+     */
+    public DbxClientPool(DbxRequestConfig requestConfig, int maxClients) {
+        this(requestConfig, DbxHost.DEFAULT, maxClients);
+    }
+
+    /**
+     * Creates a pool for clients of the given Dropbox hosts.
+     *
+     * @param requestConfig configuration shared by all clients, never {@code null}
+     * @param host Dropbox hosts to send requests to, never {@code null}
+     * @param maxClients maximum number of clients kept for reuse, must be positive
+     */
+    public DbxClientPool(DbxRequestConfig requestConfig, DbxHost host, int maxClients) {
+        if (requestConfig == null) throw new NullPointerException("requestConfig");
+        if (host == null) throw new NullPointerException("host");
+        if (maxClients <= 0) throw new IllegalArgumentException("maxClients must be positive");
+
+        this.requestConfig = requestConfig;
+        this.host = host;
+        this.maxClients = maxClients;
+
+        this.lock = new ReentrantLock();
+        this.clients = new LinkedHashMap<String, Pooled>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Pooled> eldest) {
+                return size() > DbxClientPool.this.maxClients;
+            }
+        };
+        this.tenants = new LinkedHashMap<String, Counters>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Counters> eldest) {
+                if (size() > DbxClientPool.this.maxClients) {
+                    // requestors still holding these counters look up new ones
+                    eldest.getValue().evicted = true;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.created = new AtomicLong(0);
+        this.reused = new AtomicLong(0);
+    }
+
+    /**
+     * Returns a client for a user, reusing the tenant's client if the pool has one for the same
+     * access token.
+     *
+     * @param tenantId ID of the tenant, never {@code null}
+     * @param accessToken OAuth 2 access token of the user, never {@code null}
+     *
+     * @return client making requests on behalf of the user
+     */
+    public DbxClientV2 getClient(String tenantId, final String accessToken) {
+        if (tenantId == null) throw new NullPointerException("tenantId");
+        if (accessToken == null) throw new NullPointerException("accessToken");
+
+        return getClient("user:" + tenantId, tenantId, accessToken, new Factory() {
+            @Override
+            public DbxClientV2 create(DbxRequestConfig config) {
+                return new DbxClientV2(config, accessToken, host);
+            }
+        });
+    }
+
+    /**
+     * Returns a client for a member of a team, as returned by {@link DbxTeamClientV2#asMember},
+     * reusing the member's client if the pool has one for the same team access token.
+     *
+     * <p> The requests of all members of a tenant count towards the metrics of that tenant.
+     *
+     * @param tenantId ID of the tenant, usually identifying the team, never {@code null}
+     * @param teamAccessToken OAuth 2 access token of the team, never {@code null}
+     * @param memberId ID of the team member to act as, never {@code null}
+     *
+     * @return client making requests on behalf of the team member
+     */
+    public DbxClientV2 getMemberClient(String tenantId, final String teamAccessToken, final String memberId) {
+        if (tenantId == null) throw new NullPointerException("tenantId");
+        if (teamAccessToken == null) throw new NullPointerException("teamAccessToken");
+        if (memberId == null) throw new NullPointerException("memberId");
+
+        return getClient("member:" + tenantId + "\n" + memberId, tenantId, teamAccessToken, new Factory() {
+            @Override
+            public DbxClientV2 create(DbxRequestConfig config) {
+                return new DbxTeamClientV2(config, teamAccessToken, host).asMember(memberId);
+            }
+        });
+    }
+
+    /**
+     * Returns the request metrics of a tenant.
+     *
+     * @param tenantId ID of the tenant, never {@code null}
+     *
+     * @return metrics of the tenant, or {@code null} if the pool has no metrics for it
+     */
+    public /*@Nullable*/ Metrics getMetrics(String tenantId) {
+        if (tenantId == null) throw new NullPointerException("tenantId");
+
+        lock.lock();
+        try {
+            Counters counters = tenants.get(tenantId);
+            return counters == null ? null : counters.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the request metrics of all tenants the pool has metrics for.
+     *
+     * @return metrics by tenant ID, least recently used tenant first
+     */
+    public Map<String, Metrics> getMetrics() {
+        lock.lock();
+        try {
+            Map<String, Metrics> metrics = new LinkedHashMap<String, Metrics>();
+            for (Map.Entry<String, Counters> tenant : tenants.entrySet()) {
+                metrics.put(tenant.getKey(), tenant.getValue().snapshot());
+            }
+            return Collections.unmodifiableMap(metrics);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of clients currently kept for reuse.
+     *
+     * @return number of pooled clients, never more than {@code maxClients}
+     */
+    public int getClientCount() {
+        lock.lock();
+        try {
+            return clients.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of clients this pool created.
+     *
+     * @return number of clients created
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Returns the number of times this pool handed out a client it had already created.
+     *
+     * @return number of clients reused
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    private DbxClientV2 getClient(String key, String tenantId, String accessToken, Factory factory) {
+        lock.lock();
+        try {
+            Pooled entry = clients.get(key);
+            if (entry != null && entry.accessToken.equals(accessToken)) {
+                // requests don't touch the tenants, handing out their clients keeps them recent
+                counters(tenantId);
+                reused.incrementAndGet();
+                return entry.client;
+            }
+
+            DbxRequestConfig config = requestConfig.copy()
+                .withHttpRequestor(new MeteredRequestor(requestConfig.getHttpRequestor(), tenantId))
+                .build();
+            DbxClientV2 client = factory.create(config);
+            clients.put(key, new Pooled(accessToken, client));
+            created.incrementAndGet();
+            return client;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the counters of a tenant, starting new ones if the tenant has none yet or its
+     * counters were evicted. Requestors call this only when their counters were evicted, so the
+     * pool's lock is not taken for every request.
+     */
+    private Counters counters(String tenantId) {
+        lock.lock();
+        try {
+            Counters counters = tenants.get(tenantId);
+            if (counters == null) {
+                counters = new Counters();
+                tenants.put(tenantId, counters);
+            }
+            return counters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private interface Factory {
+        DbxClientV2 create(DbxRequestConfig config);
+    }
+
+    private static final class Pooled {
+        private final String accessToken;
+        private final DbxClientV2 client;
+
+        private Pooled(String accessToken, DbxClientV2 client) {
+            this.accessToken = accessToken;
+            this.client = client;
+        }
+    }
+
+    private static final class Counters {
+        private final AtomicLong requests = new AtomicLong(0);
+        private final AtomicLong errors = new AtomicLong(0);
+        private final AtomicLong rateLimits = new AtomicLong(0);
+        private final AtomicLong networkErrors = new AtomicLong(0);
+        private final AtomicLong latencyNanos = new AtomicLong(0);
+
+        private volatile boolean evicted = false;
+
+        private void record(long startNanos, /*@Nullable*/ HttpRequestor.Response response) {
+            latencyNanos.addAndGet(System.nanoTime() - startNanos);
+            requests.incrementAndGet();
+            if (response == null) {
+                networkErrors.incrementAndGet();
+            } else if (response.getStatusCode() == 429) {
+                rateLimits.incrementAndGet();
+            } else if (response.getStatusCode() >= 400) {
+                errors.incrementAndGet();
+            }
+        }
+
+        private Metrics snapshot() {
+            return new Metrics(
+                requests.get(), errors.get(), rateLimits.get(), networkErrors.get(), latencyNanos.get() / 1000000L
+            );
+        }
+    }
+
+    /**
+     * Counts the requests sent through the shared requestor for one tenant.
+     */
+    private final class MeteredRequestor extends HttpRequestor {
+        private final HttpRequestor requestor;
+        private final String tenantId;
+        private volatile Counters counters;
+
+        private MeteredRequestor(HttpRequestor requestor, String tenantId) {
+            this.requestor = requestor;
+            this.tenantId = tenantId;
+            this.counters = counters(tenantId);
+        }
+
+        private void record(long start, /*@Nullable*/ Response response) {
+            Counters current = counters;
+            if (current.evicted) {
+                current = counters(tenantId);
+                counters = current;
+            }
+            current.record(start, response);
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            long start = System.nanoTime();
+            Response response = null;
+            try {
+                response = requestor.doGet(url, headers);
+                return response;
+            } finally {
+                record(start, response);
+            }
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return new MeteredUploader(requestor.startPost(url, headers), start);
+            } catch (IOException ex) {
+                record(start, null);
+                throw ex;
+            }
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return new MeteredUploader(requestor.startPut(url, headers), start);
+            } catch (IOException ex) {
+                record(start, null);
+                throw ex;
+            }
+        }
+
+        private final class MeteredUploader extends Uploader {
+            private final Uploader uploader;
+            private final long start;
+
+            private MeteredUploader(Uploader uploader, long start) {
+                this.uploader = uploader;
+                this.start = start;
+            }
+
+            @Override
+            public OutputStream getBody() {
+                return uploader.getBody();
+            }
+
+            @Override
+            public void close() {
+                uploader.close();
+            }
+
+            @Override
+            public void abort() {
+                uploader.abort();
+            }
+
+            // forward uploads, so requestors that send bodies directly don't fall back to getBody()
+
+            @Override
+            public void upload(File file) throws IOException {
+                uploader.upload(file);
+            }
+
+            @Override
+            public void upload(InputStream in, long limit) throws IOException {
+                uploader.upload(in, limit);
+            }
+
+            @Override
+            public void upload(InputStream in) throws IOException {
+                uploader.upload(in);
+            }
+
+            @Override
+            public void upload(ByteBuffer body) throws IOException {
+                uploader.upload(body);
+            }
+
+            @Override
+            public void upload(byte [] body) throws IOException {
+                uploader.upload(body);
+            }
+
+            @Override
+            public Response finish() throws IOException {
+                Response response = null;
+                try {
+                    response = uploader.finish();
+                    return response;
+                } finally {
+                    record(start, response);
+                }
+            }
+        }
+    }
+
+    /**
+     * Request counts of one tenant, as of the time they were returned by {@link #getMetrics}.
+     * Retried requests count once per attempt.
+     */
+    public static final class Metrics {
+        private final long requestCount;
+        private final long errorCount;
+        private final long rateLimitCount;
+        private final long networkErrorCount;
+        private final long totalLatencyMillis;
+
+        private Metrics(long requestCount, long errorCount, long rateLimitCount, long networkErrorCount,
+                        long totalLatencyMillis) {
+            this.requestCount = requestCount;
+            this.errorCount = errorCount;
+            this.rateLimitCount = rateLimitCount;
+            this.networkErrorCount = networkErrorCount;
+            this.totalLatencyMillis = totalLatencyMillis;
+        }
+
+        /**
+         * Returns the number of requests made, including the failed ones.
+         *
+         * @return number of requests
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * Returns the number of responses with an HTTP error status other than 429.
+         *
+         * @return number of error responses
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Returns the number of responses that were rate limited (HTTP status 429).
+         *
+         * @return number of rate limited responses
+         */
+        public long getRateLimitCount() {
+            return rateLimitCount;
+        }
+
+        /**
+         * Returns the number of requests that got no response because of a network error.
+         *
+         * @return number of network errors
+         */
+        public long getNetworkErrorCount() {
+            return networkErrorCount;
+        }
+
+        /**
+         * Returns the time spent on requests, from sending the request until its response status
+         * and headers arrived.
+         *
+         * @return total request latency in milliseconds
+         */
+        public long getTotalLatencyMillis() {
+            return totalLatencyMillis;
+        }
+
+        /**
+         * Returns the average time spent on a request.
+         *
+         * @return average request latency in milliseconds, or {@code 0.0} if no request was made
+         */
+        public double getAverageLatencyMillis() {
+            return requestCount == 0 ? 0.0 : (double) totalLatencyMillis / requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{requests=" + requestCount
+                + ", errors=" + errorCount
+                + ", rateLimits=" + rateLimitCount
+                + ", networkErrors=" + networkErrorCount
+                + ", totalLatencyMillis=" + totalLatencyMillis
+                + "}";
+        }
+    }
+}
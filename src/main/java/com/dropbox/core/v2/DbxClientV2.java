@@ -1,11 +1,14 @@
 package com.dropbox.core.v2;
 
+import com.dropbox.core.DbxCredentialProvider;
+import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxHost;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.DbxRequestUtil;
 import com.dropbox.core.http.HttpRequestor;
 
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Use this class to make remote calls to the Dropbox API user endpoints.  User
@@ -80,6 +83,36 @@ public class DbxClientV2 extends DbxClientV2Base {
         super(new DbxUserRawClientV2(requestConfig, accessToken, host, userId));
     }
 
+    /**
+     * Creates a client that authenticates requests against the default Dropbox hosts with the
+     * access tokens of the given provider. Tokens are renewed as the provider sees fit, and
+     * requests rejected because of an expired token are sent again once the provider renewed it.
+     *
+     * @param requestConfig  Default attributes to use for each request
+     * @param credentials  Provider of the OAuth 2 access tokens that give your
+     *     app the ability to make Dropbox API calls, such as a {@link
+     *     com.dropbox.core.DbxRefreshingCredentialProvider}
+     */
+    public DbxClientV2(DbxRequestConfig requestConfig, DbxCredentialProvider credentials) {
+        this(requestConfig, credentials, DbxHost.DEFAULT, null);
+    }
+
+    /**
+     * Same as {@link #DbxClientV2(DbxRequestConfig, DbxCredentialProvider)} except you can also
+     * set the hostnames of the Dropbox API servers and the user ID.
+     *
+     * @param requestConfig  Default attributes to use for each request
+     * @param credentials  Provider of the OAuth 2 access tokens that give your
+     *     app the ability to make Dropbox API calls
+     * @param host  Dropbox hosts to send requests to (used for mocking and
+     *     testing)
+     * @param userId The user ID of the current Dropbox account. Used for multi-Dropbox
+     *               account use-case.
+     */
+    public DbxClientV2(DbxRequestConfig requestConfig, DbxCredentialProvider credentials, DbxHost host, String userId) {
+        super(new DbxUserRawClientV2(requestConfig, credentials, host, userId));
+    }
+
     /**
      * For internal use only.
      *
@@ -91,23 +124,53 @@ public class DbxClientV2 extends DbxClientV2Base {
         super(client);
     }
 
+    /**
+     * Returns a {@link DbxBulkUploader} that uploads files concurrently using this client and
+     * commits them in batches of up to {@link DbxBulkUploader#MAX_BATCH_SIZE} files.
+     *
+     * @param executor executor used to upload files and poll batch jobs, never {@code null}
+     * @param callback callback notified of the outcome of every submitted file, never {@code
+     *     null}
+     *
+     * @return new bulk uploader
+     */
+    public DbxBulkUploader bulkUploader(ScheduledExecutorService executor, DbxBulkUploader.Callback callback) {
+        return new DbxBulkUploader(this, executor, callback);
+    }
+
     /**
      * {@link DbxRawClientV2} raw client that adds user OAuth2 auth headers to all requests.
      */
     private static final class DbxUserRawClientV2 extends DbxRawClientV2 {
-        private final String accessToken;
+        private static final String BEARER_PREFIX = "Bearer ";
+
+        private final DbxCredentialProvider credentials;
 
         public DbxUserRawClientV2(DbxRequestConfig requestConfig, String accessToken, DbxHost host, String userId) {
+            this(requestConfig, DbxCredentialProvider.forAccessToken(accessToken), host, userId);
+        }
+
+        public DbxUserRawClientV2(DbxRequestConfig requestConfig, DbxCredentialProvider credentials, DbxHost host, String userId) {
             super(requestConfig, host, userId);
 
-            if (accessToken == null) throw new NullPointerException("accessToken");
+            if (credentials == null) throw new NullPointerException("credentials");
 
-            this.accessToken = accessToken;
+            this.credentials = credentials;
+        }
+
+        @Override
+        protected void addAuthHeaders(List<HttpRequestor.Header> headers) throws DbxException {
+            DbxRequestUtil.addAuthHeader(headers, credentials.getAccessToken());
         }
 
         @Override
-        protected void addAuthHeaders(List<HttpRequestor.Header> headers) {
-            DbxRequestUtil.addAuthHeader(headers, accessToken);
+        protected boolean refreshAuthHeaders(List<HttpRequestor.Header> headers) throws DbxException {
+            for (HttpRequestor.Header header : headers) {
+                if (header.getKey().equals("Authorization") && header.getValue().startsWith(BEARER_PREFIX)) {
+                    return credentials.refresh(header.getValue().substring(BEARER_PREFIX.length()));
+                }
+            }
+            return false;
         }
     }
 }
@@ -0,0 +1,331 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Lists every file and folder below a Dropbox folder, listing many folders at once.
+ *
+ * <p> A recursive {@code list_folder} cursor returns a whole tree one page at a time, so a large
+ * tree takes as many sequential requests as it has pages. This class instead lists each folder on
+ * its own and hands the subfolders it finds to a pool of workers, so up to {@code maxConcurrency}
+ * folders are listed at the same time. Workers take the most recently found folder first, which
+ * walks the tree depth first and keeps the number of pending folders small.
+ *
+ * <p> Listing every folder separately costs one request per folder, which is wasteful for deep
+ * trees of small folders. Folders at {@code recursiveDepth} or deeper below the walked folder are
+ * therefore listed with a single recursive cursor instead of being split up further. With a {@code
+ * recursiveDepth} of 1, for example, only the walked folder is listed on its own, and each of its
+ * subfolders is listed recursively on one worker.
+ *
+ * <p> Each entry is passed to the {@link Visitor} exactly once, in no particular order. Visitors
+ * are called from the executor's threads and may be called concurrently.
+ *
+ * <pre><code>
+ *    DbxFolderWalker walker = new DbxFolderWalker(client, Executors.newFixedThreadPool(16), 16, 3);
+ *    walker.walk("/Photos", new DbxFolderWalker.Visitor() {
+ *        &#64;Override
+ *        public void visit(Metadata metadata) {
+ *            inventory.add(metadata);
+ *        }
+ *    });
+ * </code></pre>
+ *
+ * <p> This class is thread safe. The executor is not shut down by this class.
+ */
+public final class DbxFolderWalker {
+    private final DbxUserFilesRequests files;
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int recursiveDepth;
+
+    /**
+     * Creates a walker that lists every folder on its own.
+     *
+     * @param client Dropbox client used to list folders, never {@code null}
+     * @param executor executor to list folders on, never {@code null}
+     * @param maxConcurrency maximum number of folders listed at once, must be positive
+     */
+    public DbxFolderWalker(DbxClientV2 client, Executor executor, int maxConcurrency) {
+        this(client, executor, maxConcurrency, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a walker that lists folders at {@code recursiveDepth} or deeper with a recursive
+     * cursor.
+     *
+     * @param client Dropbox client used to list folders, never {@code null}
+     * @param executor executor to list folders on, never {@code null}
+     * @param maxConcurrency maximum number of folders listed at once, must be positive
+     * @param recursiveDepth depth below the walked folder, starting at 0 for the walked folder
+     *     itself, from which folders are listed recursively. Must not be negative
+     */
+    public DbxFolderWalker(DbxClientV2 client, Executor executor, int maxConcurrency, int recursiveDepth) {
+        if (client == null) throw new NullPointerException("client");
+        if (executor == null) throw new NullPointerException("executor");
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be positive");
+        if (recursiveDepth < 0) throw new IllegalArgumentException("recursiveDepth must not be negative");
+
+        this.files = client.files();
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.recursiveDepth = recursiveDepth;
+    }
+
+    /**
+     * Passes every file and folder below the given folder to the visitor, and returns once all
+     * of them were visited. The folder itself is not visited.
+     *
+     * <p> If listing a folder fails, no more folders are listed and the exception is thrown once
+     * the folders being listed are done.
+     *
+     * @param path path or ID of the folder to walk, or {@code ""} for the root folder, never
+     *     {@code null}
+     * @param visitor visitor to pass entries to, never {@code null}
+     *
+     * @throws DbxException if listing a folder failed
+     * @throws InterruptedException if interrupted while waiting for the walk to finish
+     */
+    public void walk(String path, Visitor visitor) throws DbxException, InterruptedException {
+        if (path == null) throw new NullPointerException("path");
+        if (visitor == null) throw new NullPointerException("visitor");
+
+        Walk walk = new Walk(visitor);
+        walk.start(new Folder(path, 0));
+        walk.await();
+    }
+
+    /**
+     * State of a single {@link #walk}.
+     */
+    private final class Walk {
+        private final Visitor visitor;
+
+        private final ReentrantLock lock;
+        private final Condition changed;
+        // folders waiting to be listed, taken from the end
+        private final ArrayDeque<Folder> pending;
+        private int listing;
+        private int workers;
+        private /*@Nullable*/ Throwable failure;
+
+        private Walk(Visitor visitor) {
+            this.visitor = visitor;
+
+            this.lock = new ReentrantLock();
+            this.changed = lock.newCondition();
+            this.pending = new ArrayDeque<Folder>();
+            this.listing = 0;
+            this.workers = 0;
+            this.failure = null;
+        }
+
+        private void start(Folder root) {
+            lock.lock();
+            try {
+                pending.addLast(root);
+                for (int i = 0; i < maxConcurrency; ++i) {
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                work();
+                            }
+                        });
+                    } catch (RejectedExecutionException ex) {
+                        if (workers == 0) {
+                            throw ex;
+                        }
+                        // walk with the workers we have
+                        break;
+                    }
+                    ++workers;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void await() throws DbxException, InterruptedException {
+            lock.lock();
+            try {
+                try {
+                    while (workers > 0) {
+                        changed.await();
+                    }
+                } catch (InterruptedException ex) {
+                    fail(ex);
+                    throw ex;
+                }
+
+                if (failure instanceof DbxException) {
+                    throw (DbxException) failure;
+                } else if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw new IllegalStateException(failure);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void work() {
+            try {
+                Folder folder;
+                while ((folder = next()) != null) {
+                    try {
+                        list(folder);
+                    } catch (Throwable ex) {
+                        fail(ex);
+                    } finally {
+                        listed();
+                    }
+                }
+            } finally {
+                lock.lock();
+                try {
+                    --workers;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Waits for a folder to list, or returns {@code null} once the walk is over.
+         */
+        private /*@Nullable*/ Folder next() {
+            lock.lock();
+            try {
+                while (failure == null && pending.isEmpty() && listing > 0) {
+                    // folders being listed may still turn up subfolders
+                    changed.awaitUninterruptibly();
+                }
+                if (failure != null || pending.isEmpty()) {
+                    return null;
+                }
+                ++listing;
+                return pending.removeLast();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void listed() {
+            lock.lock();
+            try {
+                --listing;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void list(Folder folder) throws DbxException {
+            boolean recursive = folder.depth >= recursiveDepth;
+            ListFolderResult result = files.listFolderBuilder(folder.path)
+                .withRecursive(recursive)
+                .start();
+            while (true) {
+                for (Metadata metadata : result.getEntries()) {
+                    // recursive listings start with the folder itself, which its parent visited
+                    if (recursive && isFolder(metadata, folder)) {
+                        continue;
+                    }
+                    if (!recursive && metadata instanceof FolderMetadata) {
+                        FolderMetadata subfolder = (FolderMetadata) metadata;
+                        push(new Folder(
+                            subfolder.getPathLower() != null ? subfolder.getPathLower() : subfolder.getId(),
+                            folder.depth + 1
+                        ));
+                    }
+                    visitor.visit(metadata);
+                }
+                if (!result.getHasMore() || isFailed()) {
+                    return;
+                }
+                result = files.listFolderContinue(result.getCursor());
+            }
+        }
+
+        private boolean isFolder(Metadata metadata, Folder folder) {
+            if (!(metadata instanceof FolderMetadata)) {
+                return false;
+            }
+            return folder.pathLower.equals(metadata.getPathLower())
+                || folder.path.equals(((FolderMetadata) metadata).getId());
+        }
+
+        private void push(Folder folder) {
+            lock.lock();
+            try {
+                pending.addLast(folder);
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isFailed() {
+            lock.lock();
+            try {
+                return failure != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail(Throwable ex) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = ex;
+                }
+                pending.clear();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Folder {
+        private final String path;
+        private final String pathLower;
+        private final int depth;
+
+        private Folder(String path, int depth) {
+            this.path = path;
+            this.pathLower = path.toLowerCase(Locale.ROOT);
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Receives the entries found by a {@link DbxFolderWalker}. Implementations must be thread safe.
+     */
+    public static abstract class Visitor {
+        /**
+         * Called once for every file, folder and other entry below the walked folder.
+         *
+         * @param metadata metadata of the entry
+         */
+        public abstract void visit(Metadata metadata);
+    }
+}
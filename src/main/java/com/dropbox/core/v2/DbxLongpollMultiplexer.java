@@ -0,0 +1,825 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.BadResponseException;
+import com.dropbox.core.DbxApiException;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.DbxRequestUtil;
+import com.dropbox.core.InvalidAccessTokenException;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.json.DbxJson;
+import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.util.LangUtil;
+import com.dropbox.core.v2.files.ListFolderLongpollError;
+import com.dropbox.core.v2.files.ListFolderLongpollErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Watches many {@code list_folder} cursors for changes using a bounded number of concurrent
+ * {@code list_folder/longpoll} requests.
+ *
+ * <p> Instead of dedicating a thread and connection to every cursor, registered cursors take turns
+ * on {@code maxConcurrentPolls} polling threads. A cursor that reports no changes goes back to the
+ * end of the queue, and a cursor the server asked to back off is not polled again until its backoff
+ * expires. Cursors with changes are handed to a separate drain executor, which pages through the
+ * changes with {@code list_folder/continue} and reports them to the subscription's {@link
+ * Listener}. Pending drains are served round-robin by account, so an account with many busy folders
+ * cannot starve the others.
+ *
+ * <p> {@code list_folder/longpoll} does not require authentication, so one client is used for all
+ * longpoll requests. Its {@link com.dropbox.core.http.HttpRequestor} must use a read timeout longer
+ * than the longpoll timeout plus the up to 90 seconds of jitter added by the server. Each
+ * subscription brings its own client, with a regular read timeout, for draining changes.
+ *
+ * <p> If the longpoll client's requestor supports {@link HttpRequestor#postAsync asynchronous
+ * requests}, like {@link com.dropbox.core.http.OkHttp3Requestor} and {@link
+ * com.dropbox.core.http.OkHttpRequestor}, polls are issued by a single dispatcher thread and no
+ * thread is held while a poll is in flight. {@code maxConcurrentPolls} then only limits the number
+ * of open requests and can be as large as the number of cursors. Raise the OkHttp dispatcher's
+ * {@code maxRequests} and {@code maxRequestsPerHost} to match, since OkHttp queues calls beyond
+ * those limits.
+ *
+ * <p> With more cursors than concurrent polls, a change may not be noticed until the cursor's next
+ * turn. The longpoll timeout is shortened as cursors are added, down to the 30 second minimum the
+ * server accepts, so that every cursor is polled about once per timeout. With more than {@code
+ * timeoutSecs / 30} cursors per concurrent poll, each additional cursor adds 30 seconds to that
+ * delay; allow more concurrent polls to keep it bounded.
+ *
+ * <pre><code>
+ *    DbxLongpollMultiplexer multiplexer = new DbxLongpollMultiplexer(
+ *        longpollClient, Executors.newFixedThreadPool(64), 64, Executors.newFixedThreadPool(8)
+ *    );
+ *    multiplexer.start();
+ *    for (Folder folder : folders) {
+ *        multiplexer.register(folder.getAccountId(), folder.getClient(), folder.getCursor(), listener);
+ *    }
+ * </code></pre>
+ *
+ * <p> This class is thread safe. The executors are not shut down by this class.
+ */
+public final class DbxLongpollMultiplexer {
+    private static final String LONGPOLL_ROUTE = "2/files/list_folder/longpoll";
+
+    /**
+     * Default timeout of each longpoll request, in seconds.
+     */
+    public static final long DEFAULT_TIMEOUT_SECS = 30L;
+
+    private static final long MIN_TIMEOUT_SECS = 30L;
+    private static final long MAX_TIMEOUT_SECS = 480L;
+    private static final long MIN_ERROR_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_ERROR_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Random RAND = new Random();
+
+    private final DbxClientV2 longpollClient;
+    private final ExecutorService pollExecutor;
+    private final int maxConcurrentPolls;
+    private final Executor drainExecutor;
+    private final long timeoutSecs;
+    private final /*@Nullable*/ DbxRawClientV2 asyncClient;
+    private final Semaphore asyncPermits;
+
+    private final DelayQueue<Scheduled> ready;
+    private final ReentrantLock lock;
+    private final LinkedHashMap<String, ArrayDeque<Subscription>> pendingDrains;
+    private final List<Future<?>> pollers;
+    private boolean started;
+    private volatile boolean shutdown;
+
+    private final AtomicInteger subscriptions;
+    private final AtomicInteger activePolls;
+    private final AtomicInteger queuedDrains;
+    private final AtomicLong drains;
+    private final AtomicLong totalLatencyMillis;
+    private final AtomicLong maxLatencyMillis;
+
+    /**
+     * Creates a multiplexer using the default longpoll timeout.
+     *
+     * @param longpollClient client used for all longpoll requests, never {@code null}
+     * @param pollExecutor executor to run the polling threads on, must be able to run {@code
+     *     maxConcurrentPolls} tasks at once, or one task if the longpoll client supports
+     *     asynchronous requests, never {@code null}
+     * @param maxConcurrentPolls maximum number of longpoll requests in flight, must be positive
+     * @param drainExecutor executor to run {@code list_folder/continue} drains on, never {@code
+     *     null}
+     */
+    public DbxLongpollMultiplexer(DbxClientV2 longpollClient, ExecutorService pollExecutor,
+                                  int maxConcurrentPolls, Executor drainExecutor) {
+        this(longpollClient, pollExecutor, maxConcurrentPolls, drainExecutor, DEFAULT_TIMEOUT_SECS);
+    }
+
+    /**
+     * Creates a multiplexer.
+     *
+     * @param longpollClient client used for all longpoll requests, never {@code null}
+     * @param pollExecutor executor to run the polling threads on, must be able to run {@code
+     *     maxConcurrentPolls} tasks at once, or one task if the longpoll client supports
+     *     asynchronous requests, never {@code null}
+     * @param maxConcurrentPolls maximum number of longpoll requests in flight, must be positive
+     * @param drainExecutor executor to run {@code list_folder/continue} drains on, never {@code
+     *     null}
+     * @param timeoutSecs timeout of each longpoll request, between 30 and 480 seconds
+     */
+    public DbxLongpollMultiplexer(DbxClientV2 longpollClient, ExecutorService pollExecutor,
+                                  int maxConcurrentPolls, Executor drainExecutor, long timeoutSecs) {
+        if (longpollClient == null) throw new NullPointerException("longpollClient");
+        if (pollExecutor == null) throw new NullPointerException("pollExecutor");
+        if (drainExecutor == null) throw new NullPointerException("drainExecutor");
+        if (maxConcurrentPolls <= 0) throw new IllegalArgumentException("maxConcurrentPolls must be positive");
+        if (timeoutSecs < MIN_TIMEOUT_SECS || timeoutSecs > MAX_TIMEOUT_SECS) {
+            throw new IllegalArgumentException(
+                "timeoutSecs must be between " + MIN_TIMEOUT_SECS + " and " + MAX_TIMEOUT_SECS
+            );
+        }
+
+        this.longpollClient = longpollClient;
+        this.pollExecutor = pollExecutor;
+        this.maxConcurrentPolls = maxConcurrentPolls;
+        this.drainExecutor = drainExecutor;
+        this.timeoutSecs = timeoutSecs;
+        DbxRawClientV2 rawClient = longpollClient._client;
+        this.asyncClient = rawClient != null && rawClient.getRequestConfig().getHttpRequestor().isAsyncSupported()
+            ? rawClient
+            : null;
+        this.asyncPermits = new Semaphore(maxConcurrentPolls);
+
+        this.ready = new DelayQueue<Scheduled>();
+        this.lock = new ReentrantLock();
+        this.pendingDrains = new LinkedHashMap<String, ArrayDeque<Subscription>>();
+        this.pollers = new ArrayList<Future<?>>(maxConcurrentPolls);
+        this.started = false;
+        this.shutdown = false;
+
+        this.subscriptions = new AtomicInteger(0);
+        this.activePolls = new AtomicInteger(0);
+        this.queuedDrains = new AtomicInteger(0);
+        this.drains = new AtomicLong(0);
+        this.totalLatencyMillis = new AtomicLong(0);
+        this.maxLatencyMillis = new AtomicLong(0);
+    }
+
+    /**
+     * Starts the polling threads.
+     *
+     * @throws IllegalStateException if already started or shut down
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (started || shutdown) {
+                throw new IllegalStateException("Multiplexer was already started.");
+            }
+            started = true;
+            if (asyncClient != null) {
+                pollers.add(pollExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch();
+                    }
+                }));
+                return;
+            }
+            for (int i = 0; i < maxConcurrentPolls; ++i) {
+                pollers.add(pollExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                }));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops polling. Blocking longpoll requests in flight are interrupted, the results of
+     * asynchronous ones are ignored, and drains in progress finish their current page.
+     * Subscriptions are not notified.
+     */
+    public void shutdown() {
+        List<Future<?>> running;
+        lock.lock();
+        try {
+            shutdown = true;
+            running = new ArrayList<Future<?>>(pollers);
+            pollers.clear();
+            pendingDrains.clear();
+            queuedDrains.set(0);
+        } finally {
+            lock.unlock();
+        }
+
+        for (Future<?> poller : running) {
+            poller.cancel(true);
+        }
+        ready.clear();
+    }
+
+    /**
+     * Starts watching a cursor for changes.
+     *
+     * @param accountId account the cursor belongs to, used to share drain capacity fairly between
+     *     accounts, never {@code null}
+     * @param client client for the account, used to fetch changes, never {@code null}
+     * @param cursor cursor from {@code list_folder} or {@code list_folder/get_latest_cursor},
+     *     never {@code null}
+     * @param listener notified of changes, never {@code null}
+     *
+     * @return handle to the new subscription
+     *
+     * @throws IllegalStateException if this multiplexer was shut down
+     */
+    public Subscription register(String accountId, DbxClientV2 client, String cursor, Listener listener) {
+        if (accountId == null) throw new NullPointerException("accountId");
+        if (client == null) throw new NullPointerException("client");
+        if (cursor == null) throw new NullPointerException("cursor");
+        if (listener == null) throw new NullPointerException("listener");
+        if (shutdown) {
+            throw new IllegalStateException("Multiplexer was shut down.");
+        }
+
+        Subscription subscription = new Subscription(accountId, client, cursor, listener);
+        subscriptions.incrementAndGet();
+        schedule(subscription, 0);
+        return subscription;
+    }
+
+    /**
+     * Returns the number of registered subscriptions that have not been cancelled.
+     *
+     * @return number of watched cursors
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.get();
+    }
+
+    /**
+     * Returns the number of longpoll requests currently in flight.
+     *
+     * @return number of active polls, at most {@code maxConcurrentPolls}
+     */
+    public int getActivePollCount() {
+        return activePolls.get();
+    }
+
+    /**
+     * Returns the number of cursors with changes waiting for a drain to start.
+     *
+     * @return drain queue depth
+     */
+    public int getDrainQueueDepth() {
+        return queuedDrains.get();
+    }
+
+    /**
+     * Returns the number of completed drains.
+     *
+     * @return number of times changes were fetched and reported for a cursor
+     */
+    public long getDrainCount() {
+        return drains.get();
+    }
+
+    /**
+     * Returns the average time between a longpoll reporting changes and those changes being
+     * reported to the listener.
+     *
+     * @return average change latency in milliseconds, or {@code 0} if nothing was drained yet
+     */
+    public long getAverageChangeLatencyMillis() {
+        long count = drains.get();
+        return count == 0 ? 0 : totalLatencyMillis.get() / count;
+    }
+
+    /**
+     * Returns the longest time between a longpoll reporting changes and those changes being
+     * reported to the listener.
+     *
+     * @return maximum change latency in milliseconds
+     */
+    public long getMaxChangeLatencyMillis() {
+        return maxLatencyMillis.get();
+    }
+
+    private void poll() {
+        while (!shutdown) {
+            Subscription subscription;
+            try {
+                subscription = ready.take().subscription;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (subscription.isCancelled()) {
+                continue;
+            }
+
+            ListFolderLongpollResult result;
+            activePolls.incrementAndGet();
+            try {
+                result = longpollClient.files().listFolderLongpoll(subscription.getCursor(), pollTimeoutSecs());
+            } catch (DbxException ex) {
+                if (shutdown) {
+                    return;
+                }
+                pollFailed(subscription, ex);
+                continue;
+            } catch (RuntimeException ex) {
+                // keep polling the other subscriptions
+                fail(subscription, ex);
+                continue;
+            } finally {
+                activePolls.decrementAndGet();
+            }
+            polled(subscription, result);
+        }
+    }
+
+    private void dispatch() {
+        while (!shutdown) {
+            Subscription subscription;
+            try {
+                asyncPermits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                subscription = ready.take().subscription;
+            } catch (InterruptedException ex) {
+                asyncPermits.release();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (subscription.isCancelled()) {
+                asyncPermits.release();
+                continue;
+            }
+            pollAsync(subscription);
+        }
+    }
+
+    private void pollAsync(final Subscription subscription) {
+        DbxRequestConfig requestConfig = asyncClient.getRequestConfig();
+        List<HttpRequestor.Header> headers = new ArrayList<HttpRequestor.Header>();
+        DbxRequestUtil.addUserAgentHeader(headers, requestConfig, DbxRawClientV2.USER_AGENT_ID);
+        headers.add(new HttpRequestor.Header("Content-Type", "application/json; charset=utf-8"));
+        String uri = DbxRequestUtil.buildUri(asyncClient.getHost().getNotify(), LONGPOLL_ROUTE);
+
+        activePolls.incrementAndGet();
+        try {
+            byte[] body = writeLongpollArg(subscription.getCursor(), pollTimeoutSecs());
+            requestConfig.getHttpRequestor().postAsync(uri, headers, body, new HttpRequestor.ResponseCallback() {
+                @Override
+                public void onResponse(HttpRequestor.Response response) {
+                    try {
+                        polled(subscription, readLongpollResult(response));
+                    } catch (DbxException ex) {
+                        pollFailed(subscription, ex);
+                    } catch (RuntimeException ex) {
+                        fail(subscription, ex);
+                    } finally {
+                        IOUtil.closeQuietly(response.getBody());
+                        finishAsyncPoll();
+                    }
+                }
+
+                @Override
+                public void onFailure(IOException ex) {
+                    try {
+                        pollFailed(subscription, new NetworkIOException(ex));
+                    } finally {
+                        finishAsyncPoll();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            finishAsyncPoll();
+            fail(subscription, ex);
+        }
+    }
+
+    private void finishAsyncPoll() {
+        activePolls.decrementAndGet();
+        asyncPermits.release();
+    }
+
+    /**
+     * Returns the timeout of the next longpoll. Each concurrent poll serves its share of the
+     * cursors in turn, so the timeout is divided by that share to poll every cursor about once per
+     * {@code timeoutSecs}, but never below the minimum the server accepts.
+     */
+    private long pollTimeoutSecs() {
+        int cursorsPerPoll = (subscriptions.get() + maxConcurrentPolls - 1) / maxConcurrentPolls;
+        if (cursorsPerPoll <= 1) {
+            return timeoutSecs;
+        }
+        return Math.max(MIN_TIMEOUT_SECS, timeoutSecs / cursorsPerPoll);
+    }
+
+    private void pollFailed(Subscription subscription, DbxException ex) {
+        if (ex instanceof RetryException) {
+            long backoffMillis = ((RetryException) ex).getBackoffMillis();
+            schedule(subscription, Math.max(backoffMillis, subscription.nextErrorDelay()));
+        } else if (ex instanceof DbxApiException) {
+            // reset or other route error, cursor can not be polled anymore
+            fail(subscription, ex);
+        } else {
+            schedule(subscription, subscription.nextErrorDelay());
+        }
+    }
+
+    private void polled(Subscription subscription, ListFolderLongpollResult result) {
+        subscription.errorDelayMillis = 0;
+        long backoffMillis = result.getBackoff() == null
+            ? 0
+            : TimeUnit.SECONDS.toMillis(result.getBackoff());
+        if (result.getChanges()) {
+            subscription.backoffMillis = backoffMillis;
+            subscription.changedAtMillis = System.currentTimeMillis();
+            enqueueDrain(subscription);
+        } else {
+            schedule(subscription, backoffMillis);
+        }
+    }
+
+    private static byte[] writeLongpollArg(String cursor, long timeoutSecs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            JsonGenerator g = DbxJson.getFactory().createGenerator(out);
+            try {
+                g.writeStartObject();
+                g.writeStringField("cursor", cursor);
+                g.writeNumberField("timeout", timeoutSecs);
+                g.writeEndObject();
+            } finally {
+                g.close();
+            }
+        } catch (IOException ex) {
+            throw LangUtil.mkAssert("Impossible", ex);
+        }
+        return out.toByteArray();
+    }
+
+    // list_folder/longpoll serializers are not visible here, so read the few fields by hand
+    private static ListFolderLongpollResult readLongpollResult(HttpRequestor.Response response) throws DbxException {
+        String requestId = DbxRequestUtil.getRequestId(response);
+        try {
+            switch (response.getStatusCode()) {
+                case 200:
+                    return readLongpollResult(DbxJson.getFactory().createParser(response.getBody()));
+                case 409:
+                    ListFolderLongpollError error = readLongpollError(DbxJson.getFactory().createParser(response.getBody()));
+                    throw new ListFolderLongpollErrorException(LONGPOLL_ROUTE, requestId, null, error);
+                default:
+                    throw DbxRequestUtil.unexpectedStatus(response);
+            }
+        } catch (JsonProcessingException ex) {
+            throw new BadResponseException(requestId, "Bad JSON: " + ex.getMessage(), ex);
+        } catch (IOException ex) {
+            throw new NetworkIOException(ex);
+        }
+    }
+
+    private static ListFolderLongpollResult readLongpollResult(JsonParser p) throws IOException {
+        try {
+            Boolean changes = null;
+            Long backoff = null;
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "expected object value.");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if ("changes".equals(field)) {
+                    changes = p.getBooleanValue();
+                } else if ("backoff".equals(field)) {
+                    backoff = value == JsonToken.VALUE_NULL ? null : p.getLongValue();
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if (changes == null) {
+                throw new JsonParseException(p, "Required field \"changes\" missing.");
+            }
+            return new ListFolderLongpollResult(changes, backoff);
+        } finally {
+            p.close();
+        }
+    }
+
+    private static ListFolderLongpollError readLongpollError(JsonParser p) throws IOException {
+        try {
+            String tag = null;
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "expected object value.");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if ("error".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String errorField = p.getCurrentName();
+                        p.nextToken();
+                        if (".tag".equals(errorField)) {
+                            tag = p.getText();
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else if ("error".equals(field) && value == JsonToken.VALUE_STRING) {
+                    tag = p.getText();
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if (tag == null) {
+                throw new JsonParseException(p, "Required field \"error\" missing.");
+            }
+            return "reset".equals(tag) ? ListFolderLongpollError.RESET : ListFolderLongpollError.OTHER;
+        } finally {
+            p.close();
+        }
+    }
+
+    private void enqueueDrain(Subscription subscription) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            ArrayDeque<Subscription> pending = pendingDrains.get(subscription.getAccountId());
+            if (pending == null) {
+                pending = new ArrayDeque<Subscription>();
+                pendingDrains.put(subscription.getAccountId(), pending);
+            }
+            pending.add(subscription);
+            queuedDrains.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            // each task drains whichever account is next in line when it runs
+            drainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Subscription next = nextDrain();
+                    if (next != null) {
+                        drain(next);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            lock.lock();
+            try {
+                ArrayDeque<Subscription> pending = pendingDrains.get(subscription.getAccountId());
+                if (pending != null && pending.remove(subscription)) {
+                    queuedDrains.decrementAndGet();
+                    if (pending.isEmpty()) {
+                        pendingDrains.remove(subscription.getAccountId());
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            schedule(subscription, subscription.nextErrorDelay());
+        }
+    }
+
+    private /*@Nullable*/ Subscription nextDrain() {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, ArrayDeque<Subscription>>> it = pendingDrains.entrySet().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, ArrayDeque<Subscription>> entry = it.next();
+            it.remove();
+
+            ArrayDeque<Subscription> pending = entry.getValue();
+            Subscription next = pending.poll();
+            if (!pending.isEmpty()) {
+                // back of the line for this account
+                pendingDrains.put(entry.getKey(), pending);
+            }
+            queuedDrains.decrementAndGet();
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain(Subscription subscription) {
+        if (subscription.isCancelled()) {
+            return;
+        }
+
+        try {
+            ListFolderResult result;
+            do {
+                result = subscription.client.files().listFolderContinue(subscription.getCursor());
+                subscription.listener.onChanges(subscription, result);
+                subscription.cursor = result.getCursor();
+            } while (result.getHasMore() && !subscription.isCancelled());
+        } catch (RetryException ex) {
+            // cursor was not advanced, the next longpoll reports the changes again
+            schedule(subscription, Math.max(ex.getBackoffMillis(), subscription.nextErrorDelay()));
+            return;
+        } catch (DbxApiException ex) {
+            fail(subscription, ex);
+            return;
+        } catch (InvalidAccessTokenException ex) {
+            fail(subscription, ex);
+            return;
+        } catch (DbxException ex) {
+            schedule(subscription, subscription.nextErrorDelay());
+            return;
+        } catch (RuntimeException ex) {
+            fail(subscription, ex);
+            return;
+        }
+
+        long latency = System.currentTimeMillis() - subscription.changedAtMillis;
+        drains.incrementAndGet();
+        totalLatencyMillis.addAndGet(latency);
+        long max;
+        do {
+            max = maxLatencyMillis.get();
+        } while (latency > max && !maxLatencyMillis.compareAndSet(max, latency));
+
+        subscription.errorDelayMillis = 0;
+        schedule(subscription, subscription.backoffMillis);
+    }
+
+    private void schedule(Subscription subscription, long delayMillis) {
+        if (shutdown || subscription.isCancelled()) {
+            return;
+        }
+        ready.add(new Scheduled(subscription, delayMillis));
+    }
+
+    private void fail(Subscription subscription, Exception ex) {
+        if (subscription.cancelInternal()) {
+            subscriptions.decrementAndGet();
+            try {
+                subscription.listener.onError(subscription, ex);
+            } catch (RuntimeException ignored) {
+                // nothing else we can do
+            }
+        }
+    }
+
+    private static final class Scheduled implements Delayed {
+        private final Subscription subscription;
+        private final long readyAtNanos;
+
+        private Scheduled(Subscription subscription, long delayMillis) {
+            this.subscription = subscription;
+            this.readyAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = readyAtNanos - ((Scheduled) other).readyAtNanos;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * A cursor watched by a {@link DbxLongpollMultiplexer}.
+     */
+    public final class Subscription {
+        private final String accountId;
+        private final DbxClientV2 client;
+        private final Listener listener;
+
+        private final AtomicBoolean cancelled;
+        private volatile String cursor;
+        private volatile long backoffMillis;
+        private volatile long changedAtMillis;
+        private volatile long errorDelayMillis;
+
+        private Subscription(String accountId, DbxClientV2 client, String cursor, Listener listener) {
+            this.accountId = accountId;
+            this.client = client;
+            this.cursor = cursor;
+            this.listener = listener;
+            this.cancelled = new AtomicBoolean(false);
+        }
+
+        /**
+         * Returns the account this subscription was registered for.
+         *
+         * @return account ID passed to {@link DbxLongpollMultiplexer#register}
+         */
+        public String getAccountId() {
+            return accountId;
+        }
+
+        /**
+         * Returns the cursor following the last change reported to the listener.
+         *
+         * @return latest cursor, persist this to resume watching later
+         */
+        public String getCursor() {
+            return cursor;
+        }
+
+        /**
+         * Returns whether this subscription was cancelled, either explicitly or because of an
+         * error.
+         *
+         * @return {@code true} if the cursor is no longer watched
+         */
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * Stops watching the cursor. A drain in progress finishes its current page.
+         */
+        public void cancel() {
+            if (cancelInternal()) {
+                subscriptions.decrementAndGet();
+            }
+        }
+
+        private boolean cancelInternal() {
+            return cancelled.compareAndSet(false, true);
+        }
+
+        private long nextErrorDelay() {
+            long delay = errorDelayMillis == 0
+                ? MIN_ERROR_DELAY_MILLIS
+                : Math.min(2 * errorDelayMillis, MAX_ERROR_DELAY_MILLIS);
+            errorDelayMillis = delay;
+            return delay + RAND.nextInt((int) (delay / 4) + 1);
+        }
+    }
+
+    /**
+     * Receives changes of a {@link Subscription}. Methods are called from the drain executor. Calls
+     * for the same subscription never overlap.
+     */
+    public static abstract class Listener {
+        /**
+         * Called with each page of changes. The subscription's cursor is advanced to the page's
+         * cursor after this method returns.
+         *
+         * @param subscription subscription with changes
+         * @param changes page of changes from {@code list_folder/continue}
+         */
+        public abstract void onChanges(Subscription subscription, ListFolderResult changes);
+
+        /**
+         * Called when the cursor can no longer be watched, for example because the server reset
+         * it. The subscription is cancelled before this is called.
+         *
+         * @param subscription failed subscription
+         * @param ex cause of the failure, typically a {@link DbxApiException}
+         */
+        public abstract void onError(Subscription subscription, Exception ex);
+    }
+}
@@ -0,0 +1,677 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * In-memory cache of file and folder metadata for a subtree of a user's Dropbox.
+ *
+ * <p> Reads through this cache that hit an entry make no request. The cache is kept fresh with a
+ * recursive {@code list_folder} cursor on the cached subtree: every change reported by {@link
+ * DbxUserFilesRequests#listFolderContinue} updates or removes the affected entries. Changes are
+ * consumed either by calling {@link #refresh} or by a background tailer started with {@link
+ * #start}, which waits for changes using {@link DbxUserFilesRequests#listFolderLongpoll}.
+ *
+ * <p> Entries are keyed by {@code path_lower} and can also be looked up by ID (paths of the form
+ * {@code "id:..."}). The cache holds at most {@code maxEntries} entries and evicts the least
+ * recently used entry first. Nothing is cached until the cache has a cursor, that is, until the
+ * first call to {@link #refresh} or {@link #start}. If the cache has not caught up with the server
+ * for longer than the configured maximum staleness, reads bypass the cache.
+ *
+ * <pre><code>
+ *    DbxMetadataCache cache = new DbxMetadataCache(client, "/Projects", 10000);
+ *    cache.start(executor);
+ *
+ *    Metadata metadata = cache.getMetadata("/Projects/report.pdf");
+ *    List&lt;Metadata&gt; children = cache.listFolder("/Projects/2016");
+ * </code></pre>
+ *
+ * <p> The {@link com.dropbox.core.http.HttpRequestor} of the client must use a read timeout longer
+ * than the longpoll timeout (see {@link #DEFAULT_LONGPOLL_TIMEOUT_SECS}).
+ *
+ * <p> This class is thread safe.
+ */
+public final class DbxMetadataCache {
+    /**
+     * Default timeout of {@code list_folder/longpoll} requests issued by the background tailer.
+     */
+    public static final long DEFAULT_LONGPOLL_TIMEOUT_SECS = 30L;
+    /**
+     * Default time after which reads bypass the cache if it has not caught up with the server.
+     */
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long TAILER_ERROR_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final int MAX_CURSOR_RESETS = 3;
+
+    private final DbxUserFilesRequests files;
+    private final String root;
+    private final String rootLower;
+    private final int maxEntries;
+    private final long maxStalenessMillis;
+
+    // held while paging through changes, so pages are applied in order, taken before lock
+    private final ReentrantLock refreshLock;
+    private final ReentrantLock lock;
+    private final LinkedHashMap<String, Metadata> entries;
+    private final TreeSet<String> sortedPaths;
+    private final Map<String, String> ids;
+    private final LinkedHashMap<String, Set<String>> listings;
+
+    private /*@Nullable*/ String cursor;
+    private long version;
+    private long lastSyncMillis;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    private volatile boolean stopped;
+    private /*@Nullable*/ Future<?> tailer;
+
+    /**
+     * Creates a cache for the given subtree with the default maximum staleness.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param rootPath path of the cached subtree, {@code ""} for the whole Dropbox
+     * @param maxEntries maximum number of cached entries, must be positive
+     */
+    public DbxMetadataCache(DbxClientV2 client, String rootPath, int maxEntries) {
+        this(client, rootPath, maxEntries, DEFAULT_MAX_STALENESS_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a cache for the given subtree.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param rootPath path of the cached subtree, {@code ""} for the whole Dropbox
+     * @param maxEntries maximum number of cached entries, must be positive
+     * @param maxStaleness time after which reads bypass the cache if it has not caught up with the
+     *     server
+     * @param unit unit of {@code maxStaleness}
+     */
+    public DbxMetadataCache(DbxClientV2 client, String rootPath, int maxEntries, long maxStaleness, TimeUnit unit) {
+        if (client == null) throw new NullPointerException("client");
+        if (rootPath == null) throw new NullPointerException("rootPath");
+        if (unit == null) throw new NullPointerException("unit");
+        String pathError = DbxPathV2.findError(rootPath);
+        if (pathError != null) throw new IllegalArgumentException("rootPath: " + pathError);
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be positive");
+        if (maxStaleness <= 0) throw new IllegalArgumentException("maxStaleness must be positive");
+
+        this.files = client.files();
+        this.root = rootPath;
+        this.rootLower = toLower(rootPath);
+        this.maxEntries = maxEntries;
+        this.maxStalenessMillis = unit.toMillis(maxStaleness);
+
+        this.refreshLock = new ReentrantLock();
+        this.lock = new ReentrantLock();
+        this.entries = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+                if (size() > DbxMetadataCache.this.maxEntries) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.sortedPaths = new TreeSet<String>();
+        this.ids = new HashMap<String, String>();
+        this.listings = new LinkedHashMap<String, Set<String>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+                return size() > DbxMetadataCache.this.maxEntries;
+            }
+        };
+
+        this.cursor = null;
+        this.version = 0;
+        this.lastSyncMillis = 0;
+
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+
+        this.stopped = true;
+        this.tailer = null;
+    }
+
+    /**
+     * Returns the metadata of the file or folder at the given path, making a {@code get_metadata}
+     * request only if the entry is not cached.
+     *
+     * @param path path or ID ({@code "id:..."}) of the file or folder
+     *
+     * @return metadata of the file or folder
+     *
+     * @throws GetMetadataErrorException if the server reports an error for the path
+     * @throws DbxException if the request fails
+     */
+    public Metadata getMetadata(String path) throws GetMetadataErrorException, DbxException {
+        if (path == null) throw new NullPointerException("path");
+
+        long startVersion;
+        lock.lock();
+        try {
+            if (isFresh()) {
+                String key = path.startsWith("id:") ? ids.get(path) : toLower(path);
+                Metadata metadata = key == null ? null : entries.get(key);
+                if (metadata != null) {
+                    hits.incrementAndGet();
+                    return metadata;
+                }
+            }
+            startVersion = version;
+        } finally {
+            lock.unlock();
+        }
+
+        misses.incrementAndGet();
+        Metadata metadata = files.getMetadata(path);
+
+        lock.lock();
+        try {
+            if (canInsert(startVersion)) {
+                put(metadata);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return metadata;
+    }
+
+    /**
+     * Returns the children of the folder at the given path, listing the folder with {@code
+     * list_folder} only if its contents are not cached.
+     *
+     * <p> Listings requested by ID ({@code "id:..."}) are cached under the folder's path, so they
+     * are only cached once the ID's metadata is, for example after {@link #getMetadata}.
+     *
+     * @param path path or ID of the folder, {@code ""} for the root folder
+     *
+     * @return unmodifiable list of the folder's children, in no particular order
+     *
+     * @throws ListFolderErrorException if the server reports an error for the path
+     * @throws ListFolderContinueErrorException if the server reports an error while paging
+     *     through the folder
+     * @throws DbxException if a request fails
+     */
+    public List<Metadata> listFolder(String path)
+        throws ListFolderErrorException, ListFolderContinueErrorException, DbxException {
+        if (path == null) throw new NullPointerException("path");
+
+        // changes are applied by path, so a listing keyed by ID would never be invalidated
+        String key;
+        long startVersion;
+        lock.lock();
+        try {
+            key = path.startsWith("id:") ? ids.get(path) : toLower(path);
+            if (key != null && isFresh()) {
+                List<Metadata> children = getListing(key);
+                if (children != null) {
+                    hits.incrementAndGet();
+                    return children;
+                }
+            }
+            startVersion = version;
+        } finally {
+            lock.unlock();
+        }
+
+        misses.incrementAndGet();
+        List<Metadata> children = new ArrayList<Metadata>();
+        ListFolderResult result = files.listFolder(path);
+        children.addAll(result.getEntries());
+        while (result.getHasMore()) {
+            result = files.listFolderContinue(result.getCursor());
+            children.addAll(result.getEntries());
+        }
+
+        lock.lock();
+        try {
+            // a listing larger than the cache would evict its own children
+            if (key != null && canInsert(startVersion) && children.size() < maxEntries) {
+                Set<String> childKeys = new LinkedHashSet<String>();
+                for (Metadata child : children) {
+                    put(child);
+                    childKeys.add(child.getPathLower());
+                }
+                listings.put(key, childKeys);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Applies all changes made on the server since the last refresh. The first call obtains a
+     * cursor for the cached subtree; nothing is cached before then.
+     *
+     * <p> If the server resets the cursor, the cache is cleared and a new cursor is obtained.
+     * Concurrent refreshes, including those of the background tailer, are applied one at a time.
+     *
+     * @throws DbxException if a request fails
+     */
+    public void refresh() throws DbxException {
+        refreshLock.lock();
+        try {
+            for (int resets = 0; ; ++resets) {
+                try {
+                    catchUp();
+                    return;
+                } catch (ListFolderContinueErrorException ex) {
+                    if (!ex.errorValue.isReset() || resets >= MAX_CURSOR_RESETS) {
+                        throw ex;
+                    }
+                    reset();
+                }
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void catchUp() throws ListFolderContinueErrorException, DbxException {
+        String current = currentCursor();
+        if (current == null) {
+            current = files.listFolderGetLatestCursorBuilder(root)
+                .withRecursive(true)
+                .start()
+                .getCursor();
+            lock.lock();
+            try {
+                // cursor covers everything from here on, so reads may be cached now
+                cursor = current;
+                lastSyncMillis = System.currentTimeMillis();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        ListFolderResult result;
+        do {
+            result = files.listFolderContinue(current);
+            current = result.getCursor();
+            apply(result.getEntries(), current, !result.getHasMore());
+        } while (result.getHasMore());
+    }
+
+    /**
+     * Starts a background tailer that waits for changes with {@code list_folder/longpoll} and
+     * applies them as they happen. The tailer occupies one of the executor's threads until {@link
+     * #stop} is called.
+     *
+     * @param executor executor to run the tailer on, never {@code null}
+     *
+     * @throws IllegalStateException if the tailer is already running
+     */
+    public void start(ExecutorService executor) {
+        if (executor == null) throw new NullPointerException("executor");
+
+        lock.lock();
+        try {
+            if (tailer != null) {
+                throw new IllegalStateException("Tailer is already running.");
+            }
+            stopped = false;
+            tailer = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    tail();
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background tailer, if running. Cached entries are kept, but become stale.
+     */
+    public void stop() {
+        Future<?> running;
+        lock.lock();
+        try {
+            stopped = true;
+            running = tailer;
+            tailer = null;
+        } finally {
+            lock.unlock();
+        }
+
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    /**
+     * Removes all cached entries. The cursor is kept.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            sortedPaths.clear();
+            ids.clear();
+            listings.clear();
+            ++version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return number of cached file and folder metadata entries
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reads served from the cache.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of reads that required a request.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the fraction of reads served from the cache.
+     *
+     * @return hit ratio between {@code 0.0} and {@code 1.0}, or {@code 0.0} if nothing was read
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Returns how long ago the cache last caught up with the server.
+     *
+     * @return milliseconds since the last successful refresh, or {@link Long#MAX_VALUE} if the
+     *     cache never obtained a cursor
+     */
+    public long getStalenessMillis() {
+        lock.lock();
+        try {
+            if (cursor == null) {
+                return Long.MAX_VALUE;
+            }
+            return Math.max(0L, System.currentTimeMillis() - lastSyncMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void tail() {
+        while (!stopped) {
+            long backoffMillis = 0;
+            try {
+                if (hasCursor()) {
+                    ListFolderLongpollResult result = files.listFolderLongpoll(
+                        currentCursor(), DEFAULT_LONGPOLL_TIMEOUT_SECS
+                    );
+                    if (result.getChanges()) {
+                        refresh();
+                    } else {
+                        markSynced();
+                    }
+                    if (result.getBackoff() != null) {
+                        backoffMillis = TimeUnit.SECONDS.toMillis(result.getBackoff());
+                    }
+                } else {
+                    refresh();
+                }
+            } catch (ListFolderLongpollErrorException ex) {
+                if (ex.errorValue.isReset()) {
+                    reset();
+                } else {
+                    backoffMillis = TAILER_ERROR_BACKOFF_MILLIS;
+                }
+            } catch (RetryException ex) {
+                backoffMillis = Math.max(ex.getBackoffMillis(), TAILER_ERROR_BACKOFF_MILLIS);
+            } catch (DbxException ex) {
+                // keep serving cached entries until they become too stale, and try again
+                backoffMillis = TAILER_ERROR_BACKOFF_MILLIS;
+            } catch (RuntimeException ex) {
+                // same, for example for a response that failed to deserialize
+                backoffMillis = TAILER_ERROR_BACKOFF_MILLIS;
+            }
+
+            if (backoffMillis > 0) {
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    private void apply(List<Metadata> changes, String newCursor, boolean caughtUp) {
+        lock.lock();
+        try {
+            for (Metadata change : changes) {
+                String key = change.getPathLower();
+                if (change instanceof DeletedMetadata) {
+                    removeTree(key);
+                } else if (entries.containsKey(key) || listings.containsKey(getParentKey(key))) {
+                    // only refresh what we already track, don't fill the cache with every change
+                    Metadata previous = entries.get(key);
+                    if (previous != null && previous.getClass() != change.getClass()) {
+                        // file replaced a folder or vice versa
+                        removeTree(key);
+                    }
+                    put(change);
+                }
+            }
+            cursor = newCursor;
+            ++version;
+            if (caughtUp) {
+                lastSyncMillis = System.currentTimeMillis();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reset() {
+        // don't let a refresh in progress apply pages of the old cursor afterwards
+        refreshLock.lock();
+        try {
+            lock.lock();
+            try {
+                cursor = null;
+                clear();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void markSynced() {
+        lock.lock();
+        try {
+            lastSyncMillis = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasCursor() {
+        return currentCursor() != null;
+    }
+
+    private /*@Nullable*/ String currentCursor() {
+        lock.lock();
+        try {
+            return cursor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFresh() {
+        return cursor != null && System.currentTimeMillis() - lastSyncMillis <= maxStalenessMillis;
+    }
+
+    // Entries read after a change was applied may predate the change, so only insert results of
+    // requests that did not overlap with a refresh.
+    private boolean canInsert(long startVersion) {
+        return cursor != null && version == startVersion;
+    }
+
+    private /*@Nullable*/ List<Metadata> getListing(String key) {
+        Set<String> childKeys = listings.get(key);
+        if (childKeys == null) {
+            return null;
+        }
+
+        List<Metadata> children = new ArrayList<Metadata>(childKeys.size());
+        for (String childKey : childKeys) {
+            Metadata child = entries.get(childKey);
+            if (child == null) {
+                // child was evicted, listing is incomplete
+                listings.remove(key);
+                return null;
+            }
+            children.add(child);
+        }
+        return Collections.unmodifiableList(children);
+    }
+
+    private void put(Metadata metadata) {
+        String key = metadata.getPathLower();
+        if (key == null || !isUnderRoot(key)) {
+            // entries outside the cursor's subtree would never be invalidated
+            return;
+        }
+
+        Metadata previous = entries.put(key, metadata);
+        if (previous != null) {
+            unindex(key, previous);
+        }
+        sortedPaths.add(key);
+        String id = getId(metadata);
+        if (id != null) {
+            ids.put(id, key);
+        }
+
+        Set<String> siblings = listings.get(getParentKey(key));
+        if (siblings != null) {
+            siblings.add(key);
+        }
+    }
+
+    private void removeTree(String key) {
+        List<String> removed = new ArrayList<String>();
+        removed.add(key);
+        // '0' sorts right after '/', so this covers exactly the descendants of key
+        removed.addAll(sortedPaths.subSet(key + "/", key + "0"));
+
+        for (String path : removed) {
+            Metadata metadata = entries.remove(path);
+            if (metadata != null) {
+                unindex(path, metadata);
+            }
+            listings.remove(path);
+        }
+
+        Set<String> siblings = listings.get(getParentKey(key));
+        if (siblings != null) {
+            siblings.remove(key);
+        }
+    }
+
+    private void unindex(String key, Metadata metadata) {
+        sortedPaths.remove(key);
+        String id = getId(metadata);
+        if (id != null && key.equals(ids.get(id))) {
+            ids.remove(id);
+        }
+    }
+
+    private boolean isUnderRoot(String key) {
+        return rootLower.length() == 0
+            || key.equals(rootLower)
+            || key.startsWith(rootLower + "/");
+    }
+
+    private static String getParentKey(String key) {
+        int lastSlash = key.lastIndexOf('/');
+        return lastSlash <= 0 ? "" : key.substring(0, lastSlash);
+    }
+
+    private static /*@Nullable*/ String getId(Metadata metadata) {
+        if (metadata instanceof FileMetadata) {
+            return ((FileMetadata) metadata).getId();
+        } else if (metadata instanceof FolderMetadata) {
+            return ((FolderMetadata) metadata).getId();
+        }
+        return null;
+    }
+
+    private static String toLower(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        return "/".equals(lower) ? "" : lower;
+    }
+}
@@ -0,0 +1,895 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.util.StringUtil;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Persistent index of file and folder metadata for a subtree of a user's Dropbox, stored in
+ * memory-mapped files in a local directory.
+ *
+ * <p> The index records the {@code list_folder} cursor it was last updated with. Reopening an
+ * index only maps its files, so a process restart can resume with {@link
+ * DbxUserFilesRequests#listFolderContinue} instead of listing the whole subtree again:
+ *
+ * <pre><code>
+ *    DbxMetadataIndex index = DbxMetadataIndex.open(new File("/var/cache/myapp/index"));
+ *    try {
+ *        // lists "/Photos" the first time, afterwards only fetches changes
+ *        index.sync(client, "/Photos");
+ *        Metadata metadata = index.get("/Photos/2016/beach.jpg");
+ *    } finally {
+ *        index.close();
+ *    }
+ * </code></pre>
+ *
+ * <p> Entries are stored as fixed-width records in an append-only file, with paths, IDs, revisions
+ * and content hashes in a separate append-only string arena. An open-addressing hash table maps
+ * {@code path_lower} to the latest record for each path. Updates append new records; deletes
+ * append tombstones. Descendants of a deleted folder are hidden by checking the path's ancestors
+ * on lookup, since {@code list_folder} only reports the folder itself as deleted.
+ *
+ * <p> Changes become durable when {@link #commit committed} together with the cursor they were
+ * read with. After a crash, the index reopens in the state of the last commit: records written
+ * after it are ignored and the hash table is rebuilt from the committed records. The header is
+ * written alternately to two checksummed slots, so a torn header write falls back to the previous
+ * commit.
+ *
+ * <p> An index directory must only be opened by one {@code DbxMetadataIndex} at a time. This class
+ * is thread safe.
+ */
+public final class DbxMetadataIndex implements Closeable {
+    private static final int MAGIC = 0x44424d49; // "DBMI"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SLOT_SIZE = 8192;
+    private static final int HEADER_CURSOR_OFFSET = 64;
+    private static final int MAX_CURSOR_LENGTH = HEADER_SLOT_SIZE - HEADER_CURSOR_OFFSET - 4;
+
+    private static final int RECORD_SIZE = 64;
+    private static final int R_TYPE = 0;
+    private static final int R_BLOB_LENGTH = 4;
+    private static final int R_BLOB_OFFSET = 8;
+    private static final int R_SIZE = 16;
+    private static final int R_CLIENT_MODIFIED = 24;
+    private static final int R_SERVER_MODIFIED = 32;
+    private static final int R_LAST_DELETED = 40;
+    private static final int R_HASH = 48;
+
+    private static final byte TYPE_FILE = 1;
+    private static final byte TYPE_FOLDER = 2;
+    private static final byte TYPE_DELETED = 3;
+
+    private static final int MIN_HASH_CAPACITY = 1 << 16;
+
+    private final File directory;
+    private final RandomAccessFile headerFile;
+    private final MappedRegion records;
+    private final MappedRegion arena;
+    private final MappedRegion hash;
+    private final ReentrantReadWriteLock lock;
+
+    private long sequence;
+    private /*@Nullable*/ String cursor;
+    private long committedRecords;
+    private long committedArena;
+
+    private long recordCount;
+    private long arenaLength;
+    private long hashCapacity;
+    private long usedSlots;
+    private boolean dirtyOnDisk;
+    private boolean closed;
+
+    private DbxMetadataIndex(File directory) throws IOException {
+        this.directory = directory;
+        this.headerFile = new RandomAccessFile(new File(directory, "header"), "rw");
+        this.records = new MappedRegion(new File(directory, "records"));
+        this.arena = new MappedRegion(new File(directory, "strings"));
+        this.hash = new MappedRegion(new File(directory, "hash"));
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Opens the index stored in the given directory, creating an empty index if the directory
+     * does not contain one.
+     *
+     * @param directory directory holding the index files, never {@code null}
+     *
+     * @return opened index
+     *
+     * @throws IOException if the index files cannot be read or are corrupt
+     */
+    public static DbxMetadataIndex open(File directory) throws IOException {
+        if (directory == null) throw new NullPointerException("directory");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create index directory: " + directory);
+        }
+
+        DbxMetadataIndex index = new DbxMetadataIndex(directory);
+        boolean success = false;
+        try {
+            index.load();
+            success = true;
+        } finally {
+            if (!success) {
+                index.closeFiles();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the cursor of the last commit.
+     *
+     * @return cursor to continue listing from, or {@code null} if no cursor was committed yet
+     */
+    public /*@Nullable*/ String getCursor() {
+        lock.readLock().lock();
+        try {
+            return cursor;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of records in the index, including superseded records and tombstones.
+     *
+     * @return number of records
+     */
+    public long getRecordCount() {
+        lock.readLock().lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the metadata of the file or folder at the given path.
+     *
+     * @param path path of the file or folder, compared case-insensitively
+     *
+     * @return metadata of the entry, or {@code null} if the index has no entry for the path
+     */
+    public /*@Nullable*/ Metadata get(String path) {
+        if (path == null) throw new NullPointerException("path");
+        String pathLower = path.toLowerCase(Locale.ROOT);
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            long record = find(StringUtil.stringToUtf8(pathLower));
+            if (record < 0 || records.getByte(record * RECORD_SIZE + R_TYPE) == TYPE_DELETED) {
+                return null;
+            }
+            if (isHiddenByAncestor(pathLower, record)) {
+                return null;
+            }
+            return read(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds, updates or removes (for {@link DeletedMetadata}) an entry. The change is visible to
+     * {@link #get} immediately, but only becomes durable with the next {@link #commit}.
+     *
+     * @param metadata metadata of the entry, must have a {@code path_lower}
+     *
+     * @throws IOException if the index files cannot be written
+     */
+    public void put(Metadata metadata) throws IOException {
+        if (metadata == null) throw new NullPointerException("metadata");
+        if (metadata.getPathLower() == null) {
+            throw new IllegalArgumentException("metadata has no path_lower: " + metadata);
+        }
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            markDirty();
+            append(metadata);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Durably stores all changes made since the last commit, together with the cursor that
+     * follows them.
+     *
+     * @param cursor cursor to continue listing from, or {@code null}
+     *
+     * @throws IOException if the index files cannot be written
+     */
+    public void commit(/*@Nullable*/ String cursor) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            doCommit(cursor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies one page of {@code list_folder} results and commits it with the page's cursor.
+     *
+     * @param result page of results from {@code list_folder} or {@code list_folder/continue}
+     *
+     * @throws IOException if the index files cannot be written
+     */
+    public void apply(ListFolderResult result) throws IOException {
+        if (result == null) throw new NullPointerException("result");
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            markDirty();
+            for (Metadata metadata : result.getEntries()) {
+                append(metadata);
+            }
+            doCommit(result.getCursor());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all entries and the cursor.
+     *
+     * @throws IOException if the index files cannot be written
+     */
+    public void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            markDirty();
+            recordCount = 0;
+            arenaLength = 0;
+            rebuildHash(MIN_HASH_CAPACITY);
+            doCommit(null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Brings the index up to date with the given folder. If the index has no cursor yet, the
+     * folder is listed recursively. Otherwise only the changes since the last commit are fetched.
+     * Every page is committed as soon as it is applied, so an interrupted sync resumes where it
+     * stopped. If the server resets the cursor, the index is cleared and the folder listed again.
+     *
+     * @param client Dropbox client used to issue requests, never {@code null}
+     * @param path path of the indexed folder, {@code ""} for the whole Dropbox. Must be the same
+     *     folder every time the index is synced.
+     *
+     * @throws DbxException if a request fails
+     * @throws IOException if the index files cannot be written
+     */
+    public void sync(DbxClientV2 client, String path) throws DbxException, IOException {
+        if (client == null) throw new NullPointerException("client");
+        if (path == null) throw new NullPointerException("path");
+
+        DbxUserFilesRequests files = client.files();
+        String current = getCursor();
+
+        ListFolderResult result;
+        if (current == null) {
+            result = files.listFolderBuilder(path).withRecursive(true).start();
+        } else {
+            try {
+                result = files.listFolderContinue(current);
+            } catch (ListFolderContinueErrorException ex) {
+                if (!ex.errorValue.isReset()) {
+                    throw ex;
+                }
+                clear();
+                result = files.listFolderBuilder(path).withRecursive(true).start();
+            }
+        }
+
+        apply(result);
+        while (result.getHasMore()) {
+            result = files.listFolderContinue(result.getCursor());
+            apply(result);
+        }
+    }
+
+    /**
+     * Closes the index. Changes that were not committed are discarded.
+     *
+     * <p> The mapped files are released once the mappings are garbage collected.
+     *
+     * @throws IOException if the index files cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            // a clean shutdown lets the next open trust the hash table instead of rebuilding it
+            if (recordCount == committedRecords && arenaLength == committedArena) {
+                hash.force();
+                writeHeader(true);
+            }
+        } finally {
+            try {
+                closeFiles();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        ByteBuffer header = readHeader();
+        if (header == null) {
+            // brand new index
+            sequence = 0;
+            cursor = null;
+            committedRecords = 0;
+            committedArena = 0;
+            recordCount = 0;
+            arenaLength = 0;
+            rebuildHash(MIN_HASH_CAPACITY);
+            dirtyOnDisk = true;
+            return;
+        }
+
+        sequence = header.getLong(8);
+        committedRecords = header.getLong(16);
+        committedArena = header.getLong(24);
+        long savedCapacity = header.getLong(32);
+        long savedUsedSlots = header.getLong(40);
+        boolean clean = header.get(48) != 0;
+        int cursorLength = header.getInt(52);
+        if (cursorLength >= 0) {
+            byte [] cursorBytes = new byte[cursorLength];
+            header.position(HEADER_CURSOR_OFFSET);
+            header.get(cursorBytes);
+            cursor = new String(cursorBytes, StringUtil.UTF8);
+        } else {
+            cursor = null;
+        }
+
+        recordCount = committedRecords;
+        arenaLength = committedArena;
+        records.ensureCapacity(recordCount * RECORD_SIZE);
+        arena.ensureCapacity(arenaLength);
+
+        if (clean && hash.length() >= savedCapacity * 8) {
+            hashCapacity = savedCapacity;
+            usedSlots = savedUsedSlots;
+            hash.ensureCapacity(hashCapacity * 8);
+            dirtyOnDisk = false;
+        } else {
+            // crashed or never closed, hash table may reference uncommitted records
+            rebuildHash(capacityFor(recordCount));
+            dirtyOnDisk = true;
+        }
+    }
+
+    private /*@Nullable*/ ByteBuffer readHeader() throws IOException {
+        if (headerFile.length() == 0) {
+            return null;
+        }
+
+        ByteBuffer best = null;
+        for (int slot = 0; slot < 2; ++slot) {
+            long offset = (long) slot * HEADER_SLOT_SIZE;
+            if (headerFile.length() < offset + HEADER_SLOT_SIZE) {
+                continue;
+            }
+            byte [] data = new byte[HEADER_SLOT_SIZE];
+            headerFile.seek(offset);
+            headerFile.readFully(data);
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (!isValidHeader(buffer)) {
+                continue;
+            }
+            if (best == null || buffer.getLong(8) > best.getLong(8)) {
+                best = buffer;
+            }
+        }
+
+        if (best == null) {
+            throw new IOException("Index header is corrupt: " + directory);
+        }
+        return best;
+    }
+
+    private static boolean isValidHeader(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, HEADER_SLOT_SIZE - 4);
+        return (int) crc.getValue() == buffer.getInt(HEADER_SLOT_SIZE - 4);
+    }
+
+    private void writeHeader(boolean clean) throws IOException {
+        byte [] cursorBytes = cursor == null ? null : StringUtil.stringToUtf8(cursor);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SLOT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putLong(8, sequence + 1);
+        buffer.putLong(16, committedRecords);
+        buffer.putLong(24, committedArena);
+        buffer.putLong(32, hashCapacity);
+        buffer.putLong(40, usedSlots);
+        buffer.put(48, (byte) (clean ? 1 : 0));
+        buffer.putInt(52, cursorBytes == null ? -1 : cursorBytes.length);
+        if (cursorBytes != null) {
+            buffer.position(HEADER_CURSOR_OFFSET);
+            buffer.put(cursorBytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, HEADER_SLOT_SIZE - 4);
+        buffer.putInt(HEADER_SLOT_SIZE - 4, (int) crc.getValue());
+
+        // alternate slots so a torn write leaves the previous header intact
+        headerFile.seek(((sequence + 1) % 2) * HEADER_SLOT_SIZE);
+        headerFile.write(buffer.array());
+        headerFile.getChannel().force(true);
+        ++sequence;
+    }
+
+    private void markDirty() throws IOException {
+        if (!dirtyOnDisk) {
+            // must reach disk before the hash table is modified in place
+            writeHeader(false);
+            dirtyOnDisk = true;
+        }
+    }
+
+    private void doCommit(/*@Nullable*/ String newCursor) throws IOException {
+        if (newCursor != null && StringUtil.stringToUtf8(newCursor).length > MAX_CURSOR_LENGTH) {
+            throw new IllegalArgumentException("cursor is too long");
+        }
+        records.force();
+        arena.force();
+
+        String previousCursor = cursor;
+        long previousRecords = committedRecords;
+        long previousArena = committedArena;
+        cursor = newCursor;
+        committedRecords = recordCount;
+        committedArena = arenaLength;
+        boolean success = false;
+        try {
+            writeHeader(false);
+            dirtyOnDisk = true;
+            success = true;
+        } finally {
+            if (!success) {
+                cursor = previousCursor;
+                committedRecords = previousRecords;
+                committedArena = previousArena;
+            }
+        }
+    }
+
+    private void append(Metadata metadata) throws IOException {
+        String pathLower = metadata.getPathLower();
+        byte [] key = StringUtil.stringToUtf8(pathLower);
+        int hashCode = hash(key);
+        long slot = findSlot(key, hashCode);
+        long previous = slotRecord(hash.getLong(slot * 8));
+
+        byte type;
+        long size = 0;
+        long clientModified = 0;
+        long serverModified = 0;
+        byte [][] strings;
+        if (metadata instanceof FileMetadata) {
+            FileMetadata file = (FileMetadata) metadata;
+            type = TYPE_FILE;
+            size = file.getSize();
+            clientModified = file.getClientModified().getTime();
+            serverModified = file.getServerModified().getTime();
+            strings = new byte [][] {
+                key,
+                utf8(file.getPathDisplay()),
+                utf8(file.getId()),
+                utf8(file.getRev()),
+                utf8(file.getContentHash()),
+            };
+        } else if (metadata instanceof FolderMetadata) {
+            FolderMetadata folder = (FolderMetadata) metadata;
+            type = TYPE_FOLDER;
+            strings = new byte [][] {
+                key,
+                utf8(folder.getPathDisplay()),
+                utf8(folder.getId()),
+            };
+        } else if (metadata instanceof DeletedMetadata) {
+            if (previous < 0 || records.getByte(previous * RECORD_SIZE + R_TYPE) == TYPE_DELETED) {
+                // nothing to delete
+                return;
+            }
+            type = TYPE_DELETED;
+            strings = new byte [][] { key };
+        } else {
+            throw new IllegalArgumentException("Unsupported metadata type: " + metadata.getClass());
+        }
+
+        long lastDeleted = -1;
+        if (previous >= 0) {
+            long base = previous * RECORD_SIZE;
+            lastDeleted = records.getByte(base + R_TYPE) == TYPE_DELETED
+                ? previous
+                : records.getLong(base + R_LAST_DELETED);
+        }
+
+        int blobLength = 0;
+        for (byte [] string : strings) {
+            blobLength += 4 + (string == null ? 0 : string.length);
+        }
+        long blobOffset = arena.alignedOffset(arenaLength, blobLength);
+        arena.ensureCapacity(blobOffset + blobLength);
+        long pos = blobOffset;
+        for (byte [] string : strings) {
+            arena.putInt(pos, string == null ? -1 : string.length);
+            pos += 4;
+            if (string != null) {
+                arena.put(pos, string);
+                pos += string.length;
+            }
+        }
+        arenaLength = blobOffset + blobLength;
+
+        long record = recordCount;
+        long base = record * RECORD_SIZE;
+        records.ensureCapacity(base + RECORD_SIZE);
+        records.putByte(base + R_TYPE, type);
+        records.putInt(base + R_BLOB_LENGTH, blobLength);
+        records.putLong(base + R_BLOB_OFFSET, blobOffset);
+        records.putLong(base + R_SIZE, size);
+        records.putLong(base + R_CLIENT_MODIFIED, clientModified);
+        records.putLong(base + R_SERVER_MODIFIED, serverModified);
+        records.putLong(base + R_LAST_DELETED, lastDeleted);
+        records.putInt(base + R_HASH, hashCode);
+        recordCount = record + 1;
+
+        hash.putLong(slot * 8, slotValue(hashCode, record));
+        if (previous < 0) {
+            ++usedSlots;
+            if (usedSlots * 2 > hashCapacity) {
+                rebuildHash(hashCapacity * 2);
+            }
+        }
+    }
+
+    private boolean isHiddenByAncestor(String pathLower, long record) {
+        int end = pathLower.lastIndexOf('/');
+        while (end > 0) {
+            String ancestor = pathLower.substring(0, end);
+            long ancestorRecord = find(StringUtil.stringToUtf8(ancestor));
+            if (ancestorRecord > record) {
+                long base = ancestorRecord * RECORD_SIZE;
+                byte type = records.getByte(base + R_TYPE);
+                long lastDeleted = type == TYPE_DELETED
+                    ? ancestorRecord
+                    : records.getLong(base + R_LAST_DELETED);
+                // ancestor deleted, or replaced by a file, after this entry was written
+                if (lastDeleted > record || type == TYPE_FILE) {
+                    return true;
+                }
+            }
+            end = pathLower.lastIndexOf('/', end - 1);
+        }
+        return false;
+    }
+
+    private Metadata read(long record) {
+        long base = record * RECORD_SIZE;
+        byte type = records.getByte(base + R_TYPE);
+        long pos = records.getLong(base + R_BLOB_OFFSET);
+
+        String [] strings = new String[type == TYPE_FILE ? 5 : 3];
+        for (int i = 0; i < strings.length; ++i) {
+            int length = arena.getInt(pos);
+            pos += 4;
+            if (length >= 0) {
+                byte [] data = new byte[length];
+                arena.get(pos, data);
+                pos += length;
+                strings[i] = new String(data, StringUtil.UTF8);
+            }
+        }
+
+        String pathLower = strings[0];
+        String pathDisplay = strings[1];
+        String name = DbxPathV2.getName(pathDisplay != null ? pathDisplay : pathLower);
+        if (type == TYPE_FILE) {
+            return FileMetadata.newBuilder(
+                    name,
+                    strings[2],
+                    new Date(records.getLong(base + R_CLIENT_MODIFIED)),
+                    new Date(records.getLong(base + R_SERVER_MODIFIED)),
+                    strings[3],
+                    records.getLong(base + R_SIZE)
+                )
+                .withPathLower(pathLower)
+                .withPathDisplay(pathDisplay)
+                .withContentHash(strings[4])
+                .build();
+        } else {
+            return FolderMetadata.newBuilder(name, strings[2])
+                .withPathLower(pathLower)
+                .withPathDisplay(pathDisplay)
+                .build();
+        }
+    }
+
+    private long find(byte [] key) {
+        return slotRecord(hash.getLong(findSlot(key, hash(key)) * 8));
+    }
+
+    // Returns the slot holding the given key, or the empty slot where it belongs.
+    private long findSlot(byte [] key, int hashCode) {
+        long mask = hashCapacity - 1;
+        long slot = hashCode & mask;
+        while (true) {
+            long value = hash.getLong(slot * 8);
+            if (value == 0) {
+                return slot;
+            }
+            if (slotHash(value) == hashCode && pathEquals(slotRecord(value), key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rebuildHash(long capacity) throws IOException {
+        hashCapacity = capacity;
+        hash.ensureCapacity(capacity * 8);
+        for (long pos = 0; pos < capacity * 8; pos += 8) {
+            hash.putLong(pos, 0L);
+        }
+
+        usedSlots = 0;
+        for (long record = 0; record < recordCount; ++record) {
+            long base = record * RECORD_SIZE;
+            int hashCode = records.getInt(base + R_HASH);
+            byte [] key = readPathLower(record);
+            long slot = findSlot(key, hashCode);
+            if (hash.getLong(slot * 8) == 0) {
+                ++usedSlots;
+            }
+            hash.putLong(slot * 8, slotValue(hashCode, record));
+        }
+    }
+
+    private boolean pathEquals(long record, byte [] key) {
+        long pos = records.getLong(record * RECORD_SIZE + R_BLOB_OFFSET);
+        if (arena.getInt(pos) != key.length) {
+            return false;
+        }
+        pos += 4;
+        for (int i = 0; i < key.length; ++i) {
+            if (arena.getByte(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte [] readPathLower(long record) {
+        long pos = records.getLong(record * RECORD_SIZE + R_BLOB_OFFSET);
+        byte [] key = new byte[arena.getInt(pos)];
+        arena.get(pos + 4, key);
+        return key;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Index is closed.");
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            headerFile.close();
+        } finally {
+            try {
+                records.close();
+            } finally {
+                try {
+                    arena.close();
+                } finally {
+                    hash.close();
+                }
+            }
+        }
+    }
+
+    private static long capacityFor(long records) {
+        long capacity = MIN_HASH_CAPACITY;
+        while (capacity < records * 2) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static long slotValue(int hashCode, long record) {
+        return ((long) hashCode << 32) | ((record + 1) & 0xffffffffL);
+    }
+
+    private static int slotHash(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static long slotRecord(long value) {
+        return (value & 0xffffffffL) - 1;
+    }
+
+    private static int hash(byte [] key) {
+        int h = 0;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        // spread bits, table indices only use the low bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static /*@Nullable*/ byte [] utf8(/*@Nullable*/ String value) {
+        return value == null ? null : StringUtil.stringToUtf8(value);
+    }
+
+    /**
+     * A growable file mapped into memory in segments of at most 1 GiB, the largest size a single
+     * {@link MappedByteBuffer} can address comfortably.
+     */
+    private static final class MappedRegion {
+        private static final int SEGMENT_SHIFT = 30;
+        private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+        private static final long MIN_CAPACITY = 1L << 20;
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private MappedByteBuffer [] segments;
+        private long capacity;
+
+        public MappedRegion(File path) throws IOException {
+            this.file = new RandomAccessFile(path, "rw");
+            this.channel = file.getChannel();
+            this.segments = new MappedByteBuffer[0];
+            this.capacity = 0;
+        }
+
+        public long length() throws IOException {
+            return file.length();
+        }
+
+        public void ensureCapacity(long required) throws IOException {
+            if (required <= capacity) {
+                return;
+            }
+
+            long newCapacity = Math.max(MIN_CAPACITY, capacity);
+            while (newCapacity < required) {
+                newCapacity *= 2;
+            }
+            if (newCapacity > SEGMENT_SIZE) {
+                // whole segments only, so existing mappings past the first stay valid
+                newCapacity = ((newCapacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT) << SEGMENT_SHIFT;
+            }
+
+            int count = (int) ((newCapacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            MappedByteBuffer [] mapped = Arrays.copyOf(segments, count);
+            for (int i = 0; i < count; ++i) {
+                long start = (long) i << SEGMENT_SHIFT;
+                long size = Math.min(SEGMENT_SIZE, newCapacity - start);
+                if (mapped[i] == null || mapped[i].capacity() < size) {
+                    mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+                }
+            }
+            segments = mapped;
+            capacity = newCapacity;
+        }
+
+        // Returns the offset at which length bytes can be written without crossing a segment.
+        public long alignedOffset(long offset, int length) {
+            if (length > SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Entry is too large: " + length + " bytes");
+            }
+            long segmentEnd = ((offset >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+            return offset + length > segmentEnd ? segmentEnd : offset;
+        }
+
+        public byte getByte(long pos) {
+            return segment(pos).get(offset(pos));
+        }
+
+        public int getInt(long pos) {
+            return segment(pos).getInt(offset(pos));
+        }
+
+        public long getLong(long pos) {
+            return segment(pos).getLong(offset(pos));
+        }
+
+        public void get(long pos, byte [] dst) {
+            ByteBuffer buffer = segment(pos).duplicate();
+            buffer.position(offset(pos));
+            buffer.get(dst);
+        }
+
+        public void putByte(long pos, byte value) {
+            segment(pos).put(offset(pos), value);
+        }
+
+        public void putInt(long pos, int value) {
+            segment(pos).putInt(offset(pos), value);
+        }
+
+        public void putLong(long pos, long value) {
+            segment(pos).putLong(offset(pos), value);
+        }
+
+        public void put(long pos, byte [] src) {
+            ByteBuffer buffer = segment(pos).duplicate();
+            buffer.position(offset(pos));
+            buffer.put(src);
+        }
+
+        public void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        public void close() throws IOException {
+            segments = new MappedByteBuffer[0];
+            capacity = 0;
+            file.close();
+        }
+
+        private MappedByteBuffer segment(long pos) {
+            return segments[(int) (pos >>> SEGMENT_SHIFT)];
+        }
+
+        private static int offset(long pos) {
+            return (int) (pos & (SEGMENT_SIZE - 1));
+        }
+    }
+}
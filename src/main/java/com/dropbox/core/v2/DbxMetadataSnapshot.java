@@ -0,0 +1,408 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.util.SnapshotReader;
+import com.dropbox.core.util.SnapshotWriter;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.Dimensions;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FileSharingInfo;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.FolderSharingInfo;
+import com.dropbox.core.v2.files.GpsCoordinates;
+import com.dropbox.core.v2.files.MediaInfo;
+import com.dropbox.core.v2.files.MediaMetadata;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.PhotoMetadata;
+import com.dropbox.core.v2.files.VideoMetadata;
+import com.dropbox.core.v2.properties.PropertyField;
+import com.dropbox.core.v2.properties.PropertyGroup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Writes {@link Metadata} values in the compact binary snapshot format of {@link SnapshotWriter},
+ * and reads them back.
+ *
+ * <p> Snapshots are meant for storing large folder trees locally, and are much smaller and faster
+ * to read than the JSON the server sends: paths in the same folder share the folder, a lower-case
+ * path that can be derived from the display path isn't written at all, and dates are written as
+ * numbers.
+ *
+ * <p> Snapshots keep every field of the metadata: besides names, paths, IDs, revisions, sizes,
+ * modification times, content hashes and shared folder IDs, this includes media info, sharing info,
+ * property groups and whether a file has explicit shared members. These optional fields only take
+ * up space in entries that have them.
+ *
+ * <pre><code>
+ *    SnapshotWriter writer = new SnapshotWriter(out);
+ *    DbxMetadataSnapshot.writeAll(writer, entries);
+ *    ...
+ *    List&lt;Metadata&gt; entries = DbxMetadataSnapshot.readAll(new SnapshotReader(in));
+ * </code></pre>
+ */
+public final class DbxMetadataSnapshot {
+    private static final int TYPE_FILE = 0;
+    private static final int TYPE_FOLDER = 1;
+    private static final int TYPE_DELETED = 2;
+    private static final int TYPE_MASK = 3;
+    // the lower-case path is the display path in lower case
+    private static final int FLAG_DERIVED_PATH_LOWER = 1 << 2;
+    // the name is the last component of the display path
+    private static final int FLAG_DERIVED_NAME = 1 << 3;
+    // content hash for files, shared folder ID for folders
+    private static final int FLAG_EXTRA = 1 << 4;
+    private static final int FLAG_SHARING_INFO = 1 << 5;
+    private static final int FLAG_PROPERTY_GROUPS = 1 << 6;
+    // files only
+    private static final int FLAG_MEDIA_INFO = 1 << 7;
+    private static final int FLAG_EXPLICIT_SHARED_MEMBERS = 1 << 8;
+    private static final int FLAGS_MASK = (1 << 9) - 1;
+
+    private static final int MEDIA_PENDING = 0;
+    private static final int MEDIA_PHOTO = 1;
+    private static final int MEDIA_VIDEO = 2;
+
+    private DbxMetadataSnapshot() {
+    }
+
+    /**
+     * Writes a file, folder or deleted entry.
+     *
+     * @param out writer to write to, never {@code null}
+     * @param metadata entry to write, never {@code null}
+     */
+    public static void write(SnapshotWriter out, Metadata metadata) throws IOException {
+        if (out == null) throw new NullPointerException("out");
+        if (metadata == null) throw new NullPointerException("metadata");
+
+        int flags;
+        String extra = null;
+        Object sharingInfo = null;
+        List<PropertyGroup> propertyGroups = null;
+        MediaInfo mediaInfo = null;
+        Boolean hasExplicitSharedMembers = null;
+        if (metadata instanceof FileMetadata) {
+            FileMetadata file = (FileMetadata) metadata;
+            flags = TYPE_FILE;
+            extra = file.getContentHash();
+            sharingInfo = file.getSharingInfo();
+            propertyGroups = file.getPropertyGroups();
+            mediaInfo = file.getMediaInfo();
+            hasExplicitSharedMembers = file.getHasExplicitSharedMembers();
+        } else if (metadata instanceof FolderMetadata) {
+            FolderMetadata folder = (FolderMetadata) metadata;
+            flags = TYPE_FOLDER;
+            extra = folder.getSharedFolderId();
+            sharingInfo = folder.getSharingInfo();
+            propertyGroups = folder.getPropertyGroups();
+        } else if (metadata instanceof DeletedMetadata) {
+            flags = TYPE_DELETED;
+        } else {
+            throw new IllegalArgumentException("unknown metadata type: " + metadata.getClass().getName());
+        }
+
+        String pathDisplay = metadata.getPathDisplay();
+        String pathLower = metadata.getPathLower();
+        boolean derivedPathLower = pathDisplay != null && pathLower != null && pathLower.equals(lowerCase(pathDisplay));
+        boolean derivedName = pathDisplay != null && metadata.getName().equals(lastComponent(pathDisplay));
+        if (derivedPathLower) flags |= FLAG_DERIVED_PATH_LOWER;
+        if (derivedName) flags |= FLAG_DERIVED_NAME;
+        if (extra != null) flags |= FLAG_EXTRA;
+        if (sharingInfo != null) flags |= FLAG_SHARING_INFO;
+        if (propertyGroups != null) flags |= FLAG_PROPERTY_GROUPS;
+        if (mediaInfo != null) flags |= FLAG_MEDIA_INFO;
+        if (hasExplicitSharedMembers != null) flags |= FLAG_EXPLICIT_SHARED_MEMBERS;
+
+        out.writeVarInt(flags);
+        out.writePath(pathDisplay);
+        if (!derivedPathLower) {
+            out.writePath(pathLower);
+        }
+        if (!derivedName) {
+            out.writeString(metadata.getName());
+        }
+        out.writeToken(metadata.getParentSharedFolderId());
+
+        if (metadata instanceof FileMetadata) {
+            FileMetadata file = (FileMetadata) metadata;
+            out.writeString(file.getId());
+            out.writeString(file.getRev());
+            out.writeVarLong(file.getSize());
+            out.writeDate(file.getClientModified());
+            // usually close to the client modification time, so the difference is short
+            out.writeSignedVarLong(file.getServerModified().getTime() - file.getClientModified().getTime());
+        } else if (metadata instanceof FolderMetadata) {
+            out.writeString(((FolderMetadata) metadata).getId());
+        }
+        if (extra != null) {
+            out.writeString(extra);
+        }
+        if (sharingInfo instanceof FileSharingInfo) {
+            FileSharingInfo info = (FileSharingInfo) sharingInfo;
+            out.writeBoolean(info.getReadOnly());
+            out.writeToken(info.getParentSharedFolderId());
+            out.writeNullableString(info.getModifiedBy());
+        } else if (sharingInfo instanceof FolderSharingInfo) {
+            FolderSharingInfo info = (FolderSharingInfo) sharingInfo;
+            out.writeBoolean(info.getReadOnly());
+            out.writeToken(info.getParentSharedFolderId());
+            out.writeToken(info.getSharedFolderId());
+            out.writeBoolean(info.getTraverseOnly());
+            out.writeBoolean(info.getNoAccess());
+        }
+        if (propertyGroups != null) {
+            writePropertyGroups(out, propertyGroups);
+        }
+        if (mediaInfo != null) {
+            writeMediaInfo(out, mediaInfo);
+        }
+        if (hasExplicitSharedMembers != null) {
+            out.writeBoolean(hasExplicitSharedMembers);
+        }
+    }
+
+    /**
+     * Reads an entry written by {@link #write}.
+     *
+     * @param in reader to read from, never {@code null}
+     *
+     * @return entry read, never {@code null}
+     */
+    public static Metadata read(SnapshotReader in) throws IOException {
+        if (in == null) throw new NullPointerException("in");
+
+        int flags = in.readVarInt();
+        if ((flags & ~FLAGS_MASK) != 0) throw new IOException("malformed metadata flags: " + flags);
+
+        String pathDisplay = in.readPath();
+        String pathLower;
+        if ((flags & FLAG_DERIVED_PATH_LOWER) != 0) {
+            pathLower = lowerCase(checkPresent(pathDisplay));
+        } else {
+            pathLower = in.readPath();
+        }
+        String name;
+        if ((flags & FLAG_DERIVED_NAME) != 0) {
+            name = lastComponent(checkPresent(pathDisplay));
+        } else {
+            name = in.readString();
+        }
+        String parentSharedFolderId = in.readToken();
+
+        switch (flags & TYPE_MASK) {
+            case TYPE_FILE: {
+                String id = in.readString();
+                String rev = in.readString();
+                long size = in.readVarLong();
+                Date clientModified = in.readDate();
+                Date serverModified = new Date(clientModified.getTime() + in.readSignedVarLong());
+                String contentHash = (flags & FLAG_EXTRA) != 0 ? in.readString() : null;
+                FileSharingInfo sharingInfo = null;
+                if ((flags & FLAG_SHARING_INFO) != 0) {
+                    boolean readOnly = in.readBoolean();
+                    String sharingParent = in.readToken();
+                    if (sharingParent == null) throw new IOException("missing parent shared folder ID");
+                    sharingInfo = new FileSharingInfo(readOnly, sharingParent, in.readNullableString());
+                }
+                List<PropertyGroup> propertyGroups = (flags & FLAG_PROPERTY_GROUPS) != 0 ? readPropertyGroups(in) : null;
+                MediaInfo mediaInfo = (flags & FLAG_MEDIA_INFO) != 0 ? readMediaInfo(in) : null;
+                Boolean hasExplicitSharedMembers = (flags & FLAG_EXPLICIT_SHARED_MEMBERS) != 0 ? in.readBoolean() : null;
+                return FileMetadata.newBuilder(name, id, clientModified, serverModified, rev, size)
+                    .withPathLower(pathLower)
+                    .withPathDisplay(pathDisplay)
+                    .withParentSharedFolderId(parentSharedFolderId)
+                    .withMediaInfo(mediaInfo)
+                    .withSharingInfo(sharingInfo)
+                    .withPropertyGroups(propertyGroups)
+                    .withHasExplicitSharedMembers(hasExplicitSharedMembers)
+                    .withContentHash(contentHash)
+                    .build();
+            }
+            case TYPE_FOLDER: {
+                if ((flags & (FLAG_MEDIA_INFO | FLAG_EXPLICIT_SHARED_MEMBERS)) != 0) {
+                    throw new IOException("malformed metadata flags: " + flags);
+                }
+                String id = in.readString();
+                String sharedFolderId = (flags & FLAG_EXTRA) != 0 ? in.readString() : null;
+                FolderSharingInfo sharingInfo = null;
+                if ((flags & FLAG_SHARING_INFO) != 0) {
+                    boolean readOnly = in.readBoolean();
+                    String sharingParent = in.readToken();
+                    String sharingFolderId = in.readToken();
+                    boolean traverseOnly = in.readBoolean();
+                    boolean noAccess = in.readBoolean();
+                    sharingInfo = new FolderSharingInfo(readOnly, sharingParent, sharingFolderId, traverseOnly, noAccess);
+                }
+                List<PropertyGroup> propertyGroups = (flags & FLAG_PROPERTY_GROUPS) != 0 ? readPropertyGroups(in) : null;
+                return FolderMetadata.newBuilder(name, id)
+                    .withPathLower(pathLower)
+                    .withPathDisplay(pathDisplay)
+                    .withParentSharedFolderId(parentSharedFolderId)
+                    .withSharedFolderId(sharedFolderId)
+                    .withSharingInfo(sharingInfo)
+                    .withPropertyGroups(propertyGroups)
+                    .build();
+            }
+            case TYPE_DELETED:
+                if ((flags & ~(TYPE_MASK | FLAG_DERIVED_PATH_LOWER | FLAG_DERIVED_NAME)) != 0) {
+                    throw new IOException("malformed metadata flags: " + flags);
+                }
+                return DeletedMetadata.newBuilder(name)
+                    .withPathLower(pathLower)
+                    .withPathDisplay(pathDisplay)
+                    .withParentSharedFolderId(parentSharedFolderId)
+                    .build();
+            default:
+                throw new IOException("malformed metadata flags: " + flags);
+        }
+    }
+
+    /**
+     * Writes a list of entries, such as a folder tree, preceded by their number.
+     *
+     * @param out writer to write to, never {@code null}
+     * @param entries entries to write, never {@code null}
+     */
+    public static void writeAll(SnapshotWriter out, List<? extends Metadata> entries) throws IOException {
+        if (entries == null) throw new NullPointerException("entries");
+
+        out.writeVarInt(entries.size());
+        for (Metadata metadata : entries) {
+            write(out, metadata);
+        }
+    }
+
+    /**
+     * Reads a list of entries written by {@link #writeAll}.
+     *
+     * @param in reader to read from, never {@code null}
+     *
+     * @return entries read, never {@code null}
+     */
+    public static List<Metadata> readAll(SnapshotReader in) throws IOException {
+        int count = in.readVarInt();
+        // don't trust the count with the initial capacity, the snapshot may be corrupt
+        List<Metadata> entries = new ArrayList<Metadata>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++) {
+            entries.add(read(in));
+        }
+        return entries;
+    }
+
+    private static void writePropertyGroups(SnapshotWriter out, List<PropertyGroup> groups) throws IOException {
+        out.writeVarInt(groups.size());
+        for (PropertyGroup group : groups) {
+            out.writeString(group.getTemplateId());
+            out.writeVarInt(group.getFields().size());
+            for (PropertyField field : group.getFields()) {
+                out.writeString(field.getName());
+                out.writeString(field.getValue());
+            }
+        }
+    }
+
+    private static List<PropertyGroup> readPropertyGroups(SnapshotReader in) throws IOException {
+        int count = in.readVarInt();
+        List<PropertyGroup> groups = new ArrayList<PropertyGroup>(Math.min(count, 64));
+        for (int i = 0; i < count; i++) {
+            String templateId = in.readString();
+            int fieldCount = in.readVarInt();
+            List<PropertyField> fields = new ArrayList<PropertyField>(Math.min(fieldCount, 64));
+            for (int j = 0; j < fieldCount; j++) {
+                String fieldName = in.readString();
+                fields.add(new PropertyField(fieldName, in.readString()));
+            }
+            groups.add(new PropertyGroup(templateId, fields));
+        }
+        return groups;
+    }
+
+    private static void writeMediaInfo(SnapshotWriter out, MediaInfo info) throws IOException {
+        if (info.isPending()) {
+            out.writeVarInt(MEDIA_PENDING);
+            return;
+        }
+        MediaMetadata media = info.getMetadataValue();
+        if (media instanceof PhotoMetadata) {
+            out.writeVarInt(MEDIA_PHOTO);
+        } else if (media instanceof VideoMetadata) {
+            out.writeVarInt(MEDIA_VIDEO);
+        } else {
+            throw new IllegalArgumentException("unknown media metadata type: " + media.getClass().getName());
+        }
+
+        Dimensions dimensions = media.getDimensions();
+        out.writeBoolean(dimensions != null);
+        if (dimensions != null) {
+            out.writeVarLong(dimensions.getHeight());
+            out.writeVarLong(dimensions.getWidth());
+        }
+        GpsCoordinates location = media.getLocation();
+        out.writeBoolean(location != null);
+        if (location != null) {
+            out.writeDouble(location.getLatitude());
+            out.writeDouble(location.getLongitude());
+        }
+        out.writeNullableDate(media.getTimeTaken());
+        if (media instanceof VideoMetadata) {
+            Long duration = ((VideoMetadata) media).getDuration();
+            out.writeBoolean(duration != null);
+            if (duration != null) {
+                out.writeVarLong(duration);
+            }
+        }
+    }
+
+    private static MediaInfo readMediaInfo(SnapshotReader in) throws IOException {
+        int type = in.readVarInt();
+        if (type == MEDIA_PENDING) {
+            return MediaInfo.PENDING;
+        }
+        if (type != MEDIA_PHOTO && type != MEDIA_VIDEO) {
+            throw new IOException("malformed media type: " + type);
+        }
+
+        Dimensions dimensions = null;
+        if (in.readBoolean()) {
+            long height = in.readVarLong();
+            dimensions = new Dimensions(height, in.readVarLong());
+        }
+        GpsCoordinates location = null;
+        if (in.readBoolean()) {
+            double latitude = in.readDouble();
+            location = new GpsCoordinates(latitude, in.readDouble());
+        }
+        Date timeTaken = in.readNullableDate();
+        if (type == MEDIA_PHOTO) {
+            return MediaInfo.metadata(new PhotoMetadata(dimensions, location, timeTaken));
+        }
+        Long duration = in.readBoolean() ? in.readVarLong() : null;
+        return MediaInfo.metadata(new VideoMetadata(dimensions, location, timeTaken, duration));
+    }
+
+    private static /*@Nullable*/ String lowerCase(String path) {
+        // only plain ASCII paths are derived, so the result can't change with the Unicode
+        // version of the JRE reading the snapshot
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) >= 0x80) {
+                return null;
+            }
+        }
+        return path.toLowerCase(Locale.ROOT);
+    }
+
+    private static String lastComponent(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String checkPresent(/*@Nullable*/ String pathDisplay) throws IOException {
+        if (pathDisplay == null) throw new IOException("missing display path");
+        return pathDisplay;
+    }
+}
@@ -5,19 +5,21 @@ import static com.dropbox.core.DbxRequestUtil.addUserLocaleHeader;
 import com.dropbox.core.BadResponseException;
 import com.dropbox.core.DbxDownloader;
 import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxHedgingPolicy;
 import com.dropbox.core.DbxHost;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.DbxRequestUtil;
 import com.dropbox.core.DbxUploader;
 import com.dropbox.core.DbxWebAuth;
 import com.dropbox.core.DbxWrappedException;
+import com.dropbox.core.InvalidAccessTokenException;
 import com.dropbox.core.NetworkIOException;
 import com.dropbox.core.RetryException;
 import com.dropbox.core.stone.StoneSerializer;
 import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.json.DbxJson;
 import com.dropbox.core.util.LangUtil;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
@@ -47,7 +49,6 @@ import java.util.Random;
 public abstract class DbxRawClientV2 {
     public static final String USER_AGENT_ID = "OfficialDropboxJavaSDKv2";
 
-    private static final JsonFactory JSON = new JsonFactory();
     private static final Random RAND = new Random();
 
     private final DbxRequestConfig requestConfig;
@@ -75,23 +76,62 @@ public abstract class DbxRawClientV2 {
      * Add the appropriate authentication headers to the request, if any.
      *
      * @param headers List of request headers. Add authentication headers to this list.
+     *
+     * @throws DbxException if the credentials can't be obtained, for example because refreshing an
+     * expired access token failed
      */
-    protected abstract void addAuthHeaders(List<HttpRequestor.Header> headers);
+    protected abstract void addAuthHeaders(List<HttpRequestor.Header> headers) throws DbxException;
+
+    /**
+     * Called when the server rejected the credentials a request was sent with ({@link
+     * InvalidAccessTokenException}). Clients whose credentials can be renewed should renew them
+     * and return {@code true}, in which case the request is sent once more with the headers added
+     * by {@link #addAuthHeaders}.
+     *
+     * <p> Requests sent concurrently with the same credentials are all rejected, so this method
+     * may be called several times for the same rejected credentials.
+     *
+     * @param headers headers of the rejected request, including its authentication headers
+     *
+     * @return whether the request should be sent again with new credentials
+     *
+     * @throws DbxException if renewing the credentials failed
+     */
+    protected boolean refreshAuthHeaders(List<HttpRequestor.Header> headers) throws DbxException {
+        return false;
+    }
+
+    public <ArgT,ResT,ErrT> ResT rpcStyle(final String host,
+                                          final String path,
+                                          final ArgT arg,
+                                          final boolean noAuth,
+                                          final StoneSerializer<ArgT> argSerializer,
+                                          final StoneSerializer<ResT> responseSerializer,
+                                          final StoneSerializer<ErrT> errorSerializer)
+        throws DbxWrappedException, DbxException {
+        return rpcStyle(host, path, arg, noAuth, false, argSerializer, responseSerializer, errorSerializer);
+    }
 
+    /**
+     * Like {@link #rpcStyle(String, String, Object, boolean, StoneSerializer, StoneSerializer,
+     * StoneSerializer)}, for routes that may be safe to send twice.
+     *
+     * @param hedgeable whether the route is idempotent, in which case the request is hedged
+     * according to the {@link DbxRequestConfig#getHedgingPolicy hedging policy}, if any
+     */
     public <ArgT,ResT,ErrT> ResT rpcStyle(final String host,
                                           final String path,
                                           final ArgT arg,
                                           final boolean noAuth,
+                                          final boolean hedgeable,
                                           final StoneSerializer<ArgT> argSerializer,
                                           final StoneSerializer<ResT> responseSerializer,
                                           final StoneSerializer<ErrT> errorSerializer)
         throws DbxWrappedException, DbxException {
 
+        final DbxHedgingPolicy hedgingPolicy = hedgeable ? requestConfig.getHedgingPolicy() : null;
         final byte [] body = writeAsBytes(argSerializer, arg);
         final List<HttpRequestor.Header> headers = new ArrayList<HttpRequestor.Header>();
-        if (!noAuth) {
-            addAuthHeaders(headers);
-        }
         if (!this.host.getNotify().equals(host)) {
             // TODO(krieb): fix this ugliness
             addUserLocaleHeader(headers, requestConfig);
@@ -99,12 +139,25 @@ public abstract class DbxRawClientV2 {
 
         headers.add(new HttpRequestor.Header("Content-Type", "application/json; charset=utf-8"));
 
-        return executeRetriable(requestConfig.getMaxRetries(), new RetriableExecution<ResT> () {
+        return executeAuthenticated(noAuth, headers, new AuthenticatedExecution<ResT> () {
             private String userIdAnon;
 
             @Override
-            public ResT execute() throws DbxWrappedException, DbxException {
-                HttpRequestor.Response response = DbxRequestUtil.startPostRaw(requestConfig, USER_AGENT_ID, host, path, body, headers);
+            public ResT execute(final List<HttpRequestor.Header> headers) throws DbxWrappedException, DbxException {
+                if (hedgingPolicy == null) {
+                    return send(headers, null);
+                }
+                return hedgingPolicy.execute(new DbxHedgingPolicy.Request<ResT>() {
+                    @Override
+                    public ResT execute(DbxHedgingPolicy.Attempt attempt) throws DbxWrappedException, DbxException {
+                        return send(headers, attempt);
+                    }
+                });
+            }
+
+            private ResT send(List<HttpRequestor.Header> headers, /*@Nullable*/ DbxHedgingPolicy.Attempt attempt)
+                throws DbxWrappedException, DbxException {
+                HttpRequestor.Response response = DbxRequestUtil.startPostRaw(requestConfig, USER_AGENT_ID, host, path, body, headers, attempt);
                 try {
                     switch (response.getStatusCode()) {
                         case 200:
@@ -122,7 +175,7 @@ public abstract class DbxRawClientV2 {
                 }
             }
 
-            private RetriableExecution<ResT> init(String userId){
+            private AuthenticatedExecution<ResT> init(String userId){
                 this.userIdAnon = userId;
                 return this;
             }
@@ -140,20 +193,17 @@ public abstract class DbxRawClientV2 {
         throws DbxWrappedException, DbxException {
 
         final List<HttpRequestor.Header> headers = new ArrayList<HttpRequestor.Header>(extraHeaders);
-        if (!noAuth) {
-            addAuthHeaders(headers);
-        }
         addUserLocaleHeader(headers, requestConfig);
         headers.add(new HttpRequestor.Header("Dropbox-API-Arg", headerSafeJson(argSerializer, arg)));
         headers.add(new HttpRequestor.Header("Content-Type", ""));
 
         final byte[] body = new byte[0];
 
-        return executeRetriable(requestConfig.getMaxRetries(), new RetriableExecution<DbxDownloader<ResT>>() {
+        return executeAuthenticated(noAuth, headers, new AuthenticatedExecution<DbxDownloader<ResT>>() {
             private String userIdAnon;
 
             @Override
-            public DbxDownloader<ResT> execute() throws DbxWrappedException, DbxException {
+            public DbxDownloader<ResT> execute(List<HttpRequestor.Header> headers) throws DbxWrappedException, DbxException {
                 HttpRequestor.Response response = DbxRequestUtil.startPostRaw(requestConfig, USER_AGENT_ID, host, path, body, headers);
                 String requestId = DbxRequestUtil.getRequestId(response);
 
@@ -188,7 +238,7 @@ public abstract class DbxRawClientV2 {
                 }
             }
 
-            private RetriableExecution<DbxDownloader<ResT>> init(String userId){
+            private AuthenticatedExecution<DbxDownloader<ResT>> init(String userId){
                 this.userIdAnon = userId;
                 return this;
             }
@@ -205,15 +255,16 @@ public abstract class DbxRawClientV2 {
         return out.toByteArray();
     }
 
-    private static <T> String headerSafeJson(StoneSerializer<T> serializer, T value) {
+    // package-private for DbxRawClientV2Bench
+    static <T> String headerSafeJson(StoneSerializer<T> serializer, T value) {
         StringWriter out = new StringWriter();
         try {
-            JsonGenerator g = JSON.createGenerator(out);
+            JsonGenerator g = DbxJson.getFactory().createGenerator(out);
             // Escape 0x7F, because it's not allowed in an HTTP header.
             // Escape all non-ASCII because the new HTTP spec recommends against non-ASCII in headers.
             g.setHighestNonEscapedChar(0x7E);
             serializer.serialize(value, g);
-            g.flush();
+            g.close();
         } catch (IOException ex) {
             throw LangUtil.mkAssert("Impossible", ex);
         }
@@ -271,6 +322,38 @@ public abstract class DbxRawClientV2 {
         return userId;
     }
 
+    /**
+     * Runs the execution with the given headers and the authentication headers, retrying it as
+     * configured. If the server rejects the credentials and the client renews them, the execution
+     * is run once more with the new credentials.
+     */
+    private <T> T executeAuthenticated(boolean noAuth,
+                                       List<HttpRequestor.Header> headers,
+                                       AuthenticatedExecution<T> execution)
+        throws DbxWrappedException, DbxException {
+
+        if (noAuth) {
+            return executeRetriable(requestConfig.getMaxRetries(), execution.withHeaders(headers));
+        }
+
+        List<HttpRequestor.Header> authenticated = withAuthHeaders(headers);
+        try {
+            return executeRetriable(requestConfig.getMaxRetries(), execution.withHeaders(authenticated));
+        } catch (InvalidAccessTokenException ex) {
+            if (!refreshAuthHeaders(authenticated)) {
+                throw ex;
+            }
+        }
+        return executeRetriable(requestConfig.getMaxRetries(), execution.withHeaders(withAuthHeaders(headers)));
+    }
+
+    private List<HttpRequestor.Header> withAuthHeaders(List<HttpRequestor.Header> headers) throws DbxException {
+        List<HttpRequestor.Header> authenticated = new ArrayList<HttpRequestor.Header>(headers.size() + 2);
+        addAuthHeaders(authenticated);
+        authenticated.addAll(headers);
+        return authenticated;
+    }
+
     /**
      * Retries the execution at most a maximum number of times.
      *
@@ -320,4 +403,17 @@ public abstract class DbxRawClientV2 {
     private interface RetriableExecution<T> {
         T execute() throws DbxWrappedException, DbxException;
     }
+
+    private static abstract class AuthenticatedExecution<T> {
+        abstract T execute(List<HttpRequestor.Header> headers) throws DbxWrappedException, DbxException;
+
+        RetriableExecution<T> withHeaders(final List<HttpRequestor.Header> headers) {
+            return new RetriableExecution<T>() {
+                @Override
+                public T execute() throws DbxWrappedException, DbxException {
+                    return AuthenticatedExecution.this.execute(headers);
+                }
+            };
+        }
+    }
 }
@@ -79,6 +79,9 @@ public class DbxTeamClientV2 extends DbxTeamClientV2Base {
      *
      * <p> This method performs no validation of the team member ID. </p>
      *
+     * <p> To run the same task for every member of the team, see {@link
+     * DbxTeamFanout}. </p>
+     *
      * @param memberId  Team member ID of member in this client's team, never
      *     {@code null}.
      *
@@ -102,6 +105,14 @@ public class DbxTeamClientV2 extends DbxTeamClientV2Base {
         return new DbxClientV2(asMemberClient);
     }
 
+    /**
+     * Returns a copy of this client that sends its requests, and those of its
+     * {@link #asMember} clients, with the given request config.
+     */
+    DbxTeamClientV2 withRequestConfig(DbxRequestConfig requestConfig) {
+        return new DbxTeamClientV2(requestConfig, accessToken, _client.getHost(), _client.getUserId());
+    }
+
     /**
      * {@link DbxRawClientV2} raw client that adds team OAuth2 auth headers to all requests. If a
      * member ID is specified, this client will also add select-user headers to all requests (used
@@ -0,0 +1,700 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestUtil;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.ServerException;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.v2.team.MembersListResult;
+import com.dropbox.core.v2.team.TeamMemberInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Runs a task for every member of a Dropbox Business team, using a bounded number of members at a
+ * time.
+ *
+ * <p> Members are streamed page by page with {@code team/members/list} and {@code
+ * team/members/list/continue}, so only the pages with members still in flight are held in memory.
+ * Each member's {@link MemberTask} gets a client from {@link DbxTeamClientV2#asMember} and runs on
+ * the given executor, with at most {@code maxConcurrency} tasks running at once.
+ *
+ * <p> Dropbox rate limits the team as a whole, so all requests made through this fanout, including
+ * those of its member tasks, share one backoff: when any request is rate limited, no new request is
+ * sent until the {@code Retry-After} delay the server asked for has passed. Tasks and listing
+ * requests that fail with a {@link RetryException}, {@link NetworkIOException} or {@link
+ * ServerException} are retried up to {@code maxRetries} times. A member task is retried from the
+ * start, so tasks should be safe to run more than once for the same member.
+ *
+ * <p> Progress can be saved with a {@link Checkpoint}. The checkpoint is advanced to a page's
+ * {@code members/list} cursor once every member on that page and on all earlier pages has been
+ * processed, whether its task succeeded or failed. A run that resumes from a saved cursor picks up
+ * with the next page, so after a crash only the members of pages that were in flight are processed
+ * again.
+ *
+ * <pre><code>
+ *    DbxTeamFanout fanout = new DbxTeamFanout(teamClient, Executors.newFixedThreadPool(16), 16);
+ *    DbxTeamFanout.Summary summary = fanout.run(new DbxTeamFanout.MemberTask() {
+ *        &#64;Override
+ *        public void run(TeamMemberInfo member, DbxClientV2 client) throws DbxException {
+ *            audit(member, client.files().listFolder(""));
+ *        }
+ *    }, checkpoint);
+ * </code></pre>
+ *
+ * <p> This class is thread safe, and concurrent runs share the same rate limit backoff. The
+ * executor is not shut down by this class.
+ */
+public final class DbxTeamFanout {
+    /**
+     * Default number of times a failed request or member task is retried.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final long MIN_BACKOFF_MILLIS = 500L;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // used if a 429 response comes without a usable Retry-After header
+    private static final long DEFAULT_RATE_LIMIT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final Random RAND = new Random();
+
+    private final DbxTeamClientV2 client;
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int maxRetries;
+
+    private final AtomicLong resumeAtMillis;
+    private final AtomicLong rateLimits;
+
+    /**
+     * Creates a fanout that retries failures up to {@link #DEFAULT_MAX_RETRIES} times.
+     *
+     * @param client team client to list members and make requests as them, never {@code null}
+     * @param executor executor to run member tasks on, never {@code null}
+     * @param maxConcurrency maximum number of member tasks running at once, must be positive
+     */
+    public DbxTeamFanout(DbxTeamClientV2 client, Executor executor, int maxConcurrency) {
+        this(client, executor, maxConcurrency, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Creates a fanout.
+     *
+     * @param client team client to list members and make requests as them, never {@code null}
+     * @param executor executor to run member tasks on, never {@code null}
+     * @param maxConcurrency maximum number of member tasks running at once, must be positive
+     * @param maxRetries maximum number of times a failed request or member task is retried, must
+     *     not be negative
+     */
+    public DbxTeamFanout(DbxTeamClientV2 client, Executor executor, int maxConcurrency, int maxRetries) {
+        if (client == null) throw new NullPointerException("client");
+        if (executor == null) throw new NullPointerException("executor");
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be positive");
+        if (maxRetries < 0) throw new IllegalArgumentException("maxRetries must not be negative");
+
+        HttpRequestor requestor = client._client.getRequestConfig().getHttpRequestor();
+        this.client = client.withRequestConfig(
+            client._client.getRequestConfig().copy()
+                .withHttpRequestor(new RateLimitedRequestor(requestor))
+                .build()
+        );
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.maxRetries = maxRetries;
+
+        this.resumeAtMillis = new AtomicLong(0);
+        this.rateLimits = new AtomicLong(0);
+    }
+
+    /**
+     * Returns the number of rate limited responses received by this fanout so far.
+     *
+     * @return number of HTTP 429 responses, including those retried automatically by the client
+     */
+    public long getRateLimitCount() {
+        return rateLimits.get();
+    }
+
+    /**
+     * Runs the task for every current member of the team, starting from the beginning of the
+     * member list.
+     *
+     * @param task task to run for every member, never {@code null}
+     *
+     * @return counts of the processed members
+     *
+     * @throws DbxException if the member list could not be retrieved
+     * @throws InterruptedException if interrupted while waiting for member tasks
+     */
+    public Summary run(MemberTask task) throws DbxException, InterruptedException {
+        try {
+            return run(task, null);
+        } catch (IOException ex) {
+            throw new AssertionError("IOException can only come from a checkpoint: " + ex);
+        }
+    }
+
+    /**
+     * Runs the task for every current member of the team, resuming from and saving progress to the
+     * given checkpoint.
+     *
+     * <p> If listing members fails, the members listed so far are still processed before the
+     * exception is thrown, and the checkpoint keeps the position of the last page whose members were
+     * all processed. If the checkpoint can't be saved, or the run is interrupted, no more tasks are
+     * started and only the tasks already running are waited for.
+     *
+     * @param task task to run for every member, never {@code null}
+     * @param checkpoint where to load and save the member list cursor, or {@code null} to always
+     *     start from the beginning
+     *
+     * @return counts of the processed members
+     *
+     * @throws DbxException if the member list could not be retrieved
+     * @throws IOException if the checkpoint could not be loaded or saved
+     * @throws InterruptedException if interrupted while waiting for member tasks
+     */
+    public Summary run(MemberTask task, /*@Nullable*/ Checkpoint checkpoint)
+        throws DbxException, IOException, InterruptedException {
+        if (task == null) throw new NullPointerException("task");
+
+        Run run = new Run(task, checkpoint);
+        try {
+            run.listAndSubmit();
+        } catch (InterruptedException ex) {
+            run.stop();
+            throw ex;
+        } finally {
+            run.awaitTasks();
+        }
+        run.throwIfFailed();
+        return run.summary();
+    }
+
+    private <T> T withRetries(Attempt<T> attempt, AtomicInteger retries) throws DbxException, InterruptedException {
+        for (int i = 0; ; ++i) {
+            awaitRateLimit();
+            try {
+                return attempt.run();
+            } catch (DbxException ex) {
+                if (!isRetriable(ex) || i >= maxRetries) {
+                    throw ex;
+                }
+                retries.incrementAndGet();
+                if (ex instanceof RateLimitException) {
+                    // everyone waits, see awaitRateLimit()
+                    pauseFor(((RateLimitException) ex).getBackoffMillis());
+                } else {
+                    Thread.sleep(backoffMillis(i, ex));
+                }
+            }
+        }
+    }
+
+    private static boolean isRetriable(DbxException ex) {
+        return ex instanceof RetryException
+            || ex instanceof NetworkIOException
+            || ex instanceof ServerException;
+    }
+
+    private static long backoffMillis(int attempt, DbxException ex) {
+        if (ex instanceof RetryException && ((RetryException) ex).getBackoffMillis() > 0) {
+            return ((RetryException) ex).getBackoffMillis();
+        }
+        long backoff = Math.min(MIN_BACKOFF_MILLIS << Math.min(attempt, 16), MAX_BACKOFF_MILLIS);
+        // jitter keeps members that failed together from retrying together
+        return backoff + RAND.nextInt((int) MIN_BACKOFF_MILLIS);
+    }
+
+    private void pauseFor(long millis) {
+        long resumeAt = System.currentTimeMillis() + Math.max(millis, 0);
+        while (true) {
+            long current = resumeAtMillis.get();
+            if (current >= resumeAt || resumeAtMillis.compareAndSet(current, resumeAt)) {
+                return;
+            }
+        }
+    }
+
+    private void awaitRateLimit() throws InterruptedException {
+        long wait;
+        while ((wait = resumeAtMillis.get() - System.currentTimeMillis()) > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * State of a single {@link #run}.
+     */
+    private final class Run {
+        private final MemberTask task;
+        private final Checkpoint checkpoint;
+        private final Semaphore permits;
+
+        private final ReentrantLock lock;
+        // pages with members still in flight, in list order
+        private final ArrayDeque<Page> pages;
+        private volatile boolean stopped;
+        private /*@Nullable*/ Exception failure;
+        private /*@Nullable*/ String cursor;
+
+        private final AtomicInteger succeeded;
+        private final AtomicInteger failed;
+        private final AtomicInteger retries;
+
+        private Run(MemberTask task, /*@Nullable*/ Checkpoint checkpoint) {
+            this.task = task;
+            this.checkpoint = checkpoint;
+            this.permits = new Semaphore(maxConcurrency);
+
+            this.lock = new ReentrantLock();
+            this.pages = new ArrayDeque<Page>();
+            this.stopped = false;
+            this.failure = null;
+            this.cursor = null;
+
+            this.succeeded = new AtomicInteger(0);
+            this.failed = new AtomicInteger(0);
+            this.retries = new AtomicInteger(0);
+        }
+
+        private void listAndSubmit() throws DbxException, IOException, InterruptedException {
+            cursor = checkpoint == null ? null : checkpoint.load();
+
+            MembersListResult result = list(cursor);
+            while (!stopped) {
+                Page page = new Page(result.getCursor(), result.getMembers().size());
+                lock.lock();
+                try {
+                    pages.addLast(page);
+                } finally {
+                    lock.unlock();
+                }
+
+                for (TeamMemberInfo member : result.getMembers()) {
+                    permits.acquire();
+                    if (stopped) {
+                        permits.release();
+                        return;
+                    }
+                    submit(member, page);
+                }
+                // members are all submitted, only they can hold the page back now
+                done(page);
+
+                if (!result.getHasMore()) {
+                    return;
+                }
+                result = list(result.getCursor());
+            }
+        }
+
+        private MembersListResult list(final /*@Nullable*/ String cursor) throws DbxException, InterruptedException {
+            return withRetries(new Attempt<MembersListResult>() {
+                @Override
+                public MembersListResult run() throws DbxException {
+                    if (cursor == null) {
+                        return client.team().membersList();
+                    } else {
+                        return client.team().membersListContinue(cursor);
+                    }
+                }
+            }, retries);
+        }
+
+        private void submit(final TeamMemberInfo member, final Page page) {
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    boolean processed = false;
+                    try {
+                        processed = process(member);
+                    } finally {
+                        if (processed) {
+                            done(page);
+                        }
+                        // released last, so awaitTasks() also waits for the checkpoint
+                        permits.release();
+                    }
+                }
+            };
+
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException ex) {
+                permits.release();
+                fail(ex);
+            }
+        }
+
+        /**
+         * Returns whether the member was processed, successfully or not, and may be checkpointed.
+         */
+        private boolean process(final TeamMemberInfo member) {
+            if (stopped) {
+                return false;
+            }
+
+            final DbxClientV2 memberClient = client.asMember(member.getProfile().getTeamMemberId());
+            try {
+                withRetries(new Attempt<Void>() {
+                    @Override
+                    public Void run() throws DbxException {
+                        task.run(member, memberClient);
+                        return null;
+                    }
+                }, retries);
+                succeeded.incrementAndGet();
+                return true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(ex);
+                return false;
+            } catch (Exception ex) {
+                failed.incrementAndGet();
+                try {
+                    task.onFailure(member, ex);
+                } catch (RuntimeException ignored) {
+                    // don't let a misbehaving callback hold back the checkpoint
+                }
+                return true;
+            }
+        }
+
+        private void done(Page page) {
+            lock.lock();
+            try {
+                --page.remaining;
+
+                String completed = null;
+                while (!pages.isEmpty() && pages.peekFirst().remaining == 0) {
+                    completed = pages.removeFirst().cursor;
+                }
+                if (completed == null) {
+                    return;
+                }
+
+                cursor = completed;
+                // saved while holding the lock so checkpoints are written in list order. Members
+                // finishing after a stop still advance it.
+                if (checkpoint != null && failure == null) {
+                    checkpoint.save(completed);
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            } catch (RuntimeException ex) {
+                fail(ex);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void stop() {
+            stopped = true;
+        }
+
+        private void fail(Exception ex) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = ex;
+                }
+                stopped = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void awaitTasks() throws InterruptedException {
+            // every running task holds a permit until it is done
+            permits.acquire(maxConcurrency);
+            permits.release(maxConcurrency);
+        }
+
+        private void throwIfFailed() throws IOException, InterruptedException {
+            Exception ex;
+            lock.lock();
+            try {
+                ex = failure;
+            } finally {
+                lock.unlock();
+            }
+            if (ex == null) {
+                return;
+            } else if (ex instanceof IOException) {
+                throw (IOException) ex;
+            } else if (ex instanceof InterruptedException) {
+                throw (InterruptedException) ex;
+            } else if (ex instanceof RuntimeException) {
+                throw (RuntimeException) ex;
+            } else {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private Summary summary() {
+            lock.lock();
+            try {
+                return new Summary(succeeded.get(), failed.get(), retries.get(), cursor);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Page {
+        private final String cursor;
+        // members not yet processed, plus one until all members were submitted
+        private int remaining;
+
+        private Page(String cursor, int members) {
+            this.cursor = cursor;
+            this.remaining = members + 1;
+        }
+    }
+
+    private static abstract class Attempt<T> {
+        public abstract T run() throws DbxException;
+    }
+
+    /**
+     * Holds back every request while the team is rate limited, and starts the backoff when a
+     * request comes back rate limited.
+     */
+    private final class RateLimitedRequestor extends HttpRequestor {
+        private final HttpRequestor requestor;
+
+        private RateLimitedRequestor(HttpRequestor requestor) {
+            this.requestor = requestor;
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            await();
+            return checked(requestor.doGet(url, headers));
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            await();
+            return new RateLimitedUploader(requestor.startPost(url, headers));
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            await();
+            return new RateLimitedUploader(requestor.startPut(url, headers));
+        }
+
+        private void await() throws IOException {
+            try {
+                awaitRateLimit();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limit to expire.");
+            }
+        }
+
+        private Response checked(Response response) {
+            if (response.getStatusCode() == 429) {
+                rateLimits.incrementAndGet();
+                pauseFor(retryAfterMillis(response));
+            }
+            return response;
+        }
+
+        private long retryAfterMillis(Response response) {
+            String retryAfter = DbxRequestUtil.getFirstHeaderMaybe(response, "Retry-After");
+            if (retryAfter != null) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+                } catch (NumberFormatException ex) {
+                    // fall through to the default
+                }
+            }
+            return DEFAULT_RATE_LIMIT_MILLIS;
+        }
+
+        private final class RateLimitedUploader extends Uploader {
+            private final Uploader uploader;
+
+            private RateLimitedUploader(Uploader uploader) {
+                this.uploader = uploader;
+            }
+
+            @Override
+            public OutputStream getBody() {
+                return uploader.getBody();
+            }
+
+            @Override
+            public void close() {
+                uploader.close();
+            }
+
+            @Override
+            public void abort() {
+                uploader.abort();
+            }
+
+            // forward uploads, so requestors that send bodies directly don't fall back to getBody()
+
+            @Override
+            public void upload(File file) throws IOException {
+                uploader.upload(file);
+            }
+
+            @Override
+            public void upload(InputStream in, long limit) throws IOException {
+                uploader.upload(in, limit);
+            }
+
+            @Override
+            public void upload(InputStream in) throws IOException {
+                uploader.upload(in);
+            }
+
+            @Override
+            public void upload(ByteBuffer body) throws IOException {
+                uploader.upload(body);
+            }
+
+            @Override
+            public void upload(byte [] body) throws IOException {
+                uploader.upload(body);
+            }
+
+            @Override
+            public Response finish() throws IOException {
+                return checked(uploader.finish());
+            }
+        }
+    }
+
+    /**
+     * Work to do for a single team member. Implementations must be thread safe, since the same
+     * task runs for several members at once.
+     */
+    public static abstract class MemberTask {
+        /**
+         * Does the work for one member. Throwing a {@link RetryException}, {@link
+         * NetworkIOException} or {@link ServerException} causes the task to be run again for the
+         * same member, up to the fanout's retry limit.
+         *
+         * @param member the team member
+         * @param client client that makes requests to user endpoints as {@code member}
+         *
+         * @throws DbxException if the work failed
+         */
+        public abstract void run(TeamMemberInfo member, DbxClientV2 client) throws DbxException;
+
+        /**
+         * Called if the task failed for a member and won't be retried. Does nothing by default.
+         *
+         * @param member the team member
+         * @param ex exception thrown by the last attempt of {@link #run}
+         */
+        public void onFailure(TeamMemberInfo member, Exception ex) {
+        }
+    }
+
+    /**
+     * Stores the position of a {@link DbxTeamFanout#run} in the team's member list, so an
+     * interrupted run can be resumed.
+     */
+    public static abstract class Checkpoint {
+        /**
+         * Returns the cursor last passed to {@link #save}, or {@code null} to start from the
+         * beginning of the member list.
+         *
+         * @return saved cursor, or {@code null}
+         *
+         * @throws IOException if the cursor could not be read
+         */
+        public abstract /*@Nullable*/ String load() throws IOException;
+
+        /**
+         * Durably stores the cursor after all members before it were processed.
+         *
+         * @param cursor {@code members/list} cursor to resume from, never {@code null}
+         *
+         * @throws IOException if the cursor could not be stored
+         */
+        public abstract void save(String cursor) throws IOException;
+    }
+
+    /**
+     * Outcome of a {@link DbxTeamFanout#run}.
+     */
+    public static final class Summary {
+        private final int succeeded;
+        private final int failed;
+        private final int retries;
+        private final /*@Nullable*/ String cursor;
+
+        private Summary(int succeeded, int failed, int retries, /*@Nullable*/ String cursor) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Returns the number of members whose task succeeded.
+         *
+         * @return number of successful members
+         */
+        public int getSucceededCount() {
+            return succeeded;
+        }
+
+        /**
+         * Returns the number of members whose task failed, after retries.
+         *
+         * @return number of failed members
+         */
+        public int getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * Returns the number of times a member task or listing request was retried.
+         *
+         * @return number of retries
+         */
+        public int getRetryCount() {
+            return retries;
+        }
+
+        /**
+         * Returns the member list cursor of the last page whose members were all processed.
+         *
+         * @return last checkpointed cursor, or {@code null} if no page was completed
+         */
+        public /*@Nullable*/ String getCursor() {
+            return cursor;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary(succeeded=" + succeeded + ", failed=" + failed + ", retries=" + retries + ")";
+        }
+    }
+}
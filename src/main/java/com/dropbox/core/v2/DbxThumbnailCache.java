@@ -0,0 +1,790 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.util.StringUtil;
+import com.dropbox.core.v1.DbxClientV1;
+import com.dropbox.core.v1.DbxEntry;
+import com.dropbox.core.v1.DbxThumbnailFormat;
+import com.dropbox.core.v1.DbxThumbnailSize;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.ThumbnailErrorException;
+import com.dropbox.core.v2.files.ThumbnailFormat;
+import com.dropbox.core.v2.files.ThumbnailSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Fetches image thumbnails through a size-bounded cache on local disk.
+ *
+ * <p> A thumbnail is identified by the file it was made from, the revision of that file, and the
+ * requested format and size. Because a new revision of a file gets a new {@code rev}, cached
+ * thumbnails never go stale: a thumbnail of a changed file simply misses the cache. Thumbnails are
+ * stored as one file each in the cache directory, and the least recently used thumbnails are
+ * deleted once the directory holds more than {@code maxBytes}. The cache picks up the thumbnails
+ * left in the directory by an earlier instance, so it survives restarts, but the directory must not
+ * be used by two instances at the same time.
+ *
+ * <p> Concurrent requests for the same thumbnail are coalesced into a single download, and at most
+ * {@code maxConcurrency} thumbnails are downloaded at once. {@link #prefetch(ListFolderResult,
+ * ThumbnailFormat, ThumbnailSize)} downloads the thumbnails of a whole {@code list_folder} page in
+ * parallel, so a gallery can warm the cache before it renders the page.
+ *
+ * <pre><code>
+ *    DbxThumbnailCache thumbnails = new DbxThumbnailCache(
+ *        client, Executors.newFixedThreadPool(8), 8, new File("thumbnails"), 256L &lt;&lt; 20
+ *    );
+ *    ListFolderResult page = client.files().listFolder("/Photos");
+ *    thumbnails.prefetch(page, ThumbnailFormat.JPEG, ThumbnailSize.W128H128);
+ *
+ *    for (Metadata metadata : page.getEntries()) {
+ *        if (metadata instanceof FileMetadata) {
+ *            byte [] image = thumbnails.getThumbnail((FileMetadata) metadata, ThumbnailFormat.JPEG, ThumbnailSize.W128H128);
+ *            ...
+ *        }
+ *    }
+ * </code></pre>
+ *
+ * <p> Thumbnails can be fetched through either API version. The cache created with a {@link
+ * DbxClientV1} maps the API v2 formats and sizes onto their v1 counterparts. Files described by a
+ * v1 {@link DbxEntry.File} have no ID and are identified by their path instead, so they don't share
+ * cached thumbnails with the same files described by a {@link FileMetadata}.
+ *
+ * <p> This class is thread safe. The executor is not shut down by this class.
+ */
+public final class DbxThumbnailCache {
+    // file extensions the server makes thumbnails for
+    private static final Set<String> THUMBNAIL_EXTENSIONS = new HashSet<String>(Arrays.asList(
+        "jpg", "jpeg", "png", "tiff", "tif", "gif", "bmp"
+    ));
+    // larger images are not converted to thumbnails
+    private static final long MAX_IMAGE_BYTES = 20L << 20;
+
+    private static final String THUMBNAIL_SUFFIX = ".thumb";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Fetcher fetcher;
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final File directory;
+    private final long maxBytes;
+
+    private final Semaphore downloads;
+    private final ConcurrentMap<String, FutureTask<byte []>> fetching;
+
+    private final ReentrantLock lock;
+    // thumbnail file name to thumbnail size, least recently used first
+    private final LinkedHashMap<String, Long> entries;
+    private long cachedBytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong coalesced;
+    private final AtomicLong bytesSaved;
+    private final AtomicLong bytesDownloaded;
+
+    /**
+     * Creates a cache that downloads thumbnails through API v2.
+     *
+     * @param client Dropbox client used to download thumbnails, never {@code null}
+     * @param executor executor to prefetch thumbnails on, never {@code null}
+     * @param maxConcurrency maximum number of thumbnails downloaded at once, must be positive
+     * @param directory directory to store thumbnails in, created if missing, never {@code null}
+     * @param maxBytes maximum total size of the stored thumbnails, must be positive
+     *
+     * @throws IOException if the directory can't be created or read
+     */
+    public DbxThumbnailCache(DbxClientV2 client, Executor executor, int maxConcurrency, File directory, long maxBytes)
+        throws IOException {
+        this(new FilesFetcher(checkClient(client).files()), executor, maxConcurrency, directory, maxBytes);
+    }
+
+    /**
+     * Creates a cache that downloads thumbnails through API v1.
+     *
+     * @param client Dropbox client used to download thumbnails, never {@code null}
+     * @param executor executor to prefetch thumbnails on, never {@code null}
+     * @param maxConcurrency maximum number of thumbnails downloaded at once, must be positive
+     * @param directory directory to store thumbnails in, created if missing, never {@code null}
+     * @param maxBytes maximum total size of the stored thumbnails, must be positive
+     *
+     * @throws IOException if the directory can't be created or read
+     */
+    public DbxThumbnailCache(DbxClientV1 client, Executor executor, int maxConcurrency, File directory, long maxBytes)
+        throws IOException {
+        this(new V1Fetcher(checkClient(client)), executor, maxConcurrency, directory, maxBytes);
+    }
+
+    private DbxThumbnailCache(Fetcher fetcher, Executor executor, int maxConcurrency, File directory, long maxBytes)
+        throws IOException {
+        if (executor == null) throw new NullPointerException("executor");
+        if (directory == null) throw new NullPointerException("directory");
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be positive");
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        this.downloads = new Semaphore(maxConcurrency);
+        this.fetching = new ConcurrentHashMap<String, FutureTask<byte []>>();
+
+        this.lock = new ReentrantLock();
+        this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        this.cachedBytes = 0;
+
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.coalesced = new AtomicLong(0);
+        this.bytesSaved = new AtomicLong(0);
+        this.bytesDownloaded = new AtomicLong(0);
+
+        load();
+    }
+
+    private static <T> T checkClient(T client) {
+        if (client == null) throw new NullPointerException("client");
+        return client;
+    }
+
+    /**
+     * Returns the thumbnail of the given revision of a file, downloading it only if it is not
+     * cached. If the file has changed on the server since {@code file} was listed, the thumbnail
+     * of its current revision is returned (and cached under that revision) instead.
+     *
+     * @param file metadata of the image file, never {@code null}
+     * @param format image format of the thumbnail, never {@code null}
+     * @param size size of the thumbnail, never {@code null}
+     *
+     * @return the thumbnail image, or {@code null} if there is no file at that path anymore
+     *
+     * @throws ThumbnailErrorException if the server can't make a thumbnail of the file
+     * @throws DbxException if downloading the thumbnail fails
+     * @throws IOException if the thumbnail can't be read from the cache directory, or if
+     *     interrupted while waiting for the download
+     */
+    public byte /*@Nullable*/ [] getThumbnail(FileMetadata file, ThumbnailFormat format, ThumbnailSize size)
+        throws DbxException, IOException {
+        if (file == null) throw new NullPointerException("file");
+        return getThumbnail(new Key(file.getId(), file.getPathLower(), file.getRev(), format, size));
+    }
+
+    /**
+     * Returns the thumbnail of the given revision of a file, downloading it only if it is not
+     * cached. See {@link #getThumbnail(FileMetadata, ThumbnailFormat, ThumbnailSize)}.
+     *
+     * @param file API v1 metadata of the image file, never {@code null}
+     * @param format image format of the thumbnail, never {@code null}
+     * @param size size of the thumbnail, never {@code null}
+     *
+     * @return the thumbnail image, or {@code null} if there is no file at that path anymore
+     *
+     * @throws ThumbnailErrorException if the server can't make a thumbnail of the file
+     * @throws DbxException if downloading the thumbnail fails
+     * @throws IOException if the thumbnail can't be read from the cache directory, or if
+     *     interrupted while waiting for the download
+     */
+    public byte /*@Nullable*/ [] getThumbnail(DbxEntry.File file, ThumbnailFormat format, ThumbnailSize size)
+        throws DbxException, IOException {
+        if (file == null) throw new NullPointerException("file");
+        return getThumbnail(new Key(null, file.path, file.rev, format, size));
+    }
+
+    /**
+     * Downloads the thumbnails of the image files in a {@code list_folder} page that are not
+     * cached yet, up to {@code maxConcurrency} at a time, and returns once all of them are done.
+     * Entries the server makes no thumbnails for, such as folders, are skipped.
+     *
+     * <p> Prefetching is best effort: thumbnails that fail to download are left out of the cache
+     * and the failure is not reported.
+     *
+     * @param page page of a folder listing, never {@code null}
+     * @param format image format of the thumbnails, never {@code null}
+     * @param size size of the thumbnails, never {@code null}
+     *
+     * @return number of thumbnails of the page in the cache once this method returns
+     *
+     * @throws IllegalArgumentException if this cache downloads through API v1 and a file in the
+     *     page has no path, or API v1 has no thumbnails of the given format or size
+     * @throws InterruptedException if interrupted while waiting for the downloads
+     */
+    public int prefetch(ListFolderResult page, ThumbnailFormat format, ThumbnailSize size)
+        throws InterruptedException {
+        if (page == null) throw new NullPointerException("page");
+
+        List<Key> keys = new ArrayList<Key>();
+        for (Metadata metadata : page.getEntries()) {
+            if (metadata instanceof FileMetadata) {
+                FileMetadata file = (FileMetadata) metadata;
+                if (hasThumbnail(file.getName()) && file.getSize() <= MAX_IMAGE_BYTES) {
+                    keys.add(new Key(file.getId(), file.getPathLower(), file.getRev(), format, size));
+                }
+            }
+        }
+        return prefetch(keys);
+    }
+
+    /**
+     * Downloads the thumbnails of the image files in an API v1 folder listing that are not cached
+     * yet. See {@link #prefetch(ListFolderResult, ThumbnailFormat, ThumbnailSize)}.
+     *
+     * @param listing API v1 folder metadata with its children, never {@code null}
+     * @param format image format of the thumbnails, never {@code null}
+     * @param size size of the thumbnails, never {@code null}
+     *
+     * @return number of thumbnails of the listing in the cache once this method returns
+     *
+     * @throws IllegalArgumentException if this cache downloads through API v1 and API v1 has no
+     *     thumbnails of the given format or size
+     * @throws InterruptedException if interrupted while waiting for the downloads
+     */
+    public int prefetch(DbxEntry.WithChildren listing, ThumbnailFormat format, ThumbnailSize size)
+        throws InterruptedException {
+        if (listing == null) throw new NullPointerException("listing");
+
+        List<Key> keys = new ArrayList<Key>();
+        if (listing.children != null) {
+            for (DbxEntry child : listing.children) {
+                if (child instanceof DbxEntry.File && child.mightHaveThumbnail) {
+                    DbxEntry.File file = (DbxEntry.File) child;
+                    keys.add(new Key(null, file.path, file.rev, format, size));
+                }
+            }
+        }
+        return prefetch(keys);
+    }
+
+    /**
+     * Returns the number of thumbnails read from the cache directory.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of thumbnails downloaded, including downloads made by {@link #prefetch}.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of thumbnail reads that missed the cache but waited for a download another
+     * thread had already started instead of downloading the thumbnail again.
+     *
+     * @return number of coalesced reads
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the fraction of thumbnail reads and prefetches that made no download of their own.
+     *
+     * @return hit ratio between {@code 0.0} and {@code 1.0}, or {@code 0.0} if nothing was read
+     */
+    public double getHitRatio() {
+        long saved = hits.get() + coalesced.get();
+        long total = saved + misses.get();
+        return total == 0 ? 0.0 : (double) saved / total;
+    }
+
+    /**
+     * Returns the number of thumbnail bytes served without downloading them, either from the cache
+     * directory or from a download made for another thread.
+     *
+     * @return number of bytes not downloaded thanks to the cache
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Returns the number of thumbnail bytes downloaded.
+     *
+     * @return number of bytes downloaded
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    /**
+     * Returns the total size of the thumbnails stored in the cache directory.
+     *
+     * @return number of bytes cached, never more than {@code maxBytes}
+     */
+    public long getCachedBytes() {
+        lock.lock();
+        try {
+            return cachedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte /*@Nullable*/ [] getThumbnail(Key key) throws DbxException, IOException {
+        fetcher.check(key);
+        byte [] thumbnail = read(key.name);
+        if (thumbnail != null) {
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(thumbnail.length);
+            return thumbnail;
+        }
+
+        FutureTask<byte []> task = newFetch(key);
+        FutureTask<byte []> existing = fetching.putIfAbsent(key.name, task);
+        if (existing != null) {
+            thumbnail = await(existing);
+            coalesced.incrementAndGet();
+            if (thumbnail != null) {
+                bytesSaved.addAndGet(thumbnail.length);
+            }
+            return thumbnail;
+        }
+
+        try {
+            task.run();
+        } finally {
+            fetching.remove(key.name, task);
+        }
+        return await(task);
+    }
+
+    /**
+     * Returns a task that downloads and stores the thumbnail, unless a download that finished since
+     * the caller missed the cache already stored it.
+     */
+    private FutureTask<byte []> newFetch(final Key key) {
+        return new FutureTask<byte []>(new Callable<byte []>() {
+            @Override
+            public byte /*@Nullable*/ [] call() throws DbxException, IOException {
+                byte [] thumbnail = read(key.name);
+                if (thumbnail != null) {
+                    hits.incrementAndGet();
+                    bytesSaved.addAndGet(thumbnail.length);
+                    return thumbnail;
+                }
+                return download(key);
+            }
+        });
+    }
+
+    private byte /*@Nullable*/ [] download(Key key) throws DbxException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        /*@Nullable*/ String rev;
+        try {
+            downloads.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to download thumbnail");
+        }
+        try {
+            rev = fetcher.fetch(key, out);
+        } finally {
+            downloads.release();
+        }
+
+        misses.incrementAndGet();
+        if (rev == null) {
+            return null;
+        }
+
+        byte [] thumbnail = out.toByteArray();
+        bytesDownloaded.addAndGet(thumbnail.length);
+        store(rev.equals(key.rev) ? key : key.withRev(rev), thumbnail);
+        return thumbnail;
+    }
+
+    private static byte /*@Nullable*/ [] await(FutureTask<byte []> task) throws DbxException, IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for thumbnail download");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof DbxException) {
+                throw (DbxException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private int prefetch(List<Key> keys) throws InterruptedException {
+        // fail on the caller's thread, workers drop failed downloads silently
+        for (Key key : keys) {
+            fetcher.check(key);
+        }
+
+        final ConcurrentLinkedQueue<Key> pending = new ConcurrentLinkedQueue<Key>(keys);
+        final AtomicInteger cached = new AtomicInteger(0);
+        int workers = Math.min(maxConcurrency, keys.size());
+        final CountDownLatch done = new CountDownLatch(workers);
+
+        for (int i = 0; i < workers; ++i) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Key key;
+                            while ((key = pending.poll()) != null) {
+                                if (warm(key)) {
+                                    cached.incrementAndGet();
+                                }
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                if (i == 0) {
+                    throw ex;
+                }
+                // prefetch with the workers we have
+                for (int j = i; j < workers; ++j) {
+                    done.countDown();
+                }
+                break;
+            }
+        }
+
+        try {
+            done.await();
+        } finally {
+            // stop the workers from starting more downloads if we were interrupted
+            pending.clear();
+        }
+        return cached.get();
+    }
+
+    private boolean warm(Key key) {
+        lock.lock();
+        try {
+            if (entries.containsKey(key.name)) {
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            return getThumbnail(key) != null;
+        } catch (DbxException ex) {
+            return false;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a cached thumbnail, or returns {@code null} if it is not cached.
+     */
+    private byte /*@Nullable*/ [] read(String name) throws IOException {
+        Long length;
+        lock.lock();
+        try {
+            length = entries.get(name);
+        } finally {
+            lock.unlock();
+        }
+        if (length == null) {
+            return null;
+        }
+
+        File file = new File(directory, name);
+        byte [] thumbnail = new byte[length.intValue()];
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(thumbnail);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException ex) {
+            // evicted while we were reading it
+            return null;
+        }
+        // keeps the least recently used order across restarts
+        file.setLastModified(System.currentTimeMillis());
+        return thumbnail;
+    }
+
+    private void store(Key key, byte [] thumbnail) {
+        if (thumbnail.length > maxBytes) {
+            return;
+        }
+
+        File file = new File(directory, key.name);
+        File temp = null;
+        try {
+            temp = File.createTempFile("thumbnail", TEMP_SUFFIX, directory);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(thumbnail);
+            } finally {
+                out.close();
+            }
+
+            lock.lock();
+            try {
+                // renaming onto an existing file fails on some platforms
+                if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+                    throw new IOException("Couldn't move thumbnail to " + file);
+                }
+                temp = null;
+                Long previous = entries.put(key.name, (long) thumbnail.length);
+                cachedBytes += thumbnail.length - (previous == null ? 0 : previous);
+                evict();
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException ex) {
+            // the thumbnail we downloaded is still good, it just won't be cached
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the cache fits in {@code maxBytes}. Must be
+     * called while holding the lock.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            cachedBytes -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Indexes the thumbnails left in the cache directory, least recently used first.
+     */
+    private void load() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create thumbnail directory " + directory);
+        }
+        File [] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Couldn't list thumbnail directory " + directory);
+        }
+
+        List<File> thumbnails = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(THUMBNAIL_SUFFIX)) {
+                thumbnails.add(file);
+            } else if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // left behind by a download that was cut short
+                file.delete();
+            }
+        }
+        Collections.sort(thumbnails, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+
+        lock.lock();
+        try {
+            for (File file : thumbnails) {
+                entries.put(file.getName(), file.length());
+                cachedBytes += file.length();
+            }
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean hasThumbnail(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && THUMBNAIL_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Identifies a thumbnail: the file, its revision, and the thumbnail format and size.
+     */
+    private static final class Key {
+        private final /*@Nullable*/ String id;
+        private final /*@Nullable*/ String path;
+        private final String rev;
+        private final ThumbnailFormat format;
+        private final ThumbnailSize size;
+        // name of the thumbnail in the cache directory
+        private final String name;
+
+        private Key(/*@Nullable*/ String id, /*@Nullable*/ String path, String rev,
+                    ThumbnailFormat format, ThumbnailSize size) {
+            if (id == null && path == null) throw new IllegalArgumentException("file has neither an ID nor a path");
+            if (rev == null) throw new NullPointerException("rev");
+            if (format == null) throw new NullPointerException("format");
+            if (size == null) throw new NullPointerException("size");
+
+            this.id = id;
+            this.path = path;
+            this.rev = rev;
+            this.format = format;
+            this.size = size;
+
+            String file = id != null ? id : path.toLowerCase(Locale.ROOT);
+            this.name = sha1(file + "\n" + rev + "\n" + format.name() + "\n" + size.name()) + THUMBNAIL_SUFFIX;
+        }
+
+        private Key withRev(String rev) {
+            return new Key(id, path, rev, format, size);
+        }
+
+        private static String sha1(String value) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                return StringUtil.binaryToHex(digest.digest(StringUtil.stringToUtf8(value)));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+    }
+
+    /**
+     * Downloads thumbnails through one of the API versions.
+     */
+    private static abstract class Fetcher {
+        /**
+         * Throws {@link IllegalArgumentException} if this fetcher can't download the thumbnail
+         * described by {@code key}.
+         */
+        void check(Key key) {
+        }
+
+        /**
+         * Writes the thumbnail to {@code out} and returns the revision of the file it was made
+         * from, or returns {@code null} if there is no file at that path.
+         */
+        abstract /*@Nullable*/ String fetch(Key key, OutputStream out) throws DbxException, IOException;
+    }
+
+    private static final class FilesFetcher extends Fetcher {
+        private final DbxUserFilesRequests files;
+
+        private FilesFetcher(DbxUserFilesRequests files) {
+            this.files = files;
+        }
+
+        @Override
+        /*@Nullable*/ String fetch(Key key, OutputStream out) throws DbxException, IOException {
+            try {
+                return files.getThumbnailBuilder(key.id != null ? key.id : key.path)
+                    .withFormat(key.format)
+                    .withSize(key.size)
+                    .start()
+                    .download(out)
+                    .getRev();
+            } catch (ThumbnailErrorException ex) {
+                if (ex.errorValue.isPath() && ex.errorValue.getPathValue().isNotFound()) {
+                    return null;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private static final class V1Fetcher extends Fetcher {
+        private final DbxClientV1 client;
+
+        private V1Fetcher(DbxClientV1 client) {
+            this.client = client;
+        }
+
+        @Override
+        void check(Key key) {
+            if (key.path == null) {
+                throw new IllegalArgumentException("API v1 needs the path of the file, but it only has an ID");
+            }
+            toV1(key.format);
+            toV1(key.size);
+        }
+
+        @Override
+        /*@Nullable*/ String fetch(Key key, OutputStream out) throws DbxException, IOException {
+            DbxEntry.File file = client.getThumbnail(toV1(key.size), toV1(key.format), key.path, key.rev, out);
+            return file == null ? null : file.rev;
+        }
+
+        private static DbxThumbnailFormat toV1(ThumbnailFormat format) {
+            switch (format) {
+                case JPEG: return DbxThumbnailFormat.JPEG;
+                case PNG: return DbxThumbnailFormat.PNG;
+                default: throw new IllegalArgumentException("API v1 has no thumbnail format " + format);
+            }
+        }
+
+        private static DbxThumbnailSize toV1(ThumbnailSize size) {
+            switch (size) {
+                case W32H32: return DbxThumbnailSize.w32h32;
+                case W64H64: return DbxThumbnailSize.w64h64;
+                case W128H128: return DbxThumbnailSize.w128h128;
+                case W640H480: return DbxThumbnailSize.w640h480;
+                case W1024H768: return DbxThumbnailSize.w1024h768;
+                default: throw new IllegalArgumentException("API v1 has no thumbnail size " + size);
+            }
+        }
+    }
+}
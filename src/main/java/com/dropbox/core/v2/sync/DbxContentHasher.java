@@ -0,0 +1,114 @@
+package com.dropbox.core.v2.sync;
+
+import com.dropbox.core.util.LangUtil;
+import com.dropbox.core.util.StringUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the Dropbox content hash of a file, the value reported by {@link
+ * com.dropbox.core.v2.files.FileMetadata#getContentHash}.
+ *
+ * <p> The content is split into 4 MiB blocks, each block is hashed with SHA-256, and the content
+ * hash is the hex encoded SHA-256 of the concatenated block hashes. Two files with the same content
+ * hash have the same content, which lets a sync client skip transfers without comparing bytes. </p>
+ *
+ * <p> Instances are not thread-safe. </p>
+ */
+public final class DbxContentHasher {
+    /**
+     * Size of the blocks the content is split into before hashing.
+     */
+    public static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private final MessageDigest overall = newSha256();
+    private final MessageDigest block = newSha256();
+    private int blockPos = 0;
+
+    /**
+     * Feeds {@code length} bytes of {@code data} starting at {@code offset} into the hash.
+     *
+     * @param data bytes to hash, never {@code null}
+     * @param offset offset of the first byte
+     * @param length number of bytes to hash
+     */
+    public void update(byte [] data, int offset, int length) {
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (length > 0) {
+            if (blockPos == BLOCK_SIZE) {
+                overall.update(block.digest());
+                blockPos = 0;
+            }
+            int n = Math.min(length, BLOCK_SIZE - blockPos);
+            block.update(data, offset, n);
+            blockPos += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Completes the hash and returns its hex encoding. The hasher is reset afterwards.
+     *
+     * @return lower case hex encoded content hash
+     */
+    public String finish() {
+        if (blockPos > 0) {
+            overall.update(block.digest());
+            blockPos = 0;
+        }
+        return StringUtil.binaryToHex(overall.digest());
+    }
+
+    /**
+     * Returns the content hash of everything remaining in {@code in}. The stream is not closed.
+     *
+     * @param in stream to hash, never {@code null}
+     *
+     * @return lower case hex encoded content hash
+     *
+     * @throws IOException if the stream could not be read
+     */
+    public static String hash(InputStream in) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        DbxContentHasher hasher = new DbxContentHasher();
+        byte [] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            hasher.update(buffer, 0, n);
+        }
+        return hasher.finish();
+    }
+
+    /**
+     * Returns the content hash of {@code data}.
+     *
+     * @param data bytes to hash, never {@code null}
+     *
+     * @return lower case hex encoded content hash
+     */
+    public static String hash(byte [] data) {
+        DbxContentHasher hasher = new DbxContentHasher();
+        hasher.update(data, 0, data.length);
+        return hasher.finish();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw LangUtil.mkAssert("SHA-256 not supported", ex);
+        }
+    }
+}
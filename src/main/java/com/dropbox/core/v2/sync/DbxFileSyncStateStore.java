@@ -0,0 +1,246 @@
+package com.dropbox.core.v2.sync;
+
+import com.dropbox.core.json.JsonReadException;
+import com.dropbox.core.json.JsonReader;
+import com.dropbox.core.json.JsonWriter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * {@link DbxSyncStateStore} persisted as a JSON file.
+ *
+ * <p> Changes are kept in memory until {@link #flush} is called, which writes the complete state to
+ * a temporary file next to the state file and renames it into place, so a crash leaves either the
+ * previous or the new state behind and never a partially written one. </p>
+ */
+public class DbxFileSyncStateStore extends DbxInMemorySyncStateStore {
+    private final File file;
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private DbxFileSyncStateStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the state stored in {@code file}. If the file does not exist, the returned store is
+     * empty and the file will be created on the first {@link #flush}. If a crash interrupted a
+     * flush after moving the previous state aside, the previous state is loaded.
+     *
+     * @param file state file, never {@code null}
+     *
+     * @return store backed by {@code file}
+     *
+     * @throws JsonReader.FileLoadException if the file exists but could not be read
+     */
+    public static DbxFileSyncStateStore load(File file) throws JsonReader.FileLoadException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+
+        DbxFileSyncStateStore store = new DbxFileSyncStateStore(file);
+        File backup = backupOf(file);
+        File source = !file.exists() && backup.exists() ? backup : file;
+        if (source.exists()) {
+            Snapshot snapshot = SnapshotReader.readFromFile(source);
+            store.setCursor(snapshot.cursor);
+            for (Entry entry : snapshot.entries) {
+                store.put(entry);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Returns the file this store is persisted to.
+     *
+     * @return state file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            Snapshot snapshot = new Snapshot(getCursor(), getEntries());
+
+            File dir = file.getAbsoluteFile().getParentFile();
+            File temp = new File(dir, file.getName() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                SnapshotWriter.writeToStream(snapshot, out, false);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                // renameTo does not replace existing files on every platform, so move the previous
+                // state aside, where load() finds it if we crash before the new state is in place
+                File backup = backupOf(file);
+                backup.delete();
+                if (file.exists() && !file.renameTo(backup)) {
+                    throw new IOException("Unable to move " + file + " to " + backup);
+                }
+                if (!temp.renameTo(file)) {
+                    // keep the new state in temp, and put the previous state back
+                    backup.renameTo(file);
+                    throw new IOException("Unable to replace " + file + " with " + temp);
+                }
+                backup.delete();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private static File backupOf(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".bak");
+    }
+
+    private static final class Snapshot {
+        final /*@Nullable*/ String cursor;
+        final List<Entry> entries;
+
+        Snapshot(/*@Nullable*/ String cursor, List<Entry> entries) {
+            this.cursor = cursor;
+            this.entries = entries;
+        }
+    }
+
+    private static final JsonWriter<Snapshot> SnapshotWriter = new JsonWriter<Snapshot>()
+    {
+        @Override
+        public void write(Snapshot snapshot, JsonGenerator g) throws IOException
+        {
+            g.writeStartObject();
+            if (snapshot.cursor != null) {
+                g.writeStringField("cursor", snapshot.cursor);
+            }
+            g.writeArrayFieldStart("entries");
+            for (Entry entry : snapshot.entries) {
+                g.writeStartObject();
+                g.writeStringField("path", entry.getPath());
+                if (entry.isFolder()) {
+                    g.writeBooleanField("folder", true);
+                } else {
+                    g.writeStringField("rev", entry.getRev());
+                    g.writeStringField("content_hash", entry.getContentHash());
+                    g.writeNumberField("size", entry.getSize());
+                    g.writeNumberField("local_modified", entry.getLocalModified());
+                }
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+    };
+
+    private static final JsonReader<Snapshot> SnapshotReader = new JsonReader<Snapshot>()
+    {
+        @Override
+        public Snapshot read(JsonParser parser) throws IOException, JsonReadException
+        {
+            JsonReader.expectObjectStart(parser);
+
+            String cursor = null;
+            List<Entry> entries = new ArrayList<Entry>();
+
+            while (parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+
+                try {
+                    if (fieldName.equals("cursor")) {
+                        cursor = StringReader.readField(parser, fieldName, cursor);
+                    }
+                    else if (fieldName.equals("entries")) {
+                        JsonReader.expectArrayStart(parser);
+                        while (!JsonReader.isArrayEnd(parser)) {
+                            entries.add(EntryReader.read(parser));
+                        }
+                        JsonReader.expectArrayEnd(parser);
+                    }
+                    else {
+                        JsonReader.skipValue(parser);
+                    }
+                }
+                catch (JsonReadException ex) {
+                    throw ex.addFieldContext(fieldName);
+                }
+            }
+
+            JsonReader.expectObjectEnd(parser);
+            return new Snapshot(cursor, entries);
+        }
+    };
+
+    private static final JsonReader<Entry> EntryReader = new JsonReader<Entry>()
+    {
+        @Override
+        public Entry read(JsonParser parser) throws IOException, JsonReadException
+        {
+            JsonLocation top = JsonReader.expectObjectStart(parser);
+
+            String path = null;
+            Boolean folder = null;
+            String rev = null;
+            String contentHash = null;
+            long size = -1;
+            long localModified = 0;
+
+            while (parser.getCurrentToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+
+                try {
+                    if (fieldName.equals("path")) {
+                        path = StringReader.readField(parser, fieldName, path);
+                    }
+                    else if (fieldName.equals("folder")) {
+                        folder = BooleanReader.readField(parser, fieldName, folder);
+                    }
+                    else if (fieldName.equals("rev")) {
+                        rev = StringReader.readOptional(parser);
+                    }
+                    else if (fieldName.equals("content_hash")) {
+                        contentHash = StringReader.readOptional(parser);
+                    }
+                    else if (fieldName.equals("size")) {
+                        size = JsonReader.readUnsignedLongField(parser, fieldName, size);
+                    }
+                    else if (fieldName.equals("local_modified")) {
+                        localModified = Int64Reader.read(parser);
+                    }
+                    else {
+                        JsonReader.skipValue(parser);
+                    }
+                }
+                catch (JsonReadException ex) {
+                    throw ex.addFieldContext(fieldName);
+                }
+            }
+
+            JsonReader.expectObjectEnd(parser);
+
+            if (path == null) throw new JsonReadException("missing field \"path\"", top);
+            if (folder != null && folder) {
+                return Entry.folder(path);
+            }
+            return new Entry(path, false, rev, contentHash, Math.max(size, 0), localModified);
+        }
+    };
+}
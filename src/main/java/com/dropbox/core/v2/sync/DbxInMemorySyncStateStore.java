@@ -0,0 +1,56 @@
+package com.dropbox.core.v2.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * {@link DbxSyncStateStore} that only keeps state in memory. Useful for tests and for one-off
+ * syncs, every new instance starts from a full listing.
+ */
+public class DbxInMemorySyncStateStore extends DbxSyncStateStore {
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile /*@Nullable*/ String cursor;
+
+    @Override
+    public /*@Nullable*/ String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public void setCursor(/*@Nullable*/ String cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public /*@Nullable*/ Entry get(String path) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        return entries.get(key(path));
+    }
+
+    @Override
+    public void put(Entry entry) {
+        if (entry == null) {
+            throw new NullPointerException("entry");
+        }
+        entries.put(key(entry.getPath()), entry);
+    }
+
+    @Override
+    public void remove(String path) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        entries.remove(key(path));
+    }
+
+    @Override
+    public List<Entry> getEntries() {
+        return new ArrayList<Entry>(entries.values());
+    }
+}
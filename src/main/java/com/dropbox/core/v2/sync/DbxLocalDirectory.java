@@ -0,0 +1,205 @@
+package com.dropbox.core.v2.sync;
+
+import com.dropbox.core.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * {@link DbxLocalFileSystem} backed by a directory on disk.
+ *
+ * <p> Files are written to a temporary file in the destination folder and renamed into place once
+ * complete. Temporary files carry the {@link #TEMP_PREFIX} prefix and are skipped by {@link #list},
+ * so leftovers from an interrupted sync are never uploaded. </p>
+ */
+public class DbxLocalDirectory extends DbxLocalFileSystem {
+    /**
+     * Name prefix of the temporary files used while writing.
+     */
+    public static final String TEMP_PREFIX = ".dbx-sync-";
+
+    private final File root;
+
+    /**
+     * @param root directory to sync, created if missing
+     */
+    public DbxLocalDirectory(File root) {
+        if (root == null) {
+            throw new NullPointerException("root");
+        }
+        this.root = root;
+    }
+
+    /**
+     * Returns the directory synced by this file system.
+     *
+     * @return root directory
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the file corresponding to a relative path.
+     *
+     * @param path relative path, starting with a slash
+     *
+     * @return file below {@link #getRoot}
+     */
+    public File toFile(String path) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        if (!path.startsWith("/")) {
+            throw new IllegalArgumentException("path must start with '/': " + path);
+        }
+        if (path.length() == 1) {
+            return root;
+        }
+        return new File(root, path.substring(1).replace('/', File.separatorChar));
+    }
+
+    @Override
+    public List<Entry> list() throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        if (!root.isDirectory()) {
+            return entries;
+        }
+
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.push("");
+        while (!pending.isEmpty()) {
+            String dir = pending.pop();
+            File [] children = (dir.isEmpty() ? root : toFile(dir)).listFiles();
+            if (children == null) {
+                throw new IOException("Unable to list " + (dir.isEmpty() ? root : toFile(dir)));
+            }
+            for (File child : children) {
+                if (child.getName().startsWith(TEMP_PREFIX)) {
+                    continue;
+                }
+                String path = dir + "/" + child.getName();
+                if (child.isDirectory()) {
+                    entries.add(new Entry(path, true, 0, child.lastModified()));
+                    pending.push(path);
+                } else if (child.isFile()) {
+                    entries.add(new Entry(path, false, child.length(), child.lastModified()));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public /*@Nullable*/ Entry stat(String path) throws IOException {
+        File file = toFile(path);
+        if (file.isDirectory()) {
+            return new Entry(path, true, 0, file.lastModified());
+        } else if (file.isFile()) {
+            return new Entry(path, false, file.length(), file.lastModified());
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream read(String path) throws IOException {
+        return new FileInputStream(toFile(path));
+    }
+
+    @Override
+    public Entry write(String path, InputStream in, long modified) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+
+        File target = toFile(path);
+        File dir = target.getParentFile();
+        mkdirs(dir);
+
+        File temp = File.createTempFile(TEMP_PREFIX, ".tmp", dir);
+        boolean success = false;
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                IOUtil.copyStreamToStream(in, out);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (modified >= 0) {
+                temp.setLastModified(modified);
+            }
+
+            if (!temp.renameTo(target)) {
+                // renameTo does not replace existing files on every platform
+                if (!target.delete() || !temp.renameTo(target)) {
+                    throw new IOException("Unable to replace " + target);
+                }
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                temp.delete();
+            }
+        }
+
+        return new Entry(path, false, target.length(), target.lastModified());
+    }
+
+    @Override
+    public void createFolder(String path) throws IOException {
+        mkdirs(toFile(path));
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        File file = toFile(path);
+        if (file.equals(root)) {
+            throw new IllegalArgumentException("Refusing to delete the root directory");
+        }
+        deleteRecursively(file);
+    }
+
+    @Override
+    public void move(String from, String to) throws IOException {
+        File source = toFile(from);
+        File target = toFile(to);
+        if (target.exists()) {
+            throw new IOException("Destination already exists: " + target);
+        }
+        mkdirs(target.getParentFile());
+        if (!source.renameTo(target)) {
+            throw new IOException("Unable to move " + source + " to " + target);
+        }
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        if (file.isDirectory()) {
+            File [] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.dropbox.core.v2.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Local side of a {@link DbxSyncEngine} sync. Implementations expose a single folder tree; all
+ * paths are relative to its root and start with a slash, e.g. {@code "/Photos/a.jpg"}.
+ *
+ * <p> Methods may be called concurrently from the engine's transfer threads, but never
+ * concurrently for the same path. </p>
+ *
+ * @see DbxLocalDirectory
+ */
+public abstract class DbxLocalFileSystem {
+
+    /**
+     * Returns every file and folder below the root, excluding the root itself.
+     *
+     * @return all local entries, in no particular order
+     *
+     * @throws IOException if the tree could not be scanned
+     */
+    public abstract List<Entry> list() throws IOException;
+
+    /**
+     * Returns the entry at {@code path}, or {@code null} if nothing exists there.
+     *
+     * @param path relative path
+     *
+     * @return local entry or {@code null}
+     *
+     * @throws IOException if the path could not be inspected
+     */
+    public abstract /*@Nullable*/ Entry stat(String path) throws IOException;
+
+    /**
+     * Opens the file at {@code path} for reading. The caller closes the returned stream.
+     *
+     * @param path relative path of an existing file
+     *
+     * @return stream over the file contents
+     *
+     * @throws IOException if the file could not be opened
+     */
+    public abstract InputStream read(String path) throws IOException;
+
+    /**
+     * Replaces the file at {@code path} with the contents of {@code in}, creating missing parent
+     * folders. Readers never observe a partially written file: if the write fails, the previous
+     * file, if any, is left untouched.
+     *
+     * @param path relative path
+     * @param in new contents, read until exhausted but not closed
+     * @param modified modification time to give the file, in milliseconds since the epoch, or
+     *     {@code -1} to leave the current time
+     *
+     * @return the entry of the written file
+     *
+     * @throws IOException if the file could not be written
+     */
+    public abstract Entry write(String path, InputStream in, long modified) throws IOException;
+
+    /**
+     * Creates the folder at {@code path} and any missing parents. Does nothing if the folder
+     * already exists.
+     *
+     * @param path relative path
+     *
+     * @throws IOException if the folder could not be created
+     */
+    public abstract void createFolder(String path) throws IOException;
+
+    /**
+     * Deletes the file or folder at {@code path}, including everything below a folder. Does
+     * nothing if the path does not exist.
+     *
+     * @param path relative path
+     *
+     * @throws IOException if the path could not be deleted
+     */
+    public abstract void delete(String path) throws IOException;
+
+    /**
+     * Moves the file or folder at {@code from} to {@code to}, which must not exist.
+     *
+     * @param from relative path of an existing file or folder
+     * @param to relative destination path
+     *
+     * @throws IOException if the path could not be moved
+     */
+    public abstract void move(String from, String to) throws IOException;
+
+    /**
+     * A local file or folder.
+     */
+    public static final class Entry {
+        private final String path;
+        private final boolean folder;
+        private final long size;
+        private final long lastModified;
+
+        /**
+         * @param path relative path, starting with a slash
+         * @param folder whether the entry is a folder
+         * @param size size of the file in bytes, {@code 0} for folders
+         * @param lastModified modification time in milliseconds since the epoch
+         */
+        public Entry(String path, boolean folder, long size, long lastModified) {
+            if (path == null) {
+                throw new NullPointerException("path");
+            }
+            if (!path.startsWith("/")) {
+                throw new IllegalArgumentException("path must start with '/': " + path);
+            }
+            this.path = path;
+            this.folder = folder;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isFolder() {
+            return folder;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry(" + path + (folder ? ", folder" : ", size=" + size) + ")";
+        }
+    }
+}
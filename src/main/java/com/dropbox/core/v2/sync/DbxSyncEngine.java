@@ -0,0 +1,860 @@
+package com.dropbox.core.v2.sync;
+
+import com.dropbox.core.DbxDownloader;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.DbxPathV2;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.CreateFolderErrorException;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeleteErrorException;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.DownloadErrorException;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderErrorException;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.UploadSessionCursor;
+import com.dropbox.core.v2.files.WriteMode;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Incremental two-way sync between a Dropbox folder and a {@link DbxLocalFileSystem}.
+ *
+ * <p> Each call to {@link #sync} fetches the remote changes since the cursor kept in the {@link
+ * DbxSyncStateStore} ({@code list_folder} on the first run, {@code list_folder/continue} after
+ * that), scans the local tree for changes since the previous sync and reconciles the two: </p>
+ *
+ * <ol>
+ *   <li> Deletes are applied first, on both sides, so a path deleted on one side and re-created
+ *        with different contents never races with its own deletion. </li>
+ *   <li> Folders are created next, parents before children. </li>
+ *   <li> Files are downloaded and uploaded in parallel on the supplied executor. Every path is
+ *        handled by a single task per phase, and phases do not overlap, so all operations on the
+ *        same path happen in order. </li>
+ * </ol>
+ *
+ * <p> A local file is only hashed if its size or modification time differ from the state store,
+ * and no transfer happens if the local and remote {@link DbxContentHasher content hashes} match.
+ * Files larger than {@link #UPLOAD_SESSION_THRESHOLD} are uploaded through upload sessions. If a
+ * file was changed on both sides, the remote version wins and the local version is kept next to it
+ * as a conflicted copy and uploaded. </p>
+ *
+ * <p> Failures to sync individual paths do not abort the sync; they are reported in the {@link
+ * Result} and retried on the next call, since the cursor only advances once every remote change was
+ * applied. Only one sync runs at a time per engine. </p>
+ */
+public final class DbxSyncEngine {
+    /**
+     * Files larger than this are uploaded through upload sessions.
+     */
+    public static final long UPLOAD_SESSION_THRESHOLD = 8L * 1024 * 1024;
+
+    /**
+     * Amount of data sent per upload session request.
+     */
+    public static final long UPLOAD_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    private final DbxClientV2 client;
+    private final String remoteRoot;
+    private final DbxLocalFileSystem local;
+    private final DbxSyncStateStore state;
+    private final ExecutorService executor;
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    /**
+     * @param client client used for all requests
+     * @param remoteRoot Dropbox folder to sync, {@code ""} for the whole Dropbox
+     * @param local local side of the sync
+     * @param state store for the sync state, shared across runs
+     * @param executor executor running the transfers; its pool size bounds their parallelism
+     */
+    public DbxSyncEngine(DbxClientV2 client, String remoteRoot, DbxLocalFileSystem local,
+                         DbxSyncStateStore state, ExecutorService executor) {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        if (remoteRoot == null) {
+            throw new NullPointerException("remoteRoot");
+        }
+        if (local == null) {
+            throw new NullPointerException("local");
+        }
+        if (state == null) {
+            throw new NullPointerException("state");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (remoteRoot.equals("/")) {
+            remoteRoot = "";
+        }
+        String pathError = remoteRoot.isEmpty() ? null : DbxPathV2.findError(remoteRoot);
+        if (pathError != null) {
+            throw new IllegalArgumentException("'remoteRoot': " + pathError);
+        }
+
+        this.client = client;
+        this.remoteRoot = remoteRoot;
+        this.local = local;
+        this.state = state;
+        this.executor = executor;
+    }
+
+    /**
+     * Synchronizes the remote folder and the local file system once.
+     *
+     * @return what the sync did, including the paths that failed to sync
+     *
+     * @throws DbxException if the remote changes could not be listed
+     * @throws IOException if the local tree could not be scanned or the state not be flushed
+     * @throws InterruptedException if interrupted while waiting for transfers. Transfers already
+     *     started are cancelled.
+     */
+    public Result sync() throws DbxException, IOException, InterruptedException {
+        syncLock.lock();
+        try {
+            Run run = new Run();
+            String cursor = run.fetchRemoteChanges();
+            run.scanLocal();
+            run.reconcile();
+
+            if (run.result.failures.isEmpty()) {
+                state.setCursor(cursor);
+            }
+            state.flush();
+            return run.result;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private String remotePath(String path) {
+        return remoteRoot + path;
+    }
+
+    /**
+     * State of a single call to {@link #sync}.
+     */
+    private final class Run {
+        private final DbxUserFilesRequests files = client.files();
+        private final Result result = new Result();
+
+        // remote changes keyed by lower case relative path
+        private final SortedMap<String, RemoteChange> remote = new TreeMap<String, RemoteChange>();
+        private final SortedMap<String, DbxLocalFileSystem.Entry> localEntries = new TreeMap<String, DbxLocalFileSystem.Entry>();
+        private final SortedMap<String, DbxSyncStateStore.Entry> stateEntries = new TreeMap<String, DbxSyncStateStore.Entry>();
+
+        private final Set<String> deletedLocally = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final ConcurrentLinkedQueue<Task> followUps = new ConcurrentLinkedQueue<Task>();
+
+        String fetchRemoteChanges() throws DbxException {
+            for (DbxSyncStateStore.Entry entry : state.getEntries()) {
+                stateEntries.put(DbxSyncStateStore.key(entry.getPath()), entry);
+            }
+
+            String cursor = state.getCursor();
+            ListFolderResult page = null;
+            if (cursor != null) {
+                try {
+                    page = files.listFolderContinue(cursor);
+                } catch (ListFolderContinueErrorException ex) {
+                    if (!ex.errorValue.isReset()) {
+                        throw ex;
+                    }
+                    // cursor expired, fall back to a full listing below
+                }
+            }
+
+            boolean full = page == null;
+            if (full) {
+                page = listRemoteRoot();
+            }
+
+            Set<String> listed = new HashSet<String>();
+            while (true) {
+                for (Metadata metadata : page.getEntries()) {
+                    addRemoteChange(metadata, listed);
+                }
+                cursor = page.getCursor();
+                if (!page.getHasMore()) {
+                    break;
+                }
+                page = files.listFolderContinue(cursor);
+            }
+
+            if (full) {
+                // a full listing only reports what exists, everything else we knew about is gone
+                for (DbxSyncStateStore.Entry entry : stateEntries.values()) {
+                    String key = DbxSyncStateStore.key(entry.getPath());
+                    if (!listed.contains(key)) {
+                        remote.put(key, new RemoteChange(entry.getPath(), null));
+                    }
+                }
+            }
+
+            // drop changes we already know about, e.g. our own uploads from the previous sync
+            for (Iterator<Map.Entry<String, RemoteChange>> it = remote.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, RemoteChange> change = it.next();
+                DbxSyncStateStore.Entry known = stateEntries.get(change.getKey());
+                Metadata metadata = change.getValue().metadata;
+                if (metadata == null) {
+                    if (known == null) {
+                        it.remove();
+                    }
+                } else if (known != null) {
+                    if (metadata instanceof FolderMetadata && known.isFolder()) {
+                        it.remove();
+                    } else if (metadata instanceof FileMetadata && !known.isFolder()
+                               && ((FileMetadata) metadata).getRev().equals(known.getRev())) {
+                        it.remove();
+                    }
+                }
+            }
+            return cursor;
+        }
+
+        private ListFolderResult listRemoteRoot() throws DbxException {
+            try {
+                return files.listFolderBuilder(remoteRoot).withRecursive(true).start();
+            } catch (ListFolderErrorException ex) {
+                if (remoteRoot.isEmpty() || !ex.errorValue.isPath() || !ex.errorValue.getPathValue().isNotFound()) {
+                    throw ex;
+                }
+            }
+            // first sync into a folder that does not exist yet
+            try {
+                files.createFolder(remoteRoot);
+            } catch (CreateFolderErrorException ex) {
+                if (!ex.errorValue.isPath() || !ex.errorValue.getPathValue().isConflict()) {
+                    throw ex;
+                }
+            }
+            return files.listFolderBuilder(remoteRoot).withRecursive(true).start();
+        }
+
+        private void addRemoteChange(Metadata metadata, Set<String> listed) {
+            String pathLower = metadata.getPathLower();
+            if (pathLower == null || pathLower.length() <= remoteRoot.length()) {
+                // the synced folder itself
+                return;
+            }
+            String key = pathLower.substring(remoteRoot.length());
+            String pathDisplay = metadata.getPathDisplay();
+            String path = pathDisplay != null && pathDisplay.length() == pathLower.length()
+                ? pathDisplay.substring(remoteRoot.length())
+                : key;
+
+            if (metadata instanceof DeletedMetadata) {
+                // list_folder only reports the deleted folder, not its children
+                remote.subMap(key + "/", key + "0").clear();
+                remote.put(key, new RemoteChange(path, null));
+                for (DbxSyncStateStore.Entry entry : stateEntries.subMap(key + "/", key + "0").values()) {
+                    remote.put(DbxSyncStateStore.key(entry.getPath()), new RemoteChange(entry.getPath(), null));
+                }
+                listed.remove(key);
+            } else {
+                remote.put(key, new RemoteChange(path, metadata));
+                listed.add(key);
+            }
+        }
+
+        void scanLocal() throws IOException {
+            for (DbxLocalFileSystem.Entry entry : local.list()) {
+                localEntries.put(DbxSyncStateStore.key(entry.getPath()), entry);
+            }
+        }
+
+        void reconcile() throws InterruptedException {
+            Set<String> keys = new TreeSet<String>();
+            keys.addAll(remote.keySet());
+            keys.addAll(localEntries.keySet());
+            keys.addAll(stateEntries.keySet());
+
+            List<Task> deletes = new ArrayList<Task>();
+            List<String> localFolderDeletes = new ArrayList<String>();
+            List<String> remoteDeletes = new ArrayList<String>();
+            List<Task> folders = new ArrayList<Task>();
+            List<Task> transfers = new ArrayList<Task>();
+
+            for (String key : keys) {
+                final RemoteChange change = remote.get(key);
+                final DbxLocalFileSystem.Entry l = localEntries.get(key);
+                DbxSyncStateStore.Entry s = stateEntries.get(key);
+                if (s != null && l != null && s.isFolder() != l.isFolder()) {
+                    // changed between file and folder locally, treat it as new
+                    s = null;
+                }
+                final DbxSyncStateStore.Entry known = s;
+
+                if (change != null && change.metadata == null) {
+                    if (l == null) {
+                        state.remove(key);
+                    } else if (l.isFolder()) {
+                        localFolderDeletes.add(l.getPath());
+                    } else {
+                        deletes.add(new Task(l.getPath()) {
+                            @Override
+                            void run() throws DbxException, IOException {
+                                deleteLocalFile(l, known);
+                            }
+                        });
+                    }
+                } else if (change != null && change.metadata instanceof FolderMetadata) {
+                    folders.add(new Task(change.path) {
+                        @Override
+                        void run() throws DbxException, IOException {
+                            createLocalFolder(change.path, l);
+                        }
+                    });
+                } else if (change != null) {
+                    final FileMetadata metadata = (FileMetadata) change.metadata;
+                    transfers.add(new Task(change.path) {
+                        @Override
+                        void run() throws DbxException, IOException {
+                            downloadOrSkip(change.path, metadata, l, known);
+                        }
+                    });
+                } else if (l == null) {
+                    // leave folders alone that still have remote changes to download below them
+                    if (known != null && remote.subMap(key + "/", key + "0").isEmpty()) {
+                        remoteDeletes.add(known.getPath());
+                    }
+                } else if (l.isFolder()) {
+                    if (known == null) {
+                        folders.add(new Task(l.getPath()) {
+                            @Override
+                            void run() throws DbxException, IOException {
+                                createRemoteFolder(l.getPath());
+                            }
+                        });
+                    }
+                } else {
+                    transfers.add(new Task(l.getPath()) {
+                        @Override
+                        void run() throws DbxException, IOException {
+                            uploadIfChanged(l, known);
+                        }
+                    });
+                }
+            }
+
+            // deletes: files first, then folders deepest first so we can tell whether they are empty
+            for (final String path : topmost(remoteDeletes)) {
+                deletes.add(new Task(path) {
+                    @Override
+                    void run() throws DbxException, IOException {
+                        deleteRemote(path);
+                    }
+                });
+            }
+            runAll(deletes);
+            Collections.sort(localFolderDeletes, Collections.reverseOrder(DEPTH_ORDER));
+            for (String path : localFolderDeletes) {
+                deleteLocalFolder(path);
+            }
+
+            // folders: parents before children
+            Collections.sort(folders, new Comparator<Task>() {
+                @Override
+                public int compare(Task a, Task b) {
+                    return DEPTH_ORDER.compare(a.path, b.path);
+                }
+            });
+            for (Task folder : folders) {
+                folder.call();
+            }
+
+            // files
+            transfers.addAll(followUps);
+            followUps.clear();
+            runAll(transfers);
+            // conflicted copies created while transferring
+            runAll(new ArrayList<Task>(followUps));
+        }
+
+        private void runAll(List<Task> tasks) throws InterruptedException {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+            boolean completed = false;
+            try {
+                for (Task task : tasks) {
+                    futures.add(executor.submit(task));
+                }
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        // tasks catch their own exceptions, anything else is a bug
+                        throw new IllegalStateException(ex.getCause());
+                    }
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // don't leave the remaining tasks running after the sync was aborted
+                    for (Future<Void> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }
+
+        private void deleteLocalFile(DbxLocalFileSystem.Entry l, /*@Nullable*/ DbxSyncStateStore.Entry known)
+            throws IOException {
+            state.remove(l.getPath());
+            if (known != null && localHash(l, known).equals(known.getContentHash())) {
+                local.delete(l.getPath());
+                deletedLocally.add(DbxSyncStateStore.key(l.getPath()));
+                result.deletedLocally.incrementAndGet();
+            } else {
+                // changed locally after it was deleted remotely, keep the local version
+                followUps.add(newUpload(l.getPath()));
+            }
+        }
+
+        private void deleteLocalFolder(String path) {
+            String key = DbxSyncStateStore.key(path);
+            state.remove(path);
+            for (String child : localEntries.subMap(key + "/", key + "0").keySet()) {
+                if (!deletedLocally.contains(child)) {
+                    // something below was kept, so keep the folder too. It is recreated remotely on
+                    // the next sync.
+                    return;
+                }
+            }
+            try {
+                local.delete(path);
+                deletedLocally.add(key);
+                result.deletedLocally.incrementAndGet();
+            } catch (IOException ex) {
+                result.fail(path, ex);
+            }
+        }
+
+        private void deleteRemote(String path) throws DbxException {
+            try {
+                files.delete(remotePath(path));
+                result.deletedRemotely.incrementAndGet();
+            } catch (DeleteErrorException ex) {
+                if (!ex.errorValue.isPathLookup() || !ex.errorValue.getPathLookupValue().isNotFound()) {
+                    throw ex;
+                }
+            }
+            String key = DbxSyncStateStore.key(path);
+            state.remove(path);
+            for (DbxSyncStateStore.Entry child : stateEntries.subMap(key + "/", key + "0").values()) {
+                state.remove(child.getPath());
+            }
+        }
+
+        private void createLocalFolder(String path, /*@Nullable*/ DbxLocalFileSystem.Entry l) throws IOException {
+            if (l != null && !l.isFolder()) {
+                // a local file is in the way
+                moveToConflictedCopy(path);
+            }
+            if (l == null || !l.isFolder()) {
+                local.createFolder(path);
+            }
+            state.put(DbxSyncStateStore.Entry.folder(path));
+        }
+
+        private void createRemoteFolder(String path) throws DbxException {
+            try {
+                files.createFolder(remotePath(path));
+            } catch (CreateFolderErrorException ex) {
+                if (!ex.errorValue.isPath() || !ex.errorValue.getPathValue().isConflict()) {
+                    throw ex;
+                }
+                // already exists, e.g. created implicitly by an upload
+            }
+            state.put(DbxSyncStateStore.Entry.folder(path));
+        }
+
+        private void downloadOrSkip(String path, FileMetadata metadata, /*@Nullable*/ DbxLocalFileSystem.Entry l,
+                                    /*@Nullable*/ DbxSyncStateStore.Entry known)
+            throws DbxException, IOException {
+            if (l != null && l.isFolder()) {
+                moveToConflictedCopy(path);
+            } else if (l != null) {
+                String hash = localHash(l, known);
+                if (hash.equals(metadata.getContentHash())) {
+                    // same content on both sides, nothing to transfer
+                    state.put(new DbxSyncStateStore.Entry(path, false, metadata.getRev(), hash, l.getSize(), l.getLastModified()));
+                    result.unchanged.incrementAndGet();
+                    return;
+                }
+                if (known == null || !hash.equals(known.getContentHash())) {
+                    // changed on both sides, remote wins
+                    moveToConflictedCopy(path);
+                }
+            }
+            download(path, metadata);
+        }
+
+        private void download(String path, FileMetadata metadata) throws DbxException, IOException {
+            DbxDownloader<FileMetadata> downloader;
+            try {
+                downloader = files.downloadBuilder(remotePath(path)).withRev(metadata.getRev()).start();
+            } catch (DownloadErrorException ex) {
+                if (ex.errorValue.isPath() && ex.errorValue.getPathValue().isNotFound()) {
+                    // replaced or deleted since it was listed, the next sync sees the newer change
+                    return;
+                }
+                throw ex;
+            }
+
+            try {
+                FileMetadata downloaded = downloader.getResult();
+                HashingInputStream in = new HashingInputStream(downloader.getInputStream());
+                DbxLocalFileSystem.Entry written = local.write(path, in, downloaded.getClientModified().getTime());
+                String hash = in.finish();
+                if (downloaded.getContentHash() != null && !downloaded.getContentHash().equals(hash)) {
+                    throw new IOException("Content hash mismatch downloading " + path);
+                }
+                state.put(new DbxSyncStateStore.Entry(path, false, downloaded.getRev(), hash, written.getSize(), written.getLastModified()));
+                result.downloaded.incrementAndGet();
+            } finally {
+                downloader.close();
+            }
+        }
+
+        private void uploadIfChanged(DbxLocalFileSystem.Entry l, /*@Nullable*/ DbxSyncStateStore.Entry known)
+            throws DbxException, IOException {
+            if (known != null) {
+                String hash = localHash(l, known);
+                if (hash.equals(known.getContentHash())) {
+                    if (l.getLastModified() != known.getLocalModified() || l.getSize() != known.getSize()) {
+                        // touched but not modified, remember the new timestamp to avoid rehashing
+                        state.put(new DbxSyncStateStore.Entry(known.getPath(), false, known.getRev(), hash, l.getSize(), l.getLastModified()));
+                    }
+                    return;
+                }
+                upload(l, WriteMode.update(known.getRev()));
+            } else {
+                upload(l, WriteMode.ADD);
+            }
+        }
+
+        private void upload(DbxLocalFileSystem.Entry l, WriteMode mode) throws DbxException, IOException {
+            String path = l.getPath();
+            Date clientModified = new Date(l.getLastModified());
+            long size = l.getSize();
+
+            FileMetadata uploaded;
+            HashingInputStream in = new HashingInputStream(local.read(path));
+            try {
+                if (size <= UPLOAD_SESSION_THRESHOLD) {
+                    uploaded = files.uploadBuilder(remotePath(path))
+                        .withMode(mode)
+                        .withClientModified(clientModified)
+                        .uploadAndFinish(in);
+                } else {
+                    String sessionId = files.uploadSessionStart()
+                        .uploadAndFinish(in, UPLOAD_CHUNK_SIZE)
+                        .getSessionId();
+                    long offset = UPLOAD_CHUNK_SIZE;
+                    while (size - offset > UPLOAD_CHUNK_SIZE) {
+                        files.uploadSessionAppendV2(new UploadSessionCursor(sessionId, offset))
+                            .uploadAndFinish(in, UPLOAD_CHUNK_SIZE);
+                        offset += UPLOAD_CHUNK_SIZE;
+                    }
+                    CommitInfo commit = CommitInfo.newBuilder(remotePath(path))
+                        .withMode(mode)
+                        .withClientModified(clientModified)
+                        .build();
+                    uploaded = files.uploadSessionFinish(new UploadSessionCursor(sessionId, offset), commit)
+                        .uploadAndFinish(in);
+                }
+            } finally {
+                IOUtil.closeInput(in);
+            }
+
+            // if the file changed while uploading, its timestamp no longer matches and the next
+            // sync hashes and uploads it again
+            String hash = uploaded.getContentHash() != null ? uploaded.getContentHash() : in.finish();
+            state.put(new DbxSyncStateStore.Entry(path, false, uploaded.getRev(), hash, size, l.getLastModified()));
+            result.uploaded.incrementAndGet();
+        }
+
+        private Task newUpload(String path) {
+            return new Task(path) {
+                @Override
+                void run() throws DbxException, IOException {
+                    DbxLocalFileSystem.Entry l = local.stat(path);
+                    if (l != null && !l.isFolder()) {
+                        upload(l, WriteMode.ADD);
+                    }
+                }
+            };
+        }
+
+        private void moveToConflictedCopy(String path) throws IOException {
+            String name = DbxPathV2.getName(path);
+            String parent = path.substring(0, path.length() - name.length());
+            int dot = name.lastIndexOf('.');
+            String base = dot > 0 ? name.substring(0, dot) : name;
+            String extension = dot > 0 ? name.substring(dot) : "";
+
+            String copy = parent + base + " (conflicted copy)" + extension;
+            for (int i = 2; local.stat(copy) != null; ++i) {
+                copy = parent + base + " (conflicted copy " + i + ")" + extension;
+            }
+            local.move(path, copy);
+            result.conflicts.incrementAndGet();
+            followUps.add(newUpload(copy));
+        }
+
+        private String localHash(DbxLocalFileSystem.Entry l, /*@Nullable*/ DbxSyncStateStore.Entry known)
+            throws IOException {
+            if (known != null && known.getContentHash() != null
+                && l.getSize() == known.getSize() && l.getLastModified() == known.getLocalModified()) {
+                return known.getContentHash();
+            }
+            InputStream in = local.read(l.getPath());
+            try {
+                result.hashed.incrementAndGet();
+                return DbxContentHasher.hash(in);
+            } finally {
+                IOUtil.closeInput(in);
+            }
+        }
+
+        /**
+         * Runs the work for a single path and records its failure instead of propagating it.
+         */
+        private abstract class Task implements Callable<Void> {
+            final String path;
+
+            Task(String path) {
+                this.path = path;
+            }
+
+            abstract void run() throws DbxException, IOException;
+
+            @Override
+            public final Void call() {
+                try {
+                    run();
+                } catch (DbxException ex) {
+                    result.fail(path, ex);
+                } catch (IOException ex) {
+                    result.fail(path, ex);
+                } catch (RuntimeException ex) {
+                    // don't let a single path abort the whole sync
+                    result.fail(path, ex);
+                }
+                return null;
+            }
+        }
+    }
+
+    private static List<String> topmost(List<String> paths) {
+        List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted, DEPTH_ORDER);
+        Set<String> kept = new HashSet<String>();
+        List<String> result = new ArrayList<String>();
+        for (String path : sorted) {
+            String key = DbxSyncStateStore.key(path);
+            boolean covered = false;
+            for (int i = key.lastIndexOf('/'); i > 0; i = key.lastIndexOf('/', i - 1)) {
+                if (kept.contains(key.substring(0, i))) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                kept.add(key);
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); ++i) {
+            if (path.charAt(i) == '/') {
+                ++depth;
+            }
+        }
+        return depth;
+    }
+
+    private static final Comparator<String> DEPTH_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            int c = depth(a) - depth(b);
+            return c != 0 ? c : a.compareTo(b);
+        }
+    };
+
+    private static final class RemoteChange {
+        final String path;
+        final /*@Nullable*/ Metadata metadata;
+
+        RemoteChange(String path, /*@Nullable*/ Metadata metadata) {
+            this.path = path;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Computes the content hash of a stream while it is being read.
+     */
+    private static final class HashingInputStream extends FilterInputStream {
+        private final DbxContentHasher hasher = new DbxContentHasher();
+
+        HashingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                hasher.update(new byte [] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                hasher.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        String finish() {
+            return hasher.finish();
+        }
+    }
+
+    /**
+     * Outcome of a single {@link #sync}.
+     */
+    public static final class Result {
+        private final AtomicInteger downloaded = new AtomicInteger();
+        private final AtomicInteger uploaded = new AtomicInteger();
+        private final AtomicInteger deletedLocally = new AtomicInteger();
+        private final AtomicInteger deletedRemotely = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger conflicts = new AtomicInteger();
+        private final AtomicInteger hashed = new AtomicInteger();
+        private final Map<String, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<String, Exception>());
+
+        private Result() {
+        }
+
+        private void fail(String path, Exception ex) {
+            failures.put(path, ex);
+        }
+
+        /**
+         * Returns the number of files downloaded.
+         */
+        public int getDownloadCount() {
+            return downloaded.get();
+        }
+
+        /**
+         * Returns the number of files uploaded, including conflicted copies.
+         */
+        public int getUploadCount() {
+            return uploaded.get();
+        }
+
+        /**
+         * Returns the number of local files and folders deleted because they were deleted remotely.
+         */
+        public int getLocalDeleteCount() {
+            return deletedLocally.get();
+        }
+
+        /**
+         * Returns the number of remote files and folders deleted because they were deleted locally.
+         */
+        public int getRemoteDeleteCount() {
+            return deletedRemotely.get();
+        }
+
+        /**
+         * Returns the number of files that changed on both sides to the same content, so no
+         * transfer was needed.
+         */
+        public int getSkippedTransferCount() {
+            return unchanged.get();
+        }
+
+        /**
+         * Returns the number of local files moved aside because of a conflicting remote change.
+         */
+        public int getConflictCount() {
+            return conflicts.get();
+        }
+
+        /**
+         * Returns the number of local files whose content hash had to be computed.
+         */
+        public int getHashCount() {
+            return hashed.get();
+        }
+
+        /**
+         * Returns the paths that failed to sync, with the reason, in the order they failed.
+         */
+        public Map<String, Exception> getFailures() {
+            synchronized (failures) {
+                return new LinkedHashMap<String, Exception>(failures);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Result(downloaded=" + downloaded + ", uploaded=" + uploaded
+                + ", deletedLocally=" + deletedLocally + ", deletedRemotely=" + deletedRemotely
+                + ", skipped=" + unchanged + ", conflicts=" + conflicts
+                + ", failures=" + failures.size() + ")";
+        }
+    }
+}
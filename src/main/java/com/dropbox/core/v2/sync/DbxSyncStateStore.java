@@ -0,0 +1,148 @@
+package com.dropbox.core.v2.sync;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * Remembers what {@link DbxSyncEngine} last saw on both sides of a sync: the {@code list_folder}
+ * cursor for the remote folder and, for every synced path, the remote revision and content hash
+ * together with the local size and modification time they were matched against.
+ *
+ * <p> Paths are relative to the synced folder and start with a slash, e.g. {@code "/Photos/a.jpg"}.
+ * Lookups are case-insensitive, like Dropbox paths. Implementations must be thread-safe, the engine
+ * updates entries from its transfer threads. </p>
+ *
+ * @see DbxInMemorySyncStateStore
+ * @see DbxFileSyncStateStore
+ */
+public abstract class DbxSyncStateStore {
+
+    /**
+     * Returns the cursor from which remote changes should be fetched, or {@code null} if the folder
+     * has never been listed.
+     *
+     * @return stored cursor or {@code null}
+     */
+    public abstract /*@Nullable*/ String getCursor();
+
+    /**
+     * Replaces the stored cursor. Only called once all changes up to {@code cursor} were applied.
+     *
+     * @param cursor new cursor, or {@code null} to force a full listing on the next sync
+     */
+    public abstract void setCursor(/*@Nullable*/ String cursor);
+
+    /**
+     * Returns the entry stored for {@code path}, or {@code null} if the path was never synced.
+     *
+     * @param path relative path, case-insensitive
+     *
+     * @return stored entry or {@code null}
+     */
+    public abstract /*@Nullable*/ Entry get(String path);
+
+    /**
+     * Stores {@code entry}, replacing any entry with the same path.
+     *
+     * @param entry entry to store, never {@code null}
+     */
+    public abstract void put(Entry entry);
+
+    /**
+     * Removes the entry stored for {@code path}, if any.
+     *
+     * @param path relative path, case-insensitive
+     */
+    public abstract void remove(String path);
+
+    /**
+     * Returns a snapshot of all stored entries.
+     *
+     * @return stored entries, in no particular order
+     */
+    public abstract List<Entry> getEntries();
+
+    /**
+     * Makes all changes durable. The default implementation does nothing.
+     *
+     * @throws IOException if the state could not be written
+     */
+    public void flush() throws IOException {
+    }
+
+    static String key(String path) {
+        return path.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Sync state of a single file or folder.
+     */
+    public static final class Entry {
+        private final String path;
+        private final boolean folder;
+        private final /*@Nullable*/ String rev;
+        private final /*@Nullable*/ String contentHash;
+        private final long size;
+        private final long localModified;
+
+        /**
+         * @param path relative path as displayed locally, e.g. {@code "/Photos/a.jpg"}
+         * @param folder whether the entry is a folder
+         * @param rev remote revision of the file, {@code null} for folders
+         * @param contentHash content hash shared by the local and remote file, {@code null} for folders
+         * @param size size of the local file in bytes
+         * @param localModified modification time of the local file in milliseconds since the epoch
+         */
+        public Entry(String path, boolean folder, /*@Nullable*/ String rev, /*@Nullable*/ String contentHash,
+                     long size, long localModified) {
+            if (path == null) {
+                throw new NullPointerException("path");
+            }
+            if (!path.startsWith("/")) {
+                throw new IllegalArgumentException("path must start with '/': " + path);
+            }
+            this.path = path;
+            this.folder = folder;
+            this.rev = rev;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.localModified = localModified;
+        }
+
+        public static Entry folder(String path) {
+            return new Entry(path, true, null, null, 0, 0);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isFolder() {
+            return folder;
+        }
+
+        public /*@Nullable*/ String getRev() {
+            return rev;
+        }
+
+        public /*@Nullable*/ String getContentHash() {
+            return contentHash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalModified() {
+            return localModified;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry(" + path + (folder ? ", folder" : ", rev=" + rev + ", size=" + size) + ")";
+        }
+    }
+}
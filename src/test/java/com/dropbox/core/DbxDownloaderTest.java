@@ -0,0 +1,159 @@
+package com.dropbox.core;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.v2.files.FileMetadata;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+public class DbxDownloaderTest {
+    private File directory;
+    private File target;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = File.createTempFile("dbx-downloader-test", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        target = new File(directory, "photo.jpg");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testDownloadToFile() throws Exception {
+        byte[] content = content(3 << 20);
+        DbxDownloader<FileMetadata> downloader = new DbxDownloader<FileMetadata>(
+            metadata(content.length), new ByteArrayInputStream(content));
+
+        FileMetadata result = downloader.download(target);
+
+        assertEquals(result.getSize(), content.length);
+        assertTrue(Arrays.equals(readFile(target), content));
+        assertEquals(directory.list().length, 1);
+        assertClosed(downloader);
+    }
+
+    @Test
+    public void testDownloadReplacesExistingFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(target);
+        out.write(content(5000));
+        out.close();
+
+        byte[] content = content(1000);
+        new DbxDownloader<String>("result", new ByteArrayInputStream(content)).download(target);
+
+        assertTrue(Arrays.equals(readFile(target), content));
+        assertEquals(directory.list().length, 1);
+    }
+
+    @Test
+    public void testDownloadTruncatesShortBody() throws Exception {
+        byte[] content = content(100000);
+        DbxDownloadOptions options = DbxDownloadOptions.newBuilder()
+            .withExpectedSize(content.length * 2)
+            .build();
+
+        new DbxDownloader<String>("result", new ByteArrayInputStream(content)).download(target, options);
+
+        assertTrue(Arrays.equals(readFile(target), content));
+    }
+
+    @Test
+    public void testDownloadWithSync() throws Exception {
+        byte[] content = content(5 << 20);
+        for (DbxDownloadOptions.Durability durability : DbxDownloadOptions.Durability.values()) {
+            DbxDownloadOptions options = DbxDownloadOptions.newBuilder()
+                .withDurability(durability)
+                .withSyncInterval(1 << 20)
+                .build();
+
+            new DbxDownloader<String>("result", new ByteArrayInputStream(content)).download(target, options);
+
+            assertTrue(Arrays.equals(readFile(target), content), durability.toString());
+        }
+    }
+
+    @Test
+    public void testFailedDownloadLeavesTargetUntouched() throws Exception {
+        byte[] existing = content(5000);
+        FileOutputStream out = new FileOutputStream(target);
+        out.write(existing);
+        out.close();
+
+        final byte[] content = content(3 << 20);
+        InputStream body = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (pos > content.length / 2) {
+                    throw new IllegalStateException("connection reset");
+                }
+                return super.read(b, off, len);
+            }
+        };
+        DbxDownloader<FileMetadata> downloader = new DbxDownloader<FileMetadata>(metadata(content.length), body);
+
+        try {
+            downloader.download(target);
+            fail("expected download to fail");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        assertTrue(Arrays.equals(readFile(target), existing));
+        assertEquals(directory.list().length, 1);
+        assertClosed(downloader);
+    }
+
+    private static void assertClosed(DbxDownloader<?> downloader) {
+        try {
+            downloader.getInputStream();
+            fail("expected downloader to be closed");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    private static FileMetadata metadata(long size) {
+        Date modified = new Date(1456169040000L);
+        return FileMetadata.newBuilder("photo.jpg", "id:a4ayc_80_OEAAAAAAAAXw", modified, modified, "015e5e9f8d2c4f8", size)
+            .build();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtil.copyStreamToStream(in, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,369 @@
+package com.dropbox.core;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.util.IOUtil;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DbxHedgingPolicyTest {
+    private ScheduledExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withInitialDelay(50, TimeUnit.MILLISECONDS)
+            .withBudget(1)
+            .build();
+        // the first request hangs until it is aborted, the hedge is answered right away
+        SlowFirstRequestor requestor = new SlowFirstRequestor();
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("DbxHedgingPolicyTest/1.0")
+            .withHttpRequestor(requestor)
+            .withHedgingPolicy(policy)
+            .build();
+
+        assertEquals(policy.execute(post(config)), "ok");
+        assertEquals(requestor.requests.get(), 2);
+        assertTrue(requestor.aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSlowResponseBodyIsHedged() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withInitialDelay(50, TimeUnit.MILLISECONDS)
+            .withBudget(1)
+            .build();
+        // the first request is past finish(), so there is no connection left to abort, and its
+        // body hangs until it is closed
+        SlowFirstRequestor requestor = new SlowFirstRequestor();
+        requestor.slowBody = true;
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("DbxHedgingPolicyTest/1.0")
+            .withHttpRequestor(requestor)
+            .withHedgingPolicy(policy)
+            .build();
+
+        long start = System.nanoTime();
+        assertEquals(policy.execute(post(config)), "ok");
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(requestor.requests.get(), 2);
+        assertTrue(requestor.aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHedgedRequestsDontLowerDelay() throws Exception {
+        // enough threads for the first attempts still running after their hedge answered
+        executor.shutdownNow();
+        executor = Executors.newScheduledThreadPool(8);
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withMinDelay(0, TimeUnit.MILLISECONDS)
+            .withInitialDelay(20, TimeUnit.MILLISECONDS)
+            .withBudget(1)
+            .build();
+        DbxHedgingPolicy.Request<String> request = new DbxHedgingPolicy.Request<String>() {
+            @Override
+            public String execute(DbxHedgingPolicy.Attempt attempt) throws DbxException {
+                if (attempt.isHedge()) {
+                    sleepQuietly(30);
+                    return "hedge";
+                }
+                // slower than the hedge, which is answered first
+                sleepQuietly(100);
+                throw new NetworkIOException(new IOException("aborted"));
+            }
+        };
+
+        for (int i = 0; i < 64; ++i) {
+            assertEquals(policy.execute(request), "hedge");
+        }
+
+        // only the latencies of first attempts are learned, and none were answered
+        assertEquals(policy.getHedgeDelayMillis(), 20);
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withInitialDelay(5, TimeUnit.SECONDS)
+            .withBudget(1)
+            .build();
+        SlowFirstRequestor requestor = new SlowFirstRequestor();
+        requestor.requests.set(1); // no slow request
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("DbxHedgingPolicyTest/1.0")
+            .withHttpRequestor(requestor)
+            .build();
+
+        assertEquals(policy.execute(post(config)), "ok");
+        assertEquals(requestor.requests.get(), 2);
+    }
+
+    @Test
+    public void testBudgetLimitsHedges() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withMinDelay(0, TimeUnit.MILLISECONDS)
+            .withInitialDelay(0, TimeUnit.MILLISECONDS)
+            .withBudget(0.5)
+            .build();
+        final AtomicInteger hedges = new AtomicInteger();
+        DbxHedgingPolicy.Request<String> request = new DbxHedgingPolicy.Request<String>() {
+            @Override
+            public String execute(DbxHedgingPolicy.Attempt attempt) throws DbxException {
+                if (attempt.isHedge()) {
+                    hedges.incrementAndGet();
+                    // not an answer, the first attempt is waited for
+                    throw new NetworkIOException(new IOException("connection reset"));
+                }
+                sleepQuietly(50);
+                return "primary";
+            }
+        };
+
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(policy.execute(request), "primary");
+        }
+
+        // half a hedge is earned per request
+        assertEquals(hedges.get(), 5);
+    }
+
+    @Test
+    public void testWaitsForHedgeAfterNetworkError() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withMinDelay(0, TimeUnit.MILLISECONDS)
+            .withInitialDelay(0, TimeUnit.MILLISECONDS)
+            .withBudget(1)
+            .build();
+        final CountDownLatch hedgeStarted = new CountDownLatch(1);
+        DbxHedgingPolicy.Request<String> request = new DbxHedgingPolicy.Request<String>() {
+            @Override
+            public String execute(DbxHedgingPolicy.Attempt attempt) throws DbxException {
+                if (attempt.isHedge()) {
+                    hedgeStarted.countDown();
+                    sleepQuietly(50);
+                    return "hedge";
+                }
+                awaitQuietly(hedgeStarted);
+                throw new NetworkIOException(new IOException("connection reset"));
+            }
+        };
+
+        assertEquals(policy.execute(request), "hedge");
+    }
+
+    @Test(timeOut = 10000)
+    public void testRouteErrorIsAnswer() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withMinDelay(0, TimeUnit.MILLISECONDS)
+            .withInitialDelay(0, TimeUnit.MILLISECONDS)
+            .withBudget(1)
+            .build();
+        // the hedge is the first request to reach the requestor, which hangs until it is aborted
+        SlowFirstRequestor requestor = new SlowFirstRequestor();
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("DbxHedgingPolicyTest/1.0")
+            .withHttpRequestor(requestor)
+            .build();
+        final DbxHedgingPolicy.Request<String> slow = post(config);
+        final CountDownLatch hedgeStarted = new CountDownLatch(1);
+        final DbxWrappedException notFound = new DbxWrappedException("path/not_found", "req", null);
+        DbxHedgingPolicy.Request<String> request = new DbxHedgingPolicy.Request<String>() {
+            @Override
+            public String execute(DbxHedgingPolicy.Attempt attempt) throws DbxWrappedException, DbxException {
+                if (attempt.isHedge()) {
+                    hedgeStarted.countDown();
+                    return slow.execute(attempt);
+                }
+                awaitQuietly(hedgeStarted);
+                throw notFound;
+            }
+        };
+
+        long start = System.nanoTime();
+        try {
+            policy.execute(request);
+            fail("expected DbxWrappedException");
+        } catch (DbxWrappedException ex) {
+            assertSame(ex, notFound);
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertTrue(requestor.aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNetworkErrorWithoutHedge() throws Exception {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor).build();
+        DbxHedgingPolicy.Request<String> request = new DbxHedgingPolicy.Request<String>() {
+            @Override
+            public String execute(DbxHedgingPolicy.Attempt attempt) throws DbxException {
+                throw new NetworkIOException(new IOException("connection refused"));
+            }
+        };
+
+        try {
+            policy.execute(request);
+            fail("expected NetworkIOException");
+        } catch (NetworkIOException ex) {
+            assertEquals(ex.getCause().getMessage(), "connection refused");
+        }
+    }
+
+    @Test
+    public void testDelayFollowsPercentile() {
+        DbxHedgingPolicy policy = DbxHedgingPolicy.newBuilder(executor)
+            .withPercentile(0.9)
+            .withMinDelay(5, TimeUnit.MILLISECONDS)
+            .withInitialDelay(1, TimeUnit.SECONDS)
+            .build();
+
+        assertEquals(policy.getHedgeDelayMillis(), 1000);
+        for (int i = 1; i <= 100; ++i) {
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        // updated after the first 64 latencies: 90th percentile of 1..64 ms
+        assertEquals(policy.getHedgeDelayMillis(), 58);
+
+        for (int i = 0; i < 1024; ++i) {
+            policy.recordLatency(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        assertEquals(policy.getHedgeDelayMillis(), 5);
+    }
+
+    private static DbxHedgingPolicy.Request<String> post(final DbxRequestConfig config) {
+        return new DbxHedgingPolicy.Request<String>() {
+            @Override
+            public String execute(DbxHedgingPolicy.Attempt attempt) throws DbxException {
+                HttpRequestor.Response response = DbxRequestUtil.startPostRaw(
+                    config, "DbxHedgingPolicyTest", "api.dropboxapi.com", "2/files/get_metadata",
+                    new byte[0], null, attempt
+                );
+                try {
+                    return IOUtil.toUtf8String(response.getBody());
+                } catch (IOException ex) {
+                    throw new NetworkIOException(ex);
+                }
+            }
+        };
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class SlowFirstRequestor extends HttpRequestor {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final CountDownLatch aborted = new CountDownLatch(1);
+        // whether the slow request hangs reading its body rather than in finish()
+        private volatile boolean slowBody = false;
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) {
+            final boolean slow = requests.incrementAndGet() == 1;
+            return new Uploader() {
+                private final CountDownLatch abort = new CountDownLatch(1);
+                private volatile boolean finished = false;
+
+                @Override
+                public OutputStream getBody() {
+                    return new ByteArrayOutputStream();
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void abort() {
+                    // like a real connection, aborting can't interrupt reading a response body
+                    if (!finished) {
+                        abort.countDown();
+                        aborted.countDown();
+                    }
+                }
+
+                @Override
+                public Response finish() throws IOException {
+                    List<String> empty = Collections.emptyList();
+                    if (slow && slowBody) {
+                        finished = true;
+                        return new Response(200, new HangingInputStream(aborted),
+                                            Collections.singletonMap("Content-Type", empty));
+                    }
+                    if (slow) {
+                        awaitQuietly(abort);
+                        throw new IOException("aborted");
+                    }
+                    return new Response(200, new ByteArrayInputStream("ok".getBytes("UTF-8")),
+                                        Collections.singletonMap("Content-Type", empty));
+                }
+            };
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Response body that blocks reads until it is closed.
+     */
+    private static final class HangingInputStream extends InputStream {
+        private final CountDownLatch closed;
+
+        private HangingInputStream(CountDownLatch closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            awaitQuietly(closed);
+            throw new IOException("closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.dropbox.core;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.http.HttpRequestor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DbxMappedFileTest {
+    private File file;
+    private byte[] content;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("dbx-mapped-file-test", ".bin");
+        content = new byte[3 << 20];
+        new Random(42).nextBytes(content);
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSlice() throws Exception {
+        DbxMappedFile mapped = DbxMappedFile.open(file);
+        try {
+            assertEquals(mapped.size(), content.length);
+
+            ByteBuffer slice = mapped.slice(1000, 5000);
+            assertTrue(slice.isReadOnly());
+            assertEquals(slice.position(), 0);
+            assertEquals(slice.remaining(), 5000);
+            assertTrue(Arrays.equals(bytes(slice), Arrays.copyOfRange(content, 1000, 6000)));
+
+            // slicing again, e.g. after an incorrect offset, doesn't depend on earlier slices
+            ByteBuffer retry = mapped.slice(500, 2000);
+            assertTrue(Arrays.equals(bytes(retry), Arrays.copyOfRange(content, 500, 2500)));
+
+            assertEquals(mapped.slice(content.length, 0).remaining(), 0);
+            assertTrue(Arrays.equals(bytes(mapped.slice(0, content.length)), content));
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void testSliceOutOfRange() throws Exception {
+        DbxMappedFile mapped = DbxMappedFile.open(file);
+        try {
+            try {
+                mapped.slice(content.length - 10, 11);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+            try {
+                mapped.slice(-1, 10);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void testSlicesOutliveClose() throws Exception {
+        DbxMappedFile mapped = DbxMappedFile.open(file);
+        ByteBuffer slice = mapped.slice(100, 200);
+        mapped.close();
+
+        assertTrue(Arrays.equals(bytes(slice), Arrays.copyOfRange(content, 100, 300)));
+        try {
+            mapped.slice(100, 200);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUploadSlice() throws Exception {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpRequestor.Uploader uploader = new HttpRequestor.Uploader() {
+            @Override
+            public OutputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void abort() {
+            }
+
+            @Override
+            public HttpRequestor.Response finish() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        DbxMappedFile mapped = DbxMappedFile.open(file);
+        try {
+            ByteBuffer slice = mapped.slice(1 << 20, 1 << 20);
+            uploader.upload(slice);
+
+            assertEquals(slice.position(), 0);
+            assertTrue(Arrays.equals(body.toByteArray(), Arrays.copyOfRange(content, 1 << 20, 2 << 20)));
+        } finally {
+            mapped.close();
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
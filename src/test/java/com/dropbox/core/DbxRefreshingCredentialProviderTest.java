@@ -0,0 +1,325 @@
+package com.dropbox.core;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.util.StringUtil;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DbxRefreshingCredentialProviderTest {
+    private static final DbxAppInfo APP = new DbxAppInfo("appkey", "appsecret");
+
+    private FakeFilesRequestor files;
+    private TokenServer server;
+    private DbxRequestConfig config;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        files = new FakeFilesRequestor();
+        files.createFolder("/Photos");
+        server = new TokenServer(files);
+        config = DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRequestsFirstTokenWhenNeeded() throws Exception {
+        DbxRefreshingCredentialProvider credentials = new DbxRefreshingCredentialProvider(config, APP, "refresh-1");
+        DbxClientV2 client = new DbxClientV2(config, credentials);
+        assertEquals(server.tokenRequests.get(), 0);
+
+        client.files().listFolder("/Photos");
+        client.files().listFolder("/Photos");
+
+        assertEquals(server.tokenRequests.get(), 1);
+        assertEquals(server.lastTokenParams.get("grant_type"), "refresh_token");
+        assertEquals(server.lastTokenParams.get("refresh_token"), "refresh-1");
+        assertEquals(server.lastTokenAuthorization, "Basic " + StringUtil.base64Encode("appkey:appsecret".getBytes("UTF-8")));
+        assertEquals(server.sentTokens, list("token-1", "token-1"));
+        assertEquals(credentials.getRefreshCount(), 1);
+    }
+
+    @Test
+    public void testRenewsTokenBeforeItExpires() throws Exception {
+        server.issue("old");
+        DbxRefreshingCredentialProvider credentials = new DbxRefreshingCredentialProvider(
+            config, APP, "refresh-1", "old", System.currentTimeMillis() + 60000, 5, TimeUnit.MINUTES
+        );
+        DbxClientV2 client = new DbxClientV2(config, credentials);
+
+        client.files().listFolder("/Photos");
+
+        // the old token was still valid, but expired within the refresh margin
+        assertEquals(server.tokenRequests.get(), 1);
+        assertEquals(server.sentTokens, list("token-1"));
+        assertEquals(server.rejected.get(), 0);
+    }
+
+    @Test
+    public void testRefreshesOnceForConcurrentRejections() throws Exception {
+        server.tokenLatencyMillis = 200;
+        DbxRefreshingCredentialProvider credentials = new DbxRefreshingCredentialProvider(
+            config, APP, "refresh-1", "revoked", Long.MAX_VALUE, 5, TimeUnit.MINUTES
+        );
+        final DbxClientV2 client = new DbxClientV2(config, credentials);
+
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < 8; ++i) {
+            results.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return client.files().listFolder("/Photos");
+                }
+            }));
+        }
+        for (Future<Object> result : results) {
+            assertNotNull(result.get());
+        }
+
+        assertEquals(server.tokenRequests.get(), 1);
+        assertEquals(server.rejected.get(), 8);
+        assertEquals(files.getRequestCount("files/list_folder"), 16);
+        assertEquals(new HashSet<String>(server.sentTokens), new HashSet<String>(list("revoked", "token-1")));
+    }
+
+    @Test
+    public void testReplaysRejectedDownload() throws Exception {
+        files.putFile("/Photos/beach.jpg", new byte[] {1, 2, 3});
+        DbxRefreshingCredentialProvider credentials = new DbxRefreshingCredentialProvider(
+            config, APP, "refresh-1", "revoked", Long.MAX_VALUE, 5, TimeUnit.MINUTES
+        );
+        DbxClientV2 client = new DbxClientV2(config, credentials);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.files().download("/Photos/beach.jpg").download(out);
+
+        assertEquals(out.toByteArray(), new byte[] {1, 2, 3});
+        assertEquals(server.rejected.get(), 1);
+        assertEquals(server.sentTokens, list("revoked", "token-1"));
+    }
+
+    @Test
+    public void testDoesNotReplayFixedToken() throws Exception {
+        DbxClientV2 client = new DbxClientV2(config, "revoked");
+
+        try {
+            client.files().listFolder("/Photos");
+            fail("revoked token should be rejected");
+        } catch (InvalidAccessTokenException ex) {
+            // expected
+        }
+        assertEquals(server.tokenRequests.get(), 0);
+        assertEquals(files.getRequestCount("files/list_folder"), 1);
+    }
+
+    @Test
+    public void testReportsFailedRefresh() throws Exception {
+        server.refreshTokens.clear();
+        DbxRefreshingCredentialProvider credentials = new DbxRefreshingCredentialProvider(
+            config, APP, "refresh-1", "revoked", Long.MAX_VALUE, 5, TimeUnit.MINUTES
+        );
+        DbxClientV2 client = new DbxClientV2(config, credentials);
+
+        try {
+            client.files().listFolder("/Photos");
+            fail("refreshing with a revoked refresh token should fail");
+        } catch (BadRequestException ex) {
+            assertTrue(ex.getMessage().contains("invalid_grant"), ex.getMessage());
+        }
+        assertEquals(server.tokenRequests.get(), 1);
+        assertEquals(credentials.getRefreshCount(), 0);
+    }
+
+    @Test
+    public void testKeepsTokenWhenEarlyRefreshFails() throws Exception {
+        server.issue("old");
+        server.refreshTokens.clear();
+        DbxRefreshingCredentialProvider credentials = new DbxRefreshingCredentialProvider(
+            config, APP, "refresh-1", "old", System.currentTimeMillis() + 60000, 5, TimeUnit.MINUTES
+        );
+        DbxClientV2 client = new DbxClientV2(config, credentials);
+
+        client.files().listFolder("/Photos");
+        client.files().listFolder("/Photos");
+
+        // the old token was still valid, and renewing it isn't retried on every request
+        assertEquals(server.tokenRequests.get(), 1);
+        assertEquals(server.sentTokens, list("old", "old"));
+        assertTrue(credentials.getLastRefreshFailure() instanceof BadRequestException);
+        assertEquals(credentials.getRefreshCount(), 0);
+
+        // a rejected token is renewed right away
+        server.refreshTokens.add("refresh-1");
+        assertTrue(credentials.refresh("old"));
+        assertEquals(server.tokenRequests.get(), 2);
+        assertNull(credentials.getLastRefreshFailure());
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * Stand-in for the {@code oauth2/token} endpoint in front of a fake files namespace that only
+     * accepts the access tokens it issued.
+     */
+    private static final class TokenServer extends HttpRequestor {
+        private final HttpRequestor files;
+        private final Set<String> validTokens = Collections.synchronizedSet(new HashSet<String>());
+        private final Set<String> refreshTokens = Collections.synchronizedSet(new HashSet<String>(list("refresh-1")));
+        private final List<String> sentTokens = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger tokenRequests = new AtomicInteger(0);
+        private final AtomicInteger rejected = new AtomicInteger(0);
+        private volatile long tokenLatencyMillis = 0;
+        private volatile Map<String, String> lastTokenParams;
+        private volatile String lastTokenAuthorization;
+
+        private TokenServer(HttpRequestor files) {
+            this.files = files;
+        }
+
+        private void issue(String accessToken) {
+            validTokens.add(accessToken);
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            if (url.contains("/oauth2/token")) {
+                return tokenUploader(headers);
+            }
+
+            String authorization = header(headers, "Authorization");
+            String token = authorization.substring("Bearer ".length());
+            sentTokens.add(token);
+            final Uploader uploader = files.startPost(url, headers);
+            if (validTokens.contains(token)) {
+                return uploader;
+            }
+            rejected.incrementAndGet();
+            return new Uploader() {
+                @Override
+                public OutputStream getBody() {
+                    return uploader.getBody();
+                }
+
+                @Override
+                public void close() {
+                    uploader.close();
+                }
+
+                @Override
+                public void abort() {
+                    uploader.abort();
+                }
+
+                @Override
+                public Response finish() throws IOException {
+                    // let the namespace count the request, but reject it
+                    uploader.finish();
+                    return json(401, "{\"error_summary\": \"expired_access_token/\", \"error\": {\".tag\": \"expired_access_token\"}}");
+                }
+            };
+        }
+
+        private Uploader tokenUploader(final Iterable<Header> headers) {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            return new Uploader() {
+                @Override
+                public OutputStream getBody() {
+                    return body;
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void abort() {
+                }
+
+                @Override
+                public Response finish() throws IOException {
+                    int n = tokenRequests.incrementAndGet();
+                    try {
+                        Thread.sleep(tokenLatencyMillis);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    Map<String, String> params = new HashMap<String, String>();
+                    for (String param : body.toString("UTF-8").split("&")) {
+                        int equals = param.indexOf('=');
+                        params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                                   URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+                    }
+                    lastTokenParams = params;
+                    lastTokenAuthorization = header(headers, "Authorization");
+
+                    if (!refreshTokens.contains(params.get("refresh_token"))) {
+                        return json(400, "{\"error\": \"invalid_grant\", \"error_description\": \"refresh token is invalid\"}");
+                    }
+                    String token = "token-" + n;
+                    issue(token);
+                    return json(200, "{\"access_token\": \"" + token + "\", \"token_type\": \"bearer\", \"expires_in\": 14400}");
+                }
+            };
+        }
+
+        private static String header(Iterable<Header> headers, String name) {
+            for (Header header : headers) {
+                if (header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+            throw new AssertionError("missing header " + name);
+        }
+
+        private static Response json(int status, String body) throws IOException {
+            Map<String, List<String>> headers = new HashMap<String, List<String>>();
+            headers.put("Content-Type", Collections.singletonList("application/json"));
+            return new Response(status, new ByteArrayInputStream(body.getBytes("UTF-8")), headers);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.dropbox.core.http;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+import com.dropbox.core.v2.files.FakeFilesServer;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.WriteMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload throughput through each {@link HttpRequestor} backend, against a {@link FakeFilesServer}
+ * on the loopback interface. Multiply the reported operations per second by {@code size} for
+ * bytes per second. The {@code memory} backend skips the socket entirely and is the baseline for
+ * the SDK's own overhead.
+ *
+ * <p> {@link GoogleAppEngineRequestor} is left out since it only runs inside App Engine. </p>
+ */
+public class HttpRequestorBench
+{
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public static class Upload
+    {
+        @Param({"memory", "standard", "okhttp", "okhttp3"})
+        public String backend;
+
+        @Param({"65536", "8388608"})
+        public int size;
+
+        private FakeFilesServer server;
+        private DbxClientV2 client;
+        private byte[] content;
+
+        @Setup
+        public void setUp() throws IOException
+        {
+            FakeFilesRequestor files = new FakeFilesRequestor();
+            HttpRequestor requestor;
+            if (backend.equals("memory")) {
+                requestor = files;
+            }
+            else {
+                server = FakeFilesServer.start(files);
+                requestor = server.wrap(newBackend(backend));
+            }
+            client = new DbxClientV2(
+                DbxRequestConfig.newBuilder("sdk-bench").withHttpRequestor(requestor).build(),
+                "fakeAccessToken"
+            );
+
+            content = new byte[size];
+            new Random(0).nextBytes(content);
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            if (server != null) {
+                server.stop();
+            }
+        }
+
+        @Benchmark
+        public FileMetadata upload() throws DbxException, IOException
+        {
+            // same content every time, so the fake keeps a single revision
+            return client.files().uploadBuilder("/bench.bin")
+                .withMode(WriteMode.OVERWRITE)
+                .uploadAndFinish(new ByteArrayInputStream(content));
+        }
+
+        private static HttpRequestor newBackend(String name)
+        {
+            if (name.equals("standard")) {
+                return new StandardHttpRequestor(StandardHttpRequestor.Config.DEFAULT_INSTANCE);
+            }
+            else if (name.equals("okhttp")) {
+                return new OkHttpRequestor(OkHttpRequestor.defaultOkHttpClient());
+            }
+            else if (name.equals("okhttp3")) {
+                return new OkHttp3Requestor(OkHttp3Requestor.defaultOkHttpClient());
+            }
+            throw new IllegalArgumentException("Unknown backend: " + name);
+        }
+    }
+}
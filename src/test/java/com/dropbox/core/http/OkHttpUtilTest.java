@@ -0,0 +1,156 @@
+package com.dropbox.core.http;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class OkHttpUtilTest {
+
+    @Test
+    public void testPipeTransfersAllBytes() throws Exception {
+        // small buffer to force the writer to block on a full pipe many times
+        final OkHttpUtil.PipedStream pipe = new OkHttpUtil.PipedStream(1024);
+        final byte [] expected = randomBytes(1 << 20);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<byte []> reader = executor.submit(new Callable<byte []>() {
+                @Override
+                public byte [] call() throws IOException {
+                    return readFully(pipe.getInputStream(), expected.length);
+                }
+            });
+
+            OutputStream out = pipe.getOutputStream();
+            for (int i = 0; i < expected.length; i += 777) {
+                out.write(expected, i, Math.min(777, expected.length - i));
+            }
+            out.close();
+
+            assertEquals(reader.get(1, TimeUnit.MINUTES), expected);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testManyConcurrentPipes() throws Exception {
+        // Simulates many in-flight streaming uploads, each with a caller thread writing the body
+        // and a dispatcher thread draining it.
+        final int numPipes = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(2 * 64);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(numPipes);
+            for (int i = 0; i < numPipes; ++i) {
+                final OkHttpUtil.PipedStream pipe = new OkHttpUtil.PipedStream(256);
+                final byte [] expected = randomBytes(16 << 10);
+
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        OutputStream out = pipe.getOutputStream();
+                        out.write(expected);
+                        out.close();
+                        return null;
+                    }
+                });
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        byte [] actual = readFully(pipe.getInputStream(), expected.length);
+                        return java.util.Arrays.equals(expected, actual);
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(1, TimeUnit.MINUTES));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCloseWakesBlockedReader() throws Exception {
+        final OkHttpUtil.PipedStream pipe = new OkHttpUtil.PipedStream(16);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> reader = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    started.countDown();
+                    return pipe.getInputStream().read();
+                }
+            });
+
+            started.await();
+            pipe.getOutputStream().close();
+
+            assertEquals(reader.get(1, TimeUnit.MINUTES).intValue(), -1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testWriteAfterReaderClosed() throws IOException {
+        OkHttpUtil.PipedStream pipe = new OkHttpUtil.PipedStream(16);
+        pipe.getInputStream().close();
+        pipe.getOutputStream().write(new byte[32]);
+    }
+
+    @Test
+    public void testInterruptedReader() throws Exception {
+        OkHttpUtil.PipedStream pipe = new OkHttpUtil.PipedStream(16);
+
+        Thread.currentThread().interrupt();
+        try {
+            pipe.getInputStream().read();
+            fail("read should have been interrupted");
+        } catch (InterruptedIOException ex) {
+            // expected
+        } finally {
+            // clear interrupt flag
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    private static byte [] readFully(InputStream in, int size) throws IOException {
+        byte [] data = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            int read = in.read(data, pos, Math.min(1000, size - pos));
+            if (read == -1) {
+                throw new IOException("expected " + size + " bytes, got " + pos);
+            }
+            pos += read;
+        }
+        if (in.read() != -1) {
+            throw new IOException("read more bytes than expected");
+        }
+        return data;
+    }
+
+    private static byte [] randomBytes(int size) {
+        byte [] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -2,12 +2,26 @@ package com.dropbox.core.stone;
 
 import static org.testng.Assert.*;
 
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.NetworkIOException;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.json.DbxJson;
+import com.dropbox.core.v2.DbxClientV2;
+
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 public class StoneSerializersTest {
@@ -68,6 +82,92 @@ public class StoneSerializersTest {
         StoneSerializers.void_().deserialize(quoted("bar"));
     }
 
+    @Test
+    public void testDeserializeByteSlices() throws Exception {
+        byte[] json = "xx[\"a\", \"b\"]yy".getBytes("UTF-8");
+        StoneSerializer<List<String>> serializer = StoneSerializers.list(StoneSerializers.string());
+
+        assertEquals(serializer.deserialize(json, 2, json.length - 4), Arrays.asList("a", "b"));
+
+        ByteBuffer heap = ByteBuffer.wrap(json, 2, json.length - 4).slice();
+        assertEquals(serializer.deserialize(heap), Arrays.asList("a", "b"));
+        assertEquals(heap.position(), 0);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(json.length);
+        direct.put(json).position(2);
+        direct.limit(json.length - 2);
+        assertEquals(serializer.deserialize(direct), Arrays.asList("a", "b"));
+        assertEquals(direct.position(), 2);
+    }
+
+    @Test
+    public void testStreamsAreLeftOpen() throws Exception {
+        final boolean[] closed = new boolean[2];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        StoneSerializers.string().serialize("a", out);
+        assertEquals(out.toString("UTF-8"), quoted("a"));
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray()) {
+            @Override
+            public void close() {
+                closed[1] = true;
+            }
+        };
+        assertEquals(StoneSerializers.string().deserialize(in), "a");
+
+        assertFalse(closed[0]);
+        assertFalse(closed[1]);
+    }
+
+    @Test
+    public void testHeaderArgumentsAreAscii() throws Exception {
+        // Dropbox-API-Arg must be printable ASCII, whatever factory the application installed
+        final List<String> args = new ArrayList<String>();
+        HttpRequestor requestor = new HttpRequestor() {
+            @Override
+            public Response doGet(String url, Iterable<Header> headers) {
+                throw new UnsupportedOperationException(url);
+            }
+
+            @Override
+            public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+                for (Header header : headers) {
+                    if (header.getKey().equals("Dropbox-API-Arg")) {
+                        args.add(header.getValue());
+                    }
+                }
+                throw new IOException("not connected");
+            }
+
+            @Override
+            public Uploader startPut(String url, Iterable<Header> headers) {
+                throw new UnsupportedOperationException(url);
+            }
+        };
+        DbxClientV2 client = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(requestor).build(),
+            "fakeAccessToken"
+        );
+
+        JsonFactory previous = DbxJson.getFactory();
+        DbxJson.setFactory(new JsonFactory());
+        try {
+            client.files().download("/Fotos/caf\u00e9\u007f \u65e5\u672c.jpg");
+            fail("expected NetworkIOException");
+        } catch (NetworkIOException ex) {
+            // expected
+        } finally {
+            DbxJson.setFactory(previous);
+        }
+
+        assertEquals(args, Arrays.asList("{\"path\":\"/Fotos/caf\\u00E9\\u007F \\u65E5\\u672C.jpg\"}"));
+    }
+
     private static String quoted(String value) {
         return "\"" + value + "\"";
     }
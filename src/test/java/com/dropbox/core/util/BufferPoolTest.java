@@ -0,0 +1,70 @@
+package com.dropbox.core.util;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+    @Test
+    public void testRoundsUpToSizeClasses() {
+        assertEquals(BufferPool.roundUp(0), 16 << 10);
+        assertEquals(BufferPool.roundUp(16 << 10), 16 << 10);
+        assertEquals(BufferPool.roundUp((16 << 10) + 1), 64 << 10);
+        assertEquals(BufferPool.roundUp(100 << 10), 256 << 10);
+        assertEquals(BufferPool.roundUp(1 << 20), 1 << 20);
+        assertEquals(BufferPool.roundUp((1 << 20) + 1), (1 << 20) + 1);
+    }
+
+    @Test
+    public void testReusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(1 << 20);
+
+        byte[] array = pool.acquire(1000);
+        assertEquals(array.length, 16 << 10);
+        pool.release(array);
+        assertSame(pool.acquire(2000), array);
+        assertNotSame(pool.acquire(2000), array);
+
+        ByteBuffer direct = pool.acquireDirect(100 << 10);
+        assertTrue(direct.isDirect());
+        assertEquals(direct.capacity(), 256 << 10);
+        direct.position(10);
+        pool.release(direct);
+        ByteBuffer again = pool.acquireDirect(200 << 10);
+        assertSame(again, direct);
+        assertEquals(again.position(), 0);
+        assertEquals(again.limit(), again.capacity());
+    }
+
+    @Test
+    public void testBoundsIdleBuffers() {
+        BufferPool pool = new BufferPool(32 << 10);
+
+        byte[] first = pool.acquire(1);
+        byte[] second = pool.acquire(1);
+        byte[] third = pool.acquire(1);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        // only two 16 KiB buffers fit in 32 KiB
+        assertSame(pool.acquire(1), first);
+        assertSame(pool.acquire(1), second);
+        byte[] fresh = pool.acquire(1);
+        assertNotSame(fresh, third);
+
+        // buffers outside the size classes are never kept
+        byte[] odd = new byte[1000];
+        pool.release(odd);
+        pool.release(new byte[16 << 10]);
+        assertNotSame(pool.acquire(1000), odd);
+
+        // neither are too large ones, nor heap buffers passed as direct ones
+        byte[] large = pool.acquire(2 << 20);
+        assertEquals(large.length, 2 << 20);
+        pool.release(ByteBuffer.allocate(16 << 10));
+        assertTrue(pool.acquireDirect(1).isDirect());
+    }
+}
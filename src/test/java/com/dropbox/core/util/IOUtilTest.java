@@ -0,0 +1,248 @@
+package com.dropbox.core.util;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IOUtilTest {
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("dbx-ioutil-test", ".bin");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testCopyStreamToStreamGrowsBufferForFullReads() throws Exception {
+        final int[] largestRead = new int[1];
+        byte[] content = content(8 << 20);
+        InputStream in = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                largestRead[0] = Math.max(largestRead[0], len);
+                return super.read(b, off, len);
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        IOUtil.copyStreamToStream(in, out);
+
+        assertTrue(Arrays.equals(out.toByteArray(), content));
+        // an in-memory source is fast enough to reach the largest buffer
+        assertEquals(largestRead[0], BufferPool.MAX_SIZE);
+    }
+
+    @Test
+    public void testCopyStreamToStreamKeepsBufferForShortReads() throws Exception {
+        final int[] largestRead = new int[1];
+        byte[] content = content(1 << 20);
+        InputStream in = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                largestRead[0] = Math.max(largestRead[0], len);
+                // like a socket that never has a full buffer available
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        IOUtil.copyStreamToStream(in, out);
+
+        assertTrue(Arrays.equals(out.toByteArray(), content));
+        assertEquals(largestRead[0], IOUtil.DEFAULT_COPY_BUFFER_SIZE);
+    }
+
+    @Test
+    public void testCopyStreamToStreamWithBufferSize() throws Exception {
+        final int[] largestRead = new int[1];
+        byte[] content = content(100000);
+        InputStream in = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                largestRead[0] = Math.max(largestRead[0], len);
+                return super.read(b, off, len);
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        IOUtil.copyStreamToStream(in, out, 1000);
+
+        assertTrue(Arrays.equals(out.toByteArray(), content));
+        assertEquals(largestRead[0], 1000);
+    }
+
+    @Test
+    public void testCopyChannelToFileChannel() throws Exception {
+        byte[] content = content(3 << 20);
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(content));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel out = raf.getChannel();
+            out.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+            assertEquals(IOUtil.copyChannelToChannel(in, out), content.length);
+            assertEquals(out.position(), 3 + content.length);
+        } finally {
+            raf.close();
+        }
+
+        byte[] written = readFile();
+        assertEquals(written.length, 3 + content.length);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(written, 3, written.length), content));
+    }
+
+    @Test
+    public void testCopyFileChannelToChannel() throws Exception {
+        byte[] content = content(3 << 20);
+        FileOutputStream fout = new FileOutputStream(file);
+        fout.write(content);
+        fout.close();
+
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            FileChannel in = fin.getChannel();
+            in.position(10);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            assertEquals(IOUtil.copyChannelToChannel(in, Channels.newChannel(out)), content.length - 10);
+            assertEquals(in.position(), content.length);
+            assertTrue(Arrays.equals(out.toByteArray(), Arrays.copyOfRange(content, 10, content.length)));
+        } finally {
+            fin.close();
+        }
+    }
+
+    @Test
+    public void testCopyChannelToChannel() throws Exception {
+        byte[] content = content(1 << 20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long copied = IOUtil.copyChannelToChannel(Channels.newChannel(new ByteArrayInputStream(content)), Channels.newChannel(out));
+
+        assertEquals(copied, content.length);
+        assertTrue(Arrays.equals(out.toByteArray(), content));
+    }
+
+    @Test
+    public void testCopyNonBlockingChannelToFileChannel() throws Exception {
+        final byte[] content = content(1 << 20);
+        final Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipe.sink().write(ByteBuffer.wrap(content));
+                    pipe.sink().close();
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        writer.start();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            assertEquals(IOUtil.copyChannelToChannel(pipe.source(), raf.getChannel()), content.length);
+        } finally {
+            raf.close();
+            pipe.source().close();
+        }
+        writer.join();
+
+        assertTrue(Arrays.equals(readFile(), content));
+    }
+
+    @Test
+    public void testCopyFileChannelToNonBlockingChannel() throws Exception {
+        byte[] content = content(1 << 20);
+        FileOutputStream fout = new FileOutputStream(file);
+        fout.write(content);
+        fout.close();
+
+        final Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    IOUtil.copyStreamToStream(Channels.newInputStream(pipe.source()), out);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        reader.start();
+
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            // more than the pipe holds, so the sink won't always be ready
+            assertEquals(IOUtil.copyChannelToChannel(fin.getChannel(), pipe.sink()), content.length);
+        } finally {
+            fin.close();
+            pipe.sink().close();
+        }
+        reader.join();
+
+        assertTrue(Arrays.equals(out.toByteArray(), content));
+    }
+
+    @Test
+    public void testCopyBufferToStream() throws Exception {
+        byte[] content = content(3 << 20);
+
+        ByteBuffer heap = ByteBuffer.wrap(content, 10, content.length - 20).slice();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IOUtil.copyBufferToStream(heap, out);
+        assertFalse(heap.hasRemaining());
+        assertTrue(Arrays.equals(out.toByteArray(), Arrays.copyOfRange(content, 10, content.length - 10)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content);
+        direct.position(10);
+        out = new ByteArrayOutputStream();
+        IOUtil.copyBufferToStream(direct.asReadOnlyBuffer(), out);
+        assertTrue(Arrays.equals(out.toByteArray(), Arrays.copyOfRange(content, 10, content.length)));
+    }
+
+    private byte[] readFile() throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtil.copyStreamToStream(in, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,308 @@
+package com.dropbox.core.v1;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.DbxStreamWriter;
+import com.dropbox.core.http.HttpRequestor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DbxChunkedUploadTest {
+    private ChunkedUploadServer server;
+    private DbxClientV1 client;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new ChunkedUploadServer();
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build();
+        client = new DbxClientV1(config, "token");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testUploadsChunksInBackground() throws Exception {
+        byte[] data = randomBytes(100);
+
+        DbxEntry.File entry = client.uploadFileChunked(
+            16, 3, executor, "/big.bin", DbxWriteMode.add(), data.length, new DbxStreamWriter.ByteArrayCopier(data)
+        );
+
+        assertEquals(entry.path, "/big.bin");
+        assertEquals(entry.numBytes, 100);
+        assertEquals(server.committed.get("/big.bin"), data);
+        assertEquals(server.chunkRequests.get(), 7);
+        assertFalse(server.chunkThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testUploadsSmallFileInOneRequest() throws Exception {
+        byte[] data = randomBytes(10);
+
+        client.uploadFileChunked(16, 3, executor, "/small.bin", DbxWriteMode.add(), -1, new DbxStreamWriter.ByteArrayCopier(data));
+
+        assertEquals(server.committed.get("/small.bin"), data);
+        assertEquals(server.chunkRequests.get(), 0);
+    }
+
+    @Test
+    public void testBoundsBufferedChunks() throws Exception {
+        final byte[] data = randomBytes(80);
+        final AtomicInteger written = new AtomicInteger(0);
+        server.gate = new CountDownLatch(1);
+
+        Future<DbxEntry.File> result = executor.submit(new Callable<DbxEntry.File>() {
+            @Override
+            public DbxEntry.File call() throws Exception {
+                DbxClientV1.Uploader uploader = client.startUploadFileChunked(
+                    16, 2, executor, "/big.bin", DbxWriteMode.add(), data.length
+                );
+                try {
+                    for (int i = 0; i < data.length; i += 16) {
+                        uploader.getBody().write(data, i, 16);
+                        written.incrementAndGet();
+                    }
+                    return uploader.finish();
+                } finally {
+                    uploader.close();
+                }
+            }
+        });
+
+        // the first chunk is stuck uploading and the second one is waiting for it
+        Thread.sleep(200);
+        assertEquals(written.get(), 1);
+        assertEquals(server.chunkRequests.get(), 1);
+
+        server.gate.countDown();
+        assertEquals(result.get(10, TimeUnit.SECONDS).numBytes, 80);
+        assertEquals(written.get(), 5);
+        assertEquals(server.committed.get("/big.bin"), data);
+    }
+
+    @Test
+    public void testResendsFromCorrectedOffset() throws Exception {
+        byte[] data = randomBytes(64);
+
+        server.truncateAppends.set(1);
+        client.uploadFileChunked(16, "/serial.bin", DbxWriteMode.add(), data.length, new DbxStreamWriter.ByteArrayCopier(data));
+        assertEquals(server.committed.get("/serial.bin"), data);
+
+        server.truncateAppends.set(1);
+        client.uploadFileChunked(16, 2, executor, "/pipelined.bin", DbxWriteMode.add(), data.length, new DbxStreamWriter.ByteArrayCopier(data));
+        assertEquals(server.committed.get("/pipelined.bin"), data);
+    }
+
+    @Test
+    public void testReportsFailedChunk() throws Exception {
+        byte[] data = randomBytes(200);
+        server.rejectAppends = true;
+
+        try {
+            client.uploadFileChunked(16, 4, executor, "/big.bin", DbxWriteMode.add(), data.length, new DbxStreamWriter.ByteArrayCopier(data));
+            fail("upload should fail when a chunk is rejected");
+        } catch (DbxException ex) {
+            // expected
+        }
+
+        // chunks queued behind the rejected one are dropped
+        assertEquals(server.appendRequests.get(), 1);
+        assertNull(server.committed.get("/big.bin"));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Stand-in for the v1 {@code chunked_upload}, {@code commit_chunked_upload} and {@code
+     * files_put} endpoints.
+     */
+    private static final class ChunkedUploadServer extends HttpRequestor {
+        private final Map<String, ByteArrayOutputStream> sessions = Collections.synchronizedMap(new HashMap<String, ByteArrayOutputStream>());
+        private final Map<String, byte[]> committed = Collections.synchronizedMap(new HashMap<String, byte[]>());
+        private final List<Thread> chunkThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        private final AtomicInteger chunkRequests = new AtomicInteger(0);
+        private final AtomicInteger appendRequests = new AtomicInteger(0);
+        // number of appends to store only half of before failing with a server error
+        private final AtomicInteger truncateAppends = new AtomicInteger(0);
+        private volatile boolean rejectAppends = false;
+        private volatile CountDownLatch gate = null;
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            final String path = path(url);
+            final Map<String, String> params = params(url.substring(url.indexOf('?') + 1));
+            if (path.equals("/1/chunked_upload")) {
+                chunkRequests.incrementAndGet();
+                chunkThreads.add(Thread.currentThread());
+                return new BufferingUploader() {
+                    @Override
+                    protected Response respond(byte[] body) throws IOException {
+                        return chunk(params, body);
+                    }
+                };
+            }
+            if (path.startsWith("/1/files_put/auto/")) {
+                return new BufferingUploader() {
+                    @Override
+                    protected Response respond(byte[] body) throws IOException {
+                        return commit(path.substring("/1/files_put/auto".length()), body);
+                    }
+                };
+            }
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            final String path = path(url);
+            if (path.startsWith("/1/commit_chunked_upload/auto/")) {
+                return new BufferingUploader() {
+                    @Override
+                    protected Response respond(byte[] body) throws IOException {
+                        String uploadId = params(new String(body, "UTF-8")).get("upload_id");
+                        ByteArrayOutputStream session = sessions.remove(uploadId);
+                        if (session == null) {
+                            return json(404, "{\"error\": \"upload not found\"}");
+                        }
+                        return commit(path.substring("/1/commit_chunked_upload/auto".length()), session.toByteArray());
+                    }
+                };
+            }
+            throw new UnsupportedOperationException(url);
+        }
+
+        private Response chunk(Map<String, String> params, byte[] body) throws IOException {
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+
+            String uploadId = params.get("upload_id");
+            if (uploadId == null) {
+                uploadId = "upload-" + sessions.size();
+                ByteArrayOutputStream session = new ByteArrayOutputStream();
+                session.write(body);
+                sessions.put(uploadId, session);
+                return state(200, uploadId, session.size());
+            }
+
+            appendRequests.incrementAndGet();
+            if (rejectAppends) {
+                return json(400, "{\"error\": \"append rejected\"}");
+            }
+            ByteArrayOutputStream session = sessions.get(uploadId);
+            long offset = Long.parseLong(params.get("offset"));
+            if (offset != session.size()) {
+                return state(400, uploadId, session.size());
+            }
+            if (truncateAppends.getAndDecrement() > 0) {
+                session.write(body, 0, body.length / 2);
+                return json(500, "{\"error\": \"connection lost\"}");
+            }
+            session.write(body);
+            return state(200, uploadId, session.size());
+        }
+
+        private Response commit(String path, byte[] content) throws IOException {
+            committed.put(path, content);
+            return json(200, "{\"bytes\": " + content.length + ", \"rev\": \"400113f659\", \"revision\": 64,"
+                + " \"thumb_exists\": false, \"modified\": \"Thu, 11 Apr 2013 17:05:17 +0000\","
+                + " \"client_mtime\": \"Thu, 11 Apr 2013 17:05:17 +0000\", \"size\": \"" + content.length + " bytes\","
+                + " \"path\": \"" + path + "\", \"is_dir\": false, \"root\": \"dropbox\", \"icon\": \"page_white\"}");
+        }
+
+        private static String path(String url) {
+            int start = url.indexOf('/', url.indexOf("://") + 3);
+            int end = url.indexOf('?');
+            return url.substring(start, end == -1 ? url.length() : end);
+        }
+
+        private static Map<String, String> params(String query) throws IOException {
+            Map<String, String> params = new HashMap<String, String>();
+            for (String param : query.split("&")) {
+                int equals = param.indexOf('=');
+                if (equals != -1) {
+                    params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                               URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+                }
+            }
+            return params;
+        }
+
+        private static Response state(int status, String uploadId, long offset) throws IOException {
+            return json(status, "{\"upload_id\": \"" + uploadId + "\", \"offset\": " + offset
+                + ", \"expires\": \"Thu, 11 Apr 2013 17:05:17 +0000\"}");
+        }
+
+        private static Response json(int status, String body) throws IOException {
+            Map<String, List<String>> headers = new HashMap<String, List<String>>();
+            headers.put("Content-Type", Collections.singletonList("application/json"));
+            return new Response(status, new ByteArrayInputStream(body.getBytes("UTF-8")), headers);
+        }
+    }
+
+    private static abstract class BufferingUploader extends HttpRequestor.Uploader {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public HttpRequestor.Response finish() throws IOException {
+            return respond(body.toByteArray());
+        }
+
+        protected abstract HttpRequestor.Response respond(byte[] body) throws IOException;
+    }
+}
@@ -0,0 +1,225 @@
+package com.dropbox.core.v1;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class DbxDeltaStreamTest {
+    private DeltaServer server;
+    private DbxClientV1 client;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new DeltaServer();
+        server.page(null, "c1", true, false, "/a.txt", "/b.txt");
+        server.page("c1", "c2", false, false, "/c.txt");
+        server.page("c2", "c3", false, true, "/d.txt", "/e.txt");
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build();
+        client = new DbxClientV1(config, "token");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStreamsEveryPage() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+
+        String cursor = new DbxDeltaStream(client, null).stream(null, handler);
+
+        assertEquals(cursor, "c3");
+        assertEquals(handler.events, list(
+            "reset", "/a.txt", "/b.txt", "checkpoint c1", "/c.txt", "checkpoint c2",
+            "delete /d.txt", "delete /e.txt", "checkpoint c3"
+        ));
+        assertEquals(server.cursors, list(null, "c1", "c2"));
+    }
+
+    @Test
+    public void testPrefetchesNextPage() throws Exception {
+        final CountDownLatch requested = new CountDownLatch(2);
+        server.requested = requested;
+        final List<Boolean> prefetched = new ArrayList<Boolean>();
+
+        String cursor = new DbxDeltaStream(client, executor).stream(null, new RecordingHandler() {
+            @Override
+            public void entry(DbxDeltaC.Entry<DbxEntry> entry) {
+                super.entry(entry);
+                if (entry.lcPath.equals("/a.txt")) {
+                    try {
+                        // the second page is requested while the first one is handled
+                        prefetched.add(requested.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException ex) {
+                        throw new AssertionError(ex);
+                    }
+                }
+            }
+        });
+
+        assertEquals(cursor, "c3");
+        assertEquals(prefetched, list(true));
+        assertEquals(server.cursors, list(null, "c1", "c2"));
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        RecordingHandler failing = new RecordingHandler() {
+            @Override
+            public void entry(DbxDeltaC.Entry<DbxEntry> entry) {
+                if (entry.lcPath.equals("/c.txt")) {
+                    throw new IllegalStateException("disk full");
+                }
+                super.entry(entry);
+            }
+        };
+        try {
+            new DbxDeltaStream(client, executor).stream(null, failing);
+            fail("handler failure should propagate");
+        } catch (IllegalStateException ex) {
+            assertEquals(ex.getMessage(), "disk full");
+        }
+        assertEquals(failing.checkpoints, list("c1"));
+
+        RecordingHandler resumed = new RecordingHandler();
+        String cursor = new DbxDeltaStream(client, executor).stream("c1", resumed);
+
+        assertEquals(cursor, "c3");
+        assertEquals(resumed.events, list(
+            "/c.txt", "checkpoint c2", "delete /d.txt", "delete /e.txt", "checkpoint c3"
+        ));
+    }
+
+    private static List<Object> list(Object... values) {
+        List<Object> list = new ArrayList<Object>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    private static class RecordingHandler extends DbxDeltaStream.Handler {
+        final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Object> checkpoints = Collections.synchronizedList(new ArrayList<Object>());
+
+        @Override
+        public void reset() {
+            events.add("reset");
+        }
+
+        @Override
+        public void entry(DbxDeltaC.Entry<DbxEntry> entry) {
+            events.add(entry.metadata == null ? "delete " + entry.lcPath : entry.metadata.path);
+        }
+
+        @Override
+        public void checkpoint(String cursor) {
+            events.add("checkpoint " + cursor);
+            checkpoints.add(cursor);
+        }
+    }
+
+    /**
+     * Stand-in for the v1 {@code delta} endpoint serving a fixed chain of pages.
+     */
+    private static final class DeltaServer extends HttpRequestor {
+        private final Map<String, String> pages = new HashMap<String, String>();
+        private final List<Object> cursors = Collections.synchronizedList(new ArrayList<Object>());
+        private volatile CountDownLatch requested = null;
+
+        private void page(String cursor, String nextCursor, boolean reset, boolean deleted, String... paths) {
+            StringBuilder entries = new StringBuilder();
+            for (String path : paths) {
+                if (entries.length() > 0) {
+                    entries.append(", ");
+                }
+                entries.append("[\"").append(path).append("\", ");
+                if (deleted) {
+                    entries.append("null");
+                } else {
+                    entries.append("{\"bytes\": 3, \"rev\": \"400113f659\", \"revision\": 64,")
+                        .append(" \"thumb_exists\": false, \"modified\": \"Thu, 11 Apr 2013 17:05:17 +0000\",")
+                        .append(" \"client_mtime\": \"Thu, 11 Apr 2013 17:05:17 +0000\", \"size\": \"3 bytes\",")
+                        .append(" \"path\": \"").append(path).append("\", \"is_dir\": false, \"root\": \"dropbox\",")
+                        .append(" \"icon\": \"page_white\"}");
+                }
+                entries.append("]");
+            }
+            pages.put(cursor, "{\"reset\": " + reset + ", \"entries\": [" + entries + "], \"cursor\": \""
+                + nextCursor + "\", \"has_more\": " + !nextCursor.equals("c3") + "}");
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPost(final String url, Iterable<Header> headers) throws IOException {
+            if (!url.endsWith("/1/delta")) {
+                throw new UnsupportedOperationException(url);
+            }
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            return new Uploader() {
+                @Override
+                public OutputStream getBody() {
+                    return body;
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void abort() {
+                }
+
+                @Override
+                public Response finish() throws IOException {
+                    String cursor = null;
+                    for (String param : body.toString("UTF-8").split("&")) {
+                        if (param.startsWith("cursor=")) {
+                            cursor = URLDecoder.decode(param.substring("cursor=".length()), "UTF-8");
+                        }
+                    }
+                    cursors.add(cursor);
+                    CountDownLatch requested = DeltaServer.this.requested;
+                    if (requested != null) {
+                        requested.countDown();
+                    }
+
+                    Map<String, List<String>> headers = new HashMap<String, List<String>>();
+                    headers.put("Content-Type", Collections.singletonList("application/json"));
+                    byte[] page = pages.get(cursor).getBytes("UTF-8");
+                    return new Response(200, new ByteArrayInputStream(page), headers);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.dropbox.core.v1;
+
+import com.dropbox.core.util.SnapshotReader;
+import com.dropbox.core.util.SnapshotWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of storing and reloading a large folder listing as a snapshot, compared to Java
+ * serialization of the same entries and to parsing the JSON the server sent for them.
+ */
+public class DbxEntrySnapshotBench
+{
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    public static class Codec
+    {
+        private static final String MODIFIED = "Thu, 11 Apr 2013 17:05:17 +0000";
+
+        @Param({"1000000"})
+        public int entries;
+
+        private DbxEntry.WithChildren folder;
+        private byte[] snapshot;
+        private byte[] serialized;
+        private byte[] json;
+
+        @Setup
+        public void setUp() throws Exception
+        {
+            Date modified = new Date(1365699917000L);
+            StringBuilder contents = new StringBuilder();
+            List<DbxEntry> children = new ArrayList<DbxEntry>(entries);
+            for (int i = 0; i < entries; i++) {
+                String path = "/Photos/" + (i / 1000) + "/IMG_" + i + ".jpg";
+                String rev = Integer.toHexString(i) + "1c10ce0dd78";
+                children.add(new DbxEntry.File(path, "page_white_picture", true, 7212 + i, "7 KB",
+                                               modified, modified, rev, null, null));
+                if (i > 0) {
+                    contents.append(", ");
+                }
+                contents.append("{\"bytes\": ").append(7212 + i).append(", \"rev\": \"").append(rev)
+                    .append("\", \"thumb_exists\": true, \"modified\": \"").append(MODIFIED)
+                    .append("\", \"client_mtime\": \"").append(MODIFIED).append("\", \"size\": \"7 KB\", \"path\": \"")
+                    .append(path).append("\", \"is_dir\": false, \"root\": \"dropbox\", \"icon\": \"page_white_picture\"}");
+            }
+            folder = new DbxEntry.WithChildren(new DbxEntry.Folder("/Photos", "folder", false), "hash", children);
+            json = ("{\"hash\": \"hash\", \"thumb_exists\": false, \"bytes\": 0, \"path\": \"/Photos\", \"is_dir\": true,"
+                + " \"icon\": \"folder\", \"root\": \"dropbox\", \"size\": \"0 bytes\", \"contents\": [" + contents + "]}")
+                .getBytes("UTF-8");
+            snapshot = writeSnapshot();
+            serialized = writeSerialized();
+        }
+
+        @Benchmark
+        public byte[] writeSnapshot() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            DbxEntrySnapshot.writeWithChildren(new SnapshotWriter(out), folder);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        @Benchmark
+        public DbxEntry.WithChildren readSnapshot() throws IOException
+        {
+            SnapshotReader in = new SnapshotReader(new DataInputStream(new ByteArrayInputStream(snapshot)));
+            return DbxEntrySnapshot.readWithChildren(in);
+        }
+
+        @Benchmark
+        public byte[] writeSerialized() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(folder);
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        @Benchmark
+        public Object readSerialized() throws IOException, ClassNotFoundException
+        {
+            return new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+        }
+
+        @Benchmark
+        public DbxEntry.WithChildren readJson() throws Exception
+        {
+            return DbxEntry.WithChildren.Reader.readFully(json);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.dropbox.core.v1;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.util.SnapshotReader;
+import com.dropbox.core.util.SnapshotWriter;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class DbxEntrySnapshotTest {
+    private static final Date MODIFIED = new Date(1365699917000L);
+
+    @Test
+    public void testRoundTripsFolderWithChildren() throws Exception {
+        DbxEntry.WithChildren folder = folder("/Photos/Trip", 200);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        DbxEntrySnapshot.writeWithChildren(new SnapshotWriter(out), folder);
+        out.flush();
+
+        SnapshotReader reader = new SnapshotReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        DbxEntry.WithChildren read = DbxEntrySnapshot.readWithChildren(reader);
+
+        assertEquals(read, folder);
+        // the folder and icon names are only written once, so each child takes a few dozen bytes
+        assertTrue(bytes.size() < 200 * 40, "snapshot size " + bytes.size());
+    }
+
+    @Test
+    public void testRoundTripsMediaInfo() throws Exception {
+        List<DbxEntry> children = new ArrayList<DbxEntry>();
+        children.add(file("/a.jpg", DbxEntry.File.PhotoInfo.PENDING, null));
+        children.add(file("/b.jpg", new DbxEntry.File.PhotoInfo(MODIFIED, new DbxEntry.File.Location(37.77, -122.42)), null));
+        children.add(file("/c.jpg", new DbxEntry.File.PhotoInfo(null, null), null));
+        children.add(file("/d.mov", null, DbxEntry.File.VideoInfo.PENDING));
+        children.add(file("/e.mov", null, new DbxEntry.File.VideoInfo(MODIFIED, null, 12000L)));
+        children.add(file("/f.mov", null, new DbxEntry.File.VideoInfo(null, new DbxEntry.File.Location(-1.5, 2.5), null)));
+        DbxEntry.WithChildren root = new DbxEntry.WithChildren(new DbxEntry.Folder("/", "folder", false), "h", children);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        DbxEntrySnapshot.writeWithChildren(new SnapshotWriter(buffer), root);
+        buffer.flip();
+
+        DbxEntry.WithChildren read = DbxEntrySnapshot.readWithChildren(new SnapshotReader(buffer));
+        assertEquals(read, root);
+        assertSame(((DbxEntry.File) read.children.get(0)).photoInfo, DbxEntry.File.PhotoInfo.PENDING);
+        assertSame(((DbxEntry.File) read.children.get(3)).videoInfo, DbxEntry.File.VideoInfo.PENDING);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testRoundTripsEntryWithoutChildren() throws Exception {
+        DbxEntry.WithChildren file = new DbxEntry.WithChildren(file("/notes.txt", null, null), null, null);
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        DbxEntrySnapshot.writeWithChildren(new SnapshotWriter(buffer), file);
+        buffer.flip();
+
+        assertEquals(DbxEntrySnapshot.readWithChildren(new SnapshotReader(buffer)), file);
+    }
+
+    @Test
+    public void testRejectsCorruptSnapshots() throws Exception {
+        try {
+            new SnapshotReader(ByteBuffer.wrap("{\"path\": \"/\"}".getBytes("UTF-8")));
+            fail("read a snapshot from JSON");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        DbxEntrySnapshot.writeWithChildren(new SnapshotWriter(buffer), folder("/Photos", 10));
+        buffer.flip();
+        buffer.limit(buffer.limit() - 5);
+        try {
+            DbxEntrySnapshot.readWithChildren(new SnapshotReader(buffer));
+            fail("read a truncated snapshot");
+        } catch (EOFException ex) {
+            // expected
+        }
+    }
+
+    private static DbxEntry.WithChildren folder(String path, int files) {
+        List<DbxEntry> children = new ArrayList<DbxEntry>(files);
+        for (int i = 0; i < files; i++) {
+            children.add(file(path + "/IMG_" + i + ".jpg", null, null));
+        }
+        children.add(new DbxEntry.Folder(path + "/Édité", "folder_public", true));
+        return new DbxEntry.WithChildren(new DbxEntry.Folder(path, "folder", false), "hash", children);
+    }
+
+    private static DbxEntry.File file(String path, DbxEntry.File.PhotoInfo photoInfo, DbxEntry.File.VideoInfo videoInfo) {
+        Date clientMtime = new Date(MODIFIED.getTime() - 5000);
+        return new DbxEntry.File(path, "page_white_picture", true, 2341, "2.3 KB", MODIFIED, clientMtime,
+                                 "38af1b183490", photoInfo, videoInfo);
+    }
+}
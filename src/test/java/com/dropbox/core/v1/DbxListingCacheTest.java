@@ -0,0 +1,205 @@
+package com.dropbox.core.v1;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DbxListingCacheTest {
+    private MetadataServer server;
+    private DbxClientV1 client;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new MetadataServer();
+        server.folder("/Photos", "h1", "a.jpg", "b.jpg");
+        server.folder("/Docs", "h2", "c.txt");
+        server.folder("/Music", "h3", "d.mp3");
+        DbxRequestConfig config = DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build();
+        client = new DbxClientV1(config, "token");
+    }
+
+    @Test
+    public void testServesUnchangedFolderFromCache() throws Exception {
+        DbxListingCache cache = new DbxListingCache(client, 10, 1024 * 1024);
+
+        DbxEntry.WithChildren first = cache.getMetadataWithChildren("/Photos");
+        DbxEntry.WithChildren second = cache.getMetadataWithChildren("/photos");
+
+        assertNotNull(first);
+        assertEquals(first.children.size(), 2);
+        assertSame(second, first);
+        assertEquals(server.sentHashes, list(null, "h1"));
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getHitRatio(), 0.5);
+        assertTrue(cache.getCachedBytes() > 0);
+    }
+
+    @Test
+    public void testRelistsChangedFolder() throws Exception {
+        DbxListingCache cache = new DbxListingCache(client, 10, 1024 * 1024);
+        cache.getMetadataWithChildren("/Photos");
+
+        server.folder("/Photos", "h4", "a.jpg", "b.jpg", "c.jpg");
+        DbxEntry.WithChildren changed = cache.getMetadataWithChildren("/Photos");
+        DbxEntry.WithChildren again = cache.getMetadataWithChildren("/Photos");
+
+        assertEquals(changed.hash, "h4");
+        assertEquals(changed.children.size(), 3);
+        assertSame(again, changed);
+        assertEquals(server.sentHashes, list(null, "h1", "h4"));
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 2);
+    }
+
+    @Test
+    public void testChildrenCantBeModified() throws Exception {
+        DbxListingCache cache = new DbxListingCache(client, 10, 1024 * 1024);
+
+        DbxEntry.WithChildren listed = cache.getMetadataWithChildren("/Photos");
+        DbxEntry.WithChildren cached = cache.getMetadataWithChildren("/Photos");
+
+        for (DbxEntry.WithChildren folder : Arrays.asList(listed, cached)) {
+            try {
+                folder.children.clear();
+                fail("modified the children of a cached listing");
+            } catch (UnsupportedOperationException ex) {
+                // expected
+            }
+        }
+        assertEquals(cache.getMetadataWithChildren("/Photos").children.size(), 2);
+    }
+
+    @Test
+    public void testForgetsDeletedFolder() throws Exception {
+        DbxListingCache cache = new DbxListingCache(client, 10, 1024 * 1024);
+        cache.getMetadataWithChildren("/Photos");
+
+        server.folders.remove("/photos");
+        assertNull(cache.getMetadataWithChildren("/Photos"));
+        assertEquals(cache.size(), 0);
+        assertEquals(cache.getCachedBytes(), 0);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyListedFolders() throws Exception {
+        DbxListingCache byCount = new DbxListingCache(client, 2, 1024 * 1024);
+        byCount.getMetadataWithChildren("/Photos");
+        byCount.getMetadataWithChildren("/Docs");
+        byCount.getMetadataWithChildren("/Photos");
+        byCount.getMetadataWithChildren("/Music");
+
+        assertEquals(byCount.size(), 2);
+        server.sentHashes.clear();
+        byCount.getMetadataWithChildren("/Photos");
+        byCount.getMetadataWithChildren("/Docs");
+        assertEquals(server.sentHashes, list("h1", null));
+
+        DbxListingCache byBytes = new DbxListingCache(client, 10, 1);
+        byBytes.getMetadataWithChildren("/Photos");
+        assertEquals(byBytes.size(), 0);
+        assertEquals(byBytes.getCachedBytes(), 0);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        DbxListingCache cache = new DbxListingCache(client, 10, 1024 * 1024);
+        cache.getMetadataWithChildren("/Photos");
+        cache.invalidate("/PHOTOS");
+
+        server.sentHashes.clear();
+        cache.getMetadataWithChildren("/Photos");
+        assertEquals(server.sentHashes, list((Object) null));
+    }
+
+    private static List<Object> list(Object... values) {
+        List<Object> list = new ArrayList<Object>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * Stand-in for the v1 {@code metadata} endpoint serving folders that only contain files.
+     */
+    private static final class MetadataServer extends HttpRequestor {
+        private final Map<String, String> hashes = new HashMap<String, String>();
+        private final Map<String, String> folders = new HashMap<String, String>();
+        private final List<Object> sentHashes = Collections.synchronizedList(new ArrayList<Object>());
+
+        private void folder(String path, String hash, String... children) {
+            StringBuilder contents = new StringBuilder();
+            for (String child : children) {
+                if (contents.length() > 0) {
+                    contents.append(", ");
+                }
+                contents.append(file(path + "/" + child));
+            }
+            hashes.put(path.toLowerCase(), hash);
+            folders.put(path.toLowerCase(), "{\"hash\": \"" + hash + "\", \"thumb_exists\": false, \"bytes\": 0,"
+                + " \"path\": \"" + path + "\", \"is_dir\": true, \"icon\": \"folder\", \"root\": \"dropbox\","
+                + " \"size\": \"0 bytes\", \"contents\": [" + contents + "]}");
+        }
+
+        private static String file(String path) {
+            return "{\"bytes\": 3, \"rev\": \"400113f659\", \"revision\": 64, \"thumb_exists\": false,"
+                + " \"modified\": \"Thu, 11 Apr 2013 17:05:17 +0000\", \"client_mtime\": \"Thu, 11 Apr 2013 17:05:17 +0000\","
+                + " \"size\": \"3 bytes\", \"path\": \"" + path + "\", \"is_dir\": false, \"root\": \"dropbox\","
+                + " \"icon\": \"page_white\"}";
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            int start = url.indexOf("/1/metadata/auto");
+            if (start == -1) {
+                throw new UnsupportedOperationException(url);
+            }
+            String path = URLDecoder.decode(url.substring(start + "/1/metadata/auto".length(), url.indexOf('?')), "UTF-8");
+            String hash = null;
+            for (String param : url.substring(url.indexOf('?') + 1).split("&")) {
+                if (param.startsWith("hash=")) {
+                    hash = URLDecoder.decode(param.substring("hash=".length()), "UTF-8");
+                }
+            }
+            sentHashes.add(hash);
+
+            String folder = folders.get(path.toLowerCase());
+            if (folder == null) {
+                return json(404, "{\"error\": \"Path '" + path + "' not found\"}");
+            }
+            if (hash != null && hash.equals(hashes.get(path.toLowerCase()))) {
+                return json(304, "");
+            }
+            return json(200, folder);
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        private static Response json(int status, String body) throws IOException {
+            Map<String, List<String>> headers = new HashMap<String, List<String>>();
+            headers.put("Content-Type", Collections.singletonList("application/json"));
+            return new Response(status, new ByteArrayInputStream(body.getBytes("UTF-8")), headers);
+        }
+    }
+}
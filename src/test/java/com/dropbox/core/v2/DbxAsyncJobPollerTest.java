@@ -0,0 +1,179 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.Test;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.RetryException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DbxAsyncJobPollerTest {
+
+    @Test
+    public void testPollsUntilComplete() throws Exception {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+        try {
+            DbxAsyncJobPoller poller = new DbxAsyncJobPoller(executor, 1, 8, TimeUnit.MILLISECONDS);
+            CountingChecker checker = new CountingChecker(5);
+
+            Future<String> status = poller.poll("job", checker);
+
+            assertEquals(status.get(1, TimeUnit.MINUTES), "job:done");
+            assertEquals(checker.calls.get(), 5);
+            assertEquals(poller.getActiveJobCount(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testManyJobsShareFewThreads() throws Exception {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+        try {
+            DbxAsyncJobPoller poller = new DbxAsyncJobPoller(executor, 1, 16, TimeUnit.MILLISECONDS);
+
+            List<Future<String>> statuses = new ArrayList<Future<String>>();
+            for (int i = 0; i < 1000; ++i) {
+                statuses.add(poller.poll("job-" + i, new CountingChecker(1 + (i % 4))));
+            }
+
+            for (int i = 0; i < statuses.size(); ++i) {
+                assertEquals(statuses.get(i).get(1, TimeUnit.MINUTES), "job-" + i + ":done");
+            }
+            assertEquals(poller.getActiveJobCount(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRetriesAfterRetryException() throws Exception {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+        try {
+            DbxAsyncJobPoller poller = new DbxAsyncJobPoller(executor, 1, 8, TimeUnit.MILLISECONDS);
+            final AtomicInteger calls = new AtomicInteger(0);
+
+            Future<String> status = poller.poll("job", new DbxAsyncJobPoller.JobChecker<String>() {
+                @Override
+                public String check(String asyncJobId) throws DbxException {
+                    if (calls.incrementAndGet() == 1) {
+                        throw new RetryException("req-id", "service unavailable", 5, TimeUnit.MILLISECONDS);
+                    }
+                    return "done";
+                }
+
+                @Override
+                public boolean isInProgress(String status) {
+                    return false;
+                }
+            });
+
+            assertEquals(status.get(1, TimeUnit.MINUTES), "done");
+            assertEquals(calls.get(), 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testErrorCompletesFutureAndCallback() throws Exception {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+        try {
+            DbxAsyncJobPoller poller = new DbxAsyncJobPoller(executor, 1, 8, TimeUnit.MILLISECONDS);
+            final DbxException error = new DbxException("boom");
+            final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+            final CountDownLatch latch = new CountDownLatch(1);
+
+            Future<String> status = poller.poll("job", new DbxAsyncJobPoller.JobChecker<String>() {
+                @Override
+                public String check(String asyncJobId) throws DbxException {
+                    throw error;
+                }
+
+                @Override
+                public boolean isInProgress(String status) {
+                    return false;
+                }
+            }, new DbxAsyncJobPoller.Callback<String>() {
+                @Override
+                public void onComplete(String asyncJobId, String status) {
+                    fail("job should have failed");
+                }
+
+                @Override
+                public void onError(String asyncJobId, Throwable ex) {
+                    reported.set(ex);
+                    latch.countDown();
+                }
+            });
+
+            try {
+                status.get(1, TimeUnit.MINUTES);
+                fail("expected ExecutionException");
+            } catch (ExecutionException ex) {
+                assertSame(ex.getCause(), error);
+            }
+            assertTrue(latch.await(1, TimeUnit.MINUTES));
+            assertSame(reported.get(), error);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelStopsPolling() throws Exception {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+        try {
+            DbxAsyncJobPoller poller = new DbxAsyncJobPoller(executor, 1, 2, TimeUnit.MILLISECONDS);
+            CountingChecker checker = new CountingChecker(Integer.MAX_VALUE);
+
+            Future<String> status = poller.poll("job", checker);
+            while (checker.calls.get() < 3) {
+                Thread.sleep(1);
+            }
+            assertTrue(status.cancel(false));
+
+            // let any in-flight check finish
+            Thread.sleep(50);
+            int calls = checker.calls.get();
+            Thread.sleep(50);
+            assertEquals(checker.calls.get(), calls);
+            assertEquals(poller.getActiveJobCount(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class CountingChecker extends DbxAsyncJobPoller.JobChecker<String> {
+        private final int callsUntilDone;
+        private final AtomicInteger calls = new AtomicInteger(0);
+
+        private CountingChecker(int callsUntilDone) {
+            this.callsUntilDone = callsUntilDone;
+        }
+
+        @Override
+        public String check(String asyncJobId) {
+            if (calls.incrementAndGet() >= callsUntilDone) {
+                return asyncJobId + ":done";
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isInProgress(String status) {
+            return status == null;
+        }
+    }
+}
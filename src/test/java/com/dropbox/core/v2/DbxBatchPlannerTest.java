@@ -0,0 +1,207 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.v2.files.DeleteArg;
+import com.dropbox.core.v2.files.DeleteError;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.RelocationBatchError;
+import com.dropbox.core.v2.files.RelocationPath;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class DbxBatchPlannerTest {
+    private FakeFilesRequestor server;
+    private DbxClientV2 client;
+    private ScheduledExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new FakeFilesRequestor();
+        server.setJobCheckCount(0);
+        client = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build(),
+            "fakeAccessToken"
+        );
+        executor = Executors.newScheduledThreadPool(4);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCopiesInBatches() throws Exception {
+        server.setJobCheckCount(1);
+        List<RelocationPath> entries = createFiles(25);
+        RecordingListener<RelocationPath, RelocationBatchError> listener = new RecordingListener<RelocationPath, RelocationBatchError>();
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint(0);
+
+        DbxBatchPlanner planner = new DbxBatchPlanner(client, executor, 2, 10, 3);
+        DbxBatchPlanner.Summary summary = planner.copy(entries.iterator(), listener, checkpoint);
+
+        assertEquals(summary.getSucceededCount(), 25);
+        assertEquals(summary.getFailedCount(), 0);
+        assertEquals(summary.getBatchCount(), 3);
+        assertEquals(summary.getPosition(), 25L);
+        assertEquals(listener.succeeded.size(), 25);
+        assertTrue(listener.failed.isEmpty());
+        for (int i = 0; i < 25; ++i) {
+            assertEquals(server.getContent("/Copy/File" + i + ".txt"), new byte[] {(byte) i});
+            assertNotNull(server.getContent("/Source/File" + i + ".txt"));
+        }
+        assertEquals(server.getRequestCount("files/copy_batch"), 3);
+        assertEquals(server.getRequestCount("files/copy_batch/check"), 6);
+
+        // positions only move forward, ending after the last entry
+        long previous = 0;
+        for (long position : checkpoint.saved) {
+            assertTrue(position > previous, checkpoint.saved.toString());
+            previous = position;
+        }
+        assertEquals(previous, 25L);
+    }
+
+    @Test
+    public void testReportsFailedMoveBatch() throws Exception {
+        List<RelocationPath> entries = createFiles(8);
+        entries.set(5, new RelocationPath("/Source/Missing.txt", "/Copy/Missing.txt"));
+        RecordingListener<RelocationPath, RelocationBatchError> listener = new RecordingListener<RelocationPath, RelocationBatchError>();
+
+        DbxBatchPlanner planner = new DbxBatchPlanner(client, executor, 2, 4, 3);
+        DbxBatchPlanner.Summary summary = planner.move(entries.iterator(), listener, null);
+
+        // the server fails the whole second batch with the error of its missing entry
+        assertEquals(summary.getSucceededCount(), 4);
+        assertEquals(summary.getFailedCount(), 4);
+        assertEquals(listener.failed.size(), 4);
+        for (Object error : listener.errors) {
+            assertTrue(((RelocationBatchError) error).isFromLookup(), error.toString());
+        }
+        for (int i = 0; i < 4; ++i) {
+            assertNull(server.getContent("/Source/File" + i + ".txt"));
+            assertNotNull(server.getContent("/Copy/File" + i + ".txt"));
+        }
+    }
+
+    @Test
+    public void testReportsDeleteFailuresPerEntry() throws Exception {
+        createFiles(5);
+        List<DeleteArg> entries = new ArrayList<DeleteArg>();
+        for (int i = 0; i < 7; ++i) {
+            entries.add(new DeleteArg("/Source/File" + i + ".txt"));
+        }
+        RecordingListener<DeleteArg, DeleteError> listener = new RecordingListener<DeleteArg, DeleteError>();
+
+        DbxBatchPlanner planner = new DbxBatchPlanner(client, executor, 2, 3, 3);
+        DbxBatchPlanner.Summary summary = planner.delete(entries.iterator(), listener, null);
+
+        assertEquals(summary.getSucceededCount(), 5);
+        assertEquals(summary.getFailedCount(), 2);
+        assertEquals(summary.getBatchCount(), 3);
+        assertEquals(listener.failed.size(), 2);
+        for (Object error : listener.errors) {
+            assertTrue(((DeleteError) error).isPathLookup(), error.toString());
+        }
+        for (int i = 0; i < 5; ++i) {
+            assertNull(server.getContent("/Source/File" + i + ".txt"));
+        }
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        List<RelocationPath> entries = createFiles(25);
+        RecordingListener<RelocationPath, RelocationBatchError> listener = new RecordingListener<RelocationPath, RelocationBatchError>();
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint(10);
+
+        DbxBatchPlanner planner = new DbxBatchPlanner(client, executor, 2, 10, 3);
+        DbxBatchPlanner.Summary summary = planner.copy(entries.iterator(), listener, checkpoint);
+
+        assertEquals(summary.getSucceededCount(), 15);
+        assertEquals(summary.getPosition(), 25L);
+        assertEquals(listener.succeeded.size(), 15);
+        for (int i = 0; i < 25; ++i) {
+            assertEquals(server.getContent("/Copy/File" + i + ".txt") != null, i >= 10, "entry " + i);
+        }
+    }
+
+    @Test
+    public void testRetriesUnavailableServer() throws Exception {
+        List<RelocationPath> entries = createFiles(20);
+        server.setSeed(7);
+        server.setUnavailableRate(0.4);
+        RecordingListener<RelocationPath, RelocationBatchError> listener = new RecordingListener<RelocationPath, RelocationBatchError>();
+
+        DbxBatchPlanner planner = new DbxBatchPlanner(client, executor, 4, 2, 10);
+        DbxBatchPlanner.Summary summary = planner.copy(entries.iterator(), listener, null);
+
+        assertEquals(summary.getSucceededCount(), 20, listener.exceptions.toString());
+        assertEquals(summary.getRetryCount(), server.getFaultCount());
+        assertTrue(summary.getRetryCount() > 0);
+    }
+
+    private List<RelocationPath> createFiles(int count) {
+        List<RelocationPath> entries = new ArrayList<RelocationPath>();
+        for (int i = 0; i < count; ++i) {
+            server.putFile("/Source/File" + i + ".txt", new byte[] {(byte) i});
+            entries.add(new RelocationPath("/Source/File" + i + ".txt", "/Copy/File" + i + ".txt"));
+        }
+        return entries;
+    }
+
+    private static final class RecordingListener<E, F> extends DbxBatchPlanner.Listener<E, F> {
+        private final List<E> succeeded = Collections.synchronizedList(new ArrayList<E>());
+        private final List<E> failed = Collections.synchronizedList(new ArrayList<E>());
+        private final List<Object> errors = Collections.synchronizedList(new ArrayList<Object>());
+        private final List<DbxException> exceptions = Collections.synchronizedList(new ArrayList<DbxException>());
+
+        @Override
+        public void onSuccess(E entry, Metadata metadata) {
+            assertNotNull(metadata);
+            succeeded.add(entry);
+        }
+
+        @Override
+        public void onFailure(E entry, F error) {
+            failed.add(entry);
+            errors.add(error);
+        }
+
+        @Override
+        public void onException(E entry, DbxException ex) {
+            failed.add(entry);
+            exceptions.add(ex);
+        }
+    }
+
+    private static final class MemoryCheckpoint extends DbxBatchPlanner.Checkpoint {
+        private final List<Long> saved = Collections.synchronizedList(new ArrayList<Long>());
+        private final long initial;
+
+        private MemoryCheckpoint(long initial) {
+            this.initial = initial;
+        }
+
+        @Override
+        public long load() {
+            return saved.isEmpty() ? initial : saved.get(saved.size() - 1);
+        }
+
+        @Override
+        public void save(long position) {
+            saved.add(position);
+        }
+    }
+}
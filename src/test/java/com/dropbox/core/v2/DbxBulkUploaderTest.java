@@ -0,0 +1,185 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.UploadSessionFinishError;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class DbxBulkUploaderTest {
+    private FakeFilesRequestor server;
+    private ScheduledExecutorService executor;
+    private RecordingCallback callback;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new FakeFilesRequestor();
+        server.setJobCheckCount(0);
+        executor = Executors.newScheduledThreadPool(4);
+        callback = new RecordingCallback();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCommitsFullBatches() throws Exception {
+        DbxBulkUploader uploader = new DbxBulkUploader(client(server), executor, 5, callback);
+        for (int i = 0; i < 10; ++i) {
+            uploader.submit(new byte[] {(byte) i}, new CommitInfo("/Upload/File" + i + ".txt"));
+        }
+        uploader.finish();
+
+        assertEquals(callback.succeeded.size(), 10);
+        assertTrue(callback.failed.isEmpty());
+        assertTrue(callback.exceptions.isEmpty());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(server.getContent("/Upload/File" + i + ".txt"), new byte[] {(byte) i});
+        }
+        assertEquals(server.getRequestCount("files/upload_session/start"), 10);
+        assertEquals(server.getRequestCount("files/upload_session/finish_batch"), 2);
+    }
+
+    @Test
+    public void testFinishCommitsPartialBatch() throws Exception {
+        DbxBulkUploader uploader = new DbxBulkUploader(client(server), executor, 5, callback);
+        for (int i = 0; i < 7; ++i) {
+            uploader.submit(new byte[] {(byte) i}, new CommitInfo("/Upload/File" + i + ".txt"));
+        }
+        uploader.finish();
+
+        assertEquals(callback.succeeded.size(), 7);
+        assertEquals(server.getRequestCount("files/upload_session/finish_batch"), 2);
+
+        try {
+            uploader.submit(new byte[0], new CommitInfo("/Upload/Late.txt"));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPollsAsyncJob() throws Exception {
+        server.setJobCheckCount(2);
+        DbxBulkUploader uploader = new DbxBulkUploader(client(server), executor, 3, callback);
+        for (int i = 0; i < 3; ++i) {
+            uploader.submit(new byte[] {(byte) i}, new CommitInfo("/Upload/File" + i + ".txt"));
+        }
+        uploader.finish();
+
+        assertEquals(callback.succeeded.size(), 3);
+        assertEquals(server.getRequestCount("files/upload_session/finish_batch"), 1);
+        assertEquals(server.getRequestCount("files/upload_session/finish_batch/check"), 3);
+        assertEquals(server.getContent("/Upload/File2.txt"), new byte[] {2});
+    }
+
+    @Test
+    public void testReportsFailedEntry() throws Exception {
+        server.putFile("/Upload/Existing.txt", new byte[] {42});
+        DbxBulkUploader uploader = new DbxBulkUploader(client(server), executor, 5, callback);
+        uploader.submit(new byte[] {1}, new CommitInfo("/Upload/New.txt"));
+        uploader.submit(new byte[] {2}, new CommitInfo("/Upload/Existing.txt"));
+        uploader.finish();
+
+        assertEquals(callback.succeeded.keySet().size(), 1);
+        assertTrue(callback.succeeded.containsKey("/Upload/New.txt"));
+        assertEquals(callback.failed.size(), 1);
+        assertTrue(callback.failed.get("/Upload/Existing.txt").isPath());
+        assertEquals(server.getContent("/Upload/Existing.txt"), new byte[] {42});
+    }
+
+    @Test
+    public void testReportsFailedUpload() throws Exception {
+        FakeFilesRequestor failing = new FailingRequestor("files/upload_session/start");
+        failing.setJobCheckCount(0);
+        DbxBulkUploader uploader = new DbxBulkUploader(client(failing), executor, 5, callback);
+        for (int i = 0; i < 3; ++i) {
+            uploader.submit(new byte[] {(byte) i}, new CommitInfo("/Upload/File" + i + ".txt"));
+        }
+        uploader.finish();
+
+        assertTrue(callback.succeeded.isEmpty());
+        assertEquals(callback.exceptions.size(), 3);
+        assertEquals(failing.getRequestCount("files/upload_session/finish_batch"), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testReportsFailedCommit() throws Exception {
+        FakeFilesRequestor failing = new FailingRequestor("files/upload_session/finish_batch");
+        failing.setJobCheckCount(0);
+        DbxBulkUploader uploader = new DbxBulkUploader(client(failing), executor, 2, callback);
+        for (int i = 0; i < 3; ++i) {
+            uploader.submit(new byte[] {(byte) i}, new CommitInfo("/Upload/File" + i + ".txt"));
+        }
+        // must not wait forever for entries of batches that failed to commit
+        uploader.finish();
+
+        assertTrue(callback.succeeded.isEmpty());
+        assertEquals(callback.exceptions.size(), 3);
+        for (Exception ex : callback.exceptions.values()) {
+            assertTrue(ex instanceof DbxException, ex.toString());
+            assertTrue(ex.getCause() instanceof IllegalStateException, ex.toString());
+        }
+    }
+
+    private static DbxClientV2 client(FakeFilesRequestor server) {
+        return new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build(),
+            "fakeAccessToken"
+        );
+    }
+
+    private static final class FailingRequestor extends FakeFilesRequestor {
+        private final String failingRoute;
+
+        public FailingRequestor(String failingRoute) {
+            this.failingRoute = failingRoute;
+        }
+
+        @Override
+        protected Response handle(String route, Map<String, String> headers, byte [] body) throws IOException {
+            if (route.equals(failingRoute)) {
+                throw new IllegalStateException("Unexpected failure in " + route);
+            }
+            return super.handle(route, headers, body);
+        }
+    }
+
+    private static final class RecordingCallback extends DbxBulkUploader.Callback {
+        private final ConcurrentMap<String, FileMetadata> succeeded = new ConcurrentHashMap<String, FileMetadata>();
+        private final ConcurrentMap<String, UploadSessionFinishError> failed = new ConcurrentHashMap<String, UploadSessionFinishError>();
+        private final ConcurrentMap<String, Exception> exceptions = new ConcurrentHashMap<String, Exception>();
+
+        @Override
+        public void onSuccess(CommitInfo commit, FileMetadata metadata) {
+            succeeded.put(commit.getPath(), metadata);
+        }
+
+        @Override
+        public void onFailure(CommitInfo commit, UploadSessionFinishError error) {
+            failed.put(commit.getPath(), error);
+        }
+
+        @Override
+        public void onException(CommitInfo commit, Exception ex) {
+            exceptions.put(commit.getPath(), ex);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+import com.dropbox.core.v2.files.ListFolderErrorException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DbxClientPoolTest {
+    private FakeFilesRequestor server;
+    private HeaderRecordingRequestor requestor;
+    private DbxRequestConfig config;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new FakeFilesRequestor();
+        server.createFolder("/Photos");
+        requestor = new HeaderRecordingRequestor(server);
+        config = DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(requestor).build();
+    }
+
+    @Test
+    public void testReusesClientsPerTenant() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 10);
+
+        DbxClientV2 alice = pool.getClient("alice", "aliceToken");
+        assertSame(pool.getClient("alice", "aliceToken"), alice);
+        DbxClientV2 bob = pool.getClient("bob", "bobToken");
+        assertNotSame(bob, alice);
+
+        alice.files().listFolder("/Photos");
+        bob.files().listFolder("/Photos");
+        assertEquals(requestor.authorizations, list("Bearer aliceToken", "Bearer bobToken"));
+        assertEquals(server.getRequestCount("files/list_folder"), 2);
+
+        assertEquals(pool.getClientCount(), 2);
+        assertEquals(pool.getCreatedCount(), 2);
+        assertEquals(pool.getReusedCount(), 1);
+    }
+
+    @Test
+    public void testReplacesClientWhenTokenChanges() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 10);
+
+        DbxClientV2 before = pool.getClient("alice", "oldToken");
+        DbxClientV2 after = pool.getClient("alice", "newToken");
+        assertNotSame(after, before);
+        assertSame(pool.getClient("alice", "newToken"), after);
+        assertEquals(pool.getClientCount(), 1);
+
+        after.files().listFolder("/Photos");
+        assertEquals(requestor.authorizations, list("Bearer newToken"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedClients() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 2);
+
+        DbxClientV2 alice = pool.getClient("alice", "aliceToken");
+        DbxClientV2 bob = pool.getClient("bob", "bobToken");
+        assertSame(pool.getClient("alice", "aliceToken"), alice);
+        pool.getClient("carol", "carolToken");
+
+        assertEquals(pool.getClientCount(), 2);
+        assertSame(pool.getClient("alice", "aliceToken"), alice);
+        assertNotSame(pool.getClient("bob", "bobToken"), bob);
+        assertEquals(pool.getCreatedCount(), 4);
+    }
+
+    @Test
+    public void testSelectsTeamMembers() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 10);
+
+        DbxClientV2 first = pool.getMemberClient("acme", "teamToken", "dbmid:first");
+        DbxClientV2 second = pool.getMemberClient("acme", "teamToken", "dbmid:second");
+        assertNotSame(second, first);
+        assertSame(pool.getMemberClient("acme", "teamToken", "dbmid:first"), first);
+
+        first.files().listFolder("/Photos");
+        second.files().listFolder("/Photos");
+        assertEquals(requestor.authorizations, list("Bearer teamToken", "Bearer teamToken"));
+        assertEquals(requestor.selectedUsers, list("dbmid:first", "dbmid:second"));
+    }
+
+    @Test
+    public void testTracksMetricsPerTenant() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 10);
+
+        DbxClientV2 alice = pool.getClient("alice", "aliceToken");
+        for (int i = 0; i < 3; ++i) {
+            alice.files().listFolder("/Photos");
+        }
+        try {
+            alice.files().listFolder("/Missing");
+            fail("listing a missing folder should fail");
+        } catch (ListFolderErrorException ex) {
+            // expected
+        }
+        pool.getMemberClient("acme", "teamToken", "dbmid:first").files().listFolder("/Photos");
+        pool.getMemberClient("acme", "teamToken", "dbmid:second").files().listFolder("/Photos");
+
+        DbxClientPool.Metrics metrics = pool.getMetrics("alice");
+        assertEquals(metrics.getRequestCount(), 4);
+        assertEquals(metrics.getErrorCount(), 1);
+        assertEquals(metrics.getRateLimitCount(), 0);
+        assertEquals(metrics.getNetworkErrorCount(), 0);
+        assertTrue(metrics.getTotalLatencyMillis() >= 0);
+
+        Map<String, DbxClientPool.Metrics> all = pool.getMetrics();
+        assertEquals(all.keySet(), new HashSet<String>(list("alice", "acme")));
+        assertEquals(all.get("acme").getRequestCount(), 2);
+        assertEquals(all.get("acme").getErrorCount(), 0);
+        assertNull(pool.getMetrics("bob"));
+    }
+
+    @Test
+    public void testEvictedClientsStartNewMetrics() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 1);
+
+        DbxClientV2 alice = pool.getClient("alice", "aliceToken");
+        alice.files().listFolder("/Photos");
+        DbxClientV2 bob = pool.getClient("bob", "bobToken");
+        bob.files().listFolder("/Photos");
+        assertNull(pool.getMetrics("alice"));
+
+        // evicted clients keep working and count towards new metrics of their tenant
+        alice.files().listFolder("/Photos");
+        assertEquals(pool.getMetrics("alice").getRequestCount(), 1);
+        assertNull(pool.getMetrics("bob"));
+
+        // handing out a pooled client keeps its tenant's metrics
+        bob = pool.getClient("bob", "bobToken");
+        bob.files().listFolder("/Photos");
+        assertEquals(pool.getMetrics("bob").getRequestCount(), 1);
+        assertNull(pool.getMetrics("alice"));
+    }
+
+    @Test
+    public void testPooledClientsUploadBodiesDirectly() throws Exception {
+        DbxClientPool pool = new DbxClientPool(config, 10);
+
+        DbxClientV2 alice = pool.getClient("alice", "aliceToken");
+        alice.files().listFolder("/Photos");
+        alice.files().listFolder("/Photos");
+
+        // the metered requestor must hand request bodies to the uploader as a whole, rather than
+        // streaming them through getBody()
+        assertEquals(requestor.byteUploads.get(), 2);
+        assertEquals(requestor.streamedBodies.get(), 0);
+        assertEquals(pool.getMetrics("alice").getRequestCount(), 2);
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    private static final class HeaderRecordingRequestor extends HttpRequestor {
+        private final HttpRequestor requestor;
+        private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> selectedUsers = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger byteUploads = new AtomicInteger(0);
+        private final AtomicInteger streamedBodies = new AtomicInteger(0);
+
+        private HeaderRecordingRequestor(HttpRequestor requestor) {
+            this.requestor = requestor;
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            record(headers);
+            return requestor.doGet(url, headers);
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            record(headers);
+            return new RecordingUploader(requestor.startPost(url, headers));
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            record(headers);
+            return new RecordingUploader(requestor.startPut(url, headers));
+        }
+
+        private void record(Iterable<Header> headers) {
+            for (Header header : headers) {
+                if (header.getKey().equals("Authorization")) {
+                    authorizations.add(header.getValue());
+                } else if (header.getKey().equals("Dropbox-API-Select-User")) {
+                    selectedUsers.add(header.getValue());
+                }
+            }
+        }
+
+        private final class RecordingUploader extends Uploader {
+            private final Uploader uploader;
+
+            private RecordingUploader(Uploader uploader) {
+                this.uploader = uploader;
+            }
+
+            @Override
+            public OutputStream getBody() {
+                streamedBodies.incrementAndGet();
+                return uploader.getBody();
+            }
+
+            @Override
+            public void upload(byte [] body) throws IOException {
+                byteUploads.incrementAndGet();
+                uploader.upload(body);
+            }
+
+            @Override
+            public void close() {
+                uploader.close();
+            }
+
+            @Override
+            public void abort() {
+                uploader.abort();
+            }
+
+            @Override
+            public Response finish() throws IOException {
+                return uploader.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+import com.dropbox.core.v2.files.ListFolderErrorException;
+import com.dropbox.core.v2.files.Metadata;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DbxFolderWalkerTest {
+    private FakeFilesRequestor server;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new FakeFilesRequestor();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testVisitsEveryEntryOnce() throws Exception {
+        Set<String> expected = createTree("/Inventory", 3, 3, 2);
+        server.putFile("/Elsewhere/other.txt", new byte[] {1});
+
+        List<String> visited = walk(new DbxFolderWalker(client(server), executor, 4), "/Inventory");
+
+        assertEquals(visited.size(), expected.size(), "entries visited more than once");
+        assertEquals(new HashSet<String>(visited), expected);
+        // the walked folder and each of its 3 + 9 + 27 subfolders on their own
+        assertEquals(server.getRequestCount("files/list_folder"), 1 + 3 + 9 + 27);
+    }
+
+    @Test
+    public void testListsDeepFoldersRecursively() throws Exception {
+        Set<String> expected = createTree("/Inventory", 3, 3, 2);
+
+        List<String> visited = walk(new DbxFolderWalker(client(server), executor, 4, 1), "/Inventory");
+
+        assertEquals(visited.size(), expected.size(), "entries visited more than once");
+        assertEquals(new HashSet<String>(visited), expected);
+        // the walked folder on its own, then one recursive listing per subfolder
+        assertEquals(server.getRequestCount("files/list_folder"), 1 + 3);
+    }
+
+    @Test
+    public void testWalksRootRecursively() throws Exception {
+        Set<String> expected = createTree("/Inventory", 2, 2, 1);
+        expected.add("/inventory");
+
+        List<String> visited = walk(new DbxFolderWalker(client(server), executor, 4, 0), "");
+
+        assertEquals(visited.size(), expected.size(), "entries visited more than once");
+        assertEquals(new HashSet<String>(visited), expected);
+        assertEquals(server.getRequestCount("files/list_folder"), 1);
+    }
+
+    @Test
+    public void testRespectsConcurrencyLimit() throws Exception {
+        createTree("/Inventory", 4, 2, 1);
+        server.setLatency(20, 0, TimeUnit.MILLISECONDS);
+        ConcurrencyTrackingRequestor tracking = new ConcurrencyTrackingRequestor(server);
+
+        walk(new DbxFolderWalker(client(tracking), executor, 3), "/Inventory");
+
+        assertTrue(tracking.maxInFlight.get() <= 3, tracking.maxInFlight.get() + " requests at once");
+        assertTrue(tracking.maxInFlight.get() > 1, "folders were listed one at a time");
+    }
+
+    @Test
+    public void testFailsOnMissingFolder() throws Exception {
+        try {
+            walk(new DbxFolderWalker(client(server), executor, 4), "/Missing");
+            fail("walking a missing folder should fail");
+        } catch (ListFolderErrorException ex) {
+            assertTrue(ex.errorValue.isPath());
+        }
+    }
+
+    /**
+     * Creates {@code fanout} subfolders on each of {@code depth} levels below {@code root}, each
+     * folder holding {@code files} files. Returns the lower case paths of everything created below
+     * {@code root}.
+     */
+    private Set<String> createTree(String root, int depth, int fanout, int files) {
+        Set<String> paths = new HashSet<String>();
+        createTree(root, depth, fanout, files, paths);
+        return paths;
+    }
+
+    private void createTree(String folder, int depth, int fanout, int files, Set<String> paths) {
+        server.createFolder(folder);
+        for (int i = 0; i < files; ++i) {
+            String path = folder + "/File" + i + ".txt";
+            server.putFile(path, new byte[] {(byte) i});
+            paths.add(path.toLowerCase());
+        }
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < fanout; ++i) {
+            String path = folder + "/Folder" + i;
+            paths.add(path.toLowerCase());
+            createTree(path, depth - 1, fanout, files, paths);
+        }
+    }
+
+    private static List<String> walk(DbxFolderWalker walker, String path) throws Exception {
+        final List<String> visited = Collections.synchronizedList(new ArrayList<String>());
+        walker.walk(path, new DbxFolderWalker.Visitor() {
+            @Override
+            public void visit(Metadata metadata) {
+                visited.add(metadata.getPathLower());
+            }
+        });
+        return visited;
+    }
+
+    private static DbxClientV2 client(HttpRequestor requestor) {
+        return new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(requestor).build(),
+            "fakeAccessToken"
+        );
+    }
+
+    private static final class ConcurrencyTrackingRequestor extends HttpRequestor {
+        private final HttpRequestor requestor;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+        private ConcurrencyTrackingRequestor(HttpRequestor requestor) {
+            this.requestor = requestor;
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+            final Uploader uploader = requestor.startPost(url, headers);
+            return new Uploader() {
+                @Override
+                public OutputStream getBody() {
+                    return uploader.getBody();
+                }
+
+                @Override
+                public void close() {
+                    uploader.close();
+                }
+
+                @Override
+                public void abort() {
+                    uploader.abort();
+                }
+
+                @Override
+                public Response finish() throws IOException {
+                    int now = inFlight.incrementAndGet();
+                    synchronized (maxInFlight) {
+                        maxInFlight.set(Math.max(maxInFlight.get(), now));
+                    }
+                    try {
+                        return uploader.finish();
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            };
+        }
+    }
+}
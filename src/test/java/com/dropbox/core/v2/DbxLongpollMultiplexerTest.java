@@ -0,0 +1,355 @@
+package com.dropbox.core.v2;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.util.StringUtil;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.ListFolderLongpollError;
+import com.dropbox.core.v2.files.ListFolderLongpollErrorException;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class DbxLongpollMultiplexerTest {
+
+    @Test
+    public void testDrainsChangesAndAdvancesCursor() throws Exception {
+        DbxUserFilesRequests longpollFiles = mock(DbxUserFilesRequests.class);
+        when(longpollFiles.listFolderLongpoll("cursor-1", 30L))
+            .thenReturn(new ListFolderLongpollResult(true));
+        when(longpollFiles.listFolderLongpoll("cursor-3", 30L))
+            .thenReturn(new ListFolderLongpollResult(false, 60L));
+
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(files.listFolderContinue("cursor-1")).thenReturn(page("cursor-2", true));
+        when(files.listFolderContinue("cursor-2")).thenReturn(page("cursor-3", false));
+
+        final List<String> cursors = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch drained = new CountDownLatch(2);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            DbxLongpollMultiplexer multiplexer = new DbxLongpollMultiplexer(
+                mockClient(longpollFiles), executor, 2, executor
+            );
+            multiplexer.start();
+
+            DbxLongpollMultiplexer.Subscription subscription = multiplexer.register(
+                "dbid:1", mockClient(files), "cursor-1",
+                new DbxLongpollMultiplexer.Listener() {
+                    @Override
+                    public void onChanges(DbxLongpollMultiplexer.Subscription subscription, ListFolderResult changes) {
+                        cursors.add(changes.getCursor());
+                        drained.countDown();
+                    }
+
+                    @Override
+                    public void onError(DbxLongpollMultiplexer.Subscription subscription, Exception ex) {
+                        fail("unexpected error", ex);
+                    }
+                }
+            );
+
+            assertTrue(drained.await(1, TimeUnit.MINUTES));
+            verify(longpollFiles, timeout(60000)).listFolderLongpoll("cursor-3", 30L);
+
+            assertEquals(cursors, Arrays.asList("cursor-2", "cursor-3"));
+            assertEquals(subscription.getCursor(), "cursor-3");
+            assertEquals(multiplexer.getDrainCount(), 1);
+            assertEquals(multiplexer.getSubscriptionCount(), 1);
+
+            subscription.cancel();
+            assertEquals(multiplexer.getSubscriptionCount(), 0);
+            multiplexer.shutdown();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDrainsAreFairAcrossAccounts() throws Exception {
+        DbxUserFilesRequests longpollFiles = mock(DbxUserFilesRequests.class);
+        when(longpollFiles.listFolderLongpoll(anyString(), anyLong()))
+            .thenReturn(new ListFolderLongpollResult(true));
+
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(files.listFolderContinue(anyString())).thenReturn(page("done", false));
+
+        // hold on to drains so they run in a controlled order once everything is queued
+        final List<Runnable> queued = Collections.synchronizedList(new ArrayList<Runnable>());
+        Executor drainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                queued.add(task);
+            }
+        };
+        final List<String> order = new ArrayList<String>();
+        DbxLongpollMultiplexer.Listener listener = new DbxLongpollMultiplexer.Listener() {
+            @Override
+            public void onChanges(DbxLongpollMultiplexer.Subscription subscription, ListFolderResult changes) {
+                order.add(subscription.getAccountId());
+            }
+
+            @Override
+            public void onError(DbxLongpollMultiplexer.Subscription subscription, Exception ex) {
+                fail("unexpected error", ex);
+            }
+        };
+
+        ExecutorService pollExecutor = Executors.newSingleThreadExecutor();
+        try {
+            DbxLongpollMultiplexer multiplexer = new DbxLongpollMultiplexer(
+                mockClient(longpollFiles), pollExecutor, 1, drainExecutor
+            );
+            DbxClientV2 client = mockClient(files);
+            for (int i = 0; i < 4; ++i) {
+                multiplexer.register("busy", client, "busy-" + i, listener);
+            }
+            multiplexer.register("quiet", client, "quiet-0", listener);
+            multiplexer.start();
+
+            long deadline = System.currentTimeMillis() + 60000;
+            while (multiplexer.getDrainQueueDepth() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(multiplexer.getDrainQueueDepth(), 5);
+
+            List<Runnable> tasks;
+            synchronized (queued) {
+                tasks = new ArrayList<Runnable>(queued);
+            }
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            multiplexer.shutdown();
+        } finally {
+            pollExecutor.shutdownNow();
+        }
+
+        // the quiet account gets its turn right after the first busy drain
+        assertEquals(order.subList(0, 2), Arrays.asList("busy", "quiet"));
+    }
+
+    @Test
+    public void testUncheckedPollFailureKeepsPolling() throws Exception {
+        DbxUserFilesRequests longpollFiles = mock(DbxUserFilesRequests.class);
+        when(longpollFiles.listFolderLongpoll("broken", 30L))
+            .thenThrow(new IllegalStateException("malformed response"));
+        when(longpollFiles.listFolderLongpoll("cursor-1", 30L))
+            .thenReturn(new ListFolderLongpollResult(true));
+
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(files.listFolderContinue("cursor-1")).thenReturn(page("cursor-2", false));
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final CountDownLatch failed = new CountDownLatch(1);
+        final CountDownLatch drained = new CountDownLatch(1);
+        DbxLongpollMultiplexer.Listener listener = new DbxLongpollMultiplexer.Listener() {
+            @Override
+            public void onChanges(DbxLongpollMultiplexer.Subscription subscription, ListFolderResult changes) {
+                drained.countDown();
+            }
+
+            @Override
+            public void onError(DbxLongpollMultiplexer.Subscription subscription, Exception ex) {
+                errors.add(ex);
+                failed.countDown();
+            }
+        };
+
+        // a single poll thread, which must survive the failure to poll the second cursor
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            DbxLongpollMultiplexer multiplexer = new DbxLongpollMultiplexer(
+                mockClient(longpollFiles), executor, 1, executor
+            );
+            multiplexer.start();
+
+            DbxLongpollMultiplexer.Subscription broken = multiplexer.register(
+                "dbid:1", mockClient(files), "broken", listener
+            );
+            assertTrue(failed.await(1, TimeUnit.MINUTES));
+            multiplexer.register("dbid:2", mockClient(files), "cursor-1", listener);
+            assertTrue(drained.await(1, TimeUnit.MINUTES));
+
+            assertEquals(errors.size(), 1);
+            assertTrue(errors.get(0) instanceof IllegalStateException);
+            assertTrue(broken.isCancelled());
+            multiplexer.shutdown();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncPollsDoNotHoldThreads() throws Exception {
+        AsyncRequestor requestor = new AsyncRequestor();
+        DbxClientV2 longpollClient = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(requestor).build(), "unused"
+        );
+
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        when(files.listFolderContinue("b")).thenReturn(page("b-2", false));
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final CountDownLatch failed = new CountDownLatch(1);
+        final CountDownLatch drained = new CountDownLatch(1);
+        DbxLongpollMultiplexer.Listener listener = new DbxLongpollMultiplexer.Listener() {
+            @Override
+            public void onChanges(DbxLongpollMultiplexer.Subscription subscription, ListFolderResult changes) {
+                drained.countDown();
+            }
+
+            @Override
+            public void onError(DbxLongpollMultiplexer.Subscription subscription, Exception ex) {
+                errors.add(ex);
+                failed.countDown();
+            }
+        };
+
+        // one dispatcher thread for three polls in flight
+        ExecutorService pollExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService drainExecutor = Executors.newSingleThreadExecutor();
+        try {
+            DbxLongpollMultiplexer multiplexer = new DbxLongpollMultiplexer(
+                longpollClient, pollExecutor, 3, drainExecutor
+            );
+            multiplexer.start();
+            multiplexer.register("dbid:1", mockClient(files), "a", listener);
+            DbxLongpollMultiplexer.Subscription b = multiplexer.register("dbid:2", mockClient(files), "b", listener);
+            DbxLongpollMultiplexer.Subscription c = multiplexer.register("dbid:3", mockClient(files), "c", listener);
+
+            requestor.awaitPolls(3);
+            assertEquals(multiplexer.getActivePollCount(), 3);
+            for (AsyncRequestor.Poll poll : requestor.getPolls()) {
+                assertEquals(poll.url, "https://notify.dropboxapi.com/2/files/list_folder/longpoll");
+            }
+
+            requestor.getPoll("b").respond(200, "{\"changes\": true}");
+            assertTrue(drained.await(1, TimeUnit.MINUTES));
+            // the drained cursor is polled again with its new cursor
+            requestor.awaitPolls(4);
+            assertEquals(b.getCursor(), "b-2");
+            assertTrue(requestor.getPoll("b-2").body.contains("\"timeout\":30"));
+
+            requestor.getPoll("c").respond(409, "{\"error_summary\": \"reset/..\", \"error\": {\".tag\": \"reset\"}}");
+            assertTrue(failed.await(1, TimeUnit.MINUTES));
+            assertEquals(errors.size(), 1);
+            assertTrue(errors.get(0) instanceof ListFolderLongpollErrorException);
+            assertEquals(((ListFolderLongpollErrorException) errors.get(0)).errorValue, ListFolderLongpollError.RESET);
+            assertTrue(c.isCancelled());
+            assertEquals(multiplexer.getActivePollCount(), 2);
+            multiplexer.shutdown();
+        } finally {
+            pollExecutor.shutdownNow();
+            drainExecutor.shutdownNow();
+        }
+    }
+
+    private static DbxClientV2 mockClient(DbxUserFilesRequests files) {
+        DbxClientV2 client = mock(DbxClientV2.class);
+        when(client.files()).thenReturn(files);
+        return client;
+    }
+
+    private static ListFolderResult page(String cursor, boolean hasMore) {
+        return new ListFolderResult(Collections.<Metadata>emptyList(), cursor, hasMore);
+    }
+
+    /**
+     * Requestor that only supports asynchronous requests and leaves them open until the test
+     * answers them.
+     */
+    private static final class AsyncRequestor extends HttpRequestor {
+        private final List<Poll> polls = Collections.synchronizedList(new ArrayList<Poll>());
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return true;
+        }
+
+        @Override
+        public void postAsync(String url, Iterable<Header> headers, byte[] body, ResponseCallback callback) {
+            try {
+                polls.add(new Poll(url, StringUtil.utf8ToString(body), callback));
+            } catch (CharacterCodingException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        public List<Poll> getPolls() {
+            synchronized (polls) {
+                return new ArrayList<Poll>(polls);
+            }
+        }
+
+        public void awaitPolls(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 60000;
+            while (polls.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(polls.size(), count);
+        }
+
+        public Poll getPoll(String cursor) {
+            for (Poll poll : getPolls()) {
+                if (poll.body.contains("\"cursor\":\"" + cursor + "\"")) {
+                    return poll;
+                }
+            }
+            throw new AssertionError("no poll for " + cursor);
+        }
+
+        private static final class Poll {
+            private final String url;
+            private final String body;
+            private final ResponseCallback callback;
+
+            private Poll(String url, String body, ResponseCallback callback) {
+                this.url = url;
+                this.body = body;
+                this.callback = callback;
+            }
+
+            public void respond(int statusCode, String json) {
+                callback.onResponse(new Response(
+                    statusCode,
+                    new ByteArrayInputStream(StringUtil.stringToUtf8(json)),
+                    Collections.<String, List<String>>emptyMap()
+                ));
+            }
+        }
+    }
+}
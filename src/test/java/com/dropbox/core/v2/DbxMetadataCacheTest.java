@@ -0,0 +1,352 @@
+package com.dropbox.core.v2;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderContinueError;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
+import com.dropbox.core.v2.files.ListFolderGetLatestCursorBuilder;
+import com.dropbox.core.v2.files.ListFolderGetLatestCursorResult;
+import com.dropbox.core.v2.files.ListFolderLongpollResult;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DbxMetadataCacheTest {
+
+    @Test
+    public void testNothingCachedWithoutCursor() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+
+        FileMetadata a = file("/root/a.txt", "id:a", "1");
+        when(files.getMetadata("/root/a.txt")).thenReturn(a);
+
+        cache.getMetadata("/root/a.txt");
+        cache.getMetadata("/root/a.txt");
+
+        verify(files, times(2)).getMetadata("/root/a.txt");
+        assertEquals(cache.size(), 0);
+        assertEquals(cache.getStalenessMillis(), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testHitsByPathAndId() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/Root", 100);
+        cache.refresh();
+
+        FileMetadata a = file("/root/a.txt", "id:a", "1");
+        when(files.getMetadata("/Root/A.txt")).thenReturn(a);
+
+        assertSame(cache.getMetadata("/Root/A.txt"), a);
+        assertSame(cache.getMetadata("/root/a.txt"), a);
+        assertSame(cache.getMetadata("id:a"), a);
+
+        verify(files, times(1)).getMetadata(anyString());
+        assertEquals(cache.getHitCount(), 2);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getHitRatio(), 2.0 / 3.0, 0.0001);
+    }
+
+    @Test
+    public void testEntriesOutsideRootNotCached() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+        cache.refresh();
+
+        FileMetadata other = file("/other/a.txt", "id:a", "1");
+        when(files.getMetadata("/other/a.txt")).thenReturn(other);
+
+        cache.getMetadata("/other/a.txt");
+        cache.getMetadata("/other/a.txt");
+
+        verify(files, times(2)).getMetadata("/other/a.txt");
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testChangesUpdateCachedEntries() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+        cache.refresh();
+
+        FolderMetadata dir = folder("/root/dir", "id:dir");
+        FileMetadata a = file("/root/dir/a.txt", "id:a", "1");
+        FileMetadata b = file("/root/dir/b.txt", "id:b", "1");
+        FileMetadata nested = file("/root/dir/sub/c.txt", "id:c", "1");
+        when(files.listFolder("/root/dir")).thenReturn(
+            new ListFolderResult(Arrays.<Metadata>asList(a, b), "list-cursor", false)
+        );
+        when(files.getMetadata("/root/dir/sub/c.txt")).thenReturn(nested);
+        when(files.getMetadata("/root/dir")).thenReturn(dir);
+
+        cache.getMetadata("/root/dir");
+        cache.getMetadata("/root/dir/sub/c.txt");
+        assertEquals(paths(cache.listFolder("/root/dir")), set("/root/dir/a.txt", "/root/dir/b.txt"));
+
+        FileMetadata b2 = file("/root/dir/b.txt", "id:b", "2");
+        FileMetadata d = file("/root/dir/d.txt", "id:d", "1");
+        when(files.listFolderContinue("cursor-1")).thenReturn(
+            new ListFolderResult(Arrays.<Metadata>asList(
+                deleted("/root/dir/a.txt"),
+                b2,
+                d,
+                deleted("/root/dir/sub")
+            ), "cursor-2", false)
+        );
+        cache.refresh();
+
+        assertEquals(paths(cache.listFolder("/root/dir")), set("/root/dir/b.txt", "/root/dir/d.txt"));
+        assertEquals(((FileMetadata) cache.getMetadata("/root/dir/b.txt")).getRev(), "2");
+        assertSame(cache.getMetadata("id:d"), d);
+        verify(files, times(1)).listFolder("/root/dir");
+
+        // deleted entries and descendants of deleted folders are gone
+        when(files.getMetadata("/root/dir/a.txt")).thenReturn(a);
+        cache.getMetadata("/root/dir/a.txt");
+        cache.getMetadata("/root/dir/sub/c.txt");
+        verify(files, times(1)).getMetadata("/root/dir/a.txt");
+        verify(files, times(2)).getMetadata("/root/dir/sub/c.txt");
+    }
+
+    @Test
+    public void testListingsByIdShareListingsByPath() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+        cache.refresh();
+
+        FolderMetadata dir = folder("/root/dir", "id:dir");
+        FileMetadata a = file("/root/dir/a.txt", "id:a", "1");
+        when(files.listFolder("id:dir")).thenReturn(
+            new ListFolderResult(Arrays.<Metadata>asList(a), "list-cursor", false)
+        );
+        when(files.getMetadata("/root/dir")).thenReturn(dir);
+
+        // the ID's path isn't known yet, so its listing can't be cached
+        cache.listFolder("id:dir");
+        cache.listFolder("id:dir");
+        verify(files, times(2)).listFolder("id:dir");
+
+        cache.getMetadata("/root/dir");
+        assertEquals(paths(cache.listFolder("id:dir")), set("/root/dir/a.txt"));
+        assertEquals(paths(cache.listFolder("/root/dir")), set("/root/dir/a.txt"));
+        verify(files, times(3)).listFolder("id:dir");
+        verify(files, never()).listFolder("/root/dir");
+
+        // changes applied by path are seen through the ID
+        FileMetadata b = file("/root/dir/b.txt", "id:b", "1");
+        when(files.listFolderContinue("cursor-1")).thenReturn(
+            new ListFolderResult(Arrays.<Metadata>asList(deleted("/root/dir/a.txt"), b), "cursor-2", false)
+        );
+        cache.refresh();
+
+        assertEquals(paths(cache.listFolder("id:dir")), set("/root/dir/b.txt"));
+        verify(files, times(3)).listFolder("id:dir");
+    }
+
+    @Test
+    public void testRefreshesAreAppliedInOrder() throws Exception {
+        final DbxUserFilesRequests files = mockFiles();
+        final DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+        cache.refresh();
+
+        final FileMetadata a = file("/root/a.txt", "id:a", "2");
+        final CountDownLatch paging = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(files.listFolderContinue("cursor-1")).thenAnswer(new Answer<ListFolderResult>() {
+            @Override
+            public ListFolderResult answer(InvocationOnMock invocation) throws Exception {
+                paging.countDown();
+                release.await();
+                return new ListFolderResult(Arrays.<Metadata>asList(a), "cursor-2", false);
+            }
+        });
+        when(files.listFolderContinue("cursor-2")).thenReturn(
+            new ListFolderResult(Collections.<Metadata>emptyList(), "cursor-2", false)
+        );
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Callable<Void> refresh = new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    cache.refresh();
+                    return null;
+                }
+            };
+            Future<Void> first = executor.submit(refresh);
+            assertTrue(paging.await(1, TimeUnit.MINUTES));
+            Future<Void> second = executor.submit(refresh);
+            Thread.sleep(100);
+            release.countDown();
+            first.get();
+            second.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the second refresh continued from the first one's cursor, rather than paging the same
+        // changes again and rewinding the cursor
+        verify(files, times(1)).listFolderContinue("cursor-1");
+        verify(files, times(1)).listFolderContinue("cursor-2");
+    }
+
+    @Test
+    public void testRefreshObtainsNewCursorAfterReset() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        ListFolderGetLatestCursorBuilder builder = files.listFolderGetLatestCursorBuilder("/root");
+        when(builder.start()).thenReturn(
+            new ListFolderGetLatestCursorResult("cursor-1"),
+            new ListFolderGetLatestCursorResult("cursor-2")
+        );
+        when(files.listFolderContinue("cursor-1")).thenThrow(
+            new ListFolderContinueErrorException("2/files/list_folder/continue", "req", null, ListFolderContinueError.RESET)
+        );
+        when(files.listFolderContinue("cursor-2")).thenReturn(
+            new ListFolderResult(Collections.<Metadata>emptyList(), "cursor-2", false)
+        );
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+        cache.refresh();
+
+        when(files.getMetadata("/root/a.txt")).thenReturn(file("/root/a.txt", "id:a", "1"));
+        cache.getMetadata("/root/a.txt");
+        assertEquals(cache.size(), 1);
+
+        cache.refresh();
+        assertEquals(cache.size(), 0);
+        cache.refresh();
+        verify(files, times(1)).listFolderContinue("cursor-1");
+        verify(files, times(1)).listFolderContinue("cursor-2");
+    }
+
+    @Test
+    public void testTailerSurvivesUncheckedFailure() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        when(files.listFolderLongpoll("cursor-1", DbxMetadataCache.DEFAULT_LONGPOLL_TIMEOUT_SECS))
+            .thenThrow(new IllegalStateException("malformed response"))
+            .thenReturn(new ListFolderLongpollResult(true))
+            .thenReturn(new ListFolderLongpollResult(false, 60L));
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "/root", 100);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cache.start(executor);
+            // polled again after backing off
+            verify(files, timeout(60000)).listFolderContinue("cursor-1");
+            cache.stop();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "", 2);
+        cache.refresh();
+
+        when(files.getMetadata("/a")).thenReturn(file("/a", "id:a", "1"));
+        when(files.getMetadata("/b")).thenReturn(file("/b", "id:b", "1"));
+        when(files.getMetadata("/c")).thenReturn(file("/c", "id:c", "1"));
+
+        cache.getMetadata("/a");
+        cache.getMetadata("/b");
+        cache.getMetadata("/a");
+        cache.getMetadata("/c");
+        assertEquals(cache.size(), 2);
+
+        cache.getMetadata("/a");
+        cache.getMetadata("/b");
+        verify(files, times(1)).getMetadata("/a");
+        verify(files, times(2)).getMetadata("/b");
+        verify(files, times(1)).getMetadata("/c");
+    }
+
+    @Test
+    public void testStaleCacheIsBypassed() throws Exception {
+        DbxUserFilesRequests files = mockFiles();
+        DbxMetadataCache cache = new DbxMetadataCache(mockClient(files), "", 100, 1, TimeUnit.MILLISECONDS);
+        cache.refresh();
+
+        when(files.getMetadata("/a")).thenReturn(file("/a", "id:a", "1"));
+        cache.getMetadata("/a");
+        Thread.sleep(10);
+        cache.getMetadata("/a");
+
+        verify(files, times(2)).getMetadata("/a");
+        assertTrue(cache.getStalenessMillis() >= 10);
+    }
+
+    private static DbxClientV2 mockClient(DbxUserFilesRequests files) {
+        DbxClientV2 client = mock(DbxClientV2.class);
+        when(client.files()).thenReturn(files);
+        return client;
+    }
+
+    private static DbxUserFilesRequests mockFiles() throws DbxException {
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        ListFolderGetLatestCursorBuilder builder = mock(ListFolderGetLatestCursorBuilder.class);
+        when(files.listFolderGetLatestCursorBuilder(anyString())).thenReturn(builder);
+        when(builder.withRecursive(true)).thenReturn(builder);
+        when(builder.start()).thenReturn(new ListFolderGetLatestCursorResult("cursor-1"));
+        when(files.listFolderContinue("cursor-1")).thenReturn(
+            new ListFolderResult(Collections.<Metadata>emptyList(), "cursor-1", false)
+        );
+        return files;
+    }
+
+    private static FileMetadata file(String pathLower, String id, String rev) {
+        String name = pathLower.substring(pathLower.lastIndexOf('/') + 1);
+        return FileMetadata.newBuilder(name, id, new Date(0), new Date(0), rev, 0)
+            .withPathLower(pathLower)
+            .build();
+    }
+
+    private static FolderMetadata folder(String pathLower, String id) {
+        String name = pathLower.substring(pathLower.lastIndexOf('/') + 1);
+        return FolderMetadata.newBuilder(name, id)
+            .withPathLower(pathLower)
+            .build();
+    }
+
+    private static DeletedMetadata deleted(String pathLower) {
+        String name = pathLower.substring(pathLower.lastIndexOf('/') + 1);
+        return DeletedMetadata.newBuilder(name)
+            .withPathLower(pathLower)
+            .build();
+    }
+
+    private static Set<String> paths(List<Metadata> entries) {
+        Set<String> paths = new HashSet<String>();
+        for (Metadata entry : entries) {
+            paths.add(entry.getPathLower());
+        }
+        return paths;
+    }
+
+    private static Set<String> set(String ... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,112 @@
+package com.dropbox.core.v2;
+
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class DbxMetadataIndexBench
+{
+    /**
+     * Time to reopen a previously built index of a synthetic tree and look up one entry, which is
+     * what a process restart costs before it can resume from the stored cursor.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    public static class Startup
+    {
+        private static final int FILES_PER_FOLDER = 1000;
+        private static final int PAGE_SIZE = 2000;
+
+        @Param({"5000000"})
+        public int entries;
+
+        private File directory;
+
+        @Setup(Level.Trial)
+        public void build() throws IOException
+        {
+            directory = File.createTempFile("dbx-metadata-index-bench", "");
+            if (!directory.delete() || !directory.mkdir()) {
+                throw new IOException("Unable to create " + directory);
+            }
+
+            Date modified = new Date(1456169040000L);
+            DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+            try {
+                List<Metadata> page = new ArrayList<Metadata>(PAGE_SIZE);
+                for (int i = 0; i < entries; i++) {
+                    String folder = "/Archive/" + (i / (FILES_PER_FOLDER * 100)) + "/" + (i / FILES_PER_FOLDER);
+                    if (i % FILES_PER_FOLDER == 0) {
+                        page.add(FolderMetadata.newBuilder(DbxPathV2.getName(folder), "id:f" + i)
+                            .withPathLower(folder.toLowerCase())
+                            .withPathDisplay(folder)
+                            .build());
+                    }
+                    String path = folder + "/IMG_" + i + ".jpg";
+                    page.add(FileMetadata.newBuilder("IMG_" + i + ".jpg", "id:" + i, modified, modified, "0" + Integer.toHexString(i), i)
+                        .withPathLower(path.toLowerCase())
+                        .withPathDisplay(path)
+                        .withContentHash("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+                        .build());
+                    if (page.size() >= PAGE_SIZE) {
+                        index.apply(new ListFolderResult(page, "cursor-" + i, true));
+                        page = new ArrayList<Metadata>(PAGE_SIZE);
+                    }
+                }
+                index.apply(new ListFolderResult(page, "cursor-end", false));
+            } finally {
+                index.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete()
+        {
+            File [] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+
+        @Benchmark
+        public Metadata reopen() throws IOException
+        {
+            DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+            try {
+                int i = entries / 2;
+                return index.get("/archive/" + (i / (FILES_PER_FOLDER * 100)) + "/" + (i / FILES_PER_FOLDER) + "/img_" + i + ".jpg");
+            } finally {
+                index.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.dropbox.core.v2;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+import com.dropbox.core.v2.files.DbxUserFilesRequests;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.ListFolderBuilder;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class DbxMetadataIndexTest {
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("dbx-metadata-index", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @AfterMethod
+    public void deleteDirectory() {
+        File [] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testReopenAfterClose() throws Exception {
+        DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+        index.apply(page("cursor-1",
+            folder("/Photos", "id:photos"),
+            file("/Photos/Beach.JPG", "id:beach", "015a7"),
+            file("/Photos/Émile.png", "id:emile", "015a8")
+        ));
+        index.close();
+
+        index = DbxMetadataIndex.open(directory);
+        try {
+            assertEquals(index.getCursor(), "cursor-1");
+            assertEquals(index.getRecordCount(), 3);
+
+            FileMetadata beach = (FileMetadata) index.get("/photos/beach.jpg");
+            assertNotNull(beach);
+            assertEquals(beach.getName(), "Beach.JPG");
+            assertEquals(beach.getPathDisplay(), "/Photos/Beach.JPG");
+            assertEquals(beach.getId(), "id:beach");
+            assertEquals(beach.getRev(), "015a7");
+            assertEquals(beach.getSize(), 1234L);
+            assertEquals(beach.getServerModified(), new Date(1456169040000L));
+
+            assertEquals(index.get("/Photos/ÉMILE.png").getPathDisplay(), "/Photos/Émile.png");
+            assertTrue(index.get("/photos") instanceof FolderMetadata);
+            assertNull(index.get("/photos/missing.jpg"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testUpdatesAndDeletes() throws Exception {
+        DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+        try {
+            index.apply(page("cursor-1",
+                folder("/a", "id:a"),
+                folder("/a/b", "id:b"),
+                file("/a/b/c.txt", "id:c", "1"),
+                file("/a/d.txt", "id:d", "1")
+            ));
+            index.apply(page("cursor-2",
+                file("/a/d.txt", "id:d", "2"),
+                deleted("/a/b")
+            ));
+
+            assertEquals(((FileMetadata) index.get("/a/d.txt")).getRev(), "2");
+            assertNull(index.get("/a/b"));
+            // list_folder only reports the deleted folder, its children must disappear too
+            assertNull(index.get("/a/b/c.txt"));
+
+            // recreating the folder does not resurrect its old children
+            index.apply(page("cursor-3",
+                folder("/a/b", "id:b2"),
+                file("/a/b/e.txt", "id:e", "1")
+            ));
+            assertNotNull(index.get("/a/b"));
+            assertNotNull(index.get("/a/b/e.txt"));
+            assertNull(index.get("/a/b/c.txt"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testGrowsPastInitialHashCapacity() throws Exception {
+        DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+        try {
+            List<Metadata> entries = new ArrayList<Metadata>();
+            for (int i = 0; i < 100000; ++i) {
+                entries.add(file("/dir" + (i % 100) + "/file" + i, "id:" + i, "1"));
+            }
+            index.apply(new ListFolderResult(entries, "cursor-1", false));
+
+            for (int i = 0; i < 100000; i += 997) {
+                assertEquals(((FileMetadata) index.get("/dir" + (i % 100) + "/file" + i)).getId(), "id:" + i);
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testUncommittedChangesLostOnCrash() throws Exception {
+        DbxMetadataIndex crashed = DbxMetadataIndex.open(directory);
+        crashed.apply(page("cursor-1",
+            file("/a.txt", "id:a", "1"),
+            file("/b.txt", "id:b", "1")
+        ));
+        crashed.put(file("/a.txt", "id:a", "2"));
+        crashed.put(deleted("/b.txt"));
+        crashed.put(file("/c.txt", "id:c", "1"));
+        // no commit or close, simulate the process dying
+
+        DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+        try {
+            assertEquals(index.getCursor(), "cursor-1");
+            assertEquals(index.getRecordCount(), 2);
+            assertEquals(((FileMetadata) index.get("/a.txt")).getRev(), "1");
+            assertNotNull(index.get("/b.txt"));
+            assertNull(index.get("/c.txt"));
+
+            // appending after recovery overwrites the abandoned records
+            index.apply(page("cursor-2", file("/d.txt", "id:d", "1")));
+            assertNotNull(index.get("/d.txt"));
+            assertEquals(index.getRecordCount(), 3);
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testTornHeaderFallsBackToPreviousCommit() throws Exception {
+        DbxMetadataIndex crashed = DbxMetadataIndex.open(directory);
+        crashed.apply(page("cursor-1", file("/a.txt", "id:a", "1")));
+        crashed.apply(page("cursor-2", file("/b.txt", "id:b", "1")));
+
+        // corrupt the most recently written header slot
+        RandomAccessFile header = new RandomAccessFile(new File(directory, "header"), "rw");
+        try {
+            long latest = latestSlot(header);
+            header.seek(latest * 8192 + 100);
+            header.write(new byte [] { 1, 2, 3, 4 });
+        } finally {
+            header.close();
+        }
+
+        DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+        try {
+            assertEquals(index.getCursor(), "cursor-1");
+            assertNotNull(index.get("/a.txt"));
+            assertNull(index.get("/b.txt"));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testSyncResumesFromCursor() throws Exception {
+        DbxUserFilesRequests files = mock(DbxUserFilesRequests.class);
+        DbxClientV2 client = mock(DbxClientV2.class);
+        when(client.files()).thenReturn(files);
+
+        ListFolderBuilder builder = mock(ListFolderBuilder.class);
+        when(files.listFolderBuilder("/Photos")).thenReturn(builder);
+        when(builder.withRecursive(true)).thenReturn(builder);
+        when(builder.start()).thenReturn(new ListFolderResult(
+            Arrays.<Metadata>asList(file("/photos/a.jpg", "id:a", "1")), "cursor-1", true
+        ));
+        when(files.listFolderContinue("cursor-1")).thenReturn(new ListFolderResult(
+            Arrays.<Metadata>asList(file("/photos/b.jpg", "id:b", "1")), "cursor-2", false
+        ));
+        when(files.listFolderContinue("cursor-2")).thenReturn(new ListFolderResult(
+            Arrays.<Metadata>asList(deleted("/photos/a.jpg")), "cursor-3", false
+        ));
+
+        DbxMetadataIndex index = DbxMetadataIndex.open(directory);
+        index.sync(client, "/Photos");
+        assertEquals(index.getCursor(), "cursor-2");
+        index.close();
+
+        index = DbxMetadataIndex.open(directory);
+        try {
+            index.sync(client, "/Photos");
+            assertEquals(index.getCursor(), "cursor-3");
+            assertNull(index.get("/photos/a.jpg"));
+            assertNotNull(index.get("/photos/b.jpg"));
+            verify(builder, times(1)).start();
+        } finally {
+            index.close();
+        }
+    }
+
+    private static long latestSlot(RandomAccessFile header) throws IOException {
+        header.seek(8);
+        long first = header.readLong();
+        header.seek(8192 + 8);
+        long second = header.readLong();
+        return second > first ? 1 : 0;
+    }
+
+    private static ListFolderResult page(String cursor, Metadata ... entries) {
+        return new ListFolderResult(Arrays.asList(entries), cursor, false);
+    }
+
+    private static FileMetadata file(String pathDisplay, String id, String rev) {
+        return FileMetadata.newBuilder(
+                pathDisplay.substring(pathDisplay.lastIndexOf('/') + 1),
+                id,
+                new Date(1456169040000L),
+                new Date(1456169040000L),
+                rev,
+                1234L
+            )
+            .withPathLower(pathDisplay.toLowerCase())
+            .withPathDisplay(pathDisplay)
+            .build();
+    }
+
+    private static FolderMetadata folder(String pathDisplay, String id) {
+        return FolderMetadata.newBuilder(pathDisplay.substring(pathDisplay.lastIndexOf('/') + 1), id)
+            .withPathLower(pathDisplay.toLowerCase())
+            .withPathDisplay(pathDisplay)
+            .build();
+    }
+
+    private static DeletedMetadata deleted(String pathDisplay) {
+        return DeletedMetadata.newBuilder(pathDisplay.substring(pathDisplay.lastIndexOf('/') + 1))
+            .withPathLower(pathDisplay.toLowerCase())
+            .withPathDisplay(pathDisplay)
+            .build();
+    }
+}
@@ -0,0 +1,258 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.util.SnapshotReader;
+import com.dropbox.core.util.SnapshotWriter;
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.Dimensions;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.FileSharingInfo;
+import com.dropbox.core.v2.files.FolderMetadata;
+import com.dropbox.core.v2.files.FolderSharingInfo;
+import com.dropbox.core.v2.files.GpsCoordinates;
+import com.dropbox.core.v2.files.MediaInfo;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.PhotoMetadata;
+import com.dropbox.core.v2.files.VideoMetadata;
+import com.dropbox.core.v2.properties.PropertyField;
+import com.dropbox.core.v2.properties.PropertyGroup;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class DbxMetadataSnapshotTest {
+    private static final Date MODIFIED = new Date(1456169040000L);
+
+    @Test
+    public void testRoundTripsFolderTree() throws Exception {
+        List<Metadata> entries = new ArrayList<Metadata>();
+        entries.add(FolderMetadata.newBuilder("Photos", "id:f1")
+            .withPathLower("/photos")
+            .withPathDisplay("/Photos")
+            .withSharedFolderId("84528192421")
+            .build());
+        for (int i = 0; i < 100; i++) {
+            entries.add(FileMetadata.newBuilder("IMG_" + i + ".jpg", "id:a4ayc_80_OEAAAAAAAA" + i,
+                    MODIFIED, new Date(MODIFIED.getTime() + 1000), "0" + Integer.toHexString(i) + "1c10ce0dd78", 7212 + i)
+                .withPathLower("/photos/img_" + i + ".jpg")
+                .withPathDisplay("/Photos/IMG_" + i + ".jpg")
+                .withParentSharedFolderId("84528192421")
+                .withContentHash("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+                .build());
+        }
+        entries.add(DeletedMetadata.newBuilder("old.txt")
+            .withPathLower("/photos/old.txt")
+            .withPathDisplay("/Photos/old.txt")
+            .build());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        DbxMetadataSnapshot.writeAll(new SnapshotWriter(out), entries);
+        out.flush();
+
+        SnapshotReader reader = new SnapshotReader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        List<Metadata> read = DbxMetadataSnapshot.readAll(reader);
+
+        assertEquals(read.size(), entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertSameMetadata(read.get(i), entries.get(i));
+        }
+    }
+
+    @Test
+    public void testRoundTripsPathsThatCantBeDerived() throws Exception {
+        List<Metadata> entries = new ArrayList<Metadata>();
+        // lower-case path of a non-ASCII display path
+        entries.add(FolderMetadata.newBuilder("Épreuves", "id:f2")
+            .withPathLower("/épreuves")
+            .withPathDisplay("/Épreuves")
+            .build());
+        // display path with a different case than the name
+        entries.add(FileMetadata.newBuilder("Readme.TXT", "id:r", MODIFIED, MODIFIED, "015", 0)
+            .withPathLower("/épreuves/readme.txt")
+            .withPathDisplay("/Épreuves/README.txt")
+            .build());
+        // no paths at all, as for files outside the caller's view
+        entries.add(FileMetadata.newBuilder("shared.doc", "id:s", MODIFIED, new Date(MODIFIED.getTime() - 60000), "016", 10).build());
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        DbxMetadataSnapshot.writeAll(new SnapshotWriter(buffer), entries);
+        buffer.flip();
+
+        List<Metadata> read = DbxMetadataSnapshot.readAll(new SnapshotReader(buffer));
+        assertEquals(read.size(), entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertSameMetadata(read.get(i), entries.get(i));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testRoundTripsSharingInfo() throws Exception {
+        List<Metadata> entries = new ArrayList<Metadata>();
+        entries.add(FolderMetadata.newBuilder("Team", "id:t")
+            .withPathLower("/team")
+            .withPathDisplay("/Team")
+            .withSharedFolderId("84528192421")
+            .withSharingInfo(new FolderSharingInfo(false, null, "84528192421", false, false))
+            .build());
+        entries.add(FolderMetadata.newBuilder("Restricted", "id:r")
+            .withPathLower("/team/restricted")
+            .withPathDisplay("/Team/Restricted")
+            .withParentSharedFolderId("84528192421")
+            .withSharingInfo(new FolderSharingInfo(true, "84528192421", null, true, true))
+            .build());
+        entries.add(FileMetadata.newBuilder("plan.txt", "id:p", MODIFIED, MODIFIED, "017", 512)
+            .withPathLower("/team/plan.txt")
+            .withPathDisplay("/Team/plan.txt")
+            .withParentSharedFolderId("84528192421")
+            .withSharingInfo(new FileSharingInfo(true, "84528192421", "dbid:AAH4f99T0taONIb-OurWxbNQ6ywGRopQngc"))
+            .withHasExplicitSharedMembers(true)
+            .build());
+        entries.add(FileMetadata.newBuilder("notes.txt", "id:n", MODIFIED, MODIFIED, "018", 64)
+            .withPathLower("/team/notes.txt")
+            .withPathDisplay("/Team/notes.txt")
+            .withParentSharedFolderId("84528192421")
+            .withSharingInfo(new FileSharingInfo(false, "84528192421"))
+            .withHasExplicitSharedMembers(false)
+            .build());
+
+        List<Metadata> read = roundTrip(entries);
+        for (int i = 0; i < entries.size(); i++) {
+            assertSameMetadata(read.get(i), entries.get(i));
+        }
+    }
+
+    @Test
+    public void testRoundTripsMediaInfo() throws Exception {
+        List<Metadata> entries = new ArrayList<Metadata>();
+        entries.add(FileMetadata.newBuilder("beach.jpg", "id:b", MODIFIED, MODIFIED, "019", 2048)
+            .withPathLower("/beach.jpg")
+            .withPathDisplay("/beach.jpg")
+            .withMediaInfo(MediaInfo.metadata(new PhotoMetadata(
+                new Dimensions(3024, 4032), new GpsCoordinates(37.7749, -122.4194), MODIFIED
+            )))
+            .build());
+        entries.add(FileMetadata.newBuilder("scan.png", "id:s", MODIFIED, MODIFIED, "01a", 1024)
+            .withPathLower("/scan.png")
+            .withPathDisplay("/scan.png")
+            .withMediaInfo(MediaInfo.metadata(new PhotoMetadata(null, null, null)))
+            .build());
+        entries.add(FileMetadata.newBuilder("clip.mov", "id:c", MODIFIED, MODIFIED, "01b", 1 << 24)
+            .withPathLower("/clip.mov")
+            .withPathDisplay("/clip.mov")
+            .withMediaInfo(MediaInfo.metadata(new VideoMetadata(
+                new Dimensions(1080, 1920), null, MODIFIED, 93000L
+            )))
+            .build());
+        entries.add(FileMetadata.newBuilder("new.jpg", "id:j", MODIFIED, MODIFIED, "01c", 4096)
+            .withPathLower("/new.jpg")
+            .withPathDisplay("/new.jpg")
+            .withMediaInfo(MediaInfo.PENDING)
+            .build());
+
+        List<Metadata> read = roundTrip(entries);
+        for (int i = 0; i < entries.size(); i++) {
+            assertSameMetadata(read.get(i), entries.get(i));
+        }
+    }
+
+    @Test
+    public void testRoundTripsPropertyGroups() throws Exception {
+        List<PropertyGroup> groups = Arrays.asList(
+            new PropertyGroup("ptid:1a5n2i6d3OYEAAAAAAAAAYa", Arrays.asList(
+                new PropertyField("Security Policy", "Confidential"),
+                new PropertyField("Reviewer", "Émilie")
+            )),
+            new PropertyGroup("ptid:1a5n2i6d3OYEAAAAAAAAAYb", Collections.<PropertyField>emptyList())
+        );
+        List<Metadata> entries = new ArrayList<Metadata>();
+        entries.add(FolderMetadata.newBuilder("Contracts", "id:k")
+            .withPathLower("/contracts")
+            .withPathDisplay("/Contracts")
+            .withPropertyGroups(groups)
+            .build());
+        entries.add(FileMetadata.newBuilder("nda.pdf", "id:d", MODIFIED, MODIFIED, "01d", 8192)
+            .withPathLower("/contracts/nda.pdf")
+            .withPathDisplay("/Contracts/nda.pdf")
+            .withPropertyGroups(groups)
+            .build());
+        entries.add(FileMetadata.newBuilder("draft.pdf", "id:e", MODIFIED, MODIFIED, "01e", 8192)
+            .withPathLower("/contracts/draft.pdf")
+            .withPathDisplay("/Contracts/draft.pdf")
+            .withPropertyGroups(Collections.<PropertyGroup>emptyList())
+            .build());
+
+        List<Metadata> read = roundTrip(entries);
+        for (int i = 0; i < entries.size(); i++) {
+            assertSameMetadata(read.get(i), entries.get(i));
+        }
+    }
+
+    @Test
+    public void testRejectsUnknownVersion() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        DbxMetadataSnapshot.writeAll(new SnapshotWriter(buffer), new ArrayList<Metadata>());
+        buffer.flip();
+        buffer.put(4, (byte) 99);
+
+        try {
+            new SnapshotReader(buffer);
+            fail("read a snapshot with an unknown version");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static void assertSameMetadata(Metadata actual, Metadata expected) {
+        assertEquals(actual.getClass(), expected.getClass());
+        assertEquals(actual.getName(), expected.getName());
+        assertEquals(actual.getPathLower(), expected.getPathLower());
+        assertEquals(actual.getPathDisplay(), expected.getPathDisplay());
+        assertEquals(actual.getParentSharedFolderId(), expected.getParentSharedFolderId());
+        if (expected instanceof FileMetadata) {
+            FileMetadata actualFile = (FileMetadata) actual;
+            FileMetadata expectedFile = (FileMetadata) expected;
+            assertEquals(actualFile.getId(), expectedFile.getId());
+            assertEquals(actualFile.getRev(), expectedFile.getRev());
+            assertEquals(actualFile.getSize(), expectedFile.getSize());
+            assertEquals(actualFile.getClientModified(), expectedFile.getClientModified());
+            assertEquals(actualFile.getServerModified(), expectedFile.getServerModified());
+            assertEquals(actualFile.getContentHash(), expectedFile.getContentHash());
+            assertEquals(actualFile.getSharingInfo(), expectedFile.getSharingInfo());
+            assertEquals(actualFile.getPropertyGroups(), expectedFile.getPropertyGroups());
+            assertEquals(actualFile.getMediaInfo(), expectedFile.getMediaInfo());
+            assertEquals(actualFile.getHasExplicitSharedMembers(), expectedFile.getHasExplicitSharedMembers());
+        } else if (expected instanceof FolderMetadata) {
+            FolderMetadata actualFolder = (FolderMetadata) actual;
+            FolderMetadata expectedFolder = (FolderMetadata) expected;
+            assertEquals(actualFolder.getId(), expectedFolder.getId());
+            assertEquals(actualFolder.getSharedFolderId(), expectedFolder.getSharedFolderId());
+            assertEquals(actualFolder.getSharingInfo(), expectedFolder.getSharingInfo());
+            assertEquals(actualFolder.getPropertyGroups(), expectedFolder.getPropertyGroups());
+        }
+    }
+
+    private static List<Metadata> roundTrip(List<Metadata> entries) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        DbxMetadataSnapshot.writeAll(new SnapshotWriter(buffer), entries);
+        buffer.flip();
+
+        List<Metadata> read = DbxMetadataSnapshot.readAll(new SnapshotReader(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(read.size(), entries.size());
+        return read;
+    }
+}
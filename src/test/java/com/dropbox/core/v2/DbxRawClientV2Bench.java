@@ -0,0 +1,242 @@
+package com.dropbox.core.v2;
+
+import static com.dropbox.core.v2.files.FilesSerializers.serializer;
+
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.DbxWrappedException;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.stone.StoneSerializer;
+import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.v2.files.CommitInfo;
+import com.dropbox.core.v2.files.GetMetadataError;
+import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.WriteMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request overhead of the v2 request pipeline, with the network replaced by canned
+ * in-memory responses.
+ */
+public class DbxRawClientV2Bench
+{
+    static final String METADATA_JSON = "{"
+        + "\".tag\": \"file\", \"name\": \"IMG_0001.jpg\", \"id\": \"id:a4ayc_80_OEAAAAAAAAAXw\", "
+        + "\"client_modified\": \"2016-02-22T19:24:00Z\", \"server_modified\": \"2016-02-22T19:24:00Z\", "
+        + "\"rev\": \"a1c10ce0dd78\", \"size\": 7212, "
+        + "\"path_lower\": \"/photos/img_0001.jpg\", \"path_display\": \"/Photos/IMG_0001.jpg\", "
+        + "\"content_hash\": \"e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855\""
+        + "}";
+
+    static final String NOT_FOUND_JSON = "{"
+        + "\"error_summary\": \"path/not_found/..\", "
+        + "\"error\": {\".tag\": \"path\", \"path\": {\".tag\": \"not_found\"}}"
+        + "}";
+
+    static final Map<String, List<String>> HEADERS = Collections.singletonMap(
+        "X-Dropbox-Request-Id", Collections.singletonList("7b5b5f0c1ac0a9d7ab8a2c5e0b8e3bd9")
+    );
+
+    /**
+     * {@code rpcStyle} round trips of {@code files/get_metadata}: argument encoding, header
+     * assembly and response decoding, or error decoding for a 409.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class RpcStyle
+    {
+        private DbxClientV2 success;
+        private DbxClientV2 routeError;
+
+        @Setup
+        public void setUp()
+        {
+            success = newClient(new CannedRequestor(200, METADATA_JSON));
+            routeError = newClient(new CannedRequestor(409, NOT_FOUND_JSON));
+        }
+
+        @Benchmark
+        public Metadata success() throws DbxException
+        {
+            return success.files().getMetadata("/Photos/IMG_0001.jpg");
+        }
+
+        @Benchmark
+        public GetMetadataErrorException routeError() throws DbxException
+        {
+            try {
+                routeError.files().getMetadata("/Photos/IMG_0001.jpg");
+            }
+            catch (GetMetadataErrorException ex) {
+                return ex;
+            }
+            throw new AssertionError("expected a route error");
+        }
+
+        private static DbxClientV2 newClient(HttpRequestor requestor)
+        {
+            return new DbxClientV2(
+                DbxRequestConfig.newBuilder("sdk-bench").withHttpRequestor(requestor).build(),
+                "fakeAccessToken"
+            );
+        }
+    }
+
+    /**
+     * Encoding of a content-style argument for the {@code Dropbox-API-Arg} header, which escapes
+     * everything outside printable ASCII.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class HeaderSafeJson
+    {
+        @Param({"ascii", "unicode"})
+        public String path;
+
+        private StoneSerializer<CommitInfo> serializer;
+        private CommitInfo commitInfo;
+
+        @Setup
+        public void setUp()
+        {
+            serializer = serializer(CommitInfo.class);
+            String dropboxPath = path.equals("ascii")
+                ? "/Photos/2016/IMG_0001.jpg"
+                : "/\u0424\u043e\u0442\u043e/2016/\u5199\u771f_0001.jpg";
+            commitInfo = CommitInfo.newBuilder(dropboxPath)
+                .withMode(WriteMode.OVERWRITE)
+                .withAutorename(false)
+                .withClientModified(new Date(1456169040000L))
+                .build();
+        }
+
+        @Benchmark
+        public String headerSafeJson()
+        {
+            return DbxRawClientV2.headerSafeJson(serializer, commitInfo);
+        }
+    }
+
+    /**
+     * Decoding of a 409 route error body into a {@link DbxWrappedException}.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class FromResponse
+    {
+        private StoneSerializer<GetMetadataError> serializer;
+        private byte[] body;
+
+        @Setup
+        public void setUp() throws IOException
+        {
+            serializer = serializer(GetMetadataError.class);
+            body = NOT_FOUND_JSON.getBytes("UTF-8");
+        }
+
+        @Benchmark
+        public DbxWrappedException notFound() throws IOException
+        {
+            HttpRequestor.Response response = new HttpRequestor.Response(409, new ByteArrayInputStream(body), HEADERS);
+            return DbxWrappedException.fromResponse(serializer, response, null);
+        }
+    }
+
+    /**
+     * Answers every request with the same status and body, discarding the request body.
+     */
+    static final class CannedRequestor extends HttpRequestor
+    {
+        private final int statusCode;
+        private final byte[] body;
+
+        CannedRequestor(int statusCode, String body)
+        {
+            this.statusCode = statusCode;
+            try {
+                this.body = body.getBytes("UTF-8");
+            }
+            catch (IOException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers)
+        {
+            return response();
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers)
+        {
+            return new Uploader() {
+                @Override
+                public OutputStream getBody()
+                {
+                    return IOUtil.BlackHoleOutputStream;
+                }
+
+                @Override
+                public void close()
+                {
+                }
+
+                @Override
+                public void abort()
+                {
+                }
+
+                @Override
+                public Response finish()
+                {
+                    return response();
+                }
+            };
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers)
+        {
+            return startPost(url, headers);
+        }
+
+        private Response response()
+        {
+            return new Response(statusCode, new ByteArrayInputStream(body), HEADERS);
+        }
+    }
+}
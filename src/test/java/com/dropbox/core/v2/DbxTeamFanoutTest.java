@@ -0,0 +1,403 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.BadRequestException;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.ServerException;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.v2.team.TeamMemberInfo;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DbxTeamFanoutTest {
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRunsEveryMemberWithBoundedConcurrency() throws Exception {
+        FakeTeamRequestor team = new FakeTeamRequestor(10, 3);
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint(null);
+
+        final Set<String> members = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+
+        DbxTeamFanout fanout = new DbxTeamFanout(team.client(), executor, 3);
+        DbxTeamFanout.Summary summary = fanout.run(new DbxTeamFanout.MemberTask() {
+            @Override
+            public void run(TeamMemberInfo member, DbxClientV2 client) {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+                assertTrue(members.add(member.getProfile().getTeamMemberId()));
+            }
+        }, checkpoint);
+
+        assertEquals(summary.getSucceededCount(), 10);
+        assertEquals(summary.getFailedCount(), 0);
+        assertEquals(members, team.memberIds(0, 10));
+        assertTrue(maxRunning.get() <= 3, "ran " + maxRunning.get() + " members at once");
+        assertTrue(maxRunning.get() > 1, "members ran one at a time");
+
+        // pages of 3, 3, 3 and 1 members, saved in list order
+        assertEquals(checkpoint.saved, Arrays.asList("page:1", "page:2", "page:3", "page:4"));
+        assertEquals(summary.getCursor(), "page:4");
+    }
+
+    @Test
+    public void testMemberRequestsActAsMember() throws Exception {
+        FakeTeamRequestor team = new FakeTeamRequestor(4, 2);
+
+        DbxTeamFanout fanout = new DbxTeamFanout(team.client(), executor, 2);
+        DbxTeamFanout.Summary summary = fanout.run(new DbxTeamFanout.MemberTask() {
+            @Override
+            public void run(TeamMemberInfo member, DbxClientV2 client) throws DbxException {
+                client.files().getMetadata("/" + member.getProfile().getTeamMemberId());
+            }
+        });
+
+        assertEquals(summary.getSucceededCount(), 4);
+        assertEquals(new HashSet<String>(team.selectedUsers), team.memberIds(0, 4));
+    }
+
+    @Test
+    public void testMemberRequestsUploadBodiesDirectly() throws Exception {
+        FakeTeamRequestor team = new FakeTeamRequestor(4, 4);
+
+        DbxTeamFanout fanout = new DbxTeamFanout(team.client(), executor, 2);
+        fanout.run(new DbxTeamFanout.MemberTask() {
+            @Override
+            public void run(TeamMemberInfo member, DbxClientV2 client) throws DbxException {
+                client.files().getMetadata("/" + member.getProfile().getTeamMemberId());
+            }
+        });
+
+        // the rate limited requestor must hand request bodies to the uploader as a whole, rather
+        // than streaming them through getBody()
+        assertEquals(team.byteUploads.get(), 5);
+        assertEquals(team.streamedBodies.get(), 0);
+    }
+
+    @Test
+    public void testRateLimitPausesAllMembers() throws Exception {
+        FakeTeamRequestor team = new FakeTeamRequestor(6, 6);
+        team.rateLimitFirstMemberRequest = true;
+
+        DbxTeamFanout fanout = new DbxTeamFanout(team.client(), executor, 3);
+        DbxTeamFanout.Summary summary = fanout.run(new DbxTeamFanout.MemberTask() {
+            @Override
+            public void run(TeamMemberInfo member, DbxClientV2 client) throws DbxException {
+                client.files().getMetadata("/" + member.getProfile().getTeamMemberId());
+            }
+        });
+
+        assertEquals(summary.getSucceededCount(), 6);
+        assertEquals(summary.getRetryCount(), 1);
+        assertEquals(fanout.getRateLimitCount(), 1);
+
+        // nothing may reach the server while the team is rate limited, except requests that
+        // were already on their way when the 429 went out
+        assertTrue(team.rateLimitedAt > 0);
+        synchronized (team.memberRequestTimes) {
+            for (long time : team.memberRequestTimes) {
+                if (time > team.rateLimitedAt + 100) {
+                    assertTrue(time - team.rateLimitedAt >= 900, "request sent " + (time - team.rateLimitedAt) + "ms after 429");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRetriesTransientFailures() throws Exception {
+        FakeTeamRequestor team = new FakeTeamRequestor(5, 5);
+        final Map<String, AtomicInteger> attempts = new HashMap<String, AtomicInteger>();
+        for (String memberId : team.memberIds(0, 5)) {
+            attempts.put(memberId, new AtomicInteger(0));
+        }
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+        DbxTeamFanout fanout = new DbxTeamFanout(team.client(), executor, 2, 2);
+        DbxTeamFanout.Summary summary = fanout.run(new DbxTeamFanout.MemberTask() {
+            @Override
+            public void run(TeamMemberInfo member, DbxClientV2 client) throws DbxException {
+                String memberId = member.getProfile().getTeamMemberId();
+                int attempt = attempts.get(memberId).incrementAndGet();
+                if (memberId.equals("dbmid:1") && attempt <= 2) {
+                    throw new ServerException("req", "try again");
+                }
+                if (memberId.equals("dbmid:3")) {
+                    throw new BadRequestException("req", "never works");
+                }
+            }
+
+            @Override
+            public void onFailure(TeamMemberInfo member, Exception ex) {
+                assertTrue(ex instanceof BadRequestException);
+                failed.add(member.getProfile().getTeamMemberId());
+            }
+        });
+
+        assertEquals(summary.getSucceededCount(), 4);
+        assertEquals(summary.getFailedCount(), 1);
+        assertEquals(summary.getRetryCount(), 2);
+        assertEquals(attempts.get("dbmid:1").get(), 3);
+        assertEquals(attempts.get("dbmid:3").get(), 1);
+        assertEquals(failed, Collections.singletonList("dbmid:3"));
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        FakeTeamRequestor team = new FakeTeamRequestor(10, 3);
+        team.failContinueAt = "page:2";
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint(null);
+
+        final Set<String> members = Collections.synchronizedSet(new HashSet<String>());
+        DbxTeamFanout.MemberTask task = new DbxTeamFanout.MemberTask() {
+            @Override
+            public void run(TeamMemberInfo member, DbxClientV2 client) {
+                members.add(member.getProfile().getTeamMemberId());
+            }
+        };
+
+        DbxTeamFanout fanout = new DbxTeamFanout(team.client(), executor, 2);
+        try {
+            fanout.run(task, checkpoint);
+            fail("listing the third page should have failed");
+        } catch (BadRequestException ex) {
+            // expected
+        }
+        assertEquals(members, team.memberIds(0, 6));
+        assertEquals(checkpoint.saved, Arrays.asList("page:1", "page:2"));
+
+        members.clear();
+        team.failContinueAt = null;
+        DbxTeamFanout.Summary summary = fanout.run(task, checkpoint);
+
+        assertEquals(summary.getSucceededCount(), 4);
+        assertEquals(members, team.memberIds(6, 10));
+        assertEquals(checkpoint.saved, Arrays.asList("page:1", "page:2", "page:3", "page:4"));
+    }
+
+    private static final class MemoryCheckpoint extends DbxTeamFanout.Checkpoint {
+        private final List<String> saved = Collections.synchronizedList(new ArrayList<String>());
+
+        private MemoryCheckpoint(String cursor) {
+            if (cursor != null) {
+                saved.add(cursor);
+            }
+        }
+
+        @Override
+        public String load() {
+            return saved.isEmpty() ? null : saved.get(saved.size() - 1);
+        }
+
+        @Override
+        public void save(String cursor) {
+            saved.add(cursor);
+        }
+    }
+
+    /**
+     * Serves {@code team/members/list}, its {@code continue} route, and {@code files/get_metadata}
+     * for member requests.
+     */
+    private static final class FakeTeamRequestor extends HttpRequestor {
+        private static final Pattern CURSOR = Pattern.compile("\"cursor\"\\s*:\\s*\"page:(\\d+)\"");
+
+        private final int members;
+        private final int pageSize;
+
+        private final List<String> selectedUsers = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Long> memberRequestTimes = Collections.synchronizedList(new ArrayList<Long>());
+        private final AtomicInteger byteUploads = new AtomicInteger(0);
+        private final AtomicInteger streamedBodies = new AtomicInteger(0);
+
+        private volatile boolean rateLimitFirstMemberRequest = false;
+        private volatile long rateLimitedAt = 0;
+        private volatile String failContinueAt = null;
+
+        private FakeTeamRequestor(int members, int pageSize) {
+            this.members = members;
+            this.pageSize = pageSize;
+        }
+
+        private DbxTeamClientV2 client() {
+            return new DbxTeamClientV2(
+                DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(this).build(),
+                "fakeAccessToken"
+            );
+        }
+
+        private Set<String> memberIds(int from, int to) {
+            Set<String> ids = new HashSet<String>();
+            for (int i = from; i < to; ++i) {
+                ids.add("dbmid:" + i);
+            }
+            return ids;
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException(url);
+        }
+
+        @Override
+        public Uploader startPost(final String url, final Iterable<Header> headers) {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            return new Uploader() {
+                @Override
+                public OutputStream getBody() {
+                    streamedBodies.incrementAndGet();
+                    return body;
+                }
+
+                @Override
+                public void upload(byte [] bytes) {
+                    byteUploads.incrementAndGet();
+                    body.write(bytes, 0, bytes.length);
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void abort() {
+                }
+
+                @Override
+                public Response finish() throws IOException {
+                    return handle(url, headers, new String(body.toByteArray(), "UTF-8"));
+                }
+            };
+        }
+
+        private Response handle(String url, Iterable<Header> headers, String body) throws IOException {
+            if (url.endsWith("/2/team/members/list")) {
+                return page(0);
+            } else if (url.endsWith("/2/team/members/list/continue")) {
+                Matcher matcher = CURSOR.matcher(body);
+                assertTrue(matcher.find(), body);
+                if (("page:" + matcher.group(1)).equals(failContinueAt)) {
+                    return response(400, Collections.<String, String>emptyMap(), "Error in call to API function");
+                }
+                return page(Integer.parseInt(matcher.group(1)));
+            } else if (url.endsWith("/2/files/get_metadata")) {
+                return metadata(headers);
+            }
+            throw new AssertionError("unexpected request to " + url);
+        }
+
+        private Response page(int index) throws IOException {
+            StringBuilder json = new StringBuilder("{\"members\": [");
+            int end = Math.min(members, (index + 1) * pageSize);
+            for (int i = index * pageSize; i < end; ++i) {
+                if (i > index * pageSize) {
+                    json.append(", ");
+                }
+                json.append("{\"profile\": {")
+                    .append("\"team_member_id\": \"dbmid:").append(i).append("\", ")
+                    .append("\"account_id\": \"dbid:").append(i).append("\", ")
+                    .append("\"email\": \"member").append(i).append("@example.com\", ")
+                    .append("\"email_verified\": true, ")
+                    .append("\"status\": {\".tag\": \"active\"}, ")
+                    .append("\"name\": {")
+                    .append("\"given_name\": \"Member\", \"surname\": \"").append(i).append("\", ")
+                    .append("\"familiar_name\": \"Member\", \"display_name\": \"Member ").append(i).append("\", ")
+                    .append("\"abbreviated_name\": \"M\"}, ")
+                    .append("\"membership_type\": {\".tag\": \"full\"}, ")
+                    .append("\"groups\": []")
+                    .append("}, \"role\": {\".tag\": \"member_only\"}}");
+            }
+            json.append("], \"cursor\": \"page:").append(index + 1).append("\", ")
+                .append("\"has_more\": ").append(end < members).append("}");
+            return response(200, Collections.<String, String>emptyMap(), json.toString());
+        }
+
+        private Response metadata(Iterable<Header> headers) throws IOException {
+            String memberId = null;
+            for (Header header : headers) {
+                if (header.getKey().equals("Dropbox-API-Select-User")) {
+                    memberId = header.getValue();
+                }
+            }
+            assertNotNull(memberId, "member request without Dropbox-API-Select-User");
+            memberRequestTimes.add(System.currentTimeMillis());
+
+            synchronized (this) {
+                if (rateLimitFirstMemberRequest) {
+                    rateLimitFirstMemberRequest = false;
+                    try {
+                        // let the other members' requests pile up behind this one
+                        Thread.sleep(50);
+                    } catch (InterruptedException ex) {
+                        throw new AssertionError(ex);
+                    }
+                    rateLimitedAt = System.currentTimeMillis();
+                    return response(429, Collections.singletonMap("Retry-After", "1"),
+                        "{\"error_summary\": \"too_many_requests/..\", \"error\": {\"reason\": {\".tag\": \"too_many_requests\"}, \"retry_after\": 1}}");
+                }
+            }
+
+            selectedUsers.add(memberId);
+            return response(200, Collections.<String, String>emptyMap(),
+                "{\".tag\": \"folder\", \"name\": \"home\", \"id\": \"id:" + memberId + "\", "
+                + "\"path_lower\": \"/home\", \"path_display\": \"/home\"}");
+        }
+
+        private static Response response(int status, Map<String, String> headers, String body) throws IOException {
+            Map<String, List<String>> responseHeaders = new HashMap<String, List<String>>();
+            responseHeaders.put("X-Dropbox-Request-Id", Collections.singletonList("req"));
+            responseHeaders.put("Content-Type", Collections.singletonList("application/json"));
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                responseHeaders.put(header.getKey(), Collections.singletonList(header.getValue()));
+            }
+            return new Response(status, new ByteArrayInputStream(body.getBytes("UTF-8")), responseHeaders);
+        }
+    }
+}
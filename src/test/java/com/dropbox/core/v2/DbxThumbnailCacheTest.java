@@ -0,0 +1,317 @@
+package com.dropbox.core.v2;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.v1.DbxClientV1;
+import com.dropbox.core.v1.DbxEntry;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.dropbox.core.v2.files.ThumbnailErrorException;
+import com.dropbox.core.v2.files.ThumbnailFormat;
+import com.dropbox.core.v2.files.ThumbnailSize;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DbxThumbnailCacheTest {
+    private FakeFilesRequestor server;
+    private DbxClientV2 client;
+    private ExecutorService executor;
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new FakeFilesRequestor();
+        client = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build(),
+            "fakeAccessToken"
+        );
+        executor = Executors.newCachedThreadPool();
+        directory = File.createTempFile("thumbnails", "");
+        assertTrue(directory.delete());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+        File [] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testCachesThumbnailsByRevision() throws Exception {
+        FileMetadata photo = server.putFile("/Photos/beach.jpg", new byte[] {1, 2, 3});
+        DbxThumbnailCache cache = new DbxThumbnailCache(client, executor, 4, directory, 1 << 20);
+
+        byte [] thumbnail = cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        assertEquals(thumbnail, thumbnail("jpeg w64h64:", 1, 2, 3));
+        assertEquals(cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W64H64), thumbnail);
+        assertEquals(cache.getThumbnail(photo, ThumbnailFormat.PNG, ThumbnailSize.W64H64), thumbnail("png w64h64:", 1, 2, 3));
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 2);
+
+        FileMetadata edited = server.putFile("/Photos/beach.jpg", new byte[] {4, 5});
+        assertEquals(cache.getThumbnail(edited, ThumbnailFormat.JPEG, ThumbnailSize.W64H64), thumbnail("jpeg w64h64:", 4, 5));
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 3);
+
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 3);
+        assertEquals(cache.getHitRatio(), 0.25, 0.0001);
+        assertEquals(cache.getBytesSaved(), (long) thumbnail.length);
+        assertEquals(cache.getCachedBytes(), cache.getBytesDownloaded());
+    }
+
+    @Test
+    public void testCoalescesConcurrentFetches() throws Exception {
+        final FileMetadata photo = server.putFile("/Photos/beach.jpg", new byte[] {1, 2, 3});
+        server.setLatency(200, 0, TimeUnit.MILLISECONDS);
+        final DbxThumbnailCache cache = new DbxThumbnailCache(client, executor, 4, directory, 1 << 20);
+
+        List<Future<byte []>> results = new ArrayList<Future<byte []>>();
+        for (int i = 0; i < 8; ++i) {
+            results.add(executor.submit(new Callable<byte []>() {
+                @Override
+                public byte [] call() throws Exception {
+                    return cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W128H128);
+                }
+            }));
+        }
+        for (Future<byte []> result : results) {
+            assertEquals(result.get(), thumbnail("jpeg w128h128:", 1, 2, 3));
+        }
+
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getHitCount() + cache.getCoalescedCount(), 7);
+        assertEquals(cache.getBytesSaved(), 7L * cache.getBytesDownloaded());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        List<FileMetadata> photos = new ArrayList<FileMetadata>();
+        for (int i = 0; i < 3; ++i) {
+            photos.add(server.putFile("/Photos/photo" + i + ".png", new byte[100]));
+        }
+        long size = thumbnail("jpeg w64h64:", new int[100]).length;
+        DbxThumbnailCache cache = new DbxThumbnailCache(client, executor, 4, directory, 2 * size);
+
+        cache.getThumbnail(photos.get(0), ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        cache.getThumbnail(photos.get(1), ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        cache.getThumbnail(photos.get(0), ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        cache.getThumbnail(photos.get(2), ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        assertEquals(cache.getCachedBytes(), 2 * size);
+        assertEquals(directory.listFiles().length, 2);
+
+        // photo 1 was the least recently used when photo 2 came in
+        cache.getThumbnail(photos.get(0), ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 3);
+        cache.getThumbnail(photos.get(1), ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 4);
+    }
+
+    @Test
+    public void testKeepsThumbnailsAcrossInstances() throws Exception {
+        FileMetadata photo = server.putFile("/Photos/beach.jpg", new byte[] {1, 2, 3});
+        new DbxThumbnailCache(client, executor, 4, directory, 1 << 20)
+            .getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+
+        DbxThumbnailCache cache = new DbxThumbnailCache(client, executor, 4, directory, 1 << 20);
+        assertEquals(cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W64H64), thumbnail("jpeg w64h64:", 1, 2, 3));
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 1);
+    }
+
+    @Test
+    public void testPrefetchesFolderPage() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            server.putFile("/Photos/photo" + i + ".jpg", new byte[] {(byte) i});
+        }
+        server.putFile("/Photos/notes.txt", new byte[] {1});
+        server.createFolder("/Photos/Archive");
+        server.setLatency(50, 0, TimeUnit.MILLISECONDS);
+        DbxThumbnailCache cache = new DbxThumbnailCache(client, executor, 4, directory, 1 << 20);
+        ListFolderResult page = client.files().listFolder("/Photos");
+
+        long start = System.nanoTime();
+        assertEquals(cache.prefetch(page, ThumbnailFormat.JPEG, ThumbnailSize.W32H32), 10);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(millis < 10 * 50, "thumbnails were fetched one at a time: " + millis + "ms");
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 10);
+
+        for (int i = 0; i < 10; ++i) {
+            FileMetadata photo = (FileMetadata) server.getMetadata("/Photos/photo" + i + ".jpg");
+            assertEquals(cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W32H32), thumbnail("jpeg w32h32:", i));
+        }
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 10);
+        assertEquals(cache.getHitCount(), 10);
+
+        // a second prefetch finds everything cached
+        assertEquals(cache.prefetch(page, ThumbnailFormat.JPEG, ThumbnailSize.W32H32), 10);
+        assertEquals(server.getRequestCount("files/get_thumbnail"), 10);
+    }
+
+    @Test
+    public void testReportsMissingAndUnsupportedFiles() throws Exception {
+        FileMetadata photo = server.putFile("/Photos/beach.jpg", new byte[] {1, 2, 3});
+        FileMetadata notes = server.putFile("/Photos/notes.txt", new byte[] {1});
+        server.delete("/Photos/beach.jpg");
+        DbxThumbnailCache cache = new DbxThumbnailCache(client, executor, 4, directory, 1 << 20);
+
+        assertNull(cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W64H64));
+        try {
+            cache.getThumbnail(notes, ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+            fail("text files have no thumbnails");
+        } catch (ThumbnailErrorException ex) {
+            assertTrue(ex.errorValue.isUnsupportedExtension());
+        }
+        assertEquals(cache.getCachedBytes(), 0L);
+    }
+
+    @Test
+    public void testFetchesThroughApiV1() throws Exception {
+        V1ThumbnailRequestor v1 = new V1ThumbnailRequestor();
+        DbxEntry.File photo = v1.putFile("/Photos/beach.jpg", "1a", new byte[] {1, 2, 3});
+        DbxEntry.File other = v1.putFile("/Photos/sunset.jpg", "2b", new byte[] {4, 5});
+        DbxThumbnailCache cache = new DbxThumbnailCache(clientV1(v1), executor, 4, directory, 1 << 20);
+
+        // sizes are sent by their API v1 names
+        assertEquals(cache.getThumbnail(photo, ThumbnailFormat.PNG, ThumbnailSize.W64H64), thumbnail("png s:", 1, 2, 3));
+        assertEquals(v1.requests.get(), 1);
+
+        DbxEntry.WithChildren listing = new DbxEntry.WithChildren(
+            new DbxEntry.Folder("/Photos", "folder", false), "hash", Arrays.<DbxEntry>asList(photo, other)
+        );
+        assertEquals(cache.prefetch(listing, ThumbnailFormat.PNG, ThumbnailSize.W64H64), 2);
+        assertEquals(v1.requests.get(), 2);
+        assertEquals(cache.getThumbnail(other, ThumbnailFormat.PNG, ThumbnailSize.W64H64), thumbnail("png s:", 4, 5));
+        assertEquals(v1.requests.get(), 2);
+
+        v1.files.remove("/Photos/beach.jpg");
+        assertNull(cache.getThumbnail(photo, ThumbnailFormat.JPEG, ThumbnailSize.W64H64));
+    }
+
+    @Test
+    public void testApiV1PrefetchRejectsFilesWithoutPath() throws Exception {
+        V1ThumbnailRequestor v1 = new V1ThumbnailRequestor();
+        DbxThumbnailCache cache = new DbxThumbnailCache(clientV1(v1), executor, 4, directory, 1 << 20);
+        // e.g. from a listing of a shared link, which has no paths
+        FileMetadata photo = FileMetadata.newBuilder("beach.jpg", "id:beach", new Date(0), new Date(0), "1a", 3)
+            .build();
+        ListFolderResult page = new ListFolderResult(Arrays.<Metadata>asList(photo), "cursor", false);
+
+        try {
+            cache.prefetch(page, ThumbnailFormat.JPEG, ThumbnailSize.W64H64);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected, reported to the caller rather than dropped by a prefetch worker
+        }
+        assertEquals(v1.requests.get(), 0);
+    }
+
+    private static DbxClientV1 clientV1(HttpRequestor requestor) {
+        return new DbxClientV1(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(requestor).build(),
+            "fakeAccessToken"
+        );
+    }
+
+    private static byte [] thumbnail(String prefix, int... content) throws IOException {
+        byte [] header = prefix.getBytes("UTF-8");
+        byte [] thumbnail = new byte[header.length + content.length];
+        System.arraycopy(header, 0, thumbnail, 0, header.length);
+        for (int i = 0; i < content.length; ++i) {
+            thumbnail[header.length + i] = (byte) content[i];
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Serves {@code /1/thumbnails} requests for the files put into it.
+     */
+    private static final class V1ThumbnailRequestor extends HttpRequestor {
+        private final Map<String, byte []> files = new ConcurrentHashMap<String, byte []>();
+        private final Map<String, String> revs = new ConcurrentHashMap<String, String>();
+        private final AtomicInteger requests = new AtomicInteger();
+
+        public DbxEntry.File putFile(String path, String rev, byte [] content) {
+            files.put(path, content);
+            revs.put(path, rev);
+            Date modified = new Date(0);
+            return new DbxEntry.File(path, "page_white_picture", true, content.length, content.length + " bytes",
+                                     modified, modified, rev);
+        }
+
+        @Override
+        public Response doGet(String url, Iterable<Header> headers) throws IOException {
+            requests.incrementAndGet();
+            String prefix = "/1/thumbnails/auto";
+            int start = url.indexOf(prefix) + prefix.length();
+            int query = url.indexOf('?', start);
+            String path = URLDecoder.decode(url.substring(start, query), "UTF-8");
+            String format = param(url, "format");
+            String size = param(url, "size");
+
+            byte [] content = files.get(path);
+            if (content == null) {
+                return new Response(404, new ByteArrayInputStream(new byte[0]),
+                                    Collections.<String, List<String>>emptyMap());
+            }
+
+            byte [] header = (format + " " + size + ":").getBytes("UTF-8");
+            byte [] body = new byte[header.length + content.length];
+            System.arraycopy(header, 0, body, 0, header.length);
+            System.arraycopy(content, 0, body, header.length, content.length);
+
+            String metadata = "{\"path\": \"" + path + "\", \"rev\": \"" + revs.get(path) + "\""
+                + ", \"bytes\": " + content.length + ", \"size\": \"" + content.length + " bytes\""
+                + ", \"is_dir\": false, \"thumb_exists\": true, \"icon\": \"page_white_picture\""
+                + ", \"modified\": \"Thu, 01 Jan 1970 00:00:00 +0000\""
+                + ", \"client_mtime\": \"Thu, 01 Jan 1970 00:00:00 +0000\"}";
+            return new Response(200, new ByteArrayInputStream(body),
+                                Collections.singletonMap("x-dropbox-metadata", Collections.singletonList(metadata)));
+        }
+
+        @Override
+        public Uploader startPost(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Uploader startPut(String url, Iterable<Header> headers) {
+            throw new UnsupportedOperationException();
+        }
+
+        private static String param(String url, String name) {
+            int start = url.indexOf(name + "=", url.indexOf('?'));
+            int end = url.indexOf('&', start);
+            return url.substring(start + name.length() + 1, end < 0 ? url.length() : end);
+        }
+    }
+}
@@ -0,0 +1,1108 @@
+package com.dropbox.core.v2.files;
+
+import static com.dropbox.core.v2.files.FilesSerializers.serializer;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.stone.StoneSerializers;
+import com.dropbox.core.v2.sync.DbxContentHasher;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*>>> import checkers.nullness.quals.Nullable; */
+
+/**
+ * In-memory stand-in for the Dropbox API that emulates enough of the files namespace to run
+ * clients end to end without a network: {@code list_folder}, {@code list_folder/continue},
+ * {@code get_metadata}, {@code download} (including {@code Range} requests), {@code
+ * get_thumbnail}, {@code upload},
+ * {@code upload_session/*}, {@code delete}, {@code create_folder} and the asynchronous
+ * {@code copy_batch}, {@code move_batch}, {@code delete_batch} and
+ * {@code upload_session/finish_batch} jobs.
+ *
+ * <p> Install it through {@link com.dropbox.core.DbxRequestConfig.Builder#withHttpRequestor}, or
+ * serve it over a local socket with {@link FakeFilesServer} to exercise a real {@link
+ * HttpRequestor} backend. Tests can change the namespace behind the client's back with {@link
+ * #putFile}, {@link #createFolder} and {@link #delete}, and inspect it with {@link #getContent} and
+ * {@link #getRequestCount}. </p>
+ *
+ * <p> Network conditions are emulated with {@link #setLatency}, {@link #setBandwidth} and the
+ * fault injection rates ({@link #setRateLimitRate}, {@link #setUnavailableRate}, {@link
+ * #setServerErrorRate}). Injected faults are decided before a request is handled, so a failed
+ * request never changes the namespace. Use {@link #setSeed} for reproducible runs. </p>
+ */
+public class FakeFilesRequestor extends HttpRequestor {
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Set<String> THUMBNAIL_EXTENSIONS = new HashSet<String>(Arrays.asList(
+        "jpg", "jpeg", "png", "tiff", "tif", "gif", "bmp"
+    ));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<String, Node> nodes = new TreeMap<String, Node>();
+    private final List<Metadata> changes = new ArrayList<Metadata>();
+    private final Map<String, ByteArrayOutputStream> sessions = new HashMap<String, ByteArrayOutputStream>();
+    private final Map<String, Job> jobs = new HashMap<String, Job>();
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger faultCount = new AtomicInteger();
+    private final Random random = new Random();
+    private long lastRev = 0x100000000L;
+    private long lastId = 0;
+    private long lastSession = 0;
+    private long lastJob = 0;
+
+    private volatile int pageSize = 100;
+    private volatile int jobCheckCount = 1;
+    private volatile long latencyMillis = 0;
+    private volatile long jitterMillis = 0;
+    private volatile long bytesPerSecond = 0;
+    private volatile double rateLimitRate = 0;
+    private volatile double unavailableRate = 0;
+    private volatile double serverErrorRate = 0;
+    private volatile int retryAfterSeconds = 0;
+
+    private static final class Node {
+        final String path;
+        final String id;
+        final /*@Nullable*/ byte [] content;
+        final /*@Nullable*/ String contentHash;
+        final String rev;
+        final Date clientModified;
+        final Date serverModified;
+
+        Node(String path, String id, /*@Nullable*/ byte [] content, String rev, Date clientModified, Date serverModified) {
+            this.path = path;
+            this.id = id;
+            this.content = content;
+            this.contentHash = content == null ? null : DbxContentHasher.hash(content);
+            this.rev = rev;
+            this.clientModified = clientModified;
+            this.serverModified = serverModified;
+        }
+
+        boolean isFolder() {
+            return content == null;
+        }
+
+        Metadata toMetadata() {
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            if (isFolder()) {
+                return FolderMetadata.newBuilder(name, id)
+                    .withPathLower(key(path))
+                    .withPathDisplay(path)
+                    .build();
+            }
+            return FileMetadata.newBuilder(name, id, clientModified, serverModified, rev, content.length)
+                .withPathLower(key(path))
+                .withPathDisplay(path)
+                .withContentHash(contentHash)
+                .build();
+        }
+    }
+
+    private static final class Job {
+        final String route;
+        final List<Map<String, Object>> entries;
+        int pendingChecks;
+        /*@Nullable*/ Map<String, Object> status;
+
+        Job(String route, List<Map<String, Object>> entries, int pendingChecks) {
+            this.route = route;
+            this.entries = entries;
+            this.pendingChecks = pendingChecks;
+        }
+    }
+
+    /**
+     * A route error, returned to the client as a 409 response.
+     */
+    private static final class ApiError extends Exception {
+        private static final long serialVersionUID = 0L;
+
+        final String summary;
+        final Object error;
+
+        ApiError(String summary, Object error) {
+            super(summary);
+            this.summary = summary;
+            this.error = error;
+        }
+
+        ApiError wrap(String tag) {
+            return new ApiError(tag + "/" + summary, object(".tag", tag, tag, error));
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries returned per {@code list_folder/continue} page.
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets how many times each batch job reports {@code in_progress} before it runs. With
+     * {@code 0}, batches that succeed complete synchronously in the launch response.
+     */
+    public void setJobCheckCount(int jobCheckCount) {
+        if (jobCheckCount < 0) {
+            throw new IllegalArgumentException("jobCheckCount must be non-negative");
+        }
+        this.jobCheckCount = jobCheckCount;
+    }
+
+    /**
+     * Delays every request by {@code latency} plus a uniformly distributed extra delay of up to
+     * {@code jitter}, emulating the round trip to the server.
+     */
+    public void setLatency(long latency, long jitter, TimeUnit unit) {
+        if (latency < 0 || jitter < 0) {
+            throw new IllegalArgumentException("latency and jitter must be non-negative");
+        }
+        this.latencyMillis = unit.toMillis(latency);
+        this.jitterMillis = unit.toMillis(jitter);
+    }
+
+    /**
+     * Limits request and response bodies to {@code bytesPerSecond} each, or removes the limit if
+     * {@code 0}.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be non-negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Fails the given fraction of requests with {@code 429 Too Many Requests}, asking the client
+     * to retry after {@code retryAfterSeconds}.
+     */
+    public void setRateLimitRate(double rate, int retryAfterSeconds) {
+        checkRate(rate);
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("retryAfterSeconds must be non-negative");
+        }
+        this.rateLimitRate = rate;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Fails the given fraction of requests with {@code 503 Service Unavailable}.
+     */
+    public void setUnavailableRate(double rate) {
+        checkRate(rate);
+        this.unavailableRate = rate;
+    }
+
+    /**
+     * Fails the given fraction of requests with {@code 500 Internal Server Error}.
+     */
+    public void setServerErrorRate(double rate) {
+        checkRate(rate);
+        this.serverErrorRate = rate;
+    }
+
+    /**
+     * Seeds the random source used for fault injection and latency jitter.
+     */
+    public void setSeed(long seed) {
+        synchronized (random) {
+            random.setSeed(seed);
+        }
+    }
+
+    /**
+     * Creates or replaces a file, as if it was changed by another client.
+     */
+    public FileMetadata putFile(String path, byte [] content) {
+        lock.lock();
+        try {
+            return (FileMetadata) write(path, content, now()).toMetadata();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates a folder and its missing parents, as if it was created by another client.
+     */
+    public void createFolder(String path) {
+        lock.lock();
+        try {
+            mkdirs(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes a file or folder, as if it was deleted by another client.
+     *
+     * @return whether the path existed
+     */
+    public boolean delete(String path) {
+        lock.lock();
+        try {
+            return remove(path) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the content of a file, or {@code null} if there is no file at {@code path}.
+     */
+    public /*@Nullable*/ byte [] getContent(String path) {
+        lock.lock();
+        try {
+            Node node = nodes.get(key(path));
+            return node == null ? null : node.content;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the metadata at {@code path}, or {@code null} if nothing exists there.
+     */
+    public /*@Nullable*/ Metadata getMetadata(String path) {
+        lock.lock();
+        try {
+            Node node = nodes.get(key(path));
+            return node == null ? null : node.toMetadata();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many requests were made to {@code route}, e.g. {@code "files/upload"},
+     * including requests that failed with an injected fault.
+     */
+    public int getRequestCount(String route) {
+        AtomicInteger count = requestCounts.get(route);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Returns how many requests failed with an injected fault.
+     */
+    public int getFaultCount() {
+        return faultCount.get();
+    }
+
+    @Override
+    public Response doGet(String url, Iterable<Header> headers) throws IOException {
+        return error(400, "GET not supported: " + url);
+    }
+
+    @Override
+    public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+        return startPost(url, headers);
+    }
+
+    @Override
+    public Uploader startPost(final String url, Iterable<Header> headers) throws IOException {
+        final Map<String, String> headerMap = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : headers) {
+            headerMap.put(header.getKey(), header.getValue());
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        return new Uploader() {
+            @Override
+            public OutputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void abort() {
+            }
+
+            @Override
+            public Response finish() throws IOException {
+                return execute(url, headerMap, body.toByteArray());
+            }
+        };
+    }
+
+    /**
+     * Runs a request through the emulated network and the route handlers.
+     *
+     * @param url request URL, only the path after {@code /2/} is used
+     * @param headers request headers, looked up case-insensitively
+     * @param body request body
+     */
+    Response execute(String url, Map<String, String> headers, byte [] body) throws IOException {
+        int start = url.indexOf("/2/");
+        if (start < 0) {
+            return error(400, "Unknown URL: " + url);
+        }
+        String route = url.substring(start + 3);
+        int query = route.indexOf('?');
+        if (query >= 0) {
+            route = route.substring(0, query);
+        }
+
+        requestCounts.putIfAbsent(route, new AtomicInteger());
+        requestCounts.get(route).incrementAndGet();
+
+        long delay = latencyMillis + transferMillis(body.length);
+        if (jitterMillis > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitterMillis);
+            }
+        }
+        sleep(delay);
+
+        Response fault = injectFault();
+        if (fault != null) {
+            faultCount.incrementAndGet();
+            return fault;
+        }
+
+        Response response;
+        lock.lock();
+        try {
+            response = handle(route, headers, body);
+        } finally {
+            lock.unlock();
+        }
+
+        if (bytesPerSecond > 0) {
+            return new Response(response.getStatusCode(), new ThrottledInputStream(response.getBody()), response.getHeaders());
+        }
+        return response;
+    }
+
+    protected Response handle(String route, Map<String, String> headers, byte [] body) throws IOException {
+        String apiArg = headers.get("Dropbox-API-Arg");
+        Map<String, Object> arg = apiArg != null ? parseObject(apiArg.getBytes("UTF-8")) : parseObject(body);
+
+        try {
+            if (route.equals("files/list_folder")) {
+                return listFolder(arg);
+            } else if (route.equals("files/list_folder/continue")) {
+                return listFolderContinue(arg);
+            } else if (route.equals("files/get_metadata")) {
+                return getMetadata(arg);
+            } else if (route.equals("files/download")) {
+                return download(arg, headers.get("Range"));
+            } else if (route.equals("files/get_thumbnail")) {
+                return getThumbnail(arg);
+            } else if (route.equals("files/upload")) {
+                try {
+                    return json(toJson(commit(arg, body)));
+                } catch (ApiError ex) {
+                    throw new ApiError("path/" + ex.summary,
+                                       object(".tag", "path", "reason", ex.error, "upload_session_id", "none"));
+                }
+            } else if (route.equals("files/upload_session/start")) {
+                String sessionId = "session-" + (++lastSession);
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                content.write(body);
+                sessions.put(sessionId, content);
+                return json(serializer(UploadSessionStartResult.class).serialize(new UploadSessionStartResult(sessionId)));
+            } else if (route.equals("files/upload_session/append_v2")) {
+                append(field(arg, "cursor"), body);
+                return json("null");
+            } else if (route.equals("files/upload_session/finish")) {
+                return json(toJson(finish(field(arg, "cursor"), field(arg, "commit"), body)));
+            } else if (route.equals("files/delete")) {
+                Node removed = remove((String) arg.get("path"));
+                if (removed == null) {
+                    throw notFound().wrap("path_lookup");
+                }
+                return json(toJson(removed));
+            } else if (route.equals("files/create_folder")) {
+                String path = (String) arg.get("path");
+                if (nodes.containsKey(key(path))) {
+                    throw new ApiError("path/conflict/folder/",
+                                       object(".tag", "path", "path", conflict("folder")));
+                }
+                return json(toJson(mkdirs(path)));
+            } else if (route.equals("files/copy_batch")
+                       || route.equals("files/move_batch")
+                       || route.equals("files/delete_batch")
+                       || route.equals("files/upload_session/finish_batch")) {
+                return launch(route, arg);
+            } else if (route.endsWith("_batch/check")) {
+                return check(route.substring(0, route.length() - "/check".length()), arg);
+            } else {
+                return error(400, "Unknown route: " + route);
+            }
+        } catch (ApiError ex) {
+            return apiError(ex);
+        }
+    }
+
+    private Response listFolder(Map<String, Object> arg) throws ApiError {
+        String path = (String) arg.get("path");
+        boolean recursive = Boolean.TRUE.equals(arg.get("recursive"));
+        String root = key(path);
+        if (!root.isEmpty()) {
+            Node node = nodes.get(root);
+            if (node == null) {
+                throw notFound().wrap("path");
+            }
+            if (!node.isFolder()) {
+                throw new ApiError("path/not_folder/", object(".tag", "path", "path", "not_folder"));
+            }
+        }
+
+        List<Metadata> entries = new ArrayList<Metadata>();
+        if (recursive && !root.isEmpty()) {
+            entries.add(nodes.get(root).toMetadata());
+        }
+        for (Node node : nodes.subMap(root + "/", root + "0").values()) {
+            if (recursive || key(node.path).lastIndexOf('/') == root.length()) {
+                entries.add(node.toMetadata());
+            }
+        }
+        return listResult(entries, cursor(changes.size(), recursive, root), false);
+    }
+
+    private Response listFolderContinue(Map<String, Object> arg) throws ApiError {
+        String cursor = (String) arg.get("cursor");
+        String [] parts = cursor.split(":", 3);
+        if (parts.length != 3 || !parts[0].matches("[0-9]+")
+                || Integer.parseInt(parts[0]) > changes.size()) {
+            throw new ApiError("reset/", "reset");
+        }
+        int position = Integer.parseInt(parts[0]);
+        boolean recursive = parts[1].equals("r");
+        String root = parts[2];
+
+        List<Metadata> entries = new ArrayList<Metadata>();
+        while (position < changes.size() && entries.size() < pageSize) {
+            Metadata change = changes.get(position++);
+            String pathLower = change.getPathLower();
+            if (pathLower.startsWith(root + "/")
+                && (recursive || pathLower.lastIndexOf('/') == root.length())) {
+                entries.add(change);
+            }
+        }
+        return listResult(entries, cursor(position, recursive, root), position < changes.size());
+    }
+
+    private Response getMetadata(Map<String, Object> arg) throws IOException, ApiError {
+        String path = (String) arg.get("path");
+        Node node = lookup(path);
+        if (node != null) {
+            return json(toJson(node));
+        }
+        if (Boolean.TRUE.equals(arg.get("include_deleted"))) {
+            for (int i = changes.size() - 1; i >= 0; --i) {
+                Metadata change = changes.get(i);
+                if (change.getPathLower().equals(key(path))) {
+                    if (change instanceof DeletedMetadata) {
+                        return json(serializer(Metadata.class).serialize(change));
+                    }
+                    break;
+                }
+            }
+        }
+        throw notFound().wrap("path");
+    }
+
+    private Response download(Map<String, Object> arg, /*@Nullable*/ String range) throws ApiError {
+        Node node = lookup((String) arg.get("path"));
+        String rev = (String) arg.get("rev");
+        if (node == null || rev != null && !rev.equals(node.rev)) {
+            throw notFound().wrap("path");
+        }
+        if (node.isFolder()) {
+            throw new ApiError("path/not_file/", object(".tag", "path", "path", "not_file"));
+        }
+
+        byte [] content = node.content;
+        int status = 200;
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        if (range != null) {
+            long [] bounds = parseRange(range, content.length);
+            if (bounds == null) {
+                headers.put("Content-Range", Collections.singletonList("bytes */" + content.length));
+                return new Response(416, new ByteArrayInputStream(new byte[0]), headers);
+            }
+            headers.put("Content-Range", Collections.singletonList(
+                "bytes " + bounds[0] + "-" + bounds[1] + "/" + content.length));
+            content = Arrays.copyOfRange(content, (int) bounds[0], (int) bounds[1] + 1);
+            status = 206;
+        }
+        headers.put("Dropbox-API-Result", Collections.singletonList(serializer(Metadata.class).serialize(node.toMetadata())));
+        return new Response(status, new ByteArrayInputStream(content), headers);
+    }
+
+    /**
+     * Serves a fake thumbnail: the requested format and size followed by the file content, so tests
+     * can tell thumbnails of different revisions, formats and sizes apart.
+     */
+    private Response getThumbnail(Map<String, Object> arg) throws IOException, ApiError {
+        Node node = lookup((String) arg.get("path"));
+        if (node == null) {
+            throw notFound().wrap("path");
+        }
+        if (node.isFolder()) {
+            throw new ApiError("path/not_file/", object(".tag", "path", "path", "not_file"));
+        }
+        String extension = node.path.substring(node.path.lastIndexOf('.') + 1).toLowerCase();
+        if (!THUMBNAIL_EXTENSIONS.contains(extension)) {
+            throw new ApiError("unsupported_extension/", "unsupported_extension");
+        }
+
+        String format = arg.containsKey("format") ? (String) field(arg, "format").get(".tag") : "jpeg";
+        String size = arg.containsKey("size") ? (String) field(arg, "size").get(".tag") : "w64h64";
+        ByteArrayOutputStream thumbnail = new ByteArrayOutputStream();
+        thumbnail.write(utf8(format + " " + size + ":"));
+        thumbnail.write(node.content);
+
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Dropbox-API-Result", Collections.singletonList(serializer(Metadata.class).serialize(node.toMetadata())));
+        return new Response(200, new ByteArrayInputStream(thumbnail.toByteArray()), headers);
+    }
+
+    private Node commit(Map<String, Object> arg, byte [] content) throws ApiError {
+        String path = (String) arg.get("path");
+        Object mode = arg.get("mode");
+        String tag = mode == null ? "add" : mode instanceof String ? (String) mode : (String) ((Map<?, ?>) mode).get(".tag");
+        Node existing = nodes.get(key(path));
+
+        boolean conflict;
+        if (existing != null && existing.isFolder()) {
+            conflict = true;
+        } else if (tag.equals("update")) {
+            String rev = (String) ((Map<?, ?>) mode).get("update");
+            conflict = existing == null || !existing.rev.equals(rev);
+        } else if (tag.equals("add")) {
+            conflict = existing != null && !Arrays.equals(existing.content, content);
+        } else {
+            conflict = false;
+        }
+
+        if (conflict) {
+            if (Boolean.TRUE.equals(arg.get("autorename"))) {
+                path = availableName(path);
+            } else {
+                throw new ApiError("conflict/file/", conflict("file"));
+            }
+        } else if (existing != null && Arrays.equals(existing.content, content)) {
+            // same content, Dropbox does not create a new revision
+            return existing;
+        }
+
+        String clientModified = (String) arg.get("client_modified");
+        Date modified;
+        try {
+            modified = clientModified != null
+                ? StoneSerializers.timestamp().deserialize("\"" + clientModified + "\"")
+                : now();
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        return write(path, content, modified);
+    }
+
+    private Node finish(Map<String, Object> cursor, Map<String, Object> commit, byte [] body) throws ApiError {
+        try {
+            append(cursor, body);
+        } catch (ApiError ex) {
+            throw ex.wrap("lookup_failed");
+        }
+        byte [] content = sessions.get((String) cursor.get("session_id")).toByteArray();
+        Node node;
+        try {
+            node = commit(commit, content);
+        } catch (ApiError ex) {
+            throw ex.wrap("path");
+        }
+        sessions.remove((String) cursor.get("session_id"));
+        return node;
+    }
+
+    private void append(Map<String, Object> cursor, byte [] body) throws ApiError {
+        ByteArrayOutputStream content = sessions.get((String) cursor.get("session_id"));
+        if (content == null) {
+            throw new ApiError("not_found/", "not_found");
+        }
+        long offset = ((Number) cursor.get("offset")).longValue();
+        if (offset != content.size()) {
+            throw new ApiError("incorrect_offset/",
+                               object(".tag", "incorrect_offset", "correct_offset", (long) content.size()));
+        }
+        content.write(body, 0, body.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response launch(String route, Map<String, Object> arg) throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        for (Object entry : (List<Object>) arg.get("entries")) {
+            entries.add((Map<String, Object>) entry);
+        }
+        Job job = new Job(route, entries, jobCheckCount);
+        if (job.pendingChecks == 0) {
+            job.status = run(job);
+            if ("complete".equals(job.status.get(".tag"))) {
+                return json(job.status);
+            }
+        }
+        String asyncJobId = "dbjid:" + (++lastJob);
+        jobs.put(asyncJobId, job);
+        return json(object(".tag", "async_job_id", "async_job_id", asyncJobId));
+    }
+
+    private Response check(String route, Map<String, Object> arg) throws IOException, ApiError {
+        Job job = jobs.get((String) arg.get("async_job_id"));
+        if (job == null || !job.route.equals(route)) {
+            throw new ApiError("invalid_async_job_id/", "invalid_async_job_id");
+        }
+        if (job.pendingChecks > 0) {
+            --job.pendingChecks;
+            return json(object(".tag", "in_progress"));
+        }
+        if (job.status == null) {
+            job.status = run(job);
+        }
+        return json(job.status);
+    }
+
+    private Map<String, Object> run(Job job) throws IOException {
+        List<Object> results = new ArrayList<Object>();
+        for (Map<String, Object> entry : job.entries) {
+            if (job.route.equals("files/delete_batch")) {
+                Node removed = remove((String) entry.get("path"));
+                if (removed != null) {
+                    results.add(object(".tag", "success", "metadata", toJson(removed)));
+                } else {
+                    results.add(object(".tag", "failure", "failure", notFound().wrap("path_lookup").error));
+                }
+            } else if (job.route.equals("files/upload_session/finish_batch")) {
+                try {
+                    Map<String, Object> result = toJson(finish(field(entry, "cursor"), field(entry, "commit"), new byte[0]));
+                    result.put(".tag", "success");
+                    results.add(result);
+                } catch (ApiError ex) {
+                    results.add(object(".tag", "failure", "failure", ex.error));
+                }
+            } else {
+                // like Dropbox, a relocation batch stops at the first failure
+                try {
+                    Node node = relocate((String) entry.get("from_path"), (String) entry.get("to_path"),
+                                         job.route.equals("files/move_batch"));
+                    results.add(object("metadata", toJson(node)));
+                } catch (ApiError ex) {
+                    return object(".tag", "failed", "failed", ex.error);
+                }
+            }
+        }
+        return object(".tag", "complete", "entries", results);
+    }
+
+    private Node relocate(String from, String to, boolean move) throws ApiError {
+        String fromKey = key(from);
+        String toKey = key(to);
+        Node source = nodes.get(fromKey);
+        if (source == null) {
+            throw notFound().wrap("from_lookup");
+        }
+        if (toKey.equals(fromKey) || toKey.startsWith(fromKey + "/")) {
+            throw new ApiError("cant_move_folder_into_itself/", "cant_move_folder_into_itself");
+        }
+        if (nodes.containsKey(toKey)) {
+            throw new ApiError("to/conflict/", object(".tag", "to", "to", conflict(source.isFolder() ? "folder" : "file")));
+        }
+
+        List<Node> subtree = new ArrayList<Node>();
+        subtree.add(source);
+        subtree.addAll(nodes.subMap(fromKey + "/", fromKey + "0").values());
+        if (move) {
+            remove(from);
+        }
+        String parent = to.substring(0, to.lastIndexOf('/'));
+        if (!parent.isEmpty()) {
+            mkdirs(parent);
+        }
+        for (Node node : subtree) {
+            String path = to + node.path.substring(source.path.length());
+            String id = move ? node.id : "id:" + (++lastId);
+            Node copy = node.isFolder()
+                ? new Node(path, id, null, null, null, null)
+                : new Node(path, id, node.content, Long.toHexString(++lastRev), node.clientModified, now());
+            nodes.put(key(path), copy);
+            changes.add(copy.toMetadata());
+        }
+        return nodes.get(toKey);
+    }
+
+    private /*@Nullable*/ Node lookup(String path) {
+        if (path.startsWith("id:")) {
+            for (Node node : nodes.values()) {
+                if (node.id.equals(path)) {
+                    return node;
+                }
+            }
+            return null;
+        }
+        return nodes.get(key(path));
+    }
+
+    private Node write(String path, byte [] content, Date clientModified) {
+        String parent = path.substring(0, path.lastIndexOf('/'));
+        if (!parent.isEmpty()) {
+            mkdirs(parent);
+        }
+        Node existing = nodes.get(key(path));
+        String id = existing != null && !existing.isFolder() ? existing.id : "id:" + (++lastId);
+        Node node = new Node(path, id, content, Long.toHexString(++lastRev), clientModified, now());
+        nodes.put(key(path), node);
+        changes.add(node.toMetadata());
+        return node;
+    }
+
+    private Node mkdirs(String path) {
+        Node node = nodes.get(key(path));
+        if (node != null && node.isFolder()) {
+            return node;
+        }
+        String parent = path.substring(0, path.lastIndexOf('/'));
+        if (!parent.isEmpty()) {
+            mkdirs(parent);
+        }
+        node = new Node(path, "id:" + (++lastId), null, null, null, null);
+        nodes.put(key(path), node);
+        changes.add(node.toMetadata());
+        return node;
+    }
+
+    private /*@Nullable*/ Node remove(String path) {
+        String key = key(path);
+        Node node = nodes.remove(key);
+        if (node == null) {
+            return null;
+        }
+        nodes.subMap(key + "/", key + "0").clear();
+        // like Dropbox, only the deleted folder is reported, not its children
+        String name = node.path.substring(node.path.lastIndexOf('/') + 1);
+        changes.add(DeletedMetadata.newBuilder(name)
+            .withPathLower(key)
+            .withPathDisplay(node.path)
+            .build());
+        return node;
+    }
+
+    private String availableName(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < path.lastIndexOf('/')) {
+            dot = path.length();
+        }
+        for (int i = 2; ; ++i) {
+            String candidate = path.substring(0, dot) + " (" + i + ")" + path.substring(dot);
+            if (!nodes.containsKey(key(candidate))) {
+                return candidate;
+            }
+        }
+    }
+
+    private /*@Nullable*/ Response injectFault() {
+        double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        if (roll < rateLimitRate) {
+            Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            headers.put("Retry-After", Collections.singletonList(Integer.toString(retryAfterSeconds)));
+            String body = "{\"error_summary\": \"too_many_requests/\", \"error\": {\"reason\": {\".tag\": \"too_many_requests\"}, \"retry_after\": " + retryAfterSeconds + "}}";
+            return new Response(429, new ByteArrayInputStream(utf8(body)), headers);
+        }
+        roll -= rateLimitRate;
+        if (roll < unavailableRate) {
+            return error(503, "Service Unavailable");
+        }
+        roll -= unavailableRate;
+        if (roll < serverErrorRate) {
+            return error(500, "Internal Server Error");
+        }
+        return null;
+    }
+
+    private long transferMillis(long bytes) {
+        long limit = bytesPerSecond;
+        return limit > 0 ? bytes * 1000 / limit : 0;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while emulating the network");
+        }
+    }
+
+    /**
+     * Response body that is never read faster than the configured bandwidth.
+     */
+    private final class ThrottledInputStream extends FilterInputStream {
+        private final long start = System.nanoTime();
+        private long bytesRead = 0;
+
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                throttle(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                throttle(n);
+            }
+            return n;
+        }
+
+        private void throttle(int n) throws InterruptedIOException {
+            bytesRead += n;
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            sleep(transferMillis(bytesRead) - elapsed);
+        }
+    }
+
+    private static ApiError notFound() {
+        return new ApiError("not_found/", "not_found");
+    }
+
+    private static Map<String, Object> conflict(String tag) {
+        return object(".tag", "conflict", "conflict", tag);
+    }
+
+    private static void checkRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0 and 1: " + rate);
+        }
+    }
+
+    private static Date now() {
+        return new Date(System.currentTimeMillis() / 1000 * 1000);
+    }
+
+    private static String key(String path) {
+        return path.toLowerCase(Locale.ROOT);
+    }
+
+    private static String cursor(int position, boolean recursive, String root) {
+        return position + ":" + (recursive ? "r" : "n") + ":" + root;
+    }
+
+    /**
+     * Parses a single {@code bytes=} range into inclusive bounds, or returns {@code null} if the
+     * range cannot be satisfied.
+     */
+    private static /*@Nullable*/ long [] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                // suffix range, e.g. bytes=-500 for the last 500 bytes
+                first = Math.max(0, length - Long.parseLong(spec.substring(1)));
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+            }
+            if (first >= length || last < first) {
+                return null;
+            }
+            return new long [] { first, last };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static Response listResult(List<Metadata> entries, String cursor, boolean hasMore) {
+        return json(serializer(ListFolderResult.class).serialize(new ListFolderResult(entries, cursor, hasMore)));
+    }
+
+    private static Map<String, Object> toJson(Node node) {
+        try {
+            return parseObject(utf8(serializer(Metadata.class).serialize(node.toMetadata())));
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static Response json(Object body) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonGenerator generator = JSON.createGenerator(out);
+        try {
+            writeValue(generator, body);
+        } finally {
+            generator.close();
+        }
+        return json(out.toString());
+    }
+
+    private static Response json(String body) {
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Content-Type", Collections.singletonList("application/json"));
+        return new Response(200, new ByteArrayInputStream(utf8(body)), headers);
+    }
+
+    private static Response apiError(ApiError error) throws IOException {
+        Response response = json(object("error_summary", error.summary, "error", error.error));
+        return new Response(409, response.getBody(), response.getHeaders());
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, new ByteArrayInputStream(utf8(message)), Collections.<String, List<String>>emptyMap());
+    }
+
+    private static byte [] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static Map<String, Object> object(Object... keysAndValues) {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            object.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> field(Map<String, Object> arg, String name) {
+        return (Map<String, Object>) arg.get(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseObject(byte [] json) throws IOException {
+        if (json.length == 0) {
+            return Collections.emptyMap();
+        }
+        JsonParser parser = JSON.createParser(json);
+        try {
+            parser.nextToken();
+            Object value = parseValue(parser);
+            return value instanceof Map ? (Map<String, Object>) value : Collections.<String, Object>emptyMap();
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static Object parseValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        switch (token) {
+            case START_OBJECT: {
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.put(name, parseValue(parser));
+                }
+                return object;
+            }
+            case START_ARRAY: {
+                List<Object> array = new ArrayList<Object>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(parseValue(parser));
+                }
+                return array;
+            }
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private static void writeValue(JsonGenerator generator, /*@Nullable*/ Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName((String) field.getKey());
+                writeValue(generator, field.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof List) {
+            generator.writeStartArray();
+            for (Object element : (List<?>) value) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).longValue());
+        } else {
+            throw new IllegalArgumentException("Unsupported JSON value: " + value.getClass());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.dropbox.core.v2.files;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxDownloader;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.RateLimitException;
+import com.dropbox.core.RetryException;
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.http.StandardHttpRequestor;
+import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.v2.DbxAsyncJobPoller;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.DbxDownloadStyleBuilder;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class FakeFilesRequestorTest {
+    private FakeFilesRequestor files;
+
+    @BeforeMethod
+    public void setUp() {
+        files = new FakeFilesRequestor();
+    }
+
+    @Test
+    public void testGetMetadataByPathAndId() throws Exception {
+        FileMetadata file = files.putFile("/Docs/Report.txt", bytes("report"));
+        DbxClientV2 client = newClient(files);
+
+        Metadata byPath = client.files().getMetadata("/docs/report.txt");
+        Metadata byId = client.files().getMetadata(file.getId());
+
+        assertEquals(byPath.getPathDisplay(), "/Docs/Report.txt");
+        assertEquals(((FileMetadata) byId).getRev(), file.getRev());
+        assertTrue(client.files().getMetadata("/Docs") instanceof FolderMetadata);
+
+        files.delete("/Docs/Report.txt");
+        try {
+            client.files().getMetadata("/Docs/Report.txt");
+            fail("expected GetMetadataErrorException");
+        } catch (GetMetadataErrorException ex) {
+            assertTrue(ex.errorValue.isPath());
+            assertTrue(ex.errorValue.getPathValue().isNotFound());
+        }
+        Metadata deleted = client.files().getMetadataBuilder("/Docs/Report.txt")
+            .withIncludeDeleted(true)
+            .start();
+        assertTrue(deleted instanceof DeletedMetadata);
+    }
+
+    @Test
+    public void testDownloadRange() throws Exception {
+        files.putFile("/data.bin", bytes("0123456789"));
+        DbxClientV2 client = newClient(files);
+
+        assertEquals(download(client.files().downloadBuilder("/data.bin").range(2, 3)), "234");
+        assertEquals(download(client.files().downloadBuilder("/data.bin").range(7)), "789");
+        assertEquals(download(client.files().downloadBuilder("/data.bin")), "0123456789");
+    }
+
+    @Test
+    public void testUploadSessionFinishBatch() throws Exception {
+        DbxClientV2 client = newClient(files);
+        List<UploadSessionFinishArg> entries = new ArrayList<UploadSessionFinishArg>();
+        for (int i = 0; i < 3; ++i) {
+            byte [] content = bytes("file " + i);
+            String sessionId = client.files().uploadSessionStart()
+                .uploadAndFinish(new ByteArrayInputStream(content))
+                .getSessionId();
+            entries.add(new UploadSessionFinishArg(
+                new UploadSessionCursor(sessionId, content.length),
+                CommitInfo.newBuilder("/batch/" + i + ".txt").build()
+            ));
+        }
+        // wrong offset fails only its own entry
+        entries.add(new UploadSessionFinishArg(
+            new UploadSessionCursor(entries.get(0).getCursor().getSessionId(), 1),
+            CommitInfo.newBuilder("/batch/bad.txt").build()
+        ));
+
+        UploadSessionFinishBatchLaunch launch = client.files().uploadSessionFinishBatch(entries);
+        assertTrue(launch.isAsyncJobId());
+        String asyncJobId = launch.getAsyncJobIdValue();
+
+        assertTrue(client.files().uploadSessionFinishBatchCheck(asyncJobId).isInProgress());
+        UploadSessionFinishBatchJobStatus status = client.files().uploadSessionFinishBatchCheck(asyncJobId);
+
+        assertTrue(status.isComplete());
+        List<UploadSessionFinishBatchResultEntry> results = status.getCompleteValue().getEntries();
+        assertEquals(results.size(), 4);
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals(results.get(i).getSuccessValue().getPathLower(), "/batch/" + i + ".txt");
+            assertEquals(files.getContent("/batch/" + i + ".txt"), bytes("file " + i));
+        }
+        assertTrue(results.get(3).isFailure());
+        assertTrue(results.get(3).getFailureValue().isLookupFailed());
+    }
+
+    @Test
+    public void testCopyAndMoveBatchThroughPoller() throws Exception {
+        files.putFile("/src/a.txt", bytes("a"));
+        files.putFile("/src/sub/b.txt", bytes("b"));
+        files.setJobCheckCount(3);
+        DbxClientV2 client = newClient(files);
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+        try {
+            DbxAsyncJobPoller poller = new DbxAsyncJobPoller(executor, 1, 4, TimeUnit.MILLISECONDS);
+
+            RelocationBatchLaunch copy = client.files().copyBatch(Arrays.asList(new RelocationPath("/src", "/copy")));
+            RelocationBatchJobStatus copied = poller.poll(
+                copy.getAsyncJobIdValue(), DbxAsyncJobPoller.copyBatchCheck(client.files())
+            ).get(1, TimeUnit.MINUTES);
+
+            assertTrue(copied.isComplete());
+            assertEquals(copied.getCompleteValue().getEntries().get(0).getMetadata().getPathLower(), "/copy");
+            assertEquals(files.getContent("/copy/sub/b.txt"), bytes("b"));
+            assertEquals(files.getRequestCount("files/copy_batch/check"), 4);
+
+            RelocationBatchLaunch move = client.files().moveBatch(Arrays.asList(
+                new RelocationPath("/copy/a.txt", "/moved/a.txt"),
+                new RelocationPath("/missing.txt", "/moved/missing.txt")
+            ));
+            RelocationBatchJobStatus moved = poller.poll(
+                move.getAsyncJobIdValue(), DbxAsyncJobPoller.moveBatchCheck(client.files())
+            ).get(1, TimeUnit.MINUTES);
+
+            assertTrue(moved.isFailed());
+            assertNull(files.getContent("/copy/a.txt"));
+            assertEquals(files.getContent("/moved/a.txt"), bytes("a"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDeleteBatchCompletesSynchronously() throws Exception {
+        files.putFile("/a.txt", bytes("a"));
+        files.setJobCheckCount(0);
+        DbxClientV2 client = newClient(files);
+
+        DeleteBatchLaunch launch = client.files().deleteBatch(Arrays.asList(new DeleteArg("/a.txt"), new DeleteArg("/b.txt")));
+
+        assertTrue(launch.isComplete());
+        List<DeleteBatchResultEntry> results = launch.getCompleteValue().getEntries();
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(results.get(0).getSuccessValue().getMetadata().getPathLower(), "/a.txt");
+        assertTrue(results.get(1).isFailure());
+        assertTrue(results.get(1).getFailureValue().isPathLookup());
+        assertNull(files.getContent("/a.txt"));
+    }
+
+    @Test
+    public void testInjectedFaults() throws Exception {
+        files.putFile("/a.txt", bytes("a"));
+        DbxClientV2 client = newClient(files);
+
+        files.setRateLimitRate(1.0, 7);
+        try {
+            client.files().getMetadata("/a.txt");
+            fail("expected RateLimitException");
+        } catch (RateLimitException ex) {
+            assertEquals(ex.getBackoffMillis(), TimeUnit.SECONDS.toMillis(7));
+        }
+
+        files.setRateLimitRate(0, 0);
+        files.setUnavailableRate(1.0);
+        try {
+            client.files().delete("/a.txt");
+            fail("expected RetryException");
+        } catch (RetryException ex) {
+            // expected
+        }
+        assertNotNull(files.getContent("/a.txt"), "faulted requests must not be handled");
+        assertEquals(files.getFaultCount(), 2);
+
+        // with retries enabled, clients ride out occasional faults
+        files.setUnavailableRate(0.3);
+        files.setSeed(42);
+        DbxClientV2 retrying = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(files).withAutoRetryEnabled(20).build(),
+            "fakeAccessToken"
+        );
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(retrying.files().getMetadata("/a.txt").getName(), "a.txt");
+        }
+        assertTrue(files.getFaultCount() > 2);
+    }
+
+    @Test
+    public void testLatencyAndBandwidth() throws Exception {
+        byte [] content = new byte[100 * 1024];
+        new Random(0).nextBytes(content);
+        files.putFile("/big.bin", content);
+        DbxClientV2 client = newClient(files);
+
+        files.setLatency(50, 0, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        client.files().getMetadata("/big.bin");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        files.setLatency(0, 0, TimeUnit.MILLISECONDS);
+        files.setBandwidth(400 * 1024);
+        start = System.nanoTime();
+        DbxDownloader<FileMetadata> downloader = client.files().download("/big.bin");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        downloader.download(out);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(240));
+        assertTrue(Arrays.equals(out.toByteArray(), content));
+    }
+
+    @Test
+    public void testServerWithStandardHttpRequestor() throws Exception {
+        FakeFilesServer server = FakeFilesServer.start(files);
+        try {
+            DbxClientV2 client = newClient(server.wrap(StandardHttpRequestor.INSTANCE));
+
+            byte [] content = new byte[256 * 1024];
+            new Random(1).nextBytes(content);
+            FileMetadata uploaded = client.files().uploadBuilder("/remote/data.bin")
+                .uploadAndFinish(new ByteArrayInputStream(content));
+
+            assertEquals(uploaded.getSize(), content.length);
+            assertTrue(Arrays.equals(files.getContent("/remote/data.bin"), content));
+            assertEquals(client.files().listFolder("/remote").getEntries().size(), 1);
+
+            DbxDownloader<FileMetadata> downloader = client.files().downloadBuilder("/remote/data.bin")
+                .range(1000, 10)
+                .start();
+            try {
+                assertEquals(downloader.getResult().getRev(), uploaded.getRev());
+                assertTrue(Arrays.equals(
+                    IOUtil.slurp(downloader.getInputStream(), 1024),
+                    Arrays.copyOfRange(content, 1000, 1010)
+                ));
+            } finally {
+                downloader.close();
+            }
+
+            try {
+                client.files().getMetadata("/remote/missing");
+                fail("expected GetMetadataErrorException");
+            } catch (GetMetadataErrorException ex) {
+                assertTrue(ex.errorValue.getPathValue().isNotFound());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static DbxClientV2 newClient(HttpRequestor requestor) {
+        return new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(requestor).build(),
+            "fakeAccessToken"
+        );
+    }
+
+    private static String download(DbxDownloadStyleBuilder<FileMetadata> builder) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.download(out);
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static byte [] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.dropbox.core.v2.files;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.util.IOUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a {@link FakeFilesRequestor} over plain HTTP on the loopback interface, so requests go
+ * through a real {@link HttpRequestor} backend and socket instead of staying in memory.
+ *
+ * <p> The SDK always builds {@code https://} URLs for the Dropbox hosts. Wrap the backend under
+ * test with {@link #wrap} to send those requests to this server instead:
+ *
+ * <pre>
+ *     FakeFilesServer server = FakeFilesServer.start(new FakeFilesRequestor());
+ *     try {
+ *         DbxRequestConfig config = DbxRequestConfig.newBuilder("bench")
+ *             .withHttpRequestor(server.wrap(new OkHttp3Requestor(OkHttp3Requestor.defaultOkHttpClient())))
+ *             .build();
+ *         ...
+ *     } finally {
+ *         server.stop();
+ *     }
+ * </pre>
+ * </p>
+ */
+public final class FakeFilesServer {
+    private final FakeFilesRequestor files;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String baseUrl;
+
+    private FakeFilesServer(FakeFilesRequestor files, HttpServer server, ExecutorService executor) {
+        this.files = files;
+        this.server = server;
+        this.executor = executor;
+        this.baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Starts serving {@code files} on an ephemeral loopback port.
+     *
+     * @param files fake namespace and network conditions to serve
+     *
+     * @return running server, to be stopped with {@link #stop}
+     *
+     * @throws IOException if the server socket could not be bound
+     */
+    public static FakeFilesServer start(final FakeFilesRequestor files) throws IOException {
+        if (files == null) {
+            throw new NullPointerException("files");
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(files, exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return new FakeFilesServer(files, server, executor);
+    }
+
+    private static void serve(FakeFilesRequestor files, HttpExchange exchange) throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        IOUtil.copyStreamToStream(exchange.getRequestBody(), body);
+
+        HttpRequestor.Response response;
+        if ("POST".equals(exchange.getRequestMethod()) || "PUT".equals(exchange.getRequestMethod())) {
+            response = files.execute(exchange.getRequestURI().toString(), headers, body.toByteArray());
+        } else {
+            response = files.doGet(exchange.getRequestURI().toString(), null);
+        }
+
+        for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+            exchange.getResponseHeaders().put(header.getKey(), header.getValue());
+        }
+        // stream the body with chunked encoding, so bandwidth throttling reaches the client
+        exchange.sendResponseHeaders(response.getStatusCode(), 0);
+        InputStream in = response.getBody();
+        OutputStream out = exchange.getResponseBody();
+        try {
+            IOUtil.copyStreamToStream(in, out);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the fake namespace served by this server.
+     */
+    public FakeFilesRequestor getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the base URL of this server, e.g. {@code "http://127.0.0.1:51234"}.
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Returns a requestor that sends every request of {@code backend} to this server, keeping the
+     * URL path and query.
+     *
+     * @param backend requestor under test
+     *
+     * @return requestor to install in the client's {@link com.dropbox.core.DbxRequestConfig}
+     */
+    public HttpRequestor wrap(final HttpRequestor backend) {
+        if (backend == null) {
+            throw new NullPointerException("backend");
+        }
+        return new HttpRequestor() {
+            @Override
+            public Response doGet(String url, Iterable<Header> headers) throws IOException {
+                return backend.doGet(rewrite(url), headers);
+            }
+
+            @Override
+            public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+                return backend.startPost(rewrite(url), headers);
+            }
+
+            @Override
+            public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+                return backend.startPut(rewrite(url), headers);
+            }
+        };
+    }
+
+    private String rewrite(String url) {
+        int authority = url.indexOf("://");
+        int path = url.indexOf('/', authority < 0 ? 0 : authority + 3);
+        return baseUrl + (path < 0 ? "/" : url.substring(path));
+    }
+
+    /**
+     * Stops the server, aborting in-flight requests.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
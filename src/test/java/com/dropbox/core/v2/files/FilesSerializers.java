@@ -13,6 +13,14 @@ public final class FilesSerializers {
     public static <T> StoneSerializer<T> serializer(Class<T> dataType) {
         if (Metadata.class.isAssignableFrom(dataType)) {
             return (StoneSerializer<T>) Metadata.Serializer.INSTANCE;
+        } else if (ListFolderResult.class.equals(dataType)) {
+            return (StoneSerializer<T>) ListFolderResult.Serializer.INSTANCE;
+        } else if (UploadSessionStartResult.class.equals(dataType)) {
+            return (StoneSerializer<T>) UploadSessionStartResult.Serializer.INSTANCE;
+        } else if (CommitInfo.class.equals(dataType)) {
+            return (StoneSerializer<T>) CommitInfo.Serializer.INSTANCE;
+        } else if (GetMetadataError.class.equals(dataType)) {
+            return (StoneSerializer<T>) GetMetadataError.Serializer.INSTANCE;
         } else {
             fail("Required serializer not added to FilesSerializers: " + dataType);
             return null;
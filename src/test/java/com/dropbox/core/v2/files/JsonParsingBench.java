@@ -0,0 +1,121 @@
+package com.dropbox.core.v2.files;
+
+import com.dropbox.core.json.JsonReadException;
+import com.dropbox.core.v1.DbxDelta;
+import com.dropbox.core.v1.DbxEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways the SDK parses its largest payloads, {@code list_folder} pages and v1 {@code
+ * delta} pages, with the {@link com.dropbox.core.json.DbxJson shared factory}: from UTF-8 bytes
+ * already in memory, from a stream, and from a decoded {@code String}, the path taken by JSON
+ * libraries that only parse {@code char}s.
+ */
+public class JsonParsingBench
+{
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Pages
+    {
+        @Param({"2000"})
+        public int entries;
+
+        private byte[] listFolderJson;
+        private byte[] deltaJson;
+
+        @Setup
+        public void setUp() throws IOException
+        {
+            listFolderJson = listFolderJson(entries);
+            deltaJson = deltaJson(entries);
+        }
+
+        @Benchmark
+        public ListFolderResult listFolderFromStream() throws IOException
+        {
+            return ListFolderResult.Serializer.INSTANCE.deserialize(new ByteArrayInputStream(listFolderJson));
+        }
+
+        @Benchmark
+        public ListFolderResult listFolderFromBytes() throws IOException
+        {
+            return ListFolderResult.Serializer.INSTANCE.deserialize(listFolderJson);
+        }
+
+        @Benchmark
+        public ListFolderResult listFolderFromChars() throws IOException
+        {
+            return ListFolderResult.Serializer.INSTANCE.deserialize(new String(listFolderJson, "UTF-8"));
+        }
+
+        @Benchmark
+        public DbxDelta<DbxEntry> deltaFromBytes() throws JsonReadException
+        {
+            return new DbxDelta.Reader<DbxEntry>(DbxEntry.Reader).readFully(deltaJson);
+        }
+
+        @Benchmark
+        public DbxDelta<DbxEntry> deltaFromChars() throws IOException, JsonReadException
+        {
+            return new DbxDelta.Reader<DbxEntry>(DbxEntry.Reader).readFully(new String(deltaJson, "UTF-8"));
+        }
+    }
+
+    private static byte[] listFolderJson(int entries) throws IOException
+    {
+        Date modified = new Date(1456169040000L);
+        List<Metadata> page = new ArrayList<Metadata>(entries);
+        for (int i = 0; i < entries; i++) {
+            String path = "/Photos/" + (i / 100) + "/IMG_" + i + ".jpg";
+            page.add(FileMetadata.newBuilder("IMG_" + i + ".jpg", "id:a4ayc_80_OEAAAAAAAA" + i, modified, modified, "0" + Integer.toHexString(i) + "1c10ce0dd78", 7212 + i)
+                .withPathLower(path.toLowerCase())
+                .withPathDisplay(path)
+                .withContentHash("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+                .build());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ListFolderResult.Serializer.INSTANCE.serialize(new ListFolderResult(page, "AAGvBPkDrJFh2JmJDiV1LClB8jLWdcXKd0JsYnnw0mfcMeA4rTkU8WT", true), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] deltaJson(int entries) throws IOException
+    {
+        StringBuilder json = new StringBuilder("{\"reset\": false, \"cursor\": \"AAGvBPkDrJFh2JmJ\", \"has_more\": true, \"entries\": [");
+        for (int i = 0; i < entries; i++) {
+            String path = "/Photos/" + (i / 100) + "/IMG_" + i + ".jpg";
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("[\"").append(path.toLowerCase()).append("\", {\"bytes\": ").append(7212 + i)
+                .append(", \"rev\": \"").append(Integer.toHexString(i)).append("1c10ce0dd78\", \"thumb_exists\": true,")
+                .append(" \"modified\": \"Thu, 11 Apr 2013 17:05:17 +0000\", \"client_mtime\": \"Thu, 11 Apr 2013 17:05:17 +0000\",")
+                .append(" \"size\": \"7 KB\", \"path\": \"").append(path).append("\", \"is_dir\": false, \"root\": \"dropbox\",")
+                .append(" \"icon\": \"page_white_picture\"}]");
+        }
+        json.append("]}");
+        return json.toString().getBytes("UTF-8");
+    }
+}
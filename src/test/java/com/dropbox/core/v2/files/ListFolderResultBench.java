@@ -0,0 +1,104 @@
+package com.dropbox.core.v2.files;
+
+import com.dropbox.core.json.DbxJson;
+import com.fasterxml.jackson.core.JsonFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generated serializer cost for {@code list_folder} pages, from a typical page up to the largest
+ * page Dropbox returns.
+ */
+public class ListFolderResultBench
+{
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Codec
+    {
+        @Param({"100", "2000"})
+        public int entries;
+
+        // "default" is DbxJson.newFactory(), "plain" a factory without field name
+        // canonicalization or buffer recycling, as every parser had before the shared factory
+        @Param({"default", "plain"})
+        public String factory;
+
+        private ListFolderResult result;
+        private byte[] json;
+
+        @Setup
+        public void setUp() throws IOException
+        {
+            if (factory.equals("plain")) {
+                JsonFactory plain = DbxJson.newFactory();
+                plain.disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
+                plain.disable(JsonFactory.Feature.USE_THREAD_LOCAL_FOR_BUFFER_RECYCLING);
+                DbxJson.setFactory(plain);
+            } else {
+                DbxJson.setFactory(DbxJson.newFactory());
+            }
+
+            Date modified = new Date(1456169040000L);
+            List<Metadata> page = new ArrayList<Metadata>(entries);
+            for (int i = 0; i < entries; i++) {
+                String folder = "/Photos/" + (i / 100);
+                if (i % 100 == 0) {
+                    page.add(FolderMetadata.newBuilder(Integer.toString(i / 100), "id:f" + i)
+                        .withPathLower(folder.toLowerCase())
+                        .withPathDisplay(folder)
+                        .build());
+                }
+                String path = folder + "/IMG_" + i + ".jpg";
+                page.add(FileMetadata.newBuilder("IMG_" + i + ".jpg", "id:a4ayc_80_OEAAAAAAAA" + i, modified, modified, "0" + Integer.toHexString(i) + "1c10ce0dd78", 7212 + i)
+                    .withPathLower(path.toLowerCase())
+                    .withPathDisplay(path)
+                    .withContentHash("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+                    .build());
+            }
+            result = new ListFolderResult(page, "AAGvBPkDrJFh2JmJDiV1LClB8jLWdcXKd0JsYnnw0mfcMeA4rTkU8WT-NSeYxKZ7M63pMfTlZhTyr6c0HZsfZI4g", true);
+            json = encode();
+        }
+
+        @Benchmark
+        public byte[] encode() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ListFolderResult.Serializer.INSTANCE.serialize(result, out);
+            return out.toByteArray();
+        }
+
+        @Benchmark
+        public ListFolderResult decode() throws IOException
+        {
+            return ListFolderResult.Serializer.INSTANCE.deserialize(new ByteArrayInputStream(json));
+        }
+
+        @Benchmark
+        public ListFolderResult decodeBytes() throws IOException
+        {
+            return ListFolderResult.Serializer.INSTANCE.deserialize(json);
+        }
+    }
+}
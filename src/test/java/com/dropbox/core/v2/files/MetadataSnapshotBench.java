@@ -0,0 +1,111 @@
+package com.dropbox.core.v2.files;
+
+import com.dropbox.core.util.SnapshotReader;
+import com.dropbox.core.util.SnapshotWriter;
+import com.dropbox.core.v2.DbxMetadataSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of storing and reloading a large folder tree as a {@link DbxMetadataSnapshot}, compared to
+ * the generated JSON serializer for the same entries. The files are in a shared folder, so both
+ * formats carry sharing info.
+ */
+public class MetadataSnapshotBench
+{
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    public static class Codec
+    {
+        @Param({"1000000"})
+        public int entries;
+
+        private List<Metadata> tree;
+        private ListFolderResult result;
+        private byte[] snapshot;
+        private byte[] json;
+
+        @Setup
+        public void setUp() throws IOException
+        {
+            Date modified = new Date(1456169040000L);
+            tree = new ArrayList<Metadata>(entries + entries / 1000);
+            for (int i = 0; i < entries; i++) {
+                String folder = "/Photos/" + (i / 100000) + "/" + (i / 1000);
+                if (i % 1000 == 0) {
+                    tree.add(FolderMetadata.newBuilder(Integer.toString(i / 1000), "id:f" + i)
+                        .withPathLower(folder.toLowerCase(Locale.ROOT))
+                        .withPathDisplay(folder)
+                        .build());
+                }
+                String path = folder + "/IMG_" + i + ".jpg";
+                tree.add(FileMetadata.newBuilder("IMG_" + i + ".jpg", "id:a4ayc_80_OEAAAAAAAA" + i, modified, modified, "0" + Integer.toHexString(i) + "1c10ce0dd78", 7212 + i)
+                    .withPathLower(path.toLowerCase(Locale.ROOT))
+                    .withPathDisplay(path)
+                    .withParentSharedFolderId("84528192421")
+                    .withSharingInfo(new FileSharingInfo(false, "84528192421", "dbid:AAH4f99T0taONIb-OurWxbNQ6ywGRopQngc"))
+                    .withContentHash("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855")
+                    .build());
+            }
+            result = new ListFolderResult(tree, "AAGvBPkDrJFh2JmJDiV1LClB8jLWdcXKd0JsYnnw0mfcMeA4rTkU8WT-NSeYxKZ7M63pMfTlZhTyr6c0HZsfZI4g", false);
+            snapshot = writeSnapshot();
+            json = writeJson();
+        }
+
+        @Benchmark
+        public byte[] writeSnapshot() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            DbxMetadataSnapshot.writeAll(new SnapshotWriter(out), tree);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        @Benchmark
+        public List<Metadata> readSnapshot() throws IOException
+        {
+            SnapshotReader in = new SnapshotReader(new DataInputStream(new ByteArrayInputStream(snapshot)));
+            return DbxMetadataSnapshot.readAll(in);
+        }
+
+        @Benchmark
+        public byte[] writeJson() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ListFolderResult.Serializer.INSTANCE.serialize(result, out);
+            return out.toByteArray();
+        }
+
+        @Benchmark
+        public ListFolderResult readJson() throws IOException
+        {
+            return ListFolderResult.Serializer.INSTANCE.deserialize(new ByteArrayInputStream(json));
+        }
+    }
+}
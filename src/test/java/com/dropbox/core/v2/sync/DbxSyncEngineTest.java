@@ -0,0 +1,304 @@
+package com.dropbox.core.v2.sync;
+
+import static org.testng.Assert.*;
+
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.util.IOUtil;
+import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.FakeFilesRequestor;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class DbxSyncEngineTest {
+    private File directory;
+    private File root;
+    private FakeFilesRequestor server;
+    private DbxClientV2 client;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = File.createTempFile("dbx-sync-engine", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        root = new File(directory, "root");
+
+        server = new FakeFilesRequestor();
+        server.setPageSize(3);
+        client = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build(),
+            "fakeAccessToken"
+        );
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+        delete(directory);
+    }
+
+    @Test
+    public void testInitialSyncMergesBothSides() throws Exception {
+        server.putFile("/Sync/remote.txt", bytes("from dropbox"));
+        server.putFile("/Sync/Photos/beach.jpg", bytes("jpeg"));
+        server.createFolder("/Sync/Empty");
+        writeLocal("/local.txt", "from disk");
+        writeLocal("/Notes/todo.txt", "buy milk");
+
+        DbxSyncEngine.Result result = newEngine(new DbxInMemorySyncStateStore()).sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(result.getDownloadCount(), 2);
+        assertEquals(result.getUploadCount(), 2);
+        assertEquals(readLocal("/remote.txt"), "from dropbox");
+        assertEquals(readLocal("/Photos/beach.jpg"), "jpeg");
+        assertTrue(new File(root, "Empty").isDirectory());
+        assertEquals(server.getContent("/Sync/local.txt"), bytes("from disk"));
+        assertEquals(server.getContent("/Sync/Notes/todo.txt"), bytes("buy milk"));
+    }
+
+    @Test
+    public void testSecondSyncTransfersNothing() throws Exception {
+        server.putFile("/Sync/remote.txt", bytes("from dropbox"));
+        writeLocal("/local.txt", "from disk");
+
+        DbxSyncEngine engine = newEngine(new DbxInMemorySyncStateStore());
+        engine.sync();
+        int uploads = server.getRequestCount("files/upload");
+        int downloads = server.getRequestCount("files/download");
+
+        DbxSyncEngine.Result result = engine.sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(result.getDownloadCount(), 0);
+        assertEquals(result.getUploadCount(), 0);
+        assertEquals(result.getHashCount(), 0);
+        assertEquals(server.getRequestCount("files/upload"), uploads);
+        assertEquals(server.getRequestCount("files/download"), downloads);
+        assertEquals(server.getRequestCount("files/list_folder"), 1);
+    }
+
+    @Test
+    public void testSameContentIsNotTransferred() throws Exception {
+        server.putFile("/Sync/same.txt", bytes("identical"));
+        writeLocal("/same.txt", "identical");
+
+        DbxSyncEngine.Result result = newEngine(new DbxInMemorySyncStateStore()).sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(result.getSkippedTransferCount(), 1);
+        assertEquals(server.getRequestCount("files/download"), 0);
+        assertEquals(server.getRequestCount("files/upload"), 0);
+    }
+
+    @Test
+    public void testIncrementalChangesAndDeletes() throws Exception {
+        server.putFile("/Sync/a.txt", bytes("a1"));
+        server.putFile("/Sync/Docs/old.txt", bytes("old"));
+        writeLocal("/b.txt", "b1");
+        writeLocal("/d.txt", "d1");
+
+        DbxSyncEngine engine = newEngine(new DbxInMemorySyncStateStore());
+        assertTrue(engine.sync().getFailures().isEmpty());
+
+        // remote: modify a file and delete a folder, then re-create a file below it
+        server.putFile("/Sync/a.txt", bytes("a2"));
+        server.delete("/Sync/Docs");
+        server.putFile("/Sync/Docs/new.txt", bytes("new"));
+        // local: delete, add and modify
+        assertTrue(new File(root, "b.txt").delete());
+        writeLocal("/c.txt", "c1");
+        writeLocal("/d.txt", "d2 is longer");
+
+        DbxSyncEngine.Result result = engine.sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(readLocal("/a.txt"), "a2");
+        assertFalse(new File(root, "Docs/old.txt").exists());
+        assertEquals(readLocal("/Docs/new.txt"), "new");
+        assertNull(server.getContent("/Sync/b.txt"));
+        assertEquals(server.getContent("/Sync/c.txt"), bytes("c1"));
+        assertEquals(server.getContent("/Sync/d.txt"), bytes("d2 is longer"));
+        assertEquals(result.getRemoteDeleteCount(), 1);
+        assertEquals(result.getLocalDeleteCount(), 1);
+        assertEquals(server.getRequestCount("files/list_folder"), 1);
+    }
+
+    @Test
+    public void testConflictKeepsLocalCopy() throws Exception {
+        server.putFile("/Sync/report.txt", bytes("v1"));
+        DbxSyncEngine engine = newEngine(new DbxInMemorySyncStateStore());
+        assertTrue(engine.sync().getFailures().isEmpty());
+
+        server.putFile("/Sync/report.txt", bytes("remote edit"));
+        writeLocal("/report.txt", "local edit");
+
+        DbxSyncEngine.Result result = engine.sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(result.getConflictCount(), 1);
+        assertEquals(readLocal("/report.txt"), "remote edit");
+        assertEquals(readLocal("/report (conflicted copy).txt"), "local edit");
+        assertEquals(server.getContent("/Sync/report.txt"), bytes("remote edit"));
+        assertEquals(server.getContent("/Sync/report (conflicted copy).txt"), bytes("local edit"));
+    }
+
+    @Test
+    public void testLargeFileUsesUploadSession() throws Exception {
+        byte [] content = new byte[(int) (2 * DbxSyncEngine.UPLOAD_CHUNK_SIZE + 1024)];
+        new Random(42).nextBytes(content);
+        File file = new File(root, "big.bin");
+        root.mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        DbxSyncEngine.Result result = newEngine(new DbxInMemorySyncStateStore()).sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(server.getRequestCount("files/upload_session/start"), 1);
+        assertEquals(server.getRequestCount("files/upload_session/append_v2"), 1);
+        assertEquals(server.getRequestCount("files/upload_session/finish"), 1);
+        assertEquals(server.getRequestCount("files/upload"), 0);
+        assertTrue(Arrays.equals(server.getContent("/Sync/big.bin"), content));
+    }
+
+    @Test
+    public void testStateSurvivesRestart() throws Exception {
+        File stateFile = new File(directory, "state.json");
+        server.putFile("/Sync/a.txt", bytes("a1"));
+        writeLocal("/b.txt", "b1");
+        assertTrue(newEngine(DbxFileSyncStateStore.load(stateFile)).sync().getFailures().isEmpty());
+
+        server.putFile("/Sync/c.txt", bytes("c1"));
+
+        DbxSyncEngine.Result result = newEngine(DbxFileSyncStateStore.load(stateFile)).sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(result.getDownloadCount(), 1);
+        assertEquals(result.getUploadCount(), 0);
+        assertEquals(result.getHashCount(), 0);
+        assertEquals(readLocal("/c.txt"), "c1");
+        assertEquals(server.getRequestCount("files/list_folder"), 1);
+    }
+
+    @Test
+    public void testInterruptedFlushKeepsPreviousState() throws Exception {
+        File stateFile = new File(directory, "state.json");
+        server.putFile("/Sync/a.txt", bytes("a1"));
+        assertTrue(newEngine(DbxFileSyncStateStore.load(stateFile)).sync().getFailures().isEmpty());
+
+        // a crash after the previous state was moved aside, before the new one was in place
+        assertTrue(stateFile.renameTo(new File(directory, "state.json.bak")));
+
+        DbxFileSyncStateStore state = DbxFileSyncStateStore.load(stateFile);
+        assertNotNull(state.get("/a.txt"));
+        DbxSyncEngine.Result result = newEngine(state).sync();
+
+        assertTrue(result.getFailures().isEmpty(), result.getFailures().toString());
+        assertEquals(result.getDownloadCount(), 0);
+        assertTrue(stateFile.exists());
+    }
+
+    @Test
+    public void testUncheckedFailureOnlyFailsItsPath() throws Exception {
+        server = new FakeFilesRequestor() {
+            @Override
+            protected Response handle(String route, Map<String, String> headers, byte [] body) throws IOException {
+                String arg = headers.get("Dropbox-API-Arg");
+                if (route.equals("files/download") && arg != null && arg.contains("bad.txt")) {
+                    throw new IllegalStateException("malformed response");
+                }
+                return super.handle(route, headers, body);
+            }
+        };
+        client = new DbxClientV2(
+            DbxRequestConfig.newBuilder("sdk-test").withHttpRequestor(server).build(),
+            "fakeAccessToken"
+        );
+        server.putFile("/Sync/bad.txt", bytes("bad"));
+        server.putFile("/Sync/good.txt", bytes("good"));
+
+        DbxSyncEngine.Result result = newEngine(new DbxInMemorySyncStateStore()).sync();
+
+        assertEquals(result.getFailures().size(), 1, result.getFailures().toString());
+        Exception failure = result.getFailures().values().iterator().next();
+        assertTrue(failure instanceof IllegalStateException, failure.toString());
+        assertEquals(result.getDownloadCount(), 1);
+        assertEquals(readLocal("/good.txt"), "good");
+    }
+
+    @Test
+    public void testContentHashOfEmptyAndMultiBlockContent() throws Exception {
+        assertEquals(DbxContentHasher.hash(new byte[0]),
+                     "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+
+        byte [] content = new byte[DbxContentHasher.BLOCK_SIZE * 2 + 17];
+        new Random(7).nextBytes(content);
+        DbxContentHasher hasher = new DbxContentHasher();
+        for (int offset = 0; offset < content.length; offset += 1000003) {
+            hasher.update(content, offset, Math.min(1000003, content.length - offset));
+        }
+        assertEquals(hasher.finish(), DbxContentHasher.hash(content));
+    }
+
+    private DbxSyncEngine newEngine(DbxSyncStateStore state) {
+        return new DbxSyncEngine(client, "/Sync", new DbxLocalDirectory(root), state, executor);
+    }
+
+    private void writeLocal(String path, String content) throws IOException {
+        File file = new File(root, path.substring(1));
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes(content));
+        } finally {
+            out.close();
+        }
+    }
+
+    private String readLocal(String path) throws IOException {
+        InputStream in = new FileInputStream(new File(root, path.substring(1)));
+        try {
+            return IOUtil.toUtf8String(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte [] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static void delete(File file) {
+        File [] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,86 @@
+package com.dropbox.core.v2.team;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generated serializer cost for {@code team/members/list} pages of {@link TeamMemberInfo}.
+ */
+public class MembersListResultBench
+{
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class Codec
+    {
+        @Param({"100", "1000"})
+        public int members;
+
+        private byte[] json;
+        private MembersListResult result;
+
+        @Setup
+        public void setUp() throws IOException
+        {
+            // built as JSON text, like the server sends it, then round tripped once so that
+            // encode() starts from fully populated objects
+            StringBuilder page = new StringBuilder("{\"members\": [");
+            for (int i = 0; i < members; i++) {
+                if (i > 0) {
+                    page.append(", ");
+                }
+                page.append("{\"profile\": {")
+                    .append("\"team_member_id\": \"dbmid:AAHhy7WsR0x-u4ZCqiDl5Fz5zvuL3kmspwU").append(i).append("\", ")
+                    .append("\"account_id\": \"dbid:AAH4f99T0taONIb-OurWxbNQ6ywGRopQngc").append(i).append("\", ")
+                    .append("\"email\": \"member").append(i).append("@example.com\", ")
+                    .append("\"email_verified\": true, ")
+                    .append("\"status\": {\".tag\": \"active\"}, ")
+                    .append("\"name\": {")
+                    .append("\"given_name\": \"Franz\", \"surname\": \"Ferdinand").append(i).append("\", ")
+                    .append("\"familiar_name\": \"Franz\", \"display_name\": \"Franz Ferdinand").append(i).append("\", ")
+                    .append("\"abbreviated_name\": \"FF\"}, ")
+                    .append("\"membership_type\": {\".tag\": \"full\"}, ")
+                    .append("\"groups\": [\"g:e2db7665347abcd600000000001a2b3c\"], ")
+                    .append("\"joined_on\": \"2015-05-12T15:50:38Z\", ")
+                    .append("\"external_id\": \"244423\"")
+                    .append("}, \"role\": {\".tag\": \"member_only\"}}");
+            }
+            page.append("], \"cursor\": \"ZtkX9_EHj3x7PMkVuFIhwKYXEpwpLwyxp9vMKomUhllil9q7eWiAu\", \"has_more\": true}");
+
+            result = MembersListResult.Serializer.INSTANCE.deserialize(
+                new ByteArrayInputStream(page.toString().getBytes("UTF-8")));
+            json = encode();
+        }
+
+        @Benchmark
+        public byte[] encode() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MembersListResult.Serializer.INSTANCE.serialize(result, out);
+            return out.toByteArray();
+        }
+
+        @Benchmark
+        public MembersListResult decode() throws IOException
+        {
+            return MembersListResult.Serializer.INSTANCE.deserialize(new ByteArrayInputStream(json));
+        }
+    }
+}